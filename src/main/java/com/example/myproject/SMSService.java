@@ -1,17 +1,17 @@
 package com.example.myproject;
 
 import com.example.myproject.domain.*;
-import com.example.myproject.domain.enumeration.Channel;
 import com.example.myproject.repository.*;
 import com.example.myproject.security.SecurityUtils;
-import com.example.myproject.service.ChannelConfigurationService;
+import com.example.myproject.service.SmppSessionPool;
+import com.example.myproject.service.SmsRoutingTable;
 import com.example.myproject.web.rest.dto.SendResult;
 import com.example.myproject.web.rest.dto.SmsSendResult;
 import com.example.myproject.web.rest.dto.SmsStatusResult;
 import jakarta.annotation.PostConstruct;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import org.apache.camel.*;
 import org.apache.camel.builder.ExchangeBuilder;
 import org.slf4j.Logger;
@@ -33,13 +33,13 @@ public class SMSService {
     private ProducerTemplate template;
 
     @Autowired
-    private ChannelConfigurationRepository channelConfigurationRepository;
+    private SmsRoutingTable smsRoutingTable;
 
     @Autowired
-    private ChannelConfigurationService channelConfigurationService;
+    private ChatRepository chatRepository;
 
     @Autowired
-    private ChatRepository chatRepository;
+    private SmppSessionPool smppSessionPool;
 
     private final SmsRepository smsRepository;
     private final SendSmsRepository sendSmsRepository;
@@ -47,9 +47,6 @@ public class SMSService {
     @Value("${sms.fast-mode:true}")
     private boolean fastMode;
 
-    @Value("${dlr.base-url:https://votre-serveur.com}")
-    private String dlrBaseUrl;
-
     public SMSService(SmsRepository smsRepository, SendSmsRepository sendSmsRepository) {
         this.smsRepository = smsRepository;
         this.sendSmsRepository = sendSmsRepository;
@@ -63,12 +60,35 @@ public class SMSService {
 
     private String formatPhoneNumber(String phoneNumber) {
         if (phoneNumber == null) return null;
-        return phoneNumber.replaceAll("[\\s\\-\\(\\)\\+]", "");
+        StringBuilder sb = new StringBuilder(phoneNumber.length());
+        for (int i = 0; i < phoneNumber.length(); i++) {
+            char c = phoneNumber.charAt(i);
+            if (!Character.isWhitespace(c) && c != '-' && c != '(' && c != ')' && c != '+') {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String digitsOnly(String value) {
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= '0' && c <= '9') {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
     }
 
     private boolean containsUnicodeCharacters(String message) {
         if (message == null) return false;
-        return message.chars().anyMatch(c -> c > 127);
+        for (int i = 0; i < message.length(); i++) {
+            if (message.charAt(i) > 127) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private int getDataCoding(String message) {
@@ -76,100 +96,77 @@ public class SMSService {
     }
 
     private boolean isValidPhoneNumber(String phoneNumber) {
-        return phoneNumber != null && phoneNumber.matches("^[0-9]{8,15}$");
-    }
-
-    private String buildDlrCallbackUrl() {
-        return dlrBaseUrl + "/api/sms-dlr/callback" + "?msgid=%I&status=%d&phone=%p&ts=%t&smsc=%A&err=%e";
+        if (phoneNumber == null || phoneNumber.length() < 8 || phoneNumber.length() > 15) return false;
+        for (int i = 0; i < phoneNumber.length(); i++) {
+            char c = phoneNumber.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+        return true;
     }
 
-    private String extractMessageId(Exchange exchange) {
-        Object messageIdObj = exchange.getMessage().getHeader("CamelSmppId");
-
-        if (messageIdObj instanceof List<?> list) {
-            return list.isEmpty() ? null : list.get(0).toString();
+    /**
+     * Sender alphanumérique (2 à 11 caractères, au moins une lettre) → TON 5 / NPI 0.
+     */
+    private boolean isAlphanumericSender(String source) {
+        if (source.length() < 2 || source.length() > 11) return false;
+        boolean hasLetter = false;
+        for (int i = 0; i < source.length(); i++) {
+            char c = source.charAt(i);
+            boolean letter = (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+            if (!letter && (c < '0' || c > '9')) return false;
+            hasLetter |= letter;
         }
-        return messageIdObj == null ? null : messageIdObj.toString();
+        return hasLetter;
     }
 
     //  ROUTING OPERATEUR
 
-    private ChannelConfiguration getSmsConfigForNumber(String destinationNumber, String login) {
-        String digitsOnly = destinationNumber.replaceAll("\\D", "");
+    private SmsRoutingTable.OperatorBinding getSmsRouteForNumber(String destinationNumber, String login) {
+        String digits = digitsOnly(destinationNumber);
 
         // Normalisation (00222 -> 222)
-        if (digitsOnly.startsWith("00222")) {
-            digitsOnly = digitsOnly.substring(2);
+        if (digits.startsWith("00222")) {
+            digits = digits.substring(2);
         }
 
         // Enlever indicatif pays pour analyse
-        String localNumber = digitsOnly.startsWith("222") ? digitsOnly.substring(3) : digitsOnly;
+        int localStart = digits.startsWith("222") ? 3 : 0;
 
-        if (localNumber.length() < 8) {
+        if (digits.length() - localStart < 8) {
             throw new RuntimeException("Numéro trop court: " + destinationNumber);
         }
 
-        char prefix = localNumber.charAt(0);
-
-        List<String> preferredOperators = new ArrayList<>();
-
-        // ROUTING Mauritanie
-        if (prefix == '2') {
-            preferredOperators.add("Chinguitel");
-            preferredOperators.add("Mattel");
-        } else if (prefix == '3' || prefix == '4') {
-            preferredOperators.add("Mattel");
-            preferredOperators.add("Chinguitel");
-        } else {
-            throw new RuntimeException("Préfixe non supporté: " + destinationNumber);
-        }
-
-        for (String operator : preferredOperators) {
-            log.debug("Routing {} -> {}", destinationNumber, operator);
-
-            Optional<ChannelConfiguration> cfg = channelConfigurationRepository.findByUserLoginAndChannelTypeAndSmsOperator(
-                login,
-                Channel.SMS,
-                operator
-            );
-
-            if (cfg.isEmpty()) {
-                cfg = channelConfigurationRepository.findByUserLoginAndChannelTypeAndSmsOperator("admin", Channel.SMS, operator);
-            }
-
-            if (cfg.isPresent()) {
-                return cfg.get();
-            }
-        }
-
-        throw new RuntimeException("Aucune config SMS pour " + destinationNumber);
+        return smsRoutingTable.resolve(login, digits.charAt(localStart));
     }
 
     // ENVOI SMS
     public SendResult sendSmsWithRouting(String sourceAddress, String destinationAddress, String message, String login) {
+        return sendSmsWithRoutingAsync(sourceAddress, destinationAddress, message, login).join();
+    }
+
+    /**
+     * Envoi via le pool de sessions SMPP : les variantes de numéro sont tentées l'une après
+     * l'autre sans bloquer l'appelant (seule une fenêtre pleine le fait attendre).
+     */
+    public CompletableFuture<SendResult> sendSmsWithRoutingAsync(
+        String sourceAddress,
+        String destinationAddress,
+        String message,
+        String login
+    ) {
         try {
-            ChannelConfiguration cfg = getSmsConfigForNumber(destinationAddress, login);
+            SmsRoutingTable.OperatorBinding route = getSmsRouteForNumber(destinationAddress, login);
 
-            if (!Boolean.TRUE.equals(cfg.getVerified())) {
-                return SendResult.fail("Configuration non vérifiée", null);
+            if (!route.verified()) {
+                return CompletableFuture.completedFuture(SendResult.fail("Configuration non vérifiée", null));
             }
 
-            String password = channelConfigurationService.decryptPassword(cfg);
-
-            String smppUri = String.format(
-                "smpp://%s:%d?systemId=%s&password=%s&enquireLinkTimer=5000&transactionTimer=10000",
-                cfg.getHost(),
-                cfg.getPort(),
-                cfg.getUsername(),
-                password
-            );
-
             // FORMAT (ancienne logique conservée)
             String source = formatPhoneNumber(sourceAddress);
             String destOriginal = formatPhoneNumber(destinationAddress);
 
             if (!isValidPhoneNumber(destOriginal)) {
-                return SendResult.fail("Numéro invalide: " + destOriginal, null);
+                return CompletableFuture.completedFuture(SendResult.fail("Numéro invalide: " + destOriginal, null));
             }
 
             // =========================
@@ -177,7 +174,7 @@ public class SMSService {
             // =========================
             List<String> destVariants = new ArrayList<>();
 
-            String digits = destOriginal.replaceAll("\\D", "");
+            String digits = destOriginal;
 
             if (digits.startsWith("00222")) {
                 digits = digits.substring(2);
@@ -192,81 +189,65 @@ public class SMSService {
                 destVariants.add(digits);
             }
 
-            log.info("Envoi SMS vers {} via {} | variants={}", destinationAddress, cfg.getSmsOperator(), destVariants);
+            log.info("Envoi SMS vers {} via {} | variants={}", destinationAddress, route.operator(), destVariants);
 
             int dataCoding = getDataCoding(message);
 
             // Source TON/NPI
             int srcTon = 1, srcNpi = 1;
 
-            if (source.matches("^[A-Za-z0-9]{2,11}$") && source.matches(".*[A-Za-z].*")) {
+            if (isAlphanumericSender(source)) {
                 srcTon = 5;
                 srcNpi = 0;
             }
 
-            // =========================
-            // TEST DES VARIANTS
-            // =========================
+            List<SmppSessionPool.SmppSubmit> attempts = new ArrayList<>();
             for (String dest : destVariants) {
-                try {
-                    int destTon;
-                    int destNpi = 1;
-
-                    // TON dynamique
-                    if (dest.startsWith("222")) {
-                        destTon = 1; // international
-                    } else {
-                        destTon = 0; // national
-                    }
-
-                    // Ajustement Mattel
-                    if ("Mattel".equalsIgnoreCase(cfg.getSmsOperator()) && !dest.startsWith("222")) {
-                        destTon = 0;
-                    }
-
-                    log.info("Tentative SMS -> {} (TON={},NPI={})", dest, destTon, destNpi);
-
-                    Exchange exchange = ExchangeBuilder.anExchange(context)
-                        .withHeader("CamelSmppDestAddr", List.of(dest))
-                        .withHeader("CamelSmppSourceAddr", source)
-                        .withHeader("CamelSmppDestAddrTon", destTon)
-                        .withHeader("CamelSmppDestAddrNpi", destNpi)
-                        .withHeader("CamelSmppSourceAddrTon", srcTon)
-                        .withHeader("CamelSmppSourceAddrNpi", srcNpi)
-                        .withHeader("CamelSmppDataCoding", dataCoding)
-                        .withHeader("CamelSmppAlphabet", dataCoding == 8 ? 8 : 0)
-                        .withHeader("CamelSmppRegisteredDelivery", 1)
-                        .withHeader("CamelSmppProtocolId", 0)
-                        .withHeader("CamelSmppEsmClass", 0)
-                        .withHeader("CamelSmppPriorityFlag", 0)
-                        .withHeader("CamelSmppDlrUrl", buildDlrCallbackUrl())
-                        .withPattern(ExchangePattern.InOnly)
-                        .withBody(message)
-                        .build();
-
-                    exchange = template.send(smppUri, exchange);
-
-                    if (exchange.getException() != null) {
-                        log.warn("Echec {} -> {}", dest, exchange.getException().getMessage());
-                        continue;
-                    }
-
-                    String messageId = extractMessageId(exchange);
-
-                    if (messageId != null && !messageId.isEmpty()) {
-                        log.info("SMS envoyé avec succès via {} -> {} (msgId={})", cfg.getSmsOperator(), dest, messageId);
-                        return SendResult.ok(messageId);
-                    }
-                } catch (Exception e) {
-                    log.warn("Erreur tentative {} : {}", dest, e.getMessage());
-                }
+                int destNpi = 1;
+
+                // TON dynamique : international si indicatif, national sinon (Mattel compris)
+                int destTon = dest.startsWith("222") ? 1 : 0;
+
+                attempts.add(new SmppSessionPool.SmppSubmit(source, srcTon, srcNpi, dest, destTon, destNpi, dataCoding, message));
             }
 
-            return SendResult.fail("Echec envoi sur tous les formats", null);
+            // =========================
+            // TEST DES VARIANTS
+            // =========================
+            return submitVariant(route.endpoint(), route.operator(), attempts, 0);
         } catch (Exception e) {
             log.error("Erreur envoi SMS {} -> {} : {}", sourceAddress, destinationAddress, e.getMessage(), e);
-            return SendResult.fail(e.getMessage(), null);
+            return CompletableFuture.completedFuture(SendResult.fail(e.getMessage(), null));
+        }
+    }
+
+    private CompletableFuture<SendResult> submitVariant(
+        SmppSessionPool.SmppEndpoint endpoint,
+        String operator,
+        List<SmppSessionPool.SmppSubmit> attempts,
+        int index
+    ) {
+        if (index >= attempts.size()) {
+            return CompletableFuture.completedFuture(SendResult.fail("Echec envoi sur tous les formats", null));
         }
+
+        SmppSessionPool.SmppSubmit attempt = attempts.get(index);
+        log.info("Tentative SMS -> {} (TON={},NPI={})", attempt.destination(), attempt.destTon(), attempt.destNpi());
+
+        return smppSessionPool
+            .submitAsync(endpoint, attempt)
+            .thenCompose(result -> {
+                if (result.isSuccess() && result.getMessageId() != null && !result.getMessageId().isEmpty()) {
+                    log.info("SMS envoyé avec succès via {} -> {} (msgId={})", operator, attempt.destination(), result.getMessageId());
+                    return CompletableFuture.completedFuture(result);
+                }
+                if (result.isRetryable()) {
+                    // Liaison indisponible : inutile d'essayer les autres formats de numéro
+                    return CompletableFuture.completedFuture(result);
+                }
+                log.warn("Echec {} -> {}", attempt.destination(), result.getError());
+                return submitVariant(endpoint, operator, attempts, index + 1);
+            });
     }
 
     // COMPATIBILITE
@@ -279,6 +260,10 @@ public class SMSService {
         return sendSmsWithRouting(sourceAddress, destinationAddress, message, login);
     }
 
+    public CompletableFuture<SendResult> goforSendAsync(String sourceAddress, String destinationAddress, String message, String login) {
+        return sendSmsWithRoutingAsync(sourceAddress, destinationAddress, message, login);
+    }
+
     public SendResult goforSendFastResult(String sourceAddress, String destinationAddress, String message) {
         return sendSmsWithRouting(sourceAddress, destinationAddress, message);
     }
@@ -374,8 +359,7 @@ public class SMSService {
     public boolean executeAndLog(Sms sendSms, String numero, String login) {
         try {
             // Déterminer la config et l'opérateur utilisé
-            ChannelConfiguration cfg = getSmsConfigForNumber(numero, login);
-            String operator = cfg.getSmsOperator(); // Assurez-vous que ChannelConfiguration a ce champ
+            String operator = getSmsRouteForNumber(numero, login).operator();
 
             log.info("Envoi du SMS #{} à {} via l'opérateur {}", sendSms.getId(), numero, operator);
 
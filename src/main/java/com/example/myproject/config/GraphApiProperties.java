@@ -15,6 +15,19 @@ public class GraphApiProperties {
     private String webhookCallbackUrl = "https://supreme-smoothly-ghost.ngrok-free.app/api/webhook";
     private String webhookVerifyToken = "HJSDHJSYYUHDJHJJH563265637276ghghghhg";
 
+    /**
+     * Client HTTP partagé (GraphApiClient) : timeouts, requêtes simultanées, threads d'E/S
+     */
+    private int connectTimeoutMs = 10000;
+    private int readTimeoutMs = 30000;
+    private int maxConcurrentRequests = 100;
+    private int ioThreads = 8;
+
+    /**
+     * Requêtes asynchrones simultanées (moteur bulk), bornées séparément des appels synchrones
+     */
+    private int maxConcurrentAsyncRequests = 200;
+
     public String getBaseUrl() {
         return baseUrl;
     }
@@ -38,4 +51,44 @@ public class GraphApiProperties {
     public void setWebhookVerifyToken(String webhookVerifyToken) {
         this.webhookVerifyToken = webhookVerifyToken;
     }
+
+    public int getConnectTimeoutMs() {
+        return connectTimeoutMs;
+    }
+
+    public void setConnectTimeoutMs(int connectTimeoutMs) {
+        this.connectTimeoutMs = connectTimeoutMs;
+    }
+
+    public int getReadTimeoutMs() {
+        return readTimeoutMs;
+    }
+
+    public void setReadTimeoutMs(int readTimeoutMs) {
+        this.readTimeoutMs = readTimeoutMs;
+    }
+
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+        this.maxConcurrentRequests = maxConcurrentRequests;
+    }
+
+    public int getMaxConcurrentAsyncRequests() {
+        return maxConcurrentAsyncRequests;
+    }
+
+    public void setMaxConcurrentAsyncRequests(int maxConcurrentAsyncRequests) {
+        this.maxConcurrentAsyncRequests = maxConcurrentAsyncRequests;
+    }
+
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    public void setIoThreads(int ioThreads) {
+        this.ioThreads = ioThreads;
+    }
 }
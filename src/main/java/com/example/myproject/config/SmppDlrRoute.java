@@ -51,7 +51,7 @@ public class SmppDlrRoute extends RouteBuilder {
                 String destAddr = exchange.getIn().getHeader("CamelSmppDestAddr", String.class);
                 String body = exchange.getIn().getBody(String.class);
 
-                log.info("📬 DLR: msgId={}, status={}, dest={}", messageId, status, destAddr);
+                log.debug("📬 DLR: msgId={}, status={}, dest={}", messageId, status, destAddr);
 
                 if (messageId != null) {
                     smsDlrService.processDlrFromSmpp(
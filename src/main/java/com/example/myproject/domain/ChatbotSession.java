@@ -1,5 +1,6 @@
 package com.example.myproject.domain;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
 import java.time.Instant;
 
@@ -25,6 +26,11 @@ public class ChatbotSession {
     @Column(name = "variables", columnDefinition = "TEXT")
     private String variables; // JSON des variables utilisateur
 
+    // Variables désérialisées pendant le traitement d'un message (re-sérialisées une seule fois)
+    @Transient
+    @JsonIgnore
+    private SessionVariables variableStore;
+
     @Column(name = "last_interaction")
     private Instant lastInteraction;
 
@@ -136,6 +142,15 @@ public class ChatbotSession {
 
     public void setVariables(String variables) {
         this.variables = variables;
+        this.variableStore = null;
+    }
+
+    public SessionVariables getVariableStore() {
+        return variableStore;
+    }
+
+    public void setVariableStore(SessionVariables variableStore) {
+        this.variableStore = variableStore;
     }
 
     public Instant getLastInteraction() {
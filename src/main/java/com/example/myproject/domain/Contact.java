@@ -3,6 +3,7 @@ package com.example.myproject.domain;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import jakarta.persistence.*;
 import java.io.Serializable;
+import java.time.Instant;
 import java.util.HashSet;
 import java.util.Set;
 import org.hibernate.annotations.Cache;
@@ -62,6 +63,10 @@ public class Contact implements Serializable {
     @Column(name = "has_whatsapp")
     private Boolean hasWhatsapp;
 
+    // Date de la dernière vérification has_whatsapp auprès de Meta (cache avec TTL)
+    @Column(name = "whatsapp_checked_at")
+    private Instant whatsappCheckedAt;
+
     @Column(name = "total_sms_sent")
     private Integer totalSmsSent = 0;
 
@@ -89,6 +94,14 @@ public class Contact implements Serializable {
         this.hasWhatsapp = hasWhatsapp;
     }
 
+    public Instant getWhatsappCheckedAt() {
+        return whatsappCheckedAt;
+    }
+
+    public void setWhatsappCheckedAt(Instant whatsappCheckedAt) {
+        this.whatsappCheckedAt = whatsappCheckedAt;
+    }
+
     public Integer getTotalSmsSent() {
         return totalSmsSent;
     }
@@ -0,0 +1,102 @@
+package com.example.myproject.domain;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Variables d'une {@link ChatbotSession} désérialisées : lectures typées sans re-parsing du JSON,
+ * suivi des modifications pour ne sérialiser qu'une fois, et seulement si nécessaire.
+ */
+public class SessionVariables {
+
+    private final Map<String, Object> values;
+    private boolean dirty;
+
+    public SessionVariables(Map<String, Object> values) {
+        this.values = values != null ? new LinkedHashMap<>(values) : new LinkedHashMap<>();
+    }
+
+    public Object get(String key) {
+        return values.get(key);
+    }
+
+    public String getString(String key, String defaultValue) {
+        Object value = values.get(key);
+        return value != null ? value.toString() : defaultValue;
+    }
+
+    public int getInt(String key, int defaultValue) {
+        Object value = values.get(key);
+        if (value instanceof Number number) return number.intValue();
+        if (value == null) return defaultValue;
+        try {
+            return Integer.parseInt(value.toString().trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        Object value = values.get(key);
+        if (value instanceof Boolean bool) return bool;
+        return value != null ? Boolean.parseBoolean(value.toString()) : defaultValue;
+    }
+
+    public boolean contains(String key) {
+        return values.containsKey(key);
+    }
+
+    public void put(String key, Object value) {
+        if (!values.containsKey(key) || !Objects.equals(values.get(key), value)) {
+            values.put(key, value);
+            dirty = true;
+        }
+    }
+
+    public void remove(String key) {
+        if (values.containsKey(key)) {
+            values.remove(key);
+            dirty = true;
+        }
+    }
+
+    /**
+     * Remplace tout le contenu (code qui travaille sur une copie de la map).
+     */
+    public void replaceAll(Map<String, Object> newValues) {
+        if (!values.equals(newValues)) {
+            values.clear();
+            values.putAll(newValues);
+            dirty = true;
+        }
+    }
+
+    /**
+     * Vue en lecture seule, sans copie.
+     */
+    public Map<String, Object> asMap() {
+        return Collections.unmodifiableMap(values);
+    }
+
+    /**
+     * Copie modifiable.
+     */
+    public Map<String, Object> snapshot() {
+        return new HashMap<>(values);
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    public void markClean() {
+        this.dirty = false;
+    }
+}
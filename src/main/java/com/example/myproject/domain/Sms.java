@@ -72,7 +72,8 @@ public class Sms {
     @Column(name = "last_error", columnDefinition = "TEXT")
     private String last_error;
 
-    @Column(name = "bulk_created_at")
+    // Clé de partition de sms : fixée à l'insertion
+    @Column(name = "bulk_created_at", nullable = false, updatable = false)
     private Instant bulkCreatedAt;
 
     @Enumerated(EnumType.STRING)
@@ -158,6 +159,13 @@ public class Sms {
         this.bulkCreatedAt = bulkCreatedAt;
     }
 
+    @PrePersist
+    public void prePersist() {
+        if (bulkCreatedAt == null) {
+            bulkCreatedAt = Instant.now();
+        }
+    }
+
     public void setSendDate(Instant sendDate) {
         this.sendDate = sendDate;
     }
@@ -1,5 +1,6 @@
 package com.example.myproject.domain;
 
+import com.example.myproject.service.TemplateCacheEvictionListener;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.NotNull;
@@ -7,6 +8,7 @@ import java.io.Serializable;
 
 @Entity
 @Table(name = "template")
+@EntityListeners(TemplateCacheEvictionListener.class)
 public class Template implements Serializable {
 
     private static final long serialVersionUID = 1L;
@@ -16,6 +16,9 @@ public interface ChatbotFlowRepository extends JpaRepository<ChatbotFlow, Long>
     // Un utilisateur = un seul flow
     Optional<ChatbotFlow> findByUserId(Long userId);
 
+    @Query("SELECT cf.version FROM ChatbotFlow cf WHERE cf.userId = :userId")
+    Optional<Integer> findVersionByUserId(@Param("userId") Long userId);
+
     @Modifying
     @Transactional
     @Query("UPDATE ChatbotFlow cf SET cf.active = false WHERE cf.userId = :userId")
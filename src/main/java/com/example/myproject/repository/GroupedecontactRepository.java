@@ -68,6 +68,18 @@ public interface GroupedecontactRepository extends JpaRepository<Groupedecontact
     )
     List<Contact> findAllContactsByGroupeId(@Param("groupeId") Long groupeId);
 
+    @Query(value = "SELECT COUNT(*) FROM groupedecontact g WHERE g.cgrgroupe_id = :groupeId", nativeQuery = true)
+    long countContactsByGroupeId(@Param("groupeId") Long groupeId);
+
+    // Lu en SQL : has_whatsapp est mis à jour en JDBC par WhatsAppVerificationService (hors cache Hibernate)
+    @Query(
+        value = "SELECT g.contact_id FROM groupedecontact g " +
+        "JOIN contact c ON c.id = g.contact_id " +
+        "WHERE g.cgrgroupe_id = :groupeId AND c.has_whatsapp = true",
+        nativeQuery = true
+    )
+    List<Long> findWhatsappContactIdsByGroupeId(@Param("groupeId") Long groupeId);
+
     @Modifying
     @Query("DELETE FROM Groupedecontact g WHERE g.cgrgroupe.id = :groupeId AND g.contact.id IN :contactIds")
     int deleteByGroupeIdAndContactIdIn(@Param("groupeId") Long groupeId, @Param("contactIds") List<Long> contactIds);
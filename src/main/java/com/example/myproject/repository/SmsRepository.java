@@ -167,27 +167,6 @@ public interface SmsRepository extends JpaRepository<Sms, Long> {
     @Query("SELECT s FROM Sms s WHERE s.messageId IS NULL AND s.status = 'PENDING'")
     List<Sms> findPendingSmsWithoutMessageId();
 
-    @Query(
-        value = """
-        SELECT s.* FROM sms s
-        WHERE s.send_sms_id = :bulkId
-        AND (CAST(:search AS TEXT) IS NULL OR LOWER(s.receiver) LIKE LOWER(CONCAT('%', CAST(:search AS TEXT), '%'))
-             OR LOWER(s.namereceiver) LIKE LOWER(CONCAT('%', CAST(:search AS TEXT), '%')))
-        AND (CAST(:deliveryStatus AS TEXT) IS NULL OR s.delivery_status = CAST(:deliveryStatus AS TEXT))
-        AND (CAST(:dateFrom AS TIMESTAMP) IS NULL OR s.send_date >= CAST(:dateFrom AS TIMESTAMP))
-        AND (CAST(:dateTo AS TIMESTAMP) IS NULL OR s.send_date <= CAST(:dateTo AS TIMESTAMP))
-        ORDER BY s.id DESC
-        """,
-        nativeQuery = true
-    )
-    List<Sms> findAllByBulkIdWithFilters(
-        @Param("bulkId") Long bulkId,
-        @Param("search") String search,
-        @Param("deliveryStatus") String deliveryStatus,
-        @Param("dateFrom") Instant dateFrom,
-        @Param("dateTo") Instant dateTo
-    );
-
     @Query(
         value = "SELECT s.* FROM sms s " +
         "WHERE s.bulk_id LIKE 'API_TOKEN_%' " +
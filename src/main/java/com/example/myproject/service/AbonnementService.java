@@ -3,7 +3,6 @@ package com.example.myproject.service;
 import com.example.myproject.domain.Abonnement;
 import com.example.myproject.domain.PlanAbonnement;
 import com.example.myproject.domain.User;
-import com.example.myproject.domain.enumeration.MessageType;
 import com.example.myproject.repository.AbonnementRepository;
 import com.example.myproject.repository.PlanabonnementRepository;
 import com.example.myproject.repository.UserRepository;
@@ -468,107 +467,6 @@ public class AbonnementService {
         return metrics;
     }
 
-    public void decrementQuotasAfterSend(List<Abonnement> subscriptions, MessageType messageType, int messageCount) {
-        int remainingToDecrement = messageCount;
-
-        for (Abonnement abonnement : subscriptions) {
-            if (remainingToDecrement <= 0) break;
-
-            // ✅ PAS DE VÉRIFICATION D'EXPIRATION - Les abonnements n'expirent jamais
-
-            if (messageType == MessageType.SMS && hasSmsPermission(abonnement)) {
-                remainingToDecrement = decrementSmsQuotaWithBonus(abonnement, remainingToDecrement);
-            } else if (messageType == MessageType.WHATSAPP && hasWhatsappPermission(abonnement)) {
-                remainingToDecrement = decrementWhatsappQuotaWithBonus(abonnement, remainingToDecrement);
-            }
-
-            abonnement.setUpdatedDate(Instant.now());
-        }
-
-        log.info("[DECREMENT-QUOTAS] Décrémentation terminée - Reste: {}", remainingToDecrement);
-    }
-
-    // Décrémenter le quota SMS avec gestion des bonus
-    public int decrementSmsQuotaWithBonus(Abonnement abonnement, int toDecrement) {
-        int remaining = toDecrement;
-
-        // 1. Décrémenter d'abord le quota principal
-        int currentUsed = abonnement.getSmsUsed() != null ? abonnement.getSmsUsed() : 0;
-        int mainQuota = getMainSmsQuota(abonnement);
-        int availableFromMain = Math.max(0, mainQuota - currentUsed);
-
-        if (availableFromMain > 0 && remaining > 0) {
-            int useFromMain = Math.min(remaining, availableFromMain);
-            abonnement.setSmsUsed(currentUsed + useFromMain);
-            remaining -= useFromMain;
-        }
-
-        // 2. Si il reste à décrémenter et qu'il y a des bonus
-        if (
-            remaining > 0 && abonnement.getBonusSmsEnabled() && abonnement.getBonusSmsAmount() != null && abonnement.getBonusSmsAmount() > 0
-        ) {
-            int useFromBonus = Math.min(remaining, abonnement.getBonusSmsAmount());
-            abonnement.setBonusSmsAmount(abonnement.getBonusSmsAmount() - useFromBonus);
-            remaining -= useFromBonus;
-        }
-
-        // 3. Si il reste à décrémenter et qu'il y a du carryover
-        if (
-            remaining > 0 &&
-            abonnement.getAllowSmsCarryover() &&
-            abonnement.getCarriedOverSms() != null &&
-            abonnement.getCarriedOverSms() > 0
-        ) {
-            int useFromCarryover = Math.min(remaining, abonnement.getCarriedOverSms());
-            abonnement.setCarriedOverSms(abonnement.getCarriedOverSms() - useFromCarryover);
-            remaining -= useFromCarryover;
-        }
-
-        return remaining;
-    }
-
-    // Décrémenter le quota WhatsApp avec gestion des bonus
-    public int decrementWhatsappQuotaWithBonus(Abonnement abonnement, int toDecrement) {
-        int remaining = toDecrement;
-
-        // 1. Décrémenter d'abord le quota principal
-        int currentUsed = abonnement.getWhatsappUsed() != null ? abonnement.getWhatsappUsed() : 0;
-        int mainQuota = getMainWhatsappQuota(abonnement);
-        int availableFromMain = Math.max(0, mainQuota - currentUsed);
-
-        if (availableFromMain > 0 && remaining > 0) {
-            int useFromMain = Math.min(remaining, availableFromMain);
-            abonnement.setWhatsappUsed(currentUsed + useFromMain);
-            remaining -= useFromMain;
-        }
-
-        // 2. Si il reste à décrémenter et qu'il y a des bonus
-        if (
-            remaining > 0 &&
-            abonnement.getBonusWhatsappEnabled() &&
-            abonnement.getBonusWhatsappAmount() != null &&
-            abonnement.getBonusWhatsappAmount() > 0
-        ) {
-            int useFromBonus = Math.min(remaining, abonnement.getBonusWhatsappAmount());
-            abonnement.setBonusWhatsappAmount(abonnement.getBonusWhatsappAmount() - useFromBonus);
-            remaining -= useFromBonus;
-        }
-
-        // 3. Si il reste à décrémenter et qu'il y a du carryover
-        if (
-            remaining > 0 &&
-            abonnement.getAllowWhatsappCarryover() &&
-            abonnement.getCarriedOverWhatsapp() != null &&
-            abonnement.getCarriedOverWhatsapp() > 0
-        ) {
-            int useFromCarryover = Math.min(remaining, abonnement.getCarriedOverWhatsapp());
-            abonnement.setCarriedOverWhatsapp(abonnement.getCarriedOverWhatsapp() - useFromCarryover);
-            remaining -= useFromCarryover;
-        }
-
-        return remaining;
-    }
-
     public boolean hasSmsPermission(Abonnement abonnement) {
         // Vérifier les permissions dans le plan standard
         if (abonnement.getCustomSmsLimit() > 0) {
@@ -0,0 +1,510 @@
+package com.example.myproject.service;
+
+import com.example.myproject.web.rest.dto.BulkStats;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Compteurs de progression par campagne (send_sms), tenus en mémoire et alimentés par les
+ * chemins d'envoi, de DLR et de webhook. Les deltas sont appliqués par point de contrôle
+ * sur les colonnes progress_* de send_sms (additif : sûr sur plusieurs nœuds).
+ *
+ * Lecture : mémoire, sinon point de contrôle, sinon reconstruction depuis sms (une seule fois).
+ *
+ * Recomptage faisant autorité : une campagne terminée et sans delta depuis recount-quiet-ms
+ * (au-delà de l'éviction des nœuds) est recomptée depuis sms et son point de contrôle écrasé.
+ * Aucun nœud ne tient alors de base en mémoire, il n'y a donc pas de double comptage.
+ */
+@Service
+public class CampaignCounterService {
+
+    private static final Logger log = LoggerFactory.getLogger(CampaignCounterService.class);
+
+    private static final int INSERTED = 0;
+    private static final int SENT = 1;
+    private static final int FAILED = 2;
+    private static final int PENDING = 3;
+    private static final int DELIVERED = 4;
+    private static final int READ = 5;
+    private static final int DELIVERY_FAILED = 6;
+    private static final int COUNTER_COUNT = 7;
+
+    @Value("${sms.counters.idle-eviction-ms:600000}")
+    private long idleEvictionMs;
+
+    @Value("${sms.counters.recount-quiet-ms:1200000}")
+    private long recountQuietMs;
+
+    @Value("${sms.counters.recount-batch-size:20}")
+    private int recountBatchSize;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private final ConcurrentHashMap<Long, CampaignCounters> campaigns = new ConcurrentHashMap<>();
+
+    // ===== ALIMENTATION =====
+
+    public void recordInserted(Long sendSmsId, long count) {
+        apply(sendSmsId, c -> {
+            c.add(INSERTED, count);
+            c.add(PENDING, count);
+        });
+    }
+
+    /**
+     * Résultat de soumission : PENDING → SENT / FAILED (et pending → failed côté livraison).
+     */
+    public void recordSendOutcome(Long sendSmsId, long successCount, long failedCount) {
+        if (successCount == 0 && failedCount == 0) return;
+        apply(sendSmsId, c -> {
+            c.add(PENDING, -(successCount + failedCount));
+            c.add(SENT, successCount);
+            c.add(FAILED, failedCount);
+            c.add(DELIVERY_FAILED, failedCount);
+        });
+    }
+
+    /**
+     * Transition de sms.status (SENT, FAILED, PENDING...).
+     */
+    public void recordStatusTransition(Long sendSmsId, String oldStatus, String newStatus, long count) {
+        int from = statusIndex(oldStatus);
+        int to = statusIndex(newStatus);
+        if (from == to) return;
+        apply(sendSmsId, c -> {
+            if (from >= 0) c.add(from, -count);
+            if (to >= 0) c.add(to, count);
+        });
+    }
+
+    /**
+     * Transition de sms.delivery_status (delivered, read, failed...).
+     */
+    public void recordDeliveryTransition(Long sendSmsId, String oldStatus, String newStatus, long count) {
+        int from = deliveryIndex(oldStatus);
+        int to = deliveryIndex(newStatus);
+        if (from == to) return;
+        apply(sendSmsId, c -> {
+            if (from >= 0) c.add(from, -count);
+            if (to >= 0) c.add(to, count);
+        });
+    }
+
+    // ===== LECTURE =====
+
+    /**
+     * Statistiques de progression en O(1) : aucune agrégation sur sms sauf première
+     * lecture d'une campagne sans point de contrôle.
+     */
+    public BulkStats getStats(Long sendSmsId, long totalRecipients) {
+        long[] values;
+        CampaignCounters counters = campaigns.get(sendSmsId);
+        if (counters != null) {
+            values = counters.snapshot();
+        } else {
+            values = readCheckpoint(sendSmsId);
+            if (values == null) {
+                values = getOrLoad(sendSmsId).counters.snapshot();
+            }
+        }
+
+        BulkStats stats = new BulkStats();
+        stats.setInserted(values[INSERTED]);
+        stats.setSent(values[SENT]);
+        stats.setFailed(values[FAILED]);
+        stats.setPending(values[PENDING]);
+        stats.setDelivered(values[DELIVERED]);
+        stats.setRead(values[READ]);
+        stats.setDeliveryFailed(values[DELIVERY_FAILED]);
+        stats.setTotal(totalRecipients);
+        return stats;
+    }
+
+    /**
+     * Demande un recomptage depuis sms (correction de dérive). Idempotent : le recomptage
+     * lui-même n'a lieu qu'une fois la campagne terminée et inactive sur tous les nœuds.
+     */
+    public void rebuild(Long sendSmsId) {
+        runAfterCommit(() -> {
+            transactionTemplate.executeWithoutResult(status ->
+                jdbcTemplate.update("UPDATE send_sms SET progress_recounted_at = NULL WHERE id = ?", sendSmsId)
+            );
+            log.info("[COUNTERS] Recomptage demandé pour SendSms {}", sendSmsId);
+        });
+    }
+
+    /**
+     * Recomptage faisant autorité des campagnes terminées, inactives et modifiées depuis
+     * leur dernier recomptage.
+     */
+    @Scheduled(fixedDelayString = "${sms.counters.recount-interval-ms:60000}")
+    public void recountFinished() {
+        List<Long> candidates = jdbcTemplate.queryForList(
+            """
+            SELECT id FROM send_sms
+            WHERE inprocess = false
+              AND progress_checkpoint_at IS NOT NULL
+              AND progress_checkpoint_at < now() - make_interval(secs => ?)
+              AND (progress_recounted_at IS NULL OR progress_recounted_at < progress_checkpoint_at)
+            ORDER BY progress_checkpoint_at DESC
+            LIMIT ?
+            """,
+            Long.class,
+            recountQuietMs / 1000.0,
+            recountBatchSize
+        );
+
+        for (Long sendSmsId : candidates) {
+            try {
+                Boolean recounted = transactionTemplate.execute(status -> recount(sendSmsId));
+                if (Boolean.TRUE.equals(recounted)) {
+                    log.info("[COUNTERS] Compteurs recomptés pour SendSms {}", sendSmsId);
+                }
+            } catch (Exception e) {
+                log.warn("[COUNTERS] Recomptage échoué pour SendSms {} : {}", sendSmsId, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Verrouille la ligne et revérifie les conditions : un autre nœud a pu recompter, ou la
+     * campagne a pu reprendre entre la sélection et le verrou.
+     */
+    private boolean recount(Long sendSmsId) {
+        List<Long> locked = jdbcTemplate.queryForList(
+            """
+            SELECT id FROM send_sms
+            WHERE id = ?
+              AND inprocess = false
+              AND progress_checkpoint_at < now() - make_interval(secs => ?)
+              AND (progress_recounted_at IS NULL OR progress_recounted_at < progress_checkpoint_at)
+            FOR UPDATE SKIP LOCKED
+            """,
+            Long.class,
+            sendSmsId,
+            recountQuietMs / 1000.0
+        );
+        if (locked.isEmpty()) return false;
+
+        long[] values = scanSms(sendSmsId);
+        jdbcTemplate.update(
+            """
+            UPDATE send_sms SET
+                progress_inserted = ?, progress_sent = ?, progress_failed = ?, progress_pending = ?,
+                progress_delivered = ?, progress_read = ?, progress_delivery_failed = ?,
+                progress_checkpoint_at = now(),
+                progress_recounted_at = now()
+            WHERE id = ?
+            """,
+            values[INSERTED],
+            values[SENT],
+            values[FAILED],
+            values[PENDING],
+            values[DELIVERED],
+            values[READ],
+            values[DELIVERY_FAILED],
+            sendSmsId
+        );
+
+        // Entrée locale propre par construction (inactive) : la prochaine lecture repart du recomptage
+        campaigns.computeIfPresent(sendSmsId, (id, counters) -> counters.isClean() ? null : counters);
+        return true;
+    }
+
+    // ===== POINT DE CONTRÔLE =====
+
+    @Scheduled(fixedDelayString = "${sms.counters.checkpoint-interval-ms:5000}")
+    public void checkpoint() {
+        if (campaigns.isEmpty()) return;
+
+        long now = System.currentTimeMillis();
+        List<Object[]> args = new ArrayList<>();
+        Map<Long, long[]> drained = new HashMap<>();
+
+        for (Map.Entry<Long, CampaignCounters> entry : campaigns.entrySet()) {
+            long[] deltas = entry.getValue().drain();
+            if (deltas == null) continue;
+
+            drained.put(entry.getKey(), deltas);
+            args.add(
+                new Object[] {
+                    deltas[INSERTED],
+                    deltas[SENT],
+                    deltas[FAILED],
+                    deltas[PENDING],
+                    deltas[DELIVERED],
+                    deltas[READ],
+                    deltas[DELIVERY_FAILED],
+                    entry.getKey(),
+                }
+            );
+        }
+
+        if (!args.isEmpty()) {
+            try {
+                transactionTemplate.executeWithoutResult(status ->
+                    jdbcTemplate.batchUpdate(
+                        """
+                        UPDATE send_sms SET
+                            progress_inserted = COALESCE(progress_inserted, 0) + ?,
+                            progress_sent = COALESCE(progress_sent, 0) + ?,
+                            progress_failed = COALESCE(progress_failed, 0) + ?,
+                            progress_pending = COALESCE(progress_pending, 0) + ?,
+                            progress_delivered = COALESCE(progress_delivered, 0) + ?,
+                            progress_read = COALESCE(progress_read, 0) + ?,
+                            progress_delivery_failed = COALESCE(progress_delivery_failed, 0) + ?,
+                            progress_checkpoint_at = now()
+                        WHERE id = ?
+                        """,
+                        args
+                    )
+                );
+                log.debug("[COUNTERS] Point de contrôle : {} campagne(s)", drained.size());
+            } catch (Exception e) {
+                log.error("[COUNTERS] Erreur point de contrôle : {}", e.getMessage());
+                drained.forEach((id, deltas) -> {
+                    CampaignCounters counters = campaigns.get(id);
+                    if (counters != null) counters.restore(deltas);
+                });
+                return;
+            }
+        }
+
+        // Les campagnes inactives sont relues depuis le point de contrôle au besoin
+        campaigns.entrySet().removeIf(e -> now - e.getValue().lastTouched > idleEvictionMs && e.getValue().isClean());
+    }
+
+    // ===== INTERNE =====
+
+    private void apply(Long sendSmsId, Consumer<CampaignCounters> update) {
+        if (sendSmsId == null) return;
+
+        runAfterCommit(() -> {
+            try {
+                LoadedCounters loaded = getOrLoad(sendSmsId);
+                // Une reconstruction depuis sms voit déjà cette écriture (appliquée après commit)
+                if (!loaded.rebuiltFromSms) {
+                    update.accept(loaded.counters);
+                }
+            } catch (Exception e) {
+                log.warn("[COUNTERS] Mise à jour ignorée pour SendSms {} : {}", sendSmsId, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Les écritures en cours de transaction ne comptent qu'une fois validées.
+     */
+    private void runAfterCommit(Runnable task) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(
+                new TransactionSynchronization() {
+                    @Override
+                    public void afterCommit() {
+                        task.run();
+                    }
+                }
+            );
+        } else {
+            task.run();
+        }
+    }
+
+    private LoadedCounters getOrLoad(Long sendSmsId) {
+        CampaignCounters existing = campaigns.get(sendSmsId);
+        if (existing != null) {
+            return new LoadedCounters(existing, false);
+        }
+
+        boolean[] rebuilt = { false };
+        CampaignCounters counters = campaigns.computeIfAbsent(sendSmsId, id -> {
+            long[] base = readCheckpoint(id);
+            if (base == null) {
+                long[] scanned = scanSms(id);
+                // Un seul nœud initialise le point de contrôle ; les autres relisent le sien
+                if (writeInitialCheckpoint(id, scanned)) {
+                    base = scanned;
+                    rebuilt[0] = true;
+                } else {
+                    base = readCheckpoint(id);
+                    if (base == null) base = scanned;
+                }
+            }
+            return new CampaignCounters(base);
+        });
+        return new LoadedCounters(counters, rebuilt[0]);
+    }
+
+    private long[] readCheckpoint(Long sendSmsId) {
+        try {
+            return jdbcTemplate.queryForObject(
+                """
+                SELECT progress_inserted, progress_sent, progress_failed, progress_pending,
+                       progress_delivered, progress_read, progress_delivery_failed, progress_checkpoint_at
+                FROM send_sms
+                WHERE id = ?
+                """,
+                (rs, rowNum) -> {
+                    if (rs.getTimestamp("progress_checkpoint_at") == null) return null;
+                    long[] values = new long[COUNTER_COUNT];
+                    for (int i = 0; i < COUNTER_COUNT; i++) {
+                        values[i] = rs.getLong(i + 1);
+                    }
+                    return values;
+                },
+                sendSmsId
+            );
+        } catch (EmptyResultDataAccessException e) {
+            return null;
+        }
+    }
+
+    private long[] scanSms(Long sendSmsId) {
+        return jdbcTemplate.queryForObject(
+            """
+            SELECT COUNT(*),
+                   COUNT(*) FILTER (WHERE UPPER(status) = 'SENT'),
+                   COUNT(*) FILTER (WHERE UPPER(status) = 'FAILED'),
+                   COUNT(*) FILTER (WHERE UPPER(status) = 'PENDING'),
+                   COUNT(*) FILTER (WHERE LOWER(delivery_status) = 'delivered'),
+                   COUNT(*) FILTER (WHERE LOWER(delivery_status) = 'read'),
+                   COUNT(*) FILTER (WHERE LOWER(delivery_status) = 'failed')
+            FROM sms
+            WHERE bulk_id = (SELECT bulk_id FROM send_sms WHERE id = ?)
+            """,
+            (rs, rowNum) -> {
+                long[] values = new long[COUNTER_COUNT];
+                for (int i = 0; i < COUNTER_COUNT; i++) {
+                    values[i] = rs.getLong(i + 1);
+                }
+                return values;
+            },
+            sendSmsId
+        );
+    }
+
+    private boolean writeInitialCheckpoint(Long sendSmsId, long[] values) {
+        Integer updated = transactionTemplate.execute(status ->
+            jdbcTemplate.update(
+                """
+                UPDATE send_sms SET
+                    progress_inserted = ?, progress_sent = ?, progress_failed = ?, progress_pending = ?,
+                    progress_delivered = ?, progress_read = ?, progress_delivery_failed = ?,
+                    progress_checkpoint_at = now()
+                WHERE id = ? AND progress_checkpoint_at IS NULL
+                """,
+                values[INSERTED],
+                values[SENT],
+                values[FAILED],
+                values[PENDING],
+                values[DELIVERED],
+                values[READ],
+                values[DELIVERY_FAILED],
+                sendSmsId
+            )
+        );
+        return updated != null && updated > 0;
+    }
+
+    private static int statusIndex(String status) {
+        if (status == null) return -1;
+        return switch (status.toUpperCase()) {
+            case "SENT" -> SENT;
+            case "FAILED" -> FAILED;
+            case "PENDING" -> PENDING;
+            default -> -1;
+        };
+    }
+
+    private static int deliveryIndex(String deliveryStatus) {
+        if (deliveryStatus == null) return -1;
+        return switch (deliveryStatus.toLowerCase()) {
+            case "delivered" -> DELIVERED;
+            case "read" -> READ;
+            case "failed" -> DELIVERY_FAILED;
+            default -> -1;
+        };
+    }
+
+    private record LoadedCounters(CampaignCounters counters, boolean rebuiltFromSms) {}
+
+    /**
+     * Base (dernier point de contrôle connu) + deltas non encore écrits, en LongAdder
+     * pour que les workers concurrents n'entrent pas en contention.
+     */
+    private static class CampaignCounters {
+
+        private final long[] base;
+        private final LongAdder[] unflushed = new LongAdder[COUNTER_COUNT];
+        private volatile long lastTouched = System.currentTimeMillis();
+
+        CampaignCounters(long[] base) {
+            this.base = base.clone();
+            for (int i = 0; i < COUNTER_COUNT; i++) {
+                unflushed[i] = new LongAdder();
+            }
+        }
+
+        void add(int index, long delta) {
+            if (delta == 0) return;
+            unflushed[index].add(delta);
+            lastTouched = System.currentTimeMillis();
+        }
+
+        synchronized long[] snapshot() {
+            long[] values = new long[COUNTER_COUNT];
+            for (int i = 0; i < COUNTER_COUNT; i++) {
+                values[i] = Math.max(0, base[i] + unflushed[i].sum());
+            }
+            return values;
+        }
+
+        /**
+         * @return les deltas à écrire, ou null si rien n'a changé
+         */
+        synchronized long[] drain() {
+            long[] deltas = new long[COUNTER_COUNT];
+            boolean dirty = false;
+            for (int i = 0; i < COUNTER_COUNT; i++) {
+                deltas[i] = unflushed[i].sumThenReset();
+                base[i] += deltas[i];
+                dirty |= deltas[i] != 0;
+            }
+            return dirty ? deltas : null;
+        }
+
+        synchronized void restore(long[] deltas) {
+            for (int i = 0; i < COUNTER_COUNT; i++) {
+                base[i] -= deltas[i];
+                unflushed[i].add(deltas[i]);
+            }
+        }
+
+        boolean isClean() {
+            for (LongAdder adder : unflushed) {
+                if (adder.sum() != 0) return false;
+            }
+            return true;
+        }
+    }
+}
@@ -4,8 +4,10 @@ import com.example.myproject.domain.ChannelConfiguration;
 import com.example.myproject.domain.enumeration.Channel;
 import com.example.myproject.repository.ChannelConfigurationRepository;
 import com.example.myproject.security.SecurityUtils;
+import com.example.myproject.service.event.ChannelConfigurationChangedEvent;
 import java.util.List;
 import java.util.Optional;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.crypto.encrypt.TextEncryptor;
 import org.springframework.stereotype.Service;
@@ -18,10 +20,16 @@ public class ChannelConfigurationService {
 
     private final ChannelConfigurationRepository repo;
     private final TextEncryptor encryptor;
+    private final ApplicationEventPublisher eventPublisher;
 
-    public ChannelConfigurationService(ChannelConfigurationRepository repo, TextEncryptor encryptor) {
+    public ChannelConfigurationService(
+        ChannelConfigurationRepository repo,
+        TextEncryptor encryptor,
+        ApplicationEventPublisher eventPublisher
+    ) {
         this.repo = repo;
         this.encryptor = encryptor;
+        this.eventPublisher = eventPublisher;
     }
 
     /**
@@ -67,7 +75,9 @@ public class ChannelConfigurationService {
         // Toujours chiffrer
         cfg.setEncryptedPassword(encryptor.encrypt(rawPassword));
 
-        return repo.save(cfg);
+        ChannelConfiguration saved = repo.save(cfg);
+        eventPublisher.publishEvent(new ChannelConfigurationChangedEvent(saved.getId()));
+        return saved;
     }
 
     /**
@@ -103,6 +113,7 @@ public class ChannelConfigurationService {
         }
 
         repo.delete(cfg);
+        eventPublisher.publishEvent(new ChannelConfigurationChangedEvent(id));
     }
 
     public ChannelConfiguration update(Long id, ChannelConfiguration updatedCfg, String rawPassword) {
@@ -131,7 +142,9 @@ public class ChannelConfigurationService {
             existing.setEncryptedPassword(encryptor.encrypt(rawPassword));
         }
 
-        return repo.save(existing);
+        ChannelConfiguration saved = repo.save(existing);
+        eventPublisher.publishEvent(new ChannelConfigurationChangedEvent(id));
+        return saved;
     }
 
     public String encryptPassword(String rawPassword) {
@@ -0,0 +1,434 @@
+package com.example.myproject.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Expression de condition chatbot compilée en arbre, évaluée sans ré-analyse du texte.
+ *
+ * Grammaire (mots-clés insensibles à la casse) :
+ * <pre>
+ * expr      := and ( ("or" | "||") and )*
+ * and       := unary ( ("and" | "&&") unary )*
+ * unary     := ("not" | "!") unary | "(" expr ")" | predicate
+ * predicate := operand [ "contains" operand | "starts with" operand | "ends with" operand
+ *                      | "is" ["not"] ("text" | "number" | "file" | "empty")
+ *                      | ("=" | "==" | "!=" | "&lt;&gt;" | "&gt;" | "&gt;=" | "&lt;" | "&lt;=") operand ]
+ * operand   := "result" | 'texte' | "texte" | nombre | true | false | variable | {variable}
+ * </pre>
+ * {@code result} désigne la saisie utilisateur ; les comparaisons de texte ignorent la casse,
+ * celles entre deux nombres sont numériques.
+ */
+public final class ChatbotExpression {
+
+    private static final Logger log = LoggerFactory.getLogger(ChatbotExpression.class);
+
+    private static final Pattern FILE_PATTERN = Pattern.compile(".*\\.(pdf|doc|docx|xls|xlsx|jpg|jpeg|png|gif|mp4|mp3|wav)$");
+
+    private static final ChatbotExpression ALWAYS_FALSE = new ChatbotExpression("false", new Constant(false));
+
+    private final String source;
+    private final Expr root;
+
+    private ChatbotExpression(String source, Expr root) {
+        this.source = source;
+        this.root = root;
+    }
+
+    /**
+     * Compile une expression ; une expression invalide est compilée en {@code false} (avec un avertissement).
+     */
+    public static ChatbotExpression compile(String source) {
+        if (source == null || source.isBlank()) {
+            return ALWAYS_FALSE;
+        }
+        try {
+            Parser parser = new Parser(tokenize(source));
+            Expr root = parser.parseExpression();
+            parser.expectEnd();
+            return new ChatbotExpression(source, root);
+        } catch (IllegalArgumentException e) {
+            log.warn("⚠️ Expression de condition invalide '{}': {}", source, e.getMessage());
+            return new ChatbotExpression(source, new Constant(false));
+        }
+    }
+
+    public boolean evaluate(String userInput, Map<String, Object> variables) {
+        String input = userInput != null ? userInput.trim().toLowerCase(Locale.ROOT) : "";
+        return root.test(input, variables != null ? variables : Map.of());
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    // ================================
+    // ARBRE
+    // ================================
+
+    private interface Expr {
+        boolean test(String input, Map<String, Object> variables);
+    }
+
+    private record Constant(boolean value) implements Expr {
+        public boolean test(String input, Map<String, Object> variables) {
+            return value;
+        }
+    }
+
+    private record Or(Expr left, Expr right) implements Expr {
+        public boolean test(String input, Map<String, Object> variables) {
+            return left.test(input, variables) || right.test(input, variables);
+        }
+    }
+
+    private record And(Expr left, Expr right) implements Expr {
+        public boolean test(String input, Map<String, Object> variables) {
+            return left.test(input, variables) && right.test(input, variables);
+        }
+    }
+
+    private record Not(Expr inner) implements Expr {
+        public boolean test(String input, Map<String, Object> variables) {
+            return !inner.test(input, variables);
+        }
+    }
+
+    private record Truthy(Operand operand) implements Expr {
+        public boolean test(String input, Map<String, Object> variables) {
+            String value = operand.value(input, variables);
+            return !value.isEmpty() && !"false".equals(value) && !"0".equals(value);
+        }
+    }
+
+    private enum TypeCheck {
+        TEXT,
+        NUMBER,
+        FILE,
+        EMPTY,
+    }
+
+    private record Is(Operand operand, TypeCheck type, boolean negated) implements Expr {
+        public boolean test(String input, Map<String, Object> variables) {
+            String value = operand.value(input, variables);
+            boolean result =
+                switch (type) {
+                    case TEXT -> !value.isEmpty() && !isNumeric(value);
+                    case NUMBER -> isNumeric(value);
+                    case FILE -> FILE_PATTERN.matcher(value).matches();
+                    case EMPTY -> value.isEmpty();
+                };
+            return result != negated;
+        }
+    }
+
+    private enum Op {
+        EQ,
+        NE,
+        GT,
+        GE,
+        LT,
+        LE,
+        CONTAINS,
+        STARTS_WITH,
+        ENDS_WITH,
+    }
+
+    private record Compare(Operand left, Op op, Operand right) implements Expr {
+        public boolean test(String input, Map<String, Object> variables) {
+            String a = left.value(input, variables);
+            String b = right.value(input, variables);
+            switch (op) {
+                case CONTAINS:
+                    return a.contains(b);
+                case STARTS_WITH:
+                    return a.startsWith(b);
+                case ENDS_WITH:
+                    return a.endsWith(b);
+                default:
+                    break;
+            }
+
+            int cmp;
+            if (isNumeric(a) && isNumeric(b)) {
+                cmp = Double.compare(Double.parseDouble(a.trim()), Double.parseDouble(b.trim()));
+            } else {
+                cmp = a.compareTo(b);
+            }
+            return switch (op) {
+                case EQ -> cmp == 0;
+                case NE -> cmp != 0;
+                case GT -> cmp > 0;
+                case GE -> cmp >= 0;
+                case LT -> cmp < 0;
+                case LE -> cmp <= 0;
+                default -> false;
+            };
+        }
+    }
+
+    private interface Operand {
+        /** Valeur en minuscules, jamais null. */
+        String value(String input, Map<String, Object> variables);
+    }
+
+    private record ResultRef() implements Operand {
+        public String value(String input, Map<String, Object> variables) {
+            return input;
+        }
+    }
+
+    private record Literal(String text) implements Operand {
+        public String value(String input, Map<String, Object> variables) {
+            return text;
+        }
+    }
+
+    private record VariableRef(String name) implements Operand {
+        public String value(String input, Map<String, Object> variables) {
+            Object value = variables.get(name);
+            return value != null ? value.toString().trim().toLowerCase(Locale.ROOT) : "";
+        }
+    }
+
+    private static boolean isNumeric(String value) {
+        if (value.isEmpty()) return false;
+        try {
+            Double.parseDouble(value.trim());
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    // ================================
+    // ANALYSE
+    // ================================
+
+    private enum TokenType {
+        WORD,
+        STRING,
+        VARIABLE,
+        SYMBOL,
+    }
+
+    private record Token(TokenType type, String text) {
+        boolean isSymbol(String symbol) {
+            return type == TokenType.SYMBOL && text.equals(symbol);
+        }
+    }
+
+    private static List<Token> tokenize(String source) {
+        List<Token> tokens = new ArrayList<>();
+        int i = 0;
+        int length = source.length();
+
+        while (i < length) {
+            char c = source.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '\'' || c == '"') {
+                int end = source.indexOf(c, i + 1);
+                if (end < 0) throw new IllegalArgumentException("chaîne non terminée à la position " + i);
+                tokens.add(new Token(TokenType.STRING, source.substring(i + 1, end)));
+                i = end + 1;
+            } else if (c == '{') {
+                int end = source.indexOf('}', i + 1);
+                if (end < 0) throw new IllegalArgumentException("variable non terminée à la position " + i);
+                tokens.add(new Token(TokenType.VARIABLE, source.substring(i + 1, end).trim()));
+                i = end + 1;
+            } else if (c == '(' || c == ')') {
+                tokens.add(new Token(TokenType.SYMBOL, String.valueOf(c)));
+                i++;
+            } else if ("=!<>&|".indexOf(c) >= 0) {
+                int start = i;
+                while (i < length && "=!<>&|".indexOf(source.charAt(i)) >= 0 && i - start < 2) i++;
+                tokens.add(new Token(TokenType.SYMBOL, source.substring(start, i)));
+            } else if (Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '-' || c == '+') {
+                int start = i;
+                while (i < length) {
+                    char d = source.charAt(i);
+                    if (!(Character.isLetterOrDigit(d) || d == '_' || d == '.' || d == '-' || d == '+')) break;
+                    i++;
+                }
+                tokens.add(new Token(TokenType.WORD, source.substring(start, i)));
+            } else {
+                throw new IllegalArgumentException("caractère inattendu '" + c + "' à la position " + i);
+            }
+        }
+        return tokens;
+    }
+
+    private static final class Parser {
+
+        private final List<Token> tokens;
+        private int position;
+
+        Parser(List<Token> tokens) {
+            this.tokens = tokens;
+        }
+
+        Expr parseExpression() {
+            Expr left = parseAnd();
+            while (acceptKeyword("or") || acceptSymbol("||")) {
+                left = new Or(left, parseAnd());
+            }
+            return left;
+        }
+
+        void expectEnd() {
+            if (position < tokens.size()) {
+                throw new IllegalArgumentException("élément inattendu '" + tokens.get(position).text() + "'");
+            }
+        }
+
+        private Expr parseAnd() {
+            Expr left = parseUnary();
+            while (acceptKeyword("and") || acceptSymbol("&&")) {
+                left = new And(left, parseUnary());
+            }
+            return left;
+        }
+
+        private Expr parseUnary() {
+            if (acceptKeyword("not") || acceptSymbol("!")) {
+                return new Not(parseUnary());
+            }
+            if (acceptSymbol("(")) {
+                Expr inner = parseExpression();
+                if (!acceptSymbol(")")) throw new IllegalArgumentException("parenthèse fermante attendue");
+                return inner;
+            }
+            return parsePredicate();
+        }
+
+        private Expr parsePredicate() {
+            Token first = peek();
+            if (first != null && first.type() == TokenType.WORD) {
+                String word = lower(first.text());
+                if ("true".equals(word) || "false".equals(word)) {
+                    Token next = position + 1 < tokens.size() ? tokens.get(position + 1) : null;
+                    if (next == null || !isComparisonStart(next)) {
+                        position++;
+                        return new Constant("true".equals(word));
+                    }
+                }
+            }
+
+            Operand left = parseOperand();
+
+            if (acceptKeyword("contains")) {
+                return new Compare(left, Op.CONTAINS, parseOperand());
+            }
+            if (acceptKeyword("starts")) {
+                expectKeyword("with");
+                return new Compare(left, Op.STARTS_WITH, parseOperand());
+            }
+            if (acceptKeyword("ends")) {
+                expectKeyword("with");
+                return new Compare(left, Op.ENDS_WITH, parseOperand());
+            }
+            if (acceptKeyword("is")) {
+                boolean negated = acceptKeyword("not");
+                Token type = next("type attendu après 'is'");
+                TypeCheck check =
+                    switch (lower(type.text())) {
+                        case "text" -> TypeCheck.TEXT;
+                        case "number" -> TypeCheck.NUMBER;
+                        case "file" -> TypeCheck.FILE;
+                        case "empty" -> TypeCheck.EMPTY;
+                        default -> throw new IllegalArgumentException("type inconnu '" + type.text() + "'");
+                    };
+                return new Is(left, check, negated);
+            }
+
+            Token symbol = peek();
+            if (symbol != null && symbol.type() == TokenType.SYMBOL) {
+                Op op =
+                    switch (symbol.text()) {
+                        case "=", "==" -> Op.EQ;
+                        case "!=", "<>" -> Op.NE;
+                        case ">" -> Op.GT;
+                        case ">=" -> Op.GE;
+                        case "<" -> Op.LT;
+                        case "<=" -> Op.LE;
+                        default -> null;
+                    };
+                if (op != null) {
+                    position++;
+                    return new Compare(left, op, parseOperand());
+                }
+            }
+
+            return new Truthy(left);
+        }
+
+        private Operand parseOperand() {
+            Token token = next("opérande attendu");
+            return switch (token.type()) {
+                case STRING -> new Literal(lower(token.text()));
+                case VARIABLE -> new VariableRef(token.text());
+                case WORD -> {
+                    String word = lower(token.text());
+                    if ("result".equals(word)) {
+                        yield new ResultRef();
+                    }
+                    if ("true".equals(word) || "false".equals(word) || isNumeric(word)) {
+                        yield new Literal(word);
+                    }
+                    yield new VariableRef(token.text());
+                }
+                case SYMBOL -> throw new IllegalArgumentException("opérande attendu au lieu de '" + token.text() + "'");
+            };
+        }
+
+        private boolean isComparisonStart(Token token) {
+            if (token.type() == TokenType.SYMBOL) {
+                return !token.text().equals(")") && !token.text().equals("&&") && !token.text().equals("||");
+            }
+            if (token.type() != TokenType.WORD) return false;
+            String word = lower(token.text());
+            return "contains".equals(word) || "is".equals(word) || "starts".equals(word) || "ends".equals(word);
+        }
+
+        private Token peek() {
+            return position < tokens.size() ? tokens.get(position) : null;
+        }
+
+        private Token next(String expected) {
+            if (position >= tokens.size()) throw new IllegalArgumentException(expected);
+            return tokens.get(position++);
+        }
+
+        private boolean acceptKeyword(String keyword) {
+            Token token = peek();
+            if (token != null && token.type() == TokenType.WORD && lower(token.text()).equals(keyword)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expectKeyword(String keyword) {
+            if (!acceptKeyword(keyword)) throw new IllegalArgumentException("'" + keyword + "' attendu");
+        }
+
+        private boolean acceptSymbol(String symbol) {
+            Token token = peek();
+            if (token != null && token.isSymbol(symbol)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private static String lower(String text) {
+            return text.toLowerCase(Locale.ROOT);
+        }
+    }
+}
@@ -9,11 +9,16 @@ import com.example.myproject.web.rest.dto.flow.*;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 @Service
 @Transactional
@@ -22,8 +27,16 @@ public class ChatbotFlowService {
     private final Logger log = LoggerFactory.getLogger(ChatbotFlowService.class);
     private final ChatbotFlowRepository chatbotFlowRepository;
 
-    public ChatbotFlowService(ChatbotFlowRepository chatbotFlowRepository) {
+    // Flows compilés par utilisateur, revalidés par numéro de version (modification depuis un autre nœud)
+    private final ConcurrentHashMap<Long, CachedFlow> compiledFlows = new ConcurrentHashMap<>();
+    private final long revalidateMs;
+
+    public ChatbotFlowService(
+        ChatbotFlowRepository chatbotFlowRepository,
+        @Value("${chatbot.flow-cache.revalidate-ms:30000}") long revalidateMs
+    ) {
         this.chatbotFlowRepository = chatbotFlowRepository;
+        this.revalidateMs = revalidateMs;
     }
 
     /**
@@ -79,6 +92,8 @@ public class ChatbotFlowService {
         // Créer les variables
         createFlowVariables(flow, flowPayload);
 
+        evictCompiledFlow(userId);
+
         log.debug("Flow {} avec succès, ID: {}", isUpdate ? "modifié" : "créé", flow.getId());
         return flow;
     }
@@ -101,24 +116,60 @@ public class ChatbotFlowService {
         ChatbotFlow flow = flowOpt.get();
         log.debug("Flow trouvé: {} (version {})", flow.getName(), flow.getVersion());
 
-        // Construire le payload de réponse
-        FlowPayload payload = new FlowPayload();
-        payload.setPartnerId(flow.getUserId()); // Par défaut
-        payload.setFlowId(flow.getId().toString());
-        payload.setName(flow.getName());
-        payload.setDescription(flow.getDescription());
-        payload.setActive(flow.getActive());
-        payload.setLanguage(flow.getLanguage());
+        return toPayload(flow);
+    }
 
-        // Convertir les nœuds
-        payload.setNodes(convertNodesToPayload(flow.getNodes()));
+    /**
+     * Flow compilé de l'utilisateur pour l'exécution : aucune requête tant que la version est inchangée.
+     */
+    @Transactional(readOnly = true)
+    public CompiledFlow getCompiledFlow(Long userId) {
+        long now = System.currentTimeMillis();
+        CachedFlow cached = compiledFlows.get(userId);
 
-        // Convertir les variables
-        payload.setVariables(convertVariablesToPayload(flow.getVariables()));
+        if (cached != null) {
+            if (now - cached.checkedAt < revalidateMs) {
+                return cached.flow;
+            }
+            Integer version = chatbotFlowRepository.findVersionByUserId(userId).orElse(null);
+            if (version != null && Objects.equals(version, cached.flow.getVersion())) {
+                compiledFlows.put(userId, new CachedFlow(cached.flow, now));
+                return cached.flow;
+            }
+        }
 
-        return payload;
+        Optional<ChatbotFlow> flowOpt = chatbotFlowRepository.findByUserId(userId);
+        if (flowOpt.isEmpty()) {
+            compiledFlows.remove(userId);
+            return null;
+        }
+
+        ChatbotFlow flow = flowOpt.get();
+        CompiledFlow compiled = CompiledFlow.compile(userId, flow.getVersion(), toPayload(flow));
+        compiledFlows.put(userId, new CachedFlow(compiled, now));
+        log.debug("Flow compilé pour user {} (version {}, {} nœuds)", userId, flow.getVersion(), compiled.getNodeCount());
+        return compiled;
+    }
+
+    /**
+     * Invalide le flow compilé, à nouveau après commit (une lecture concurrente peut avoir recompilé l'ancienne version).
+     */
+    public void evictCompiledFlow(Long userId) {
+        compiledFlows.remove(userId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(
+                new TransactionSynchronization() {
+                    @Override
+                    public void afterCommit() {
+                        compiledFlows.remove(userId);
+                    }
+                }
+            );
+        }
     }
 
+    private record CachedFlow(CompiledFlow flow, long checkedAt) {}
+
     // ================================
     // MÉTHODES PRIVÉES DE CONVERSION
     // ================================
@@ -271,6 +322,24 @@ public class ChatbotFlowService {
     // CONVERSION ENTITÉS → PAYLOAD
     // ================================
 
+    private FlowPayload toPayload(ChatbotFlow flow) {
+        FlowPayload payload = new FlowPayload();
+        payload.setPartnerId(flow.getUserId()); // Par défaut
+        payload.setFlowId(flow.getId().toString());
+        payload.setName(flow.getName());
+        payload.setDescription(flow.getDescription());
+        payload.setActive(flow.getActive());
+        payload.setLanguage(flow.getLanguage());
+
+        // Convertir les nœuds
+        payload.setNodes(convertNodesToPayload(flow.getNodes()));
+
+        // Convertir les variables
+        payload.setVariables(convertVariablesToPayload(flow.getVariables()));
+
+        return payload;
+    }
+
     private List<FlowNodePayload> convertNodesToPayload(List<FlowNode> nodes) {
         return nodes.stream().map(this::convertNodeToPayload).toList();
     }
@@ -0,0 +1,206 @@
+package com.example.myproject.service;
+
+import com.example.myproject.web.rest.dto.flow.ButtonPayload;
+import com.example.myproject.web.rest.dto.flow.ConditionalConnectionPayload;
+import com.example.myproject.web.rest.dto.flow.FlowNodePayload;
+import com.example.myproject.web.rest.dto.flow.FlowPayload;
+import com.example.myproject.web.rest.dto.flow.ListItemPayload;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Flow chatbot compilé : nœuds indexés par id, nœud de départ, recherches de boutons /
+ * items de liste et conditions (expressions, regex) pré-calculés. Construit une fois par
+ * version du flow (cache de {@link ChatbotFlowService}) et partagé entre les conversations : lecture seule.
+ */
+public final class CompiledFlow {
+
+    private final Long userId;
+    private final Integer version;
+    private final FlowPayload payload;
+    private final Map<String, FlowNodePayload> nodesById;
+    private final FlowNodePayload startNode;
+    private final Map<String, Map<String, ButtonPayload>> buttonsByText;
+    private final Map<String, ListItemLookup> listItems;
+    private final Map<ConditionalConnectionPayload, ChatbotExpression> expressions;
+    private final Map<ConditionalConnectionPayload, Pattern> regexes;
+
+    private CompiledFlow(Long userId, Integer version, FlowPayload payload) {
+        this.userId = userId;
+        this.version = version;
+        this.payload = payload;
+
+        List<FlowNodePayload> nodes = payload.getNodes() != null ? payload.getNodes() : List.of();
+        Map<String, FlowNodePayload> byId = new HashMap<>(nodes.size() * 2);
+        Map<String, Map<String, ButtonPayload>> buttons = new HashMap<>();
+        Map<String, ListItemLookup> items = new HashMap<>();
+        Map<ConditionalConnectionPayload, ChatbotExpression> compiledExpressions = new IdentityHashMap<>();
+        Map<ConditionalConnectionPayload, Pattern> compiledRegexes = new IdentityHashMap<>();
+        FlowNodePayload start = null;
+
+        for (FlowNodePayload node : nodes) {
+            if (node.getId() == null) continue;
+            // Premier nœud gagnant en cas de doublon (comme l'ancienne recherche linéaire)
+            byId.putIfAbsent(node.getId(), node);
+            if (start == null && "start".equals(node.getType())) {
+                start = node;
+            }
+
+            if (node.getData() == null) continue;
+            if (node.getData().getButtons() != null && !node.getData().getButtons().isEmpty()) {
+                Map<String, ButtonPayload> byText = new HashMap<>();
+                for (ButtonPayload button : node.getData().getButtons()) {
+                    if (button.getText() != null) {
+                        byText.putIfAbsent(normalize(button.getText()), button);
+                    }
+                }
+                buttons.putIfAbsent(node.getId(), byText);
+            }
+            if (node.getData().getItems() != null && !node.getData().getItems().isEmpty()) {
+                items.putIfAbsent(node.getId(), new ListItemLookup(node.getData().getItems()));
+            }
+            if (node.getData().getConditionalConnections() != null) {
+                for (ConditionalConnectionPayload connection : node.getData().getConditionalConnections()) {
+                    compileCondition(connection, compiledExpressions, compiledRegexes);
+                }
+            }
+        }
+
+        this.nodesById = Collections.unmodifiableMap(byId);
+        this.startNode = start;
+        this.buttonsByText = Collections.unmodifiableMap(buttons);
+        this.listItems = Collections.unmodifiableMap(items);
+        this.expressions = compiledExpressions;
+        this.regexes = compiledRegexes;
+    }
+
+    private static void compileCondition(
+        ConditionalConnectionPayload connection,
+        Map<ConditionalConnectionPayload, ChatbotExpression> expressions,
+        Map<ConditionalConnectionPayload, Pattern> regexes
+    ) {
+        String operator = connection.getOperator();
+        if ("custom_expression".equals(operator)) {
+            expressions.put(connection, ChatbotExpression.compile(connection.getCondition()));
+        } else if (operator != null && "regex".equalsIgnoreCase(operator) && connection.getCondition() != null) {
+            try {
+                regexes.put(connection, Pattern.compile(connection.getCondition()));
+            } catch (PatternSyntaxException e) {
+                // Regex invalide : la condition reste fausse à l'évaluation
+            }
+        }
+    }
+
+    public static CompiledFlow compile(Long userId, Integer version, FlowPayload payload) {
+        return new CompiledFlow(userId, version, payload);
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public Integer getVersion() {
+        return version;
+    }
+
+    public String getName() {
+        return payload.getName();
+    }
+
+    public FlowPayload getPayload() {
+        return payload;
+    }
+
+    public boolean isEmpty() {
+        return nodesById.isEmpty();
+    }
+
+    public int getNodeCount() {
+        return nodesById.size();
+    }
+
+    public FlowNodePayload node(String nodeId) {
+        return nodeId != null ? nodesById.get(nodeId) : null;
+    }
+
+    public FlowNodePayload startNode() {
+        return startNode;
+    }
+
+    /**
+     * Bouton du nœud dont le texte correspond à la saisie (insensible à la casse).
+     */
+    public ButtonPayload findButton(FlowNodePayload node, String text) {
+        if (node == null || text == null) return null;
+        Map<String, ButtonPayload> byText = buttonsByText.get(node.getId());
+        return byText != null ? byText.get(normalize(text)) : null;
+    }
+
+    /**
+     * Item de liste du nœud : titre exact, puis id, puis valeur, puis titre partiel.
+     */
+    public ListItemPayload findListItem(FlowNodePayload node, String title) {
+        if (node == null || title == null) return null;
+        ListItemLookup lookup = listItems.get(node.getId());
+        return lookup != null ? lookup.find(title) : null;
+    }
+
+    /**
+     * Expression compilée d'une connexion "custom_expression" du flow.
+     */
+    public ChatbotExpression expression(ConditionalConnectionPayload connection) {
+        ChatbotExpression compiled = expressions.get(connection);
+        return compiled != null ? compiled : ChatbotExpression.compile(connection.getCondition());
+    }
+
+    /**
+     * Regex compilée d'une connexion "regex" du flow, null si invalide.
+     */
+    public Pattern regex(ConditionalConnectionPayload connection) {
+        return regexes.get(connection);
+    }
+
+    private static String normalize(String text) {
+        return text.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static final class ListItemLookup {
+
+        private final List<ListItemPayload> items;
+        private final Map<String, ListItemPayload> byTitle = new HashMap<>();
+        private final Map<String, ListItemPayload> byId = new HashMap<>();
+        private final Map<String, ListItemPayload> byValue = new HashMap<>();
+
+        ListItemLookup(List<ListItemPayload> items) {
+            this.items = List.copyOf(items);
+            for (ListItemPayload item : this.items) {
+                if (item.getTitle() != null) byTitle.putIfAbsent(item.getTitle().toLowerCase(Locale.ROOT), item);
+                if (item.getId() != null) byId.putIfAbsent(item.getId(), item);
+                if (item.getValue() != null) byValue.putIfAbsent(item.getValue().toLowerCase(Locale.ROOT), item);
+            }
+        }
+
+        ListItemPayload find(String title) {
+            String normalized = normalize(title);
+
+            ListItemPayload item = byTitle.get(normalized);
+            if (item == null) item = byId.get(title.trim());
+            if (item == null) item = byValue.get(normalized);
+            if (item != null) return item;
+
+            // Recherche partielle (contient) : seul cas linéaire, en dernier recours
+            for (ListItemPayload candidate : items) {
+                if (candidate.getTitle() != null && candidate.getTitle().toLowerCase(Locale.ROOT).contains(normalized)) {
+                    return candidate;
+                }
+            }
+            return null;
+        }
+    }
+}
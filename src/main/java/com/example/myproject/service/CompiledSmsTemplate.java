@@ -0,0 +1,171 @@
+package com.example.myproject.service;
+
+import com.example.myproject.domain.Contact;
+import com.example.myproject.service.helper.SmsEncodingHelper;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Template SMS compilé : contenu découpé une fois en segments littéraux et variables
+ * ({@code {{ nom }}}, {@code {{ prenom }}}, {@code {{ telephone }}} et champs personnalisés du contact).
+ *
+ * Le rendu écrit dans un {@link StringBuilder} fourni (réutilisable d'un contact à l'autre) et
+ * calcule les segments GSM-7 / UCS-2 dans la même passe. Une variable personnalisée absente des
+ * champs du contact est laissée telle quelle. Immuable : partageable entre threads.
+ */
+public final class CompiledSmsTemplate {
+
+    private static final Logger log = LoggerFactory.getLogger(CompiledSmsTemplate.class);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final TypeReference<Map<String, String>> CUSTOM_FIELDS_TYPE = new TypeReference<>() {};
+
+    private final List<Part> parts;
+    private final boolean hasCustomFields;
+
+    private CompiledSmsTemplate(List<Part> parts) {
+        this.parts = List.copyOf(parts);
+        this.hasCustomFields = parts.stream().anyMatch(p -> p.kind == Kind.CUSTOM);
+    }
+
+    public static CompiledSmsTemplate compile(String content) {
+        List<Part> parts = new ArrayList<>();
+        if (content == null || content.isEmpty()) {
+            return new CompiledSmsTemplate(parts);
+        }
+
+        int literalStart = 0;
+        int from = 0;
+        while (true) {
+            int open = content.indexOf("{{", from);
+            if (open < 0) break;
+            int close = content.indexOf("}}", open + 2);
+            if (close < 0) break;
+            // "{{{nom}}" ou "{{a {{nom}}" : la variable commence à la dernière ouverture
+            open = content.lastIndexOf("{{", close - 2);
+
+            if (open > literalStart) {
+                parts.add(Part.literal(content.substring(literalStart, open)));
+            }
+            String raw = content.substring(open, close + 2);
+            parts.add(Part.variable(trimSpaces(content, open + 2, close), raw));
+            literalStart = from = close + 2;
+        }
+        if (literalStart < content.length()) {
+            parts.add(Part.literal(content.substring(literalStart)));
+        }
+        return new CompiledSmsTemplate(parts);
+    }
+
+    /**
+     * Rend le message du contact (sans contact : variables laissées telles quelles).
+     */
+    public String render(Contact contact) {
+        StringBuilder out = new StringBuilder();
+        render(contact, out);
+        return out.toString();
+    }
+
+    /**
+     * Ajoute le message du contact à {@code out}.
+     *
+     * @return nombre de segments SMS du texte ajouté
+     */
+    public int render(Contact contact, StringBuilder out) {
+        int start = out.length();
+        boolean gsm7 = true;
+        Map<String, String> customFields = contact != null && hasCustomFields ? parseCustomFields(contact) : null;
+
+        for (Part part : parts) {
+            String value = contact != null ? part.resolve(contact, customFields) : part.text;
+            out.append(value);
+            if (gsm7) {
+                // Littéral ou variable non résolue : drapeau précalculé
+                gsm7 = value == part.text ? part.gsm7 : SmsEncodingHelper.isGsm7(value);
+            }
+        }
+        return SmsEncodingHelper.segments(out.length() - start, gsm7);
+    }
+
+    private static Map<String, String> parseCustomFields(Contact contact) {
+        String json = contact.getCustomFields();
+        if (json == null || json.isBlank()) {
+            return null;
+        }
+        try {
+            return MAPPER.readValue(json, CUSTOM_FIELDS_TYPE);
+        } catch (Exception e) {
+            // En cas de problème de conversion, on log et on continue
+            log.error("Erreur lors du parsing des customFields pour le contact {}: {}", contact.getContelephone(), e.getMessage());
+            return null;
+        }
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static String trimSpaces(String s, int from, int to) {
+        while (from < to && isSpace(s.charAt(from))) from++;
+        while (to > from && isSpace(s.charAt(to - 1))) to--;
+        return s.substring(from, to);
+    }
+
+    private enum Kind {
+        LITERAL,
+        NOM,
+        PRENOM,
+        TELEPHONE,
+        CUSTOM,
+    }
+
+    private static final class Part {
+
+        final Kind kind;
+        // Littéral, ou texte brut de la variable (rendu si non résolue)
+        final String text;
+        final String key;
+        final boolean gsm7;
+
+        private Part(Kind kind, String text, String key) {
+            this.kind = kind;
+            this.text = text;
+            this.key = key;
+            this.gsm7 = SmsEncodingHelper.isGsm7(text);
+        }
+
+        static Part literal(String text) {
+            return new Part(Kind.LITERAL, text, null);
+        }
+
+        static Part variable(String key, String raw) {
+            Kind kind =
+                switch (key) {
+                    case "nom" -> Kind.NOM;
+                    case "prenom" -> Kind.PRENOM;
+                    case "telephone" -> Kind.TELEPHONE;
+                    default -> Kind.CUSTOM;
+                };
+            return new Part(kind, raw, key);
+        }
+
+        String resolve(Contact contact, Map<String, String> customFields) {
+            return switch (kind) {
+                case LITERAL -> text;
+                case NOM -> orEmpty(contact.getConnom());
+                case PRENOM -> orEmpty(contact.getConprenom());
+                case TELEPHONE -> orEmpty(contact.getContelephone());
+                case CUSTOM -> customFields != null && customFields.containsKey(key) ? orEmpty(customFields.get(key)) : text;
+            };
+        }
+
+        private static String orEmpty(String value) {
+            return value != null ? value : "";
+        }
+    }
+}
@@ -9,6 +9,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,6 +35,9 @@ public class CompleteChatbotFlowExecutionService {
     // Services
     private final ChatbotFlowService chatbotFlowService;
 
+    // login → id utilisateur (stable), évite une requête par message
+    private final Map<String, Long> userIdsByLogin = new ConcurrentHashMap<>();
+
     // Patterns de validation
     private static final Pattern EMAIL_PATTERN = Pattern.compile("^[A-Za-z0-9+_.-]+@(.+)$");
     private static final Pattern PHONE_PATTERN = Pattern.compile("^[+]?[0-9]{8,15}$");
@@ -72,7 +76,12 @@ public class CompleteChatbotFlowExecutionService {
             ChatbotSession session = getOrCreateUniqueSession(phoneNumber, userLogin);
 
             // 2. VÉRIFIER ÉTAT 3CX ET TRAITER EN CONSÉQUENCE
-            return process3CXFlow(session, messageContent, messageType, mediaId);
+            try {
+                return process3CXFlow(session, messageContent, messageType, mediaId);
+            } finally {
+                // Une seule sérialisation des variables par message (écrite au commit)
+                flushVariables(session);
+            }
         } catch (Exception e) {
             log.error("💥 ERREUR traitement: {}", e.getMessage(), e);
             return new WhatsAppMultiResponse(createTextResponse("Erreur système. Tapez 'restart' pour recommencer."));
@@ -120,7 +129,7 @@ public class CompleteChatbotFlowExecutionService {
                 if (!session.getIsActive()) {
                     log.warn("⚠️ Session trouvée mais inactive, réactivation");
                     session.setIsActive(true);
-                    session = chatbotSessionRepository.save(session);
+                    session = saveSession(session);
                 }
 
                 return session;
@@ -140,7 +149,7 @@ public class CompleteChatbotFlowExecutionService {
             // Initialiser les variables de base
             initializeSessionVariables(newSession);
 
-            ChatbotSession savedSession = chatbotSessionRepository.save(newSession);
+            ChatbotSession savedSession = saveSession(newSession);
             log.info("✅ Nouvelle session créée: {}", savedSession.getId());
 
             return savedSession;
@@ -457,7 +466,7 @@ public class CompleteChatbotFlowExecutionService {
             variables.put("3cx.transferTime", "");
             variables.put("3cx.lastMessageId", "");
 
-            session.setVariables(objectMapper.writeValueAsString(variables));
+            variables(session).replaceAll(variables);
             log.debug("🔧 Variables session initialisées");
         } catch (Exception e) {
             log.warn("⚠️ Erreur initialisation variables: {}", e.getMessage());
@@ -530,7 +539,7 @@ public class CompleteChatbotFlowExecutionService {
             clearTemporaryUserVariables(session);
 
             // 4. Sauvegarder
-            chatbotSessionRepository.save(session);
+            saveSession(session);
 
             log.info("✅ Nettoyage 3CX et reset terminé - prêt pour nouveau flow");
         } catch (Exception e) {
@@ -567,7 +576,7 @@ public class CompleteChatbotFlowExecutionService {
                 // Supprimer les variables temporaires (user.last*, choix temporaires, etc.)
             }
 
-            session.setVariables(objectMapper.writeValueAsString(cleanedVariables));
+            variables(session).replaceAll(cleanedVariables);
             log.debug("🧹 Variables temporaires nettoyées, {} variables conservées", cleanedVariables.size());
         } catch (Exception e) {
             log.warn("⚠️ Erreur nettoyage variables temporaires: {}", e.getMessage());
@@ -615,15 +624,15 @@ public class CompleteChatbotFlowExecutionService {
         try {
             // 1. Récupérer le flow actif
             Long userId = getUserIdByLogin(session.getUserLogin());
-            FlowPayload flowPayload = chatbotFlowService.getCurrentFlow(userId);
+            CompiledFlow flow = chatbotFlowService.getCompiledFlow(userId);
 
-            if (flowPayload == null || flowPayload.getNodes() == null || flowPayload.getNodes().isEmpty()) {
+            if (flow == null || flow.isEmpty()) {
                 log.warn("❌ Aucun flow actif");
                 return new WhatsAppMultiResponse(createTextResponse("Aucun flow configuré."));
             }
 
             // 2. Vérifier commandes spéciales
-            WhatsAppResponse specialCommand = handleSpecialCommands(messageContent, session, flowPayload);
+            WhatsAppResponse specialCommand = handleSpecialCommands(messageContent, session, flow);
             if (specialCommand != null) {
                 updateSessionAndSave(session);
                 return new WhatsAppMultiResponse(specialCommand);
@@ -635,14 +644,14 @@ public class CompleteChatbotFlowExecutionService {
             }
 
             // 4. Déterminer le nœud de départ
-            FlowNodePayload startingNode = determineStartingNode(session, flowPayload, messageContent != null);
+            FlowNodePayload startingNode = determineStartingNode(session, flow, messageContent != null);
             if (startingNode == null) {
                 log.error("❌ Impossible de déterminer le nœud de départ");
                 return new WhatsAppMultiResponse(createTextResponse("Erreur de configuration."));
             }
 
             // 5. Traiter la séquence de nœuds
-            WhatsAppMultiResponse response = processNodeSequence(startingNode, flowPayload, session, messageContent, messageType, mediaId);
+            WhatsAppMultiResponse response = processNodeSequence(startingNode, flow, session, messageContent, messageType, mediaId);
 
             // 6. Sauvegarder la session
             updateSessionAndSave(session);
@@ -659,19 +668,19 @@ public class CompleteChatbotFlowExecutionService {
      * CORRECTION 1: GESTION SYNCHRONE DU CONVERSATION ID
      * Au lieu d'attendre asynchrone, on récupère DIRECTEMENT après le transfert
      */
-    private WhatsAppResponse executeWebhookNode(FlowNodePayload node, FlowPayload flowPayload, ChatbotSession session) {
+    private WhatsAppResponse executeWebhookNode(FlowNodePayload node, CompiledFlow flow, ChatbotSession session) {
         NodeDataPayload data = node.getData();
 
         if (data.getWebhookUrl() != null && !data.getWebhookUrl().isEmpty()) {
             log.info("🔗 TRANSFERT INITIAL vers 3CX avec historique complet");
 
             // 1. Préparer TOUT l'historique de la conversation
-            Map<String, Object> webhookData = prepareCompleteConversationDataFixed(session, flowPayload);
+            Map<String, Object> webhookData = prepareCompleteConversationDataFixed(session, flow);
             webhookData.put("sessionId", session.getId());
             webhookData.put("isInitialTransfer", true);
 
             // 2. Ajouter résumé intelligent pour l'agent
-            String intelligentSummary = buildIntelligentConversationSummaryFixed(session, flowPayload);
+            String intelligentSummary = buildIntelligentConversationSummaryFixed(session, flow);
             webhookData.put("agentSummary", intelligentSummary);
 
             // 3. Envoyer vers 3CX avec historique complet
@@ -691,7 +700,7 @@ public class CompleteChatbotFlowExecutionService {
                         set3CXStatus(session, true);
 
                         // Sauvegarder immédiatement
-                        chatbotSessionRepository.save(session);
+                        saveSession(session);
 
                         log.info("✅ Conversation ID {} sauvegardé IMMÉDIATEMENT pour session {}", conversationId, session.getId());
                     } else {
@@ -770,7 +779,7 @@ public class CompleteChatbotFlowExecutionService {
     /**
      * CORRECTION 3: PRÉPARATION DONNÉES AVEC SESSION RÉELLE
      */
-    private Map<String, Object> prepareCompleteConversationDataFixed(ChatbotSession session, FlowPayload flowPayload) {
+    private Map<String, Object> prepareCompleteConversationDataFixed(ChatbotSession session, CompiledFlow flow) {
         Map<String, Object> data = new HashMap<>();
 
         try {
@@ -781,7 +790,7 @@ public class CompleteChatbotFlowExecutionService {
             data.put("sessionId", session.getId());
             data.put("phoneNumber", session.getPhoneNumber());
             data.put("userLogin", session.getUserLogin());
-            data.put("flowName", flowPayload.getName());
+            data.put("flowName", flow.getName());
 
             // CORRECTION CRITIQUE: Récupérer les variables DIRECTEMENT depuis la session
             Map<String, Object> variables = getSessionVariablesDirect(session);
@@ -817,33 +826,13 @@ public class CompleteChatbotFlowExecutionService {
     }
 
     /**
-     * CORRECTION 4: RÉCUPÉRATION DIRECTE DES VARIABLES SANS CACHE
+     * CORRECTION 4: RÉCUPÉRATION DES VARIABLES À JOUR DE LA SESSION
      */
     private Map<String, Object> getSessionVariablesDirect(ChatbotSession session) {
-        try {
-            // Recharger la session depuis la base pour être sûr d'avoir les dernières données
-            Optional<ChatbotSession> freshSession = chatbotSessionRepository.findById(session.getId());
-
-            if (freshSession.isPresent()) {
-                String variablesJson = freshSession.get().getVariables();
-
-                if (variablesJson == null || variablesJson.isEmpty()) {
-                    log.warn("⚠️ Variables vides pour session: {}", session.getId());
-                    return new HashMap<>();
-                }
-
-                Map<String, Object> variables = objectMapper.readValue(variablesJson, HashMap.class);
-                log.debug("📦 Variables rechargées: {} entrées", variables.size());
-
-                return variables;
-            } else {
-                log.error("❌ Session {} non trouvée lors du rechargement", session.getId());
-                return new HashMap<>();
-            }
-        } catch (Exception e) {
-            log.error("❌ Erreur rechargement variables session: {}", e.getMessage(), e);
-            return new HashMap<>();
-        }
+        // Les variables en mémoire font foi : elles incluent les modifications non encore sérialisées
+        Map<String, Object> variables = getSessionVariables(session);
+        log.debug("📦 Variables session {}: {} entrées", session.getId(), variables.size());
+        return variables;
     }
 
     /**
@@ -1123,7 +1112,7 @@ public class CompleteChatbotFlowExecutionService {
      */
     private WhatsAppResponse executeFileNode(
         FlowNodePayload node,
-        FlowPayload flowPayload,
+        CompiledFlow flow,
         ChatbotSession session,
         String messageType,
         String mediaId
@@ -1188,8 +1177,8 @@ public class CompleteChatbotFlowExecutionService {
 
         // Sauvegarder les variables
         try {
-            session.setVariables(objectMapper.writeValueAsString(variables));
-            chatbotSessionRepository.save(session);
+            variables(session).replaceAll(variables);
+            saveSession(session);
         } catch (Exception e) {
             log.error("❌ Erreur sauvegarde fichier: {}", e.getMessage());
         }
@@ -1200,10 +1189,10 @@ public class CompleteChatbotFlowExecutionService {
         String nextNodeId = node.getNextNodeId();
         if (nextNodeId != null) {
             session.setCurrentNodeId(nextNodeId);
-            FlowNodePayload nextNode = findNodeById(flowPayload, nextNodeId);
+            FlowNodePayload nextNode = findNodeById(flow, nextNodeId);
             if (nextNode != null) {
                 // CORRECTION: PAS DE MESSAGE DE CONFIRMATION
-                return executeNodeByType(nextNode, flowPayload, session, null, null, null);
+                return executeNodeByType(nextNode, flow, session, null, null, null);
             }
         }
 
@@ -1215,7 +1204,7 @@ public class CompleteChatbotFlowExecutionService {
     /**
      * CORRECTION 7: RÉSUMÉ INTELLIGENT POUR AGENT AVEC SESSION RÉELLE
      */
-    private String buildIntelligentConversationSummaryFixed(ChatbotSession session, FlowPayload flowPayload) {
+    private String buildIntelligentConversationSummaryFixed(ChatbotSession session, CompiledFlow flow) {
         try {
             // Récupérer les variables FRAÎCHES
             Map<String, Object> variables = getSessionVariablesDirect(session);
@@ -1454,14 +1443,14 @@ public class CompleteChatbotFlowExecutionService {
     /**
      * Détermine intelligemment le nœud de départ selon le contexte
      */
-    private FlowNodePayload determineStartingNode(ChatbotSession session, FlowPayload flowPayload, boolean hasUserInput) {
+    private FlowNodePayload determineStartingNode(ChatbotSession session, CompiledFlow flow, boolean hasUserInput) {
         String currentNodeId = session.getCurrentNodeId();
-        FlowNodePayload currentNode = findNodeById(flowPayload, currentNodeId);
+        FlowNodePayload currentNode = findNodeById(flow, currentNodeId);
 
         // CAS 1: Nœud actuel inexistant -> chercher le start
         if (currentNode == null) {
             log.debug("🔍 Nœud actuel {} non trouvé, recherche du nœud start", currentNodeId);
-            FlowNodePayload startNode = findStartNode(flowPayload);
+            FlowNodePayload startNode = findStartNode(flow);
             if (startNode != null) {
                 session.setCurrentNodeId(startNode.getId());
                 return startNode;
@@ -1474,7 +1463,7 @@ public class CompleteChatbotFlowExecutionService {
             log.debug("🏁 Nœud START détecté, passage automatique au suivant");
             String nextNodeId = currentNode.getNextNodeId();
             if (nextNodeId != null) {
-                FlowNodePayload nextNode = findNodeById(flowPayload, nextNodeId);
+                FlowNodePayload nextNode = findNodeById(flow, nextNodeId);
                 if (nextNode != null) {
                     session.setCurrentNodeId(nextNodeId);
                     return nextNode;
@@ -1499,7 +1488,7 @@ public class CompleteChatbotFlowExecutionService {
      */
     private WhatsAppMultiResponse processNodeSequence(
         FlowNodePayload startNode,
-        FlowPayload flowPayload,
+        CompiledFlow flow,
         ChatbotSession session,
         String userInput,
         String messageType,
@@ -1522,7 +1511,7 @@ public class CompleteChatbotFlowExecutionService {
             // ÉTAPE 1: Exécuter le nœud actuel
             WhatsAppResponse nodeResponse = executeNodeByType(
                 currentNode,
-                flowPayload,
+                flow,
                 session,
                 isFirstNode ? userInput : null, // Seul le premier nœud reçoit l'input utilisateur
                 isFirstNode ? messageType : null,
@@ -1544,7 +1533,7 @@ public class CompleteChatbotFlowExecutionService {
             }
 
             // ÉTAPE 4: Déterminer et passer au nœud suivant
-            String nextNodeId = determineNextNodeId(currentNode, session);
+            String nextNodeId = determineNextNodeId(currentNode, flow, session);
             if (nextNodeId == null) {
                 log.debug("🏁 Fin de séquence - pas de nœud suivant");
                 break;
@@ -1552,7 +1541,7 @@ public class CompleteChatbotFlowExecutionService {
 
             // ÉTAPE 5: Mettre à jour la session avec le nœud suivant
             session.setCurrentNodeId(nextNodeId);
-            currentNode = findNodeById(flowPayload, nextNodeId);
+            currentNode = findNodeById(flow, nextNodeId);
 
             if (currentNode == null) {
                 log.warn("⚠️ Nœud suivant {} non trouvé", nextNodeId);
@@ -1636,7 +1625,7 @@ public class CompleteChatbotFlowExecutionService {
     /**
      * Détermine l'ID du nœud suivant selon le type de nœud et les conditions
      */
-    private String determineNextNodeId(FlowNodePayload node, ChatbotSession session) {
+    private String determineNextNodeId(FlowNodePayload node, CompiledFlow flow, ChatbotSession session) {
         try {
             log.debug("🔍 Détermination nœud suivant pour: {} (type: {})", node.getId(), node.getType());
 
@@ -1679,7 +1668,7 @@ public class CompleteChatbotFlowExecutionService {
                     return node.getNextNodeId();
                 case "condition":
                     // Pour les conditions, évaluer et retourner le nœud approprié
-                    return evaluateConditionAndGetNextNode(node, session);
+                    return evaluateConditionAndGetNextNode(node, flow, session);
                 case "end":
                     // Nœud de fin, pas de suivant
                     return null;
@@ -1696,11 +1685,11 @@ public class CompleteChatbotFlowExecutionService {
     /**
      * Évalue une condition et retourne l'ID du nœud suivant
      */
-    private String evaluateConditionAndGetNextNode(FlowNodePayload conditionNode, ChatbotSession session) {
+    private String evaluateConditionAndGetNextNode(FlowNodePayload conditionNode, CompiledFlow flow, ChatbotSession session) {
         try {
             NodeDataPayload data = conditionNode.getData();
-            Map<String, Object> variables = getSessionVariables(session);
-            String lastUserInput = (String) variables.get("user.lastMessage");
+            Map<String, Object> variables = variables(session).asMap();
+            String lastUserInput = variables(session).getString("user.lastMessage", null);
 
             log.debug("🔀 Évaluation condition pour détermination nœud suivant");
 
@@ -1712,11 +1701,11 @@ public class CompleteChatbotFlowExecutionService {
                     if ("custom_expression".equals(connection.getOperator())) {
                         // Expression custom
                         String expression = connection.getCondition();
-                        conditionMet = evaluateCustomExpression(expression, lastUserInput, variables);
+                        conditionMet = flow.expression(connection).evaluate(lastUserInput, variables);
                         log.debug("🧪 Expression custom '{}' = {}", expression, conditionMet);
                     } else {
                         // Condition standard
-                        conditionMet = evaluateCondition(connection, data, session);
+                        conditionMet = evaluateCondition(connection, data, flow, session);
                         log.debug("🧪 Condition standard '{}' = {}", connection.getCondition(), conditionMet);
                     }
 
@@ -1745,7 +1734,7 @@ public class CompleteChatbotFlowExecutionService {
     /**
      * Exécution du nœud START optimisée
      */
-    private WhatsAppResponse executeStartNode(FlowNodePayload node, FlowPayload flowPayload, ChatbotSession session) {
+    private WhatsAppResponse executeStartNode(FlowNodePayload node, CompiledFlow flow, ChatbotSession session) {
         log.debug("🏁 Exécution nœud START - passage automatique au suivant");
 
         // Le nœud START ne fait rien d'autre que passer au suivant
@@ -1762,7 +1751,7 @@ public class CompleteChatbotFlowExecutionService {
     /**
      * Exécution des nœuds message avec logique waitForUserResponse
      */
-    private WhatsAppResponse executeMessageNode(FlowNodePayload node, FlowPayload flowPayload, ChatbotSession session) {
+    private WhatsAppResponse executeMessageNode(FlowNodePayload node, CompiledFlow flow, ChatbotSession session) {
         NodeDataPayload data = node.getData();
         String text = data.getText();
 
@@ -1790,7 +1779,7 @@ public class CompleteChatbotFlowExecutionService {
      * EXÉCUTION NŒUD BOUTONS
      * ================================
      */
-    private WhatsAppResponse executeButtonsNode(FlowNodePayload node, FlowPayload flowPayload, ChatbotSession session, String userInput) {
+    private WhatsAppResponse executeButtonsNode(FlowNodePayload node, CompiledFlow flow, ChatbotSession session, String userInput) {
         NodeDataPayload data = node.getData();
 
         // Si première visite, envoyer les boutons
@@ -1811,7 +1800,7 @@ public class CompleteChatbotFlowExecutionService {
         // Traiter la réponse utilisateur
         log.debug("🎯 Traitement choix utilisateur: {}", userInput);
 
-        ButtonPayload selectedButton = findButtonByText(data.getButtons(), userInput);
+        ButtonPayload selectedButton = flow.findButton(node, userInput);
         if (selectedButton != null) {
             log.debug("✅ Bouton sélectionné: {}", selectedButton.getText());
 
@@ -1829,10 +1818,10 @@ public class CompleteChatbotFlowExecutionService {
 
             if (nextNodeId != null) {
                 session.setCurrentNodeId(nextNodeId);
-                FlowNodePayload nextNode = findNodeById(flowPayload, nextNodeId);
+                FlowNodePayload nextNode = findNodeById(flow, nextNodeId);
                 if (nextNode != null) {
                     // CORRECTION: PASSER DIRECTEMENT AU NŒUD SUIVANT SANS MESSAGE
-                    return executeNodeByType(nextNode, flowPayload, session, null, null, null);
+                    return executeNodeByType(nextNode, flow, session, null, null, null);
                 }
             }
 
@@ -1851,7 +1840,7 @@ public class CompleteChatbotFlowExecutionService {
      * EXÉCUTION NŒUD LISTE DÉROULANTE
      * ================================
      */
-    private WhatsAppResponse executeListNode(FlowNodePayload node, FlowPayload flowPayload, ChatbotSession session, String userInput) {
+    private WhatsAppResponse executeListNode(FlowNodePayload node, CompiledFlow flow, ChatbotSession session, String userInput) {
         NodeDataPayload data = node.getData();
 
         // Si première visite, envoyer la liste
@@ -1875,7 +1864,7 @@ public class CompleteChatbotFlowExecutionService {
         // Traiter la sélection utilisateur
         log.debug("🎯 Traitement sélection utilisateur: '{}' pour nœud: {}", userInput, node.getId());
 
-        ListItemPayload selectedItem = findListItemByTitle(data.getItems(), userInput);
+        ListItemPayload selectedItem = flow.findListItem(node, userInput);
 
         // Si pas trouvé par titre, chercher par index numérique
         if (selectedItem == null && userInput.matches("\\d+")) {
@@ -1907,10 +1896,10 @@ public class CompleteChatbotFlowExecutionService {
 
             if (nextNodeId != null && !nextNodeId.isEmpty()) {
                 session.setCurrentNodeId(nextNodeId);
-                FlowNodePayload nextNode = findNodeById(flowPayload, nextNodeId);
+                FlowNodePayload nextNode = findNodeById(flow, nextNodeId);
                 if (nextNode != null) {
                     // CORRECTION: PASSER DIRECTEMENT AU NŒUD SUIVANT SANS MESSAGE
-                    return executeNodeByType(nextNode, flowPayload, session, null, null, null);
+                    return executeNodeByType(nextNode, flow, session, null, null, null);
                 } else {
                     log.error("❌ Nœud suivant '{}' non trouvé dans le flow", nextNodeId);
                     return createTextResponse("❌ Erreur de configuration - nœud suivant non trouvé.");
@@ -1945,7 +1934,7 @@ public class CompleteChatbotFlowExecutionService {
      */
     private WhatsAppResponse executeInputNode(
         FlowNodePayload node,
-        FlowPayload flowPayload,
+        CompiledFlow flow,
         ChatbotSession session,
         String userInput,
         String messageType,
@@ -2008,9 +1997,9 @@ public class CompleteChatbotFlowExecutionService {
         String nextNodeId = node.getNextNodeId();
         if (nextNodeId != null) {
             session.setCurrentNodeId(nextNodeId);
-            FlowNodePayload nextNode = findNodeById(flowPayload, nextNodeId);
+            FlowNodePayload nextNode = findNodeById(flow, nextNodeId);
             if (nextNode != null) {
-                return executeNodeByType(nextNode, flowPayload, session, null, null, null);
+                return executeNodeByType(nextNode, flow, session, null, null, null);
             }
         }
 
@@ -2312,7 +2301,7 @@ public class CompleteChatbotFlowExecutionService {
             }
 
             // Sauvegarder les variables mises à jour
-            session.setVariables(objectMapper.writeValueAsString(variables));
+            variables(session).replaceAll(variables);
 
             log.debug("💾 Métadonnées média sauvegardées: {}={}, type={}", variableName, mediaId, messageType);
         } catch (Exception e) {
@@ -2327,7 +2316,7 @@ public class CompleteChatbotFlowExecutionService {
      */
     private WhatsAppResponse executeNodeByType(
         FlowNodePayload node,
-        FlowPayload flowPayload,
+        CompiledFlow flow,
         ChatbotSession session,
         String userInput,
         String messageType,
@@ -2337,28 +2326,28 @@ public class CompleteChatbotFlowExecutionService {
 
         switch (node.getType()) {
             case "start":
-                return executeStartNode(node, flowPayload, session);
+                return executeStartNode(node, flow, session);
             case "message":
-                return executeMessageNode(node, flowPayload, session);
+                return executeMessageNode(node, flow, session);
             case "buttons":
-                return executeButtonsNode(node, flowPayload, session, userInput);
+                return executeButtonsNode(node, flow, session, userInput);
             case "list":
-                return executeListNode(node, flowPayload, session, userInput);
+                return executeListNode(node, flow, session, userInput);
             case "input":
                 // CORRECTION: Passer tous les paramètres nécessaires
-                return executeInputNode(node, flowPayload, session, userInput, messageType, mediaId);
+                return executeInputNode(node, flow, session, userInput, messageType, mediaId);
             case "wait_response":
-                return executeWaitResponseNode(node, flowPayload, session, userInput);
+                return executeWaitResponseNode(node, flow, session, userInput);
             case "condition":
-                return executeConditionNode(node, flowPayload, session);
+                return executeConditionNode(node, flow, session);
             case "variable_set":
-                return executeVariableSetNode(node, flowPayload, session);
+                return executeVariableSetNode(node, flow, session);
             case "image":
-                return executeImageNode(node, flowPayload, session);
+                return executeImageNode(node, flow, session);
             case "file":
-                return executeFileNode(node, flowPayload, session, messageType, mediaId);
+                return executeFileNode(node, flow, session, messageType, mediaId);
             case "webhook":
-                return executeWebhookNode(node, flowPayload, session);
+                return executeWebhookNode(node, flow, session);
             case "end":
                 return executeEndNode(node, session);
             default:
@@ -2594,8 +2583,8 @@ public class CompleteChatbotFlowExecutionService {
             }
 
             // Sauvegarder immédiatement les variables
-            session.setVariables(objectMapper.writeValueAsString(variables));
-            chatbotSessionRepository.save(session);
+            variables(session).replaceAll(variables);
+            saveSession(session);
 
             log.info(
                 "✅ Input validé et sauvegardé: messageCount={}, type={}, hasMedia={}",
@@ -2639,7 +2628,7 @@ public class CompleteChatbotFlowExecutionService {
      */
     private WhatsAppResponse executeWaitResponseNode(
         FlowNodePayload node,
-        FlowPayload flowPayload,
+        CompiledFlow flow,
         ChatbotSession session,
         String userInput
     ) {
@@ -2664,10 +2653,10 @@ public class CompleteChatbotFlowExecutionService {
         String nextNodeId = node.getNextNodeId();
         if (nextNodeId != null) {
             session.setCurrentNodeId(nextNodeId);
-            FlowNodePayload nextNode = findNodeById(flowPayload, nextNodeId);
+            FlowNodePayload nextNode = findNodeById(flow, nextNodeId);
             if (nextNode != null) {
                 // CORRECTION: PAS DE MESSAGE DE CONFIRMATION
-                return executeNodeByType(nextNode, flowPayload, session, null, null, null);
+                return executeNodeByType(nextNode, flow, session, null, null, null);
             }
         }
 
@@ -2679,11 +2668,11 @@ public class CompleteChatbotFlowExecutionService {
     /**
      * Exécution des nœuds condition sans réponse visible
      */
-    private WhatsAppResponse executeConditionNode(FlowNodePayload node, FlowPayload flowPayload, ChatbotSession session) {
+    private WhatsAppResponse executeConditionNode(FlowNodePayload node, CompiledFlow flow, ChatbotSession session) {
         log.debug("🔀 Évaluation condition - nœud: {}", node.getId());
 
         // La logique d'évaluation est déjà dans determineNextNodeId
-        String nextNodeId = determineNextNodeId(node, session);
+        String nextNodeId = determineNextNodeId(node, flow, session);
         if (nextNodeId != null) {
             session.setCurrentNodeId(nextNodeId);
             log.debug("✅ Condition évaluée, passage au nœud: {}", nextNodeId);
@@ -2696,7 +2685,7 @@ public class CompleteChatbotFlowExecutionService {
     /**
      * Exécution des nœuds variable_set sans réponse
      */
-    private WhatsAppResponse executeVariableSetNode(FlowNodePayload node, FlowPayload flowPayload, ChatbotSession session) {
+    private WhatsAppResponse executeVariableSetNode(FlowNodePayload node, CompiledFlow flow, ChatbotSession session) {
         NodeDataPayload data = node.getData();
 
         if (data.getVariableName() != null) {
@@ -2720,7 +2709,7 @@ public class CompleteChatbotFlowExecutionService {
      * EXÉCUTION NŒUD IMAGE
      * ================================
      */
-    private WhatsAppResponse executeImageNode(FlowNodePayload node, FlowPayload flowPayload, ChatbotSession session) {
+    private WhatsAppResponse executeImageNode(FlowNodePayload node, CompiledFlow flow, ChatbotSession session) {
         NodeDataPayload data = node.getData();
 
         if (data.getImageUrl() == null || data.getImageUrl().isEmpty()) {
@@ -3165,11 +3154,11 @@ public class CompleteChatbotFlowExecutionService {
                 variables.put("3cx.active", "true"); // S'assurer que 3CX est marqué comme actif
 
                 // Sauvegarder les variables mises à jour
-                session.setVariables(objectMapper.writeValueAsString(variables));
+                variables(session).replaceAll(variables);
                 session.setLastInteraction(Instant.now());
 
                 // Sauvegarder en base
-                chatbotSessionRepository.save(session);
+                saveSession(session);
 
                 log.info("✅ Conversation ID {} sauvegardé avec succès pour session {}", conversationId, sessionId);
 
@@ -3311,7 +3300,7 @@ public class CompleteChatbotFlowExecutionService {
      * GESTION DES COMMANDES SPÉCIALES
      * ================================
      */
-    private WhatsAppResponse handleSpecialCommands(String message, ChatbotSession session, FlowPayload flowPayload) {
+    private WhatsAppResponse handleSpecialCommands(String message, ChatbotSession session, CompiledFlow flow) {
         if (message == null) return null;
 
         String lowerMessage = message.toLowerCase().trim();
@@ -3321,7 +3310,7 @@ public class CompleteChatbotFlowExecutionService {
             case "recommencer":
             case "reset":
             case "اعادة":
-                return handleRestartCommand(session, flowPayload);
+                return handleRestartCommand(session, flow);
             case "help":
             case "aide":
             case "menu":
@@ -3335,7 +3324,7 @@ public class CompleteChatbotFlowExecutionService {
             case "stop":
                 return handleEndCommand(session);
             case "debug":
-                return handleDebugCommand(session, flowPayload);
+                return handleDebugCommand(session, flow);
             default:
                 return null; // Pas de commande spéciale
         }
@@ -3346,7 +3335,7 @@ public class CompleteChatbotFlowExecutionService {
      * CORRECTION 8: COMMANDE RESTART AMÉLIORÉE
      * ================================
      */
-    private WhatsAppResponse handleRestartCommand(ChatbotSession session, FlowPayload flowPayload) {
+    private WhatsAppResponse handleRestartCommand(ChatbotSession session, CompiledFlow flow) {
         try {
             log.info("🔄 RESTART demandé pour session: {}", session.getId());
 
@@ -3362,7 +3351,7 @@ public class CompleteChatbotFlowExecutionService {
             initializeSessionVariables(session);
 
             // 4. Sauvegarder
-            chatbotSessionRepository.save(session);
+            saveSession(session);
 
             log.info("✅ Session COMPLÈTEMENT redémarrée: {}", session.getPhoneNumber());
             return createTextResponse("🔄 **Conversation redémarrée**\n\nTout est remis à zéro. Comment puis-je vous aider ?");
@@ -3412,14 +3401,14 @@ public class CompleteChatbotFlowExecutionService {
         return createTextResponse("👋 **Conversation terminée**\n\nMerci pour votre visite. Tapez n'importe quoi pour recommencer.");
     }
 
-    private WhatsAppResponse handleDebugCommand(ChatbotSession session, FlowPayload flowPayload) {
+    private WhatsAppResponse handleDebugCommand(ChatbotSession session, CompiledFlow flow) {
         try {
             Map<String, Object> variables = getSessionVariables(session);
 
             StringBuilder debug = new StringBuilder("🔧 **Informations de debug:**\n\n");
             debug.append("• Session ID: ").append(session.getId()).append("\n");
-            debug.append("• Flow: ").append(flowPayload.getName()).append("\n");
-            debug.append("• Nœuds total: ").append(flowPayload.getNodes().size()).append("\n");
+            debug.append("• Flow: ").append(flow.getName()).append("\n");
+            debug.append("• Nœuds total: ").append(flow.getNodeCount()).append("\n");
             debug.append("• Variables (").append(variables.size()).append("):\n");
 
             for (Map.Entry<String, Object> entry : variables.entrySet()) {
@@ -3444,7 +3433,7 @@ public class CompleteChatbotFlowExecutionService {
             if (session.getIsActive() == null) {
                 session.setIsActive(true);
             }
-            chatbotSessionRepository.save(session);
+            saveSession(session);
             log.debug("💾 Session sauvegardée: {} (active: {})", session.getId(), session.getIsActive());
         } catch (Exception e) {
             log.error("❌ Erreur sauvegarde session: {}", e.getMessage());
@@ -3456,38 +3445,63 @@ public class CompleteChatbotFlowExecutionService {
      * MÉTHODES UTILITAIRES - VARIABLES
      * ================================
      */
-    private Map<String, Object> getSessionVariables(ChatbotSession session) {
+    /**
+     * Variables de la session, désérialisées une seule fois par chargement de la session.
+     */
+    private SessionVariables variables(ChatbotSession session) {
+        SessionVariables store = session.getVariableStore();
+        if (store == null) {
+            store = new SessionVariables(parseVariables(session.getVariables()));
+            session.setVariableStore(store);
+        }
+        return store;
+    }
+
+    private Map<String, Object> parseVariables(String json) {
         try {
-            if (session.getVariables() == null || session.getVariables().isEmpty()) {
+            if (json == null || json.isEmpty()) {
                 return new HashMap<>();
             }
-            return objectMapper.readValue(session.getVariables(), HashMap.class);
+            return objectMapper.readValue(json, HashMap.class);
         } catch (Exception e) {
             log.warn("⚠️ Erreur lecture variables session: {}", e.getMessage());
             return new HashMap<>();
         }
     }
 
-    private String getSessionVariable(ChatbotSession session, String key, String defaultValue) {
+    /**
+     * Re-sérialise les variables dans la colonne JSON, uniquement si elles ont changé.
+     */
+    private void flushVariables(ChatbotSession session) {
+        SessionVariables store = session.getVariableStore();
+        if (store == null || !store.isDirty()) {
+            return;
+        }
         try {
-            Map<String, Object> variables = getSessionVariables(session);
-            Object value = variables.get(key);
-            return value != null ? value.toString() : defaultValue;
+            session.setVariables(objectMapper.writeValueAsString(store.asMap()));
+            session.setVariableStore(store);
+            store.markClean();
         } catch (Exception e) {
-            log.error("❌ Erreur lors de la récupération de la variable '{}' de la session: {}", key, e.getMessage(), e);
-            return defaultValue;
+            log.warn("⚠️ Erreur sérialisation variables session {}: {}", session.getId(), e.getMessage());
         }
     }
 
+    private ChatbotSession saveSession(ChatbotSession session) {
+        flushVariables(session);
+        return chatbotSessionRepository.save(session);
+    }
+
+    private Map<String, Object> getSessionVariables(ChatbotSession session) {
+        return variables(session).snapshot();
+    }
+
+    private String getSessionVariable(ChatbotSession session, String key, String defaultValue) {
+        return variables(session).getString(key, defaultValue);
+    }
+
     private void setSessionVariable(ChatbotSession session, String key, String value) {
-        try {
-            Map<String, Object> variables = getSessionVariables(session);
-            variables.put(key, value);
-            session.setVariables(objectMapper.writeValueAsString(variables));
-            log.debug("💾 Variable mise à jour: {} = {}", key, value);
-        } catch (Exception e) {
-            log.warn("⚠️ Erreur lors de la définition de la variable {}: {}", key, e.getMessage());
-        }
+        variables(session).put(key, value);
+        log.debug("💾 Variable mise à jour: {} = {}", key, value);
     }
 
     private String replaceVariablesInText(String text, ChatbotSession session) {
@@ -3495,24 +3509,19 @@ public class CompleteChatbotFlowExecutionService {
             return text;
         }
 
-        try {
-            Map<String, Object> variables = getSessionVariables(session);
-            String result = text;
+        Map<String, Object> variables = variables(session).asMap();
+        String result = text;
 
-            for (Map.Entry<String, Object> entry : variables.entrySet()) {
-                String placeholder = "{" + entry.getKey() + "}";
-                if (result.contains(placeholder)) {
-                    String value = entry.getValue() != null ? entry.getValue().toString() : "";
-                    result = result.replace(placeholder, value);
-                }
+        for (Map.Entry<String, Object> entry : variables.entrySet()) {
+            String placeholder = "{" + entry.getKey() + "}";
+            if (result.contains(placeholder)) {
+                String value = entry.getValue() != null ? entry.getValue().toString() : "";
+                result = result.replace(placeholder, value);
             }
-
-            log.debug("🔄 Variables remplacées dans le texte: {} variables utilisées", variables.size());
-            return result;
-        } catch (Exception e) {
-            log.warn("⚠️ Erreur lors du remplacement des variables: {}", e.getMessage());
-            return text;
         }
+
+        log.debug("🔄 Variables remplacées dans le texte: {} variables utilisées", variables.size());
+        return result;
     }
 
     /**
@@ -3520,7 +3529,12 @@ public class CompleteChatbotFlowExecutionService {
      * MÉTHODES UTILITAIRES - CONDITIONS
      * ================================
      */
-    private boolean evaluateCondition(ConditionalConnectionPayload connection, NodeDataPayload nodeData, ChatbotSession session) {
+    private boolean evaluateCondition(
+        ConditionalConnectionPayload connection,
+        NodeDataPayload nodeData,
+        CompiledFlow flow,
+        ChatbotSession session
+    ) {
         try {
             String variable = nodeData.getVariable();
             String operator = connection.getOperator() != null ? connection.getOperator() : "equals";
@@ -3565,12 +3579,12 @@ public class CompleteChatbotFlowExecutionService {
                         return false;
                     }
                 case "regex":
-                    try {
-                        return Pattern.compile(expectedValue).matcher(actualValue).matches();
-                    } catch (Exception e) {
-                        log.warn("⚠️ Erreur dans la regex: {}", e.getMessage());
+                    Pattern pattern = flow.regex(connection);
+                    if (pattern == null) {
+                        log.warn("⚠️ Regex invalide: {}", expectedValue);
                         return false;
                     }
+                    return pattern.matcher(actualValue).matches();
                 default:
                     log.warn("⚠️ Opérateur de condition non supporté: {}", operator);
                     return false;
@@ -3581,135 +3595,6 @@ public class CompleteChatbotFlowExecutionService {
         }
     }
 
-    /**
-     * Évalue une expression custom comme "result contains 'x' and result is text"
-     */
-    private boolean evaluateCustomExpression(String expression, String userInput, Map<String, Object> variables) {
-        if (expression == null || expression.trim().isEmpty()) {
-            return false;
-        }
-
-        try {
-            String input = userInput != null ? userInput.toLowerCase().trim() : "";
-            String expr = expression.toLowerCase().trim();
-
-            log.debug("🔍 Évaluation expression custom: '{}' avec input: '{}'", expr, input);
-
-            // Remplacer 'result' par la valeur d'input
-            expr = expr.replace("result", "'" + input + "'");
-
-            // Parser les différents patterns
-            expr = parseContainsPattern(expr);
-            expr = parseIsTextPattern(expr, input);
-            expr = parseIsNumberPattern(expr, input);
-            expr = parseIsFilePattern(expr, input);
-            expr = parseLogicalOperators(expr);
-
-            log.debug("🔄 Expression transformée: '{}'", expr);
-
-            // Évaluation finale
-            boolean result = evaluateTransformedExpression(expr);
-            log.debug("✅ Résultat expression custom: {}", result);
-
-            return result;
-        } catch (Exception e) {
-            log.error("❌ Erreur évaluation expression custom '{}': {}", expression, e.getMessage(), e);
-            return false;
-        }
-    }
-
-    /**
-     * Parse le pattern "contains 'value'"
-     */
-    private String parseContainsPattern(String expr) {
-        return expr.replaceAll("'([^']+)'\\s+contains\\s+'([^']+)'", "'" + "$1" + "'.toLowerCase().indexOf('" + "$2" + "') >= 0");
-    }
-
-    /**
-     * Parse le pattern "is text"
-     */
-    private String parseIsTextPattern(String expr, String input) {
-        boolean isText = input.length() > 0 && !isNumeric(input);
-        return expr.replaceAll("'[^']*'\\s+is\\s+text", String.valueOf(isText));
-    }
-
-    /**
-     * Parse le pattern "is number"
-     */
-    private String parseIsNumberPattern(String expr, String input) {
-        boolean isNumber = isNumeric(input);
-        return expr.replaceAll("'[^']*'\\s+is\\s+number", String.valueOf(isNumber));
-    }
-
-    /**
-     * Parse le pattern "is file"
-     */
-    private String parseIsFilePattern(String expr, String input) {
-        boolean isFile = input.matches(".*\\.(pdf|doc|docx|xls|xlsx|jpg|jpeg|png|gif|mp4|mp3|wav)$");
-        return expr.replaceAll("'[^']*'\\s+is\\s+file", String.valueOf(isFile));
-    }
-
-    /**
-     * Parse les opérateurs logiques
-     */
-    private String parseLogicalOperators(String expr) {
-        return expr.replaceAll("\\s+and\\s+", " && ").replaceAll("\\s+or\\s+", " || ");
-    }
-
-    /**
-     * Évalue l'expression transformée
-     */
-    private boolean evaluateTransformedExpression(String expr) {
-        if (expr.contains("&&")) {
-            String[] parts = expr.split("&&");
-            for (String part : parts) {
-                if (!evaluateSingleExpression(part.trim())) {
-                    return false;
-                }
-            }
-            return true;
-        }
-
-        if (expr.contains("||")) {
-            String[] parts = expr.split("\\|\\|");
-            for (String part : parts) {
-                if (evaluateSingleExpression(part.trim())) {
-                    return true;
-                }
-            }
-            return false;
-        }
-
-        return evaluateSingleExpression(expr);
-    }
-
-    /**
-     * Évalue une expression simple (true/false ou comparaison)
-     */
-    private boolean evaluateSingleExpression(String expr) {
-        expr = expr.trim();
-
-        if ("true".equals(expr)) return true;
-        if ("false".equals(expr)) return false;
-
-        return false;
-    }
-
-    /**
-     * Vérifie si une chaîne est numérique
-     */
-    private boolean isNumeric(String str) {
-        if (str == null || str.trim().isEmpty()) {
-            return false;
-        }
-        try {
-            Double.parseDouble(str.trim());
-            return true;
-        } catch (NumberFormatException e) {
-            return false;
-        }
-    }
-
     private String calculateVariableValue(NodeDataPayload data, ChatbotSession session) {
         String operation = data.getVariableOperation() != null ? data.getVariableOperation() : "set";
         String variableName = data.getVariableName();
@@ -3749,29 +3634,21 @@ public class CompleteChatbotFlowExecutionService {
      * MÉTHODES UTILITAIRES - NAVIGATION
      * ================================
      */
-    private FlowNodePayload findNodeById(FlowPayload flowPayload, String nodeId) {
-        if (flowPayload.getNodes() == null || nodeId == null) {
-            return null;
-        }
-
-        return flowPayload.getNodes().stream().filter(node -> nodeId.equals(node.getId())).findFirst().orElse(null);
+    private FlowNodePayload findNodeById(CompiledFlow flow, String nodeId) {
+        return flow.node(nodeId);
     }
 
-    private FlowNodePayload findStartNode(FlowPayload flowPayload) {
-        if (flowPayload.getNodes() == null) {
-            return null;
-        }
-
-        return flowPayload.getNodes().stream().filter(node -> "start".equals(node.getType())).findFirst().orElse(null);
+    private FlowNodePayload findStartNode(CompiledFlow flow) {
+        return flow.startNode();
     }
 
     private String findStartNodeIdForUser(String userLogin) {
         try {
             Long userId = getUserIdByLogin(userLogin);
-            FlowPayload flowPayload = chatbotFlowService.getCurrentFlow(userId);
+            CompiledFlow flow = chatbotFlowService.getCompiledFlow(userId);
 
-            if (flowPayload != null) {
-                FlowNodePayload startNode = findStartNode(flowPayload);
+            if (flow != null) {
+                FlowNodePayload startNode = findStartNode(flow);
                 return startNode != null ? startNode.getId() : "start_node_default";
             }
         } catch (Exception e) {
@@ -3781,53 +3658,6 @@ public class CompleteChatbotFlowExecutionService {
         return "start_node_default";
     }
 
-    /**
-     * ================================
-     * MÉTHODES UTILITAIRES - RECHERCHE
-     * ================================
-     */
-    private ButtonPayload findButtonByText(List<ButtonPayload> buttons, String text) {
-        if (buttons == null || text == null) return null;
-
-        return buttons.stream().filter(button -> text.trim().equalsIgnoreCase(button.getText())).findFirst().orElse(null);
-    }
-
-    private ListItemPayload findListItemByTitle(List<ListItemPayload> items, String title) {
-        if (items == null || title == null) return null;
-
-        String normalizedTitle = title.trim().toLowerCase();
-
-        // 1. Recherche exacte (insensible à la casse)
-        for (ListItemPayload item : items) {
-            if (item.getTitle().toLowerCase().equals(normalizedTitle)) {
-                return item;
-            }
-        }
-
-        // 2. Recherche par ID
-        for (ListItemPayload item : items) {
-            if (item.getId().equals(title.trim())) {
-                return item;
-            }
-        }
-
-        // 3. Recherche par value
-        for (ListItemPayload item : items) {
-            if (item.getValue() != null && item.getValue().toLowerCase().equals(normalizedTitle)) {
-                return item;
-            }
-        }
-
-        // 4. Recherche partielle (contient)
-        for (ListItemPayload item : items) {
-            if (item.getTitle().toLowerCase().contains(normalizedTitle)) {
-                return item;
-            }
-        }
-
-        return null;
-    }
-
     /**
      * ================================
      * MÉTHODES UTILITAIRES - CONVERSION
@@ -3897,7 +3727,12 @@ public class CompleteChatbotFlowExecutionService {
      * ================================
      */
     private Long getUserIdByLogin(String userLogin) {
-        return userRepository.findOneByLogin(userLogin).map(User::getId).orElse(1L);
+        Long cached = userIdsByLogin.get(userLogin);
+        if (cached != null) return cached;
+
+        Optional<Long> userId = userRepository.findOneByLogin(userLogin).map(User::getId);
+        userId.ifPresent(id -> userIdsByLogin.put(userLogin, id));
+        return userId.orElse(1L);
     }
 
     /**
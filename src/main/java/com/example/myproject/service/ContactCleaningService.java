@@ -1,27 +1,36 @@
 package com.example.myproject.service;
 
-import com.example.myproject.domain.Contact;
-import com.example.myproject.domain.Groupe;
-import com.example.myproject.domain.Groupedecontact;
+import static com.example.myproject.service.helper.CopyFormatHelper.appendField;
+
 import com.example.myproject.repository.ContactRepository;
 import com.example.myproject.repository.GroupedecontactRepository;
 import com.example.myproject.repository.ImportHistoryRepository;
 import com.example.myproject.service.dto.ProgressTracker;
 import com.example.myproject.web.rest.ContactResource;
 import com.example.myproject.web.rest.dto.CleanPreparationResult;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.task.TaskExecutor;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.web.multipart.MultipartFile;
+import org.springframework.transaction.support.TransactionTemplate;
 
 @Service
 public class ContactCleaningService {
@@ -32,31 +41,53 @@ public class ContactCleaningService {
     private final ProgressTracker progressTracker;
     private final ImportHistoryRepository importHistoryRepository;
     private final TaskExecutor bulkInsertExecutor;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    private static final String CONTACT_COPY_SQL =
+        """
+        COPY contact (id, user_login, progress_id, connom, conprenom, contelephone, custom_fields, statuttraitement) FROM STDIN
+        """;
+
+    private static final String GROUPEDECONTACT_COPY_SQL = "COPY groupedecontact (id, cgrgroupe_id, contact_id) FROM STDIN";
+
+    @Value("${contacts.import.copy-chunk-size:10000}")
+    private int copyChunkSize;
 
     public ContactCleaningService(
         ContactRepository contactRepository,
         GroupedecontactRepository groupedecontactRepository,
         ProgressTracker progressTracker,
         ImportHistoryRepository importHistoryRepository,
-        @Qualifier("bulkInsertExecutor") TaskExecutor bulkInsertExecutor
+        @Qualifier("bulkInsertExecutor") TaskExecutor bulkInsertExecutor,
+        JdbcTemplate jdbcTemplate,
+        TransactionTemplate transactionTemplate
     ) {
         this.contactRepository = contactRepository;
         this.groupedecontactRepository = groupedecontactRepository;
         this.progressTracker = progressTracker;
         this.importHistoryRepository = importHistoryRepository;
         this.bulkInsertExecutor = bulkInsertExecutor;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
     }
 
+    /**
+     * Insertion en flux d'un import de contacts.
+     *
+     * Le fichier préparé par {@code ContactResource.processContacts} (lignes déjà validées et
+     * normalisées, au format texte de COPY) est relu par tranches de {@code copy-chunk-size} lignes.
+     * Pour chaque tranche : un seul appel de séquence réserve les ids (contacts + liens de groupe),
+     * puis deux {@code COPY FROM STDIN} dans une transaction courte. La mémoire reste bornée à une
+     * tranche quelle que soit la taille du fichier ; le fichier est supprimé à la fin.
+     */
     @Async("bulkInsertExecutor")
-    public void insertContactsAsync(List<Contact> contacts, String login, String progressId) {
-        int totalContacts = contacts.size();
-        int batchSize = calculateOptimalBatchSize(totalContacts);
-
+    public void insertContactsAsync(Path spoolFile, Long groupeId, String login, String progressId, int totalContacts) {
         log.info(
-            "🚀 Starting async insertion (NO DUPLICATE CHECK) for {} contacts with progressId {} using batch size {}",
+            "🚀 Starting streamed insertion for {} contacts with progressId {} (COPY chunk {})",
             totalContacts,
             progressId,
-            batchSize
+            copyChunkSize
         );
 
         try {
@@ -67,62 +98,18 @@ public class ContactCleaningService {
             AtomicInteger insertedCount = new AtomicInteger(0);
             AtomicInteger errorCount = new AtomicInteger(0);
 
-            // 🚀 Traitement séquentiel des batches
-            for (int i = 0; i < totalContacts; i += batchSize) {
-                final int batchStart = i;
-                final int batchEnd = Math.min(i + batchSize, totalContacts);
-                final List<Contact> batch = contacts.subList(batchStart, batchEnd);
-
-                try {
-                    // Préparer les contacts pour l'insertion
-                    batch.forEach(c -> {
-                        c.setUser_login(login);
-                        c.setProgressId(progressId);
-                        if (c.getGroupedecontacts() != null) {
-                            c.getGroupedecontacts().forEach(gc -> gc.setContact(c));
-                        }
-                    });
-
-                    // ✅ Sauvegarde DIRECTE sans vérification
-                    BatchResult result = saveBatchDirectly(batch);
-
-                    insertedCount.addAndGet(result.inserted);
-                    errorCount.addAndGet(result.errors);
-                    processedCount.addAndGet(batch.size());
-
-                    progressTracker.updateDetailedProgress(
-                        progressId,
-                        processedCount.get(),
-                        insertedCount.get(),
-                        0, // duplicates = 0
-                        errorCount.get(),
-                        false
-                    );
-
-                    log.info(
-                        "📊 Batch {}-{}: inserted={}, errors={}, progress={}/{}",
-                        batchStart + 1,
-                        batchEnd,
-                        result.inserted,
-                        result.errors,
-                        processedCount.get(),
-                        totalContacts
-                    );
-
-                    Thread.sleep(10);
-                } catch (Exception e) {
-                    log.error("❌ Error in batch {}-{}: {}", batchStart, batchEnd, e.getMessage(), e);
-                    errorCount.addAndGet(batch.size());
-                    processedCount.addAndGet(batch.size());
-
-                    progressTracker.updateDetailedProgress(
-                        progressId,
-                        processedCount.get(),
-                        insertedCount.get(),
-                        0,
-                        errorCount.get(),
-                        false
-                    );
+            try (BufferedReader reader = Files.newBufferedReader(spoolFile, StandardCharsets.UTF_8)) {
+                List<String> chunk = new ArrayList<>(copyChunkSize);
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty()) continue;
+                    chunk.add(line);
+                    if (chunk.size() >= copyChunkSize) {
+                        processChunk(chunk, groupeId, login, progressId, totalContacts, processedCount, insertedCount, errorCount);
+                    }
+                }
+                if (!chunk.isEmpty()) {
+                    processChunk(chunk, groupeId, login, progressId, totalContacts, processedCount, insertedCount, errorCount);
                 }
             }
 
@@ -133,20 +120,11 @@ public class ContactCleaningService {
                 return;
             }
 
-            String reason = String.format(
-                "All processed: %d inserted, %d errors (NO DUPLICATE CHECK)",
-                insertedCount.get(),
-                errorCount.get()
-            );
+            String reason = String.format("All processed: %d inserted, %d errors (NO DUPLICATE CHECK)", insertedCount.get(), errorCount.get());
             progressTracker.markAsCompleted(progressId, reason);
             updateImportHistoryStatus(progressId, "COMPLETED");
 
-            log.info(
-                "✅ Import completed: processed={}, inserted={}, errors={}",
-                processedCount.get(),
-                insertedCount.get(),
-                errorCount.get()
-            );
+            log.info("✅ Import completed: processed={}, inserted={}, errors={}", processedCount.get(), insertedCount.get(), errorCount.get());
 
             updateFinalImportHistory(progressId, processedCount.get(), insertedCount.get(), 0, errorCount.get());
         } catch (Exception e) {
@@ -154,40 +132,85 @@ public class ContactCleaningService {
             progressTracker.markAsCompleted(progressId, "Failed: " + e.getMessage());
             updateImportHistoryStatus(progressId, "FAILED");
             throw new RuntimeException("Insertion failed", e);
+        } finally {
+            try {
+                Files.deleteIfExists(spoolFile);
+            } catch (IOException e) {
+                log.warn("Suppression impossible du fichier d'import {}: {}", spoolFile, e.getMessage());
+            }
         }
     }
 
-    /**
-     * ✅ NOUVELLE MÉTHODE : Sauvegarde DIRECTE sans aucune vérification
-     */
-    @Transactional(propagation = Propagation.REQUIRES_NEW)
-    public BatchResult saveBatchDirectly(List<Contact> batch) {
-        int inserted = 0;
-        int errors = 0;
-
+    private void processChunk(
+        List<String> chunk,
+        Long groupeId,
+        String login,
+        String progressId,
+        int totalContacts,
+        AtomicInteger processedCount,
+        AtomicInteger insertedCount,
+        AtomicInteger errorCount
+    ) {
+        int chunkStart = processedCount.get() + 1;
         try {
-            // Validation minimale : téléphone non vide
-            List<Contact> validContacts = batch
-                .stream()
-                .filter(contact -> contact.getContelephone() != null && !contact.getContelephone().trim().isEmpty())
-                .collect(Collectors.toList());
+            insertedCount.addAndGet(insertChunk(chunk, groupeId, login, progressId));
+        } catch (Exception e) {
+            log.error("❌ Error in chunk {}-{}: {}", chunkStart, chunkStart + chunk.size() - 1, e.getMessage(), e);
+            errorCount.addAndGet(chunk.size());
+        }
+        processedCount.addAndGet(chunk.size());
+        chunk.clear();
 
-            errors = batch.size() - validContacts.size();
+        progressTracker.updateDetailedProgress(progressId, processedCount.get(), insertedCount.get(), 0, errorCount.get(), false);
+        log.info(
+            "📊 Chunk from {}: inserted={}, errors={}, progress={}/{}",
+            chunkStart,
+            insertedCount.get(),
+            errorCount.get(),
+            processedCount.get(),
+            totalContacts
+        );
+    }
 
-            if (!validContacts.isEmpty()) {
-                // ✅ INSERTION DIRECTE sans vérification de doublons
-                List<Contact> savedContacts = contactRepository.saveAll(validContacts);
-                contactRepository.flush();
-                inserted = savedContacts.size();
+    /**
+     * Insère une tranche (contacts + liens de groupe) en une transaction.
+     *
+     * @return nombre de contacts insérés
+     */
+    private int insertChunk(List<String> chunk, Long groupeId, String login, String progressId) {
+        Integer inserted = transactionTemplate.execute(status -> {
+            // Ids réservés en un aller-retour : contacts puis liens de groupe
+            List<Long> ids = jdbcTemplate.queryForList(
+                "SELECT nextval('sequence_generator') FROM generate_series(1, ?)",
+                Long.class,
+                chunk.size() * 2
+            );
 
-                log.debug("✅ Inserted {} contacts directly (no duplicate check)", inserted);
+            StringBuilder contacts = new StringBuilder(chunk.size() * 128);
+            StringBuilder links = new StringBuilder(chunk.size() * 32);
+            for (int i = 0; i < chunk.size(); i++) {
+                long contactId = ids.get(i);
+                contacts.append(contactId).append('\t');
+                appendField(contacts, login).append('\t');
+                appendField(contacts, progressId).append('\t');
+                // Ligne du fichier : connom, conprenom, contelephone, custom_fields ; statuttraitement = 1
+                contacts.append(chunk.get(i)).append("\t1\n");
+
+                links.append(ids.get(chunk.size() + i)).append('\t').append(groupeId).append('\t').append(contactId).append('\n');
             }
 
-            return new BatchResult(inserted, 0, errors); // duplicates = 0
-        } catch (Exception e) {
-            log.error("❌ Error saving batch: {}", e.getMessage(), e);
-            return new BatchResult(0, 0, batch.size());
-        }
+            return jdbcTemplate.execute((ConnectionCallback<Integer>) connection -> {
+                CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+                try {
+                    long rows = copyManager.copyIn(CONTACT_COPY_SQL, new StringReader(contacts.toString()));
+                    copyManager.copyIn(GROUPEDECONTACT_COPY_SQL, new StringReader(links.toString()));
+                    return (int) rows;
+                } catch (IOException e) {
+                    throw new SQLException("Échec COPY: " + e.getMessage(), e);
+                }
+            });
+        });
+        return inserted != null ? inserted : 0;
     }
 
     /**
@@ -212,29 +235,6 @@ public class ContactCleaningService {
         }
     }
 
-    /**
-     * Classe pour les résultats de batch
-     */
-    public static class BatchResult {
-
-        public final int inserted;
-        public final int duplicates;
-        public final int errors;
-
-        public BatchResult(int inserted, int duplicates, int errors) {
-            this.inserted = inserted;
-            this.duplicates = duplicates;
-            this.errors = errors;
-        }
-    }
-
-    private int calculateOptimalBatchSize(int totalRecords) {
-        if (totalRecords <= 1000) return 100;
-        if (totalRecords <= 10000) return 500;
-        if (totalRecords <= 100000) return 1000;
-        return 2000;
-    }
-
     @Transactional(propagation = Propagation.REQUIRES_NEW)
     public void updateImportHistoryStatus(String bulkId, String status) {
         try {
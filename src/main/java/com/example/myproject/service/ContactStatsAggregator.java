@@ -0,0 +1,195 @@
+package com.example.myproject.service;
+
+import com.example.myproject.service.helper.PhoneNumberHelper;
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Statistiques d'envoi par contact (SMS et WhatsApp) appliquées en deltas.
+ *
+ * Les événements sont cumulés en mémoire par numéro pendant une courte fenêtre puis écrits en
+ * une seule instruction {@code UPDATE contact ... FROM (VALUES ...)} : pas de lecture préalable
+ * du contact, pas de mise à jour perdue entre webhooks concurrents. Comme avant, seul le premier
+ * contact portant le numéro (plus petit id) est mis à jour.
+ */
+@Service
+public class ContactStatsAggregator {
+
+    private static final Logger log = LoggerFactory.getLogger(ContactStatsAggregator.class);
+
+    /** Statut de traitement « suspendu temporairement » (protection écosystème Meta). */
+    public static final int STATUT_SUSPENDED = 5;
+
+    /** Statut de traitement « bloqué / spam ». */
+    public static final int STATUT_BLOCKED = 6;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    // Deltas en attente par numéro normalisé ; toute modification passe par compute() (verrou par entrée)
+    private final ConcurrentHashMap<String, ContactDeltas> pending = new ConcurrentHashMap<>();
+
+    public ContactStatsAggregator(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    /**
+     * Résultat d'un statut WhatsApp pour un numéro.
+     *
+     * @param hasWhatsapp nouvelle valeur de has_whatsapp (null = inchangé)
+     * @param statutTraitement nouveau statut de traitement (null = inchangé)
+     */
+    public void recordWhatsapp(String phone, boolean sent, boolean success, Boolean hasWhatsapp, Integer statutTraitement) {
+        String key = PhoneNumberHelper.normalizePhoneNumber(phone);
+        if (key == null || key.isEmpty()) return;
+
+        pending.compute(key, (k, d) -> {
+            ContactDeltas deltas = d != null ? d : new ContactDeltas();
+            if (sent) {
+                deltas.whatsappSent++;
+                if (success) deltas.whatsappSuccess++;
+                else deltas.whatsappFailed++;
+            }
+            if (hasWhatsapp != null) deltas.hasWhatsapp = hasWhatsapp;
+            if (statutTraitement != null) deltas.statutTraitement = statutTraitement;
+            return deltas;
+        });
+    }
+
+    /**
+     * Résultat d'une soumission SMS pour un numéro.
+     */
+    public void recordSms(String phone, boolean success) {
+        String key = PhoneNumberHelper.normalizePhoneNumber(phone);
+        if (key == null || key.isEmpty()) return;
+
+        pending.compute(key, (k, d) -> {
+            ContactDeltas deltas = d != null ? d : new ContactDeltas();
+            deltas.smsSent++;
+            if (success) deltas.smsSuccess++;
+            else deltas.smsFailed++;
+            return deltas;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    /**
+     * Écrit les deltas de la fenêtre écoulée en un seul aller-retour.
+     */
+    @Scheduled(fixedDelayString = "${contacts.stats.flush-interval-ms:1000}")
+    public void flush() {
+        if (pending.isEmpty()) return;
+
+        Map<String, ContactDeltas> window = new HashMap<>();
+        for (String phone : pending.keySet()) {
+            ContactDeltas deltas = pending.remove(phone);
+            if (deltas != null) window.put(phone, deltas);
+        }
+        if (window.isEmpty()) return;
+
+        try {
+            // Connexions en auto-commit désactivé : sans transaction l'UPDATE serait annulé
+            transactionTemplate.executeWithoutResult(status -> applyDeltas(window));
+        } catch (Exception e) {
+            log.error("Échec écriture des statistiques de {} contacts, deltas conservés: {}", window.size(), e.getMessage());
+            window.forEach((phone, deltas) -> pending.merge(phone, deltas, ContactDeltas::mergeOlder));
+        }
+    }
+
+    private void applyDeltas(Map<String, ContactDeltas> window) {
+        String values = window
+            .keySet()
+            .stream()
+            .map(p -> "(?::varchar, ?::int, ?::int, ?::int, ?::int, ?::int, ?::int, ?::boolean, ?::int)")
+            .collect(Collectors.joining(", "));
+
+        List<Object> params = new ArrayList<>(window.size() * 9);
+        window.forEach((phone, d) -> {
+            params.add(phone);
+            params.add(d.smsSent);
+            params.add(d.smsSuccess);
+            params.add(d.smsFailed);
+            params.add(d.whatsappSent);
+            params.add(d.whatsappSuccess);
+            params.add(d.whatsappFailed);
+            params.add(d.hasWhatsapp);
+            params.add(d.statutTraitement);
+        });
+
+        int updated = jdbcTemplate.update(
+            String.format(
+                """
+                UPDATE contact c
+                SET total_sms_sent = COALESCE(c.total_sms_sent, 0) + t.d_sms_sent,
+                    total_sms_success = COALESCE(c.total_sms_success, 0) + t.d_sms_success,
+                    total_sms_failed = COALESCE(c.total_sms_failed, 0) + t.d_sms_failed,
+                    total_whatsapp_sent = COALESCE(c.total_whatsapp_sent, 0) + t.d_wa_sent,
+                    total_whatsapp_success = COALESCE(c.total_whatsapp_success, 0) + t.d_wa_success,
+                    total_whatsapp_failed = COALESCE(c.total_whatsapp_failed, 0) + t.d_wa_failed,
+                    has_whatsapp = COALESCE(t.has_whatsapp, c.has_whatsapp),
+                    whatsapp_checked_at = CASE WHEN t.has_whatsapp IS NOT NULL THEN now() ELSE c.whatsapp_checked_at END,
+                    statuttraitement = COALESCE(t.statut, c.statuttraitement)
+                FROM (
+                    SELECT DISTINCT ON (ct.contelephone) ct.id, v.*
+                    FROM (VALUES %s) AS v(phone, d_sms_sent, d_sms_success, d_sms_failed,
+                                          d_wa_sent, d_wa_success, d_wa_failed, has_whatsapp, statut)
+                    JOIN contact ct ON ct.contelephone = v.phone
+                    ORDER BY ct.contelephone, ct.id
+                ) t
+                WHERE c.id = t.id
+                """,
+                values
+            ),
+            params.toArray()
+        );
+
+        log.debug("Statistiques contacts : {} numéros cumulés, {} contacts mis à jour", window.size(), updated);
+    }
+
+    /**
+     * Deltas cumulés pour un numéro. Muté uniquement sous le verrou de compute().
+     */
+    private static class ContactDeltas {
+
+        int smsSent;
+        int smsSuccess;
+        int smsFailed;
+        int whatsappSent;
+        int whatsappSuccess;
+        int whatsappFailed;
+        Boolean hasWhatsapp;
+        Integer statutTraitement;
+
+        /**
+         * Réinjection d'une fenêtre non écrite : les compteurs s'additionnent, les drapeaux
+         * plus récents (déjà dans {@code this}) l'emportent.
+         */
+        ContactDeltas mergeOlder(ContactDeltas older) {
+            smsSent += older.smsSent;
+            smsSuccess += older.smsSuccess;
+            smsFailed += older.smsFailed;
+            whatsappSent += older.whatsappSent;
+            whatsappSuccess += older.whatsappSuccess;
+            whatsappFailed += older.whatsappFailed;
+            if (hasWhatsapp == null) hasWhatsapp = older.hasWhatsapp;
+            if (statutTraitement == null) statutTraitement = older.statutTraitement;
+            return this;
+        }
+    }
+}
@@ -4,23 +4,41 @@ import com.example.myproject.domain.*;
 import com.example.myproject.domain.enumeration.ContentType;
 import com.example.myproject.domain.enumeration.Direction;
 import com.example.myproject.domain.enumeration.MessageType;
-import com.example.myproject.repository.AbonnementRepository;
-import com.example.myproject.repository.ExtendedUserRepository;
 import com.example.myproject.repository.SmsRepository;
 import com.example.myproject.repository.TokensAppRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.sql.Timestamp;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 /**
  * Service de traçabilité pour les envois via API externe
  * Enregistre tous les messages avec métadonnées complètes
+ *
+ * Chemin rapide SMS : les traces sont mises en file et écrites par lots (avec la décrémentation
+ * de quota cumulée par utilisateur) par un thread dédié ; la dernière utilisation des tokens est
+ * cumulée en mémoire et écrite périodiquement en une instruction.
  */
 @Service
 public class ExternalApiTrackingService {
@@ -34,64 +52,220 @@ public class ExternalApiTrackingService {
     private TokensAppRepository tokensAppRepository;
 
     @Autowired
-    private ExtendedUserRepository extendedUserRepository;
+    private QuotaLedgerService quotaLedgerService;
 
     @Autowired
-    private AbonnementRepository abonnementRepository;
+    private JdbcTemplate jdbcTemplate;
 
     @Autowired
-    private AbonnementService abonnementService;
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${external-api.tracking.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${external-api.tracking.batch-size:200}")
+    private int batchSize;
+
+    @Value("${external-api.tracking.flush-interval-ms:200}")
+    private long flushIntervalMs;
+
+    @Value("${external-api.tracking.batch-attempts:3}")
+    private int batchAttempts;
+
+    private BlockingQueue<ExternalSmsTrackingData> smsQueue;
+    private Thread writerThread;
+    private volatile boolean running;
+
+    // Dernière utilisation par token : seule la plus récente est écrite
+    private final ConcurrentHashMap<Integer, Instant> pendingTokenUsage = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void start() {
+        this.smsQueue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.running = true;
+        this.writerThread = new Thread(this::writeLoop, "external-sms-tracking-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        writerThread.interrupt();
+        try {
+            writerThread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<ExternalSmsTrackingData> remaining = new ArrayList<>();
+        smsQueue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            log.info("[TRACK-EXTERNAL-SMS] Écriture de {} traces restantes avant arrêt", remaining.size());
+            writeWithFallback(remaining);
+        }
+        flushTokenUsage();
+    }
 
     /**
-     * ✅ ENREGISTRER UN SMS ENVOYÉ VIA API EXTERNE
+     * ✅ TRACE SMS EN ÉCRITURE DIFFÉRÉE (chemin rapide de l'API externe)
+     * Écriture directe si la file est saturée.
      */
-    @Transactional(propagation = Propagation.REQUIRES_NEW)
-    public Sms trackExternalSms(ExternalSmsTrackingData data) {
+    public void enqueueExternalSms(ExternalSmsTrackingData data) {
+        if (!smsQueue.offer(data)) {
+            log.warn("[TRACK-EXTERNAL-SMS] File pleine ({}), écriture directe", queueCapacity);
+            writeWithFallback(List.of(data));
+        }
+    }
+
+    /**
+     * ✅ DERNIÈRE UTILISATION D'UN TOKEN (cumulée, écrite par {@link #flushTokenUsage()})
+     */
+    public void recordTokenUsage(Integer tokenId) {
+        if (tokenId != null) {
+            pendingTokenUsage.put(tokenId, Instant.now());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${external-api.token-usage.flush-interval-ms:5000}")
+    public void flushTokenUsage() {
+        if (pendingTokenUsage.isEmpty()) return;
+
+        Map<Integer, Instant> window = new HashMap<>();
+        for (Integer tokenId : pendingTokenUsage.keySet()) {
+            Instant usedAt = pendingTokenUsage.remove(tokenId);
+            if (usedAt != null) window.put(tokenId, usedAt);
+        }
+        if (window.isEmpty()) return;
+
+        String values = window.keySet().stream().map(id -> "(?::int, ?::timestamp)").collect(Collectors.joining(", "));
+        List<Object> params = new ArrayList<>(window.size() * 2);
+        window.forEach((tokenId, usedAt) -> {
+            params.add(tokenId);
+            params.add(Timestamp.from(usedAt));
+        });
+
         try {
-            log.info("[TRACK-EXTERNAL-SMS] Enregistrement SMS API - Token: {}, Phone: {}", data.getTokenId(), data.getPhone());
+            transactionTemplate.executeWithoutResult(status ->
+                jdbcTemplate.update(
+                    String.format(
+                        """
+                        UPDATE tokens_app t SET last_used_at = v.used_at
+                        FROM (VALUES %s) AS v(id, used_at)
+                        WHERE t.id = v.id AND (t.last_used_at IS NULL OR t.last_used_at < v.used_at)
+                        """,
+                        values
+                    ),
+                    params.toArray()
+                )
+            );
+        } catch (Exception e) {
+            log.error("[TOKEN-USAGE] Échec écriture dernière utilisation de {} tokens: {}", window.size(), e.getMessage());
+            window.forEach((tokenId, usedAt) -> pendingTokenUsage.merge(tokenId, usedAt, (a, b) -> a.isAfter(b) ? a : b));
+        }
+    }
 
-            // Créer l'entité Sms
-            Sms sms = new Sms();
+    private void writeLoop() {
+        List<ExternalSmsTrackingData> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                ExternalSmsTrackingData first = smsQueue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+
+                batch.add(first);
+                smsQueue.drainTo(batch, batchSize - 1);
+                writeWithFallback(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
 
-            // ✅ IDENTIFICATION DE LA SOURCE
-            sms.setType(MessageType.SMS);
-            sms.setDirection(Direction.OUTBOUND);
-            sms.setContentType(ContentType.TEXT);
-            sms.setUser_login(data.getUserLogin());
-            // ✅ MÉTADONNÉES DE TRAÇABILITÉ
-            // Stocker l'ID du token dans un champ personnalisé pour identifier la source
-            sms.setBulkId("API_TOKEN_" + data.getTokenId()); // Identifiant unique de la source
-            sms.setLast_error(buildApiMetadata(data)); // Métadonnées complètes en JSON
+    /**
+     * Écrit un lot avec reprises, puis trace par trace : seules les traces dont l'écriture
+     * individuelle échoue encore sont abandonnées, journalisées en entier (envoi déjà effectué).
+     */
+    private void writeWithFallback(List<ExternalSmsTrackingData> batch) {
+        for (int attempt = 1; attempt <= Math.max(1, batchAttempts); attempt++) {
+            try {
+                writeSmsBatch(batch);
+                return;
+            } catch (Exception e) {
+                log.warn(
+                    "[TRACK-EXTERNAL-SMS] Erreur écriture lot de {} traces, tentative {}/{}: {}",
+                    batch.size(),
+                    attempt,
+                    batchAttempts,
+                    e.getMessage()
+                );
+                if (attempt < batchAttempts && !pause(flushIntervalMs * attempt)) break;
+            }
+        }
 
-            // ✅ INFORMATIONS DU MESSAGE
-            sms.setSender(data.getSender());
-            sms.setReceiver(data.getPhone());
-            sms.setNamereceiver(data.getPhone()); // Pas de nom pour API externe
-            sms.setMsgdata(data.getMessageContent());
-            sms.setVars(data.getVariablesJson()); // Variables JSON originales
+        for (ExternalSmsTrackingData data : batch) {
+            try {
+                writeSmsBatch(List.of(data));
+            } catch (Exception e) {
+                log.error(
+                    "[TRACK-EXTERNAL-SMS] ❌ Trace abandonnée - Token: {}, User: {}, Phone: {}, MsgId: {}, Succès: {}, Segments: {}",
+                    data.getTokenId(),
+                    data.getUserLogin(),
+                    data.getPhone(),
+                    data.getMessageId(),
+                    data.isSuccess(),
+                    calculateSmsSegments(data.getMessageContent()),
+                    e
+                );
+            }
+        }
+    }
 
-            // ✅ TEMPLATE
-            sms.setTemplate_id(data.getTemplateId());
+    private static boolean pause(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
 
-            // ✅ STATUT INITIAL
-            if (data.isSuccess()) {
-                sms.setStatus("SENT");
-                sms.setDeliveryStatus("sent");
-                sms.setSent(true);
-                sms.setMessageId(data.getMessageId()); // Vide pour SMS, utilisé pour WhatsApp
-            } else {
-                sms.setStatus("FAILED");
-                sms.setDeliveryStatus("failed");
-                sms.setSent(false);
-                sms.setLast_error(data.getErrorMessage());
+    /**
+     * Un lot de traces en une transaction : insertion des sms, puis décrémentation du quota
+     * une fois par utilisateur pour la somme des segments envoyés.
+     */
+    private void writeSmsBatch(List<ExternalSmsTrackingData> batch) {
+        transactionTemplate.executeWithoutResult(status -> {
+            List<Sms> rows = new ArrayList<>(batch.size());
+            Map<String, Integer> segmentsByUser = new LinkedHashMap<>();
+            Map<String, ExternalSmsTrackingData> sampleByUser = new HashMap<>();
+            for (ExternalSmsTrackingData data : batch) {
+                Sms sms = buildExternalSms(data);
+                rows.add(sms);
+                if (data.isSuccess()) {
+                    segmentsByUser.merge(data.getUserLogin(), sms.getTotalMessage(), Integer::sum);
+                    sampleByUser.putIfAbsent(data.getUserLogin(), data);
+                }
             }
 
-            // ✅ TIMESTAMPS
-            sms.setSendDate(Instant.now());
-            sms.setBulkCreatedAt(Instant.now());
+            smsRepository.saveAll(rows);
+            segmentsByUser.forEach((userLogin, segments) -> decrementQuotaForExternalApi(sampleByUser.get(userLogin), segments));
+        });
+        log.debug("[TRACK-EXTERNAL-SMS] Lot écrit : {} traces", batch.size());
+    }
+
+    /**
+     * ✅ ENREGISTRER UN SMS ENVOYÉ VIA API EXTERNE
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public Sms trackExternalSms(ExternalSmsTrackingData data) {
+        try {
+            log.info("[TRACK-EXTERNAL-SMS] Enregistrement SMS API - Token: {}, Phone: {}", data.getTokenId(), data.getPhone());
 
-            // ✅ SEGMENTS (pour SMS)
-            sms.setTotalMessage(calculateSmsSegments(data.getMessageContent()));
+            Sms sms = buildExternalSms(data);
 
             // Sauvegarder
             Sms savedSms = smsRepository.save(sms);
@@ -110,6 +284,56 @@ public class ExternalApiTrackingService {
         }
     }
 
+    /**
+     * ✅ CONSTRUIRE LA LIGNE SMS D'UN ENVOI API EXTERNE
+     */
+    private Sms buildExternalSms(ExternalSmsTrackingData data) {
+        // Créer l'entité Sms
+        Sms sms = new Sms();
+
+        // ✅ IDENTIFICATION DE LA SOURCE
+        sms.setType(MessageType.SMS);
+        sms.setDirection(Direction.OUTBOUND);
+        sms.setContentType(ContentType.TEXT);
+        sms.setUser_login(data.getUserLogin());
+        // ✅ MÉTADONNÉES DE TRAÇABILITÉ
+        // Stocker l'ID du token dans un champ personnalisé pour identifier la source
+        sms.setBulkId("API_TOKEN_" + data.getTokenId()); // Identifiant unique de la source
+        sms.setLast_error(buildApiMetadata(data)); // Métadonnées complètes en JSON
+
+        // ✅ INFORMATIONS DU MESSAGE
+        sms.setSender(data.getSender());
+        sms.setReceiver(data.getPhone());
+        sms.setNamereceiver(data.getPhone()); // Pas de nom pour API externe
+        sms.setMsgdata(data.getMessageContent());
+        sms.setVars(data.getVariablesJson()); // Variables JSON originales
+
+        // ✅ TEMPLATE
+        sms.setTemplate_id(data.getTemplateId());
+
+        // ✅ STATUT INITIAL
+        if (data.isSuccess()) {
+            sms.setStatus("SENT");
+            sms.setDeliveryStatus("sent");
+            sms.setSent(true);
+            sms.setMessageId(data.getMessageId()); // Vide pour SMS, utilisé pour WhatsApp
+        } else {
+            sms.setStatus("FAILED");
+            sms.setDeliveryStatus("failed");
+            sms.setSent(false);
+            sms.setLast_error(data.getErrorMessage());
+        }
+
+        // ✅ TIMESTAMPS (instant de l'envoi, l'écriture pouvant être différée)
+        sms.setSendDate(data.getCreatedAt());
+        sms.setBulkCreatedAt(data.getCreatedAt());
+
+        // ✅ SEGMENTS (pour SMS)
+        sms.setTotalMessage(calculateSmsSegments(data.getMessageContent()));
+
+        return sms;
+    }
+
     /**
      * ✅ ENREGISTRER UN WHATSAPP ENVOYÉ VIA API EXTERNE
      */
@@ -216,42 +440,29 @@ public class ExternalApiTrackingService {
 
     /**
      * ✅ DÉCRÉMENTER L'ABONNEMENT
+     *
+     * Débit cumulé par utilisateur dans le registre des quotas et appliqué en une instruction
+     * atomique à son prochain flush (trafic API à haut débit).
      */
-    @Transactional(propagation = Propagation.REQUIRES_NEW)
     public void decrementQuotaForExternalApi(BaseTrackingData data, int messageCount) {
         try {
-            // Récupérer l'utilisateur
-            ExtendedUser extendedUser = extendedUserRepository.findOneByUserLogin(data.getUserLogin()).orElse(null);
+            Long userId = quotaLedgerService.findUserIdByLogin(data.getUserLogin());
 
-            if (extendedUser == null) {
+            if (userId == null) {
                 log.warn("[QUOTA-DECREMENT] Utilisateur non trouvé: {}", data.getUserLogin());
                 return;
             }
 
-            // Récupérer les abonnements actifs
-            List<Abonnement> activeSubscriptions = abonnementRepository.findActiveByUserId(extendedUser.getId());
-
-            if (activeSubscriptions.isEmpty()) {
-                log.warn("[QUOTA-DECREMENT] Aucun abonnement actif pour: {}", data.getUserLogin());
-                return;
-            }
-
             MessageType messageType = data instanceof ExternalSmsTrackingData ? MessageType.SMS : MessageType.WHATSAPP;
 
-            log.info(
-                "[QUOTA-DECREMENT] Décrémentation {} messages de type {} pour utilisateur {}",
+            log.debug(
+                "[QUOTA-DECREMENT] Débit différé de {} messages de type {} pour utilisateur {}",
                 messageCount,
                 messageType,
                 data.getUserLogin()
             );
 
-            // Décrémenter via le service d'abonnement
-            abonnementService.decrementQuotasAfterSend(activeSubscriptions, messageType, messageCount);
-
-            // Sauvegarder
-            abonnementRepository.saveAll(activeSubscriptions);
-
-            log.info("[QUOTA-DECREMENT] ✅ Quota décrémenté avec succès");
+            quotaLedgerService.recordUsage(userId, messageType, messageCount);
         } catch (Exception e) {
             log.error("[QUOTA-DECREMENT] ❌ Erreur décrémentation quota", e);
             // Ne pas bloquer l'envoi si erreur de quota
@@ -301,6 +512,7 @@ public class ExternalApiTrackingService {
         protected String variablesJson;
         protected boolean success;
         protected String errorMessage;
+        protected final Instant createdAt = Instant.now();
 
         public Integer getTokenId() {
             return tokenId;
@@ -337,6 +549,10 @@ public class ExternalApiTrackingService {
         public String getErrorMessage() {
             return errorMessage;
         }
+
+        public Instant getCreatedAt() {
+            return createdAt;
+        }
     }
 
     /**
@@ -0,0 +1,217 @@
+package com.example.myproject.service;
+
+import com.example.myproject.config.GraphApiProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Client HTTP partagé pour l'API Graph (WhatsApp Cloud API).
+ *
+ * Un seul {@link HttpClient} JDK : connexions keep-alive réutilisées, HTTP/2 multiplexé quand
+ * le serveur le négocie, timeouts configurables ({@code graph.api.*}). Le nombre de requêtes
+ * simultanées est borné et chaque appel est mesuré dans le timer {@code graph.api.requests}.
+ *
+ * Appels synchrones et asynchrones (bulk) ont chacun leur borne : un envoi de masse ne prive pas
+ * les appels interactifs de permis. Côté asynchrone, une requête sans permis est mise en file et
+ * partira à la prochaine complétion ; l'appelant n'est jamais bloqué.
+ */
+@Component
+public class GraphApiClient {
+
+    private static final Logger log = LoggerFactory.getLogger(GraphApiClient.class);
+    private static final String METRIC_NAME = "graph.api.requests";
+
+    private final MeterRegistry meterRegistry;
+    private final Duration readTimeout;
+    private final Semaphore concurrency;
+    private final Semaphore asyncConcurrency;
+    private final Queue<PendingRequest> asyncWaiting = new ConcurrentLinkedQueue<>();
+    private final ExecutorService httpExecutor;
+    private final HttpClient httpClient;
+    private final RestTemplate restTemplate;
+
+    public GraphApiClient(GraphApiProperties properties, MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.readTimeout = Duration.ofMillis(properties.getReadTimeoutMs());
+        this.concurrency = new Semaphore(Math.max(1, properties.getMaxConcurrentRequests()));
+        this.asyncConcurrency = new Semaphore(Math.max(1, properties.getMaxConcurrentAsyncRequests()));
+
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.httpExecutor = Executors.newFixedThreadPool(Math.max(1, properties.getIoThreads()), r -> {
+            Thread t = new Thread(r, "graph-api-http-" + threadIndex.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        this.httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(Duration.ofMillis(properties.getConnectTimeoutMs()))
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .executor(httpExecutor)
+            .build();
+
+        JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(httpClient);
+        requestFactory.setReadTimeout(readTimeout);
+        this.restTemplate = new RestTemplate(requestFactory);
+        this.restTemplate.getInterceptors().add(new MeteringInterceptor());
+
+        log.info(
+            "Graph API client initialized - HTTP/2, connect {} ms, read {} ms, max concurrent {} (async {})",
+            properties.getConnectTimeoutMs(),
+            properties.getReadTimeoutMs(),
+            properties.getMaxConcurrentRequests(),
+            properties.getMaxConcurrentAsyncRequests()
+        );
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        httpExecutor.shutdown();
+    }
+
+    /**
+     * RestTemplate adossé au client partagé (appels synchrones).
+     */
+    public RestTemplate restTemplate() {
+        return restTemplate;
+    }
+
+    /**
+     * Envoi asynchrone : aucun thread n'attend la réponse ni un permis. Sans permis disponible,
+     * la requête attend en file et part à la prochaine complétion.
+     */
+    public CompletableFuture<HttpResponse<String>> sendAsync(HttpRequest request) {
+        HttpRequest timed = request.timeout().isPresent()
+            ? request
+            : HttpRequest.newBuilder(request, (name, value) -> true).timeout(readTimeout).build();
+
+        CompletableFuture<HttpResponse<String>> result = new CompletableFuture<>();
+        asyncWaiting.add(new PendingRequest(timed, result));
+        dispatchWaiting();
+        return result;
+    }
+
+    /**
+     * Lance les requêtes en file tant qu'il reste des permis. Appelé après chaque mise en file
+     * et après chaque libération : une requête ajoutée pendant qu'aucun permis n'est libre est
+     * reprise par la complétion qui rend le permis suivant.
+     */
+    private void dispatchWaiting() {
+        while (!asyncWaiting.isEmpty() && asyncConcurrency.tryAcquire()) {
+            PendingRequest next = asyncWaiting.poll();
+            if (next == null) {
+                asyncConcurrency.release();
+                continue;
+            }
+            dispatch(next);
+        }
+    }
+
+    private void dispatch(PendingRequest pending) {
+        HttpRequest request = pending.request();
+        long start = System.nanoTime();
+        try {
+            httpClient
+                .sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .whenComplete((response, error) -> {
+                    asyncConcurrency.release();
+                    record(request.method(), request.uri(), response != null ? String.valueOf(response.statusCode()) : "IO_ERROR", start);
+                    dispatchWaiting();
+                    if (error != null) {
+                        pending.result().completeExceptionally(error);
+                    } else {
+                        pending.result().complete(response);
+                    }
+                });
+        } catch (RuntimeException e) {
+            asyncConcurrency.release();
+            pending.result().completeExceptionally(e);
+        }
+    }
+
+    public Duration getReadTimeout() {
+        return readTimeout;
+    }
+
+    private void record(String method, URI uri, String status, long startNanos) {
+        Timer.builder(METRIC_NAME)
+            .tag("method", method)
+            .tag("operation", operationOf(uri))
+            .tag("status", status)
+            .publishPercentiles(0.5, 0.95, 0.99)
+            .register(meterRegistry)
+            .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Tag à faible cardinalité : dernier segment fonctionnel du chemin (messages, media...),
+     * les identifiants numériques sont écartés.
+     */
+    private static String operationOf(URI uri) {
+        String path = uri.getPath();
+        if (path == null || path.isEmpty()) {
+            return "root";
+        }
+        String[] segments = path.split("/");
+        for (int i = segments.length - 1; i >= 0; i--) {
+            String segment = segments[i];
+            boolean version = segment.length() > 1 && segment.charAt(0) == 'v' && Character.isDigit(segment.charAt(1));
+            if (!segment.isEmpty() && !Character.isDigit(segment.charAt(0)) && !version) {
+                return segment;
+            }
+        }
+        return "node";
+    }
+
+    private record PendingRequest(HttpRequest request, CompletableFuture<HttpResponse<String>> result) {}
+
+    private class MeteringInterceptor implements ClientHttpRequestInterceptor {
+
+        @Override
+        public ClientHttpResponse intercept(org.springframework.http.HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+            throws IOException {
+            try {
+                concurrency.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrompu en attente d'une connexion Graph API", e);
+            }
+
+            long start = System.nanoTime();
+            String status = "IO_ERROR";
+            try {
+                ClientHttpResponse response = execution.execute(request, body);
+                HttpStatusCode code = response.getStatusCode();
+                status = String.valueOf(code.value());
+                return response;
+            } finally {
+                concurrency.release();
+                record(request.getMethod().name(), request.getURI(), status, start);
+            }
+        }
+    }
+}
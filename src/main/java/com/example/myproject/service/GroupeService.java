@@ -22,7 +22,6 @@ public class GroupeService {
     private final GroupeRepository groupeRepository;
     private final ContactRepository contactRepository;
     private final GroupedecontactRepository groupedecontactRepository;
-    private final WhatsAppApiService whatsAppApiService;
     private final ConfigurationRepository configurationRepository;
     private final UserRepository userRepository;
 
@@ -30,14 +29,12 @@ public class GroupeService {
         GroupeRepository groupeRepository,
         ContactRepository contactRepository,
         GroupedecontactRepository groupedecontactRepository,
-        WhatsAppApiService whatsAppApiService,
         ConfigurationRepository configurationRepository,
         UserRepository userRepository
     ) {
         this.groupeRepository = groupeRepository;
         this.contactRepository = contactRepository;
         this.groupedecontactRepository = groupedecontactRepository;
-        this.whatsAppApiService = whatsAppApiService;
         this.configurationRepository = configurationRepository;
         this.userRepository = userRepository;
     }
@@ -66,8 +63,12 @@ public class GroupeService {
         }
     }
 
-    public Map<String, Object> verifyWhatsAppContactsAndCreateGroup(Long groupeId) {
-        // Récupérer le groupe source
+    /**
+     * Configuration WhatsApp (vérifiée) de l'utilisateur effectif du groupe, utilisée pour
+     * vérifier ses numéros.
+     */
+    @Transactional(readOnly = true)
+    public Configuration findWhatsAppConfigurationForGroupe(Long groupeId) {
         Groupe sourceGroupe = groupeRepository
             .findById(groupeId)
             .orElseThrow(() -> new EntityNotFoundException("Groupe non trouvé : " + groupeId));
@@ -85,44 +86,24 @@ public class GroupeService {
         if (!config.isVerified() || !Boolean.TRUE.equals(config.getValid())) {
             throw new IllegalStateException("Configuration WhatsApp invalide ou non vérifiée pour l'utilisateur : " + effectiveUserLogin);
         }
+        return config;
+    }
 
-        // Récupérer tous les contacts du groupe
-        List<Contact> contacts = groupedecontactRepository.findContactsByGroupeId(groupeId);
-
-        // Collecter tous les numéros pour vérification
-        List<String> phoneNumbers = contacts
-            .stream()
-            .map(Contact::getContelephone)
-            .filter(Objects::nonNull)
-            .filter(phone -> !phone.trim().isEmpty())
-            .toList();
-
-        log.info(
-            "Vérification de {} numéros WhatsApp pour le groupe {} avec la configuration de {}",
-            phoneNumbers.size(),
-            groupeId,
-            effectiveUserLogin
-        );
-
-        // Vérifier tous les numéros avec la configuration utilisateur
-        Map<String, Boolean> whatsappResults = whatsAppApiService.verifyMultipleNumbers(phoneNumbers, config);
-
-        List<Contact> whatsappContacts = new ArrayList<>();
-        List<Contact> invalidContacts = new ArrayList<>();
+    /**
+     * Crée le groupe "&lt;titre&gt; - WhatsApp" avec les contacts du groupe dont has_whatsapp est vrai
+     * (numéros déjà vérifiés par {@link WhatsAppVerificationService}).
+     */
+    public Map<String, Object> createWhatsAppGroupFromVerifiedContacts(Long groupeId) {
+        Groupe sourceGroupe = groupeRepository
+            .findById(groupeId)
+            .orElseThrow(() -> new EntityNotFoundException("Groupe non trouvé : " + groupeId));
 
-        // Classer les contacts selon les résultats
-        for (Contact contact : contacts) {
-            Boolean isValid = whatsappResults.get(contact.getContelephone());
-            if (Boolean.TRUE.equals(isValid)) {
-                whatsappContacts.add(contact);
-            } else {
-                invalidContacts.add(contact);
-            }
-        }
+        long totalContacts = groupedecontactRepository.countContactsByGroupeId(groupeId);
+        List<Long> whatsappContactIds = groupedecontactRepository.findWhatsappContactIdsByGroupeId(groupeId);
 
         // Créer le groupe WhatsApp si des contacts valides
         Groupe whatsappGroupe = null;
-        if (!whatsappContacts.isEmpty()) {
+        if (!whatsappContactIds.isEmpty()) {
             whatsappGroupe = new Groupe();
             whatsappGroupe.setGrotitre(sourceGroupe.getGrotitre() + " - WhatsApp");
             whatsappGroupe.setUser_id(sourceGroupe.getUser_id());
@@ -130,24 +111,25 @@ public class GroupeService {
             whatsappGroupe = groupeRepository.save(whatsappGroupe);
 
             // Ajouter les contacts valides au nouveau groupe
-            for (Contact contact : whatsappContacts) {
+            List<Groupedecontact> linkages = new ArrayList<>(whatsappContactIds.size());
+            for (Long contactId : whatsappContactIds) {
                 Groupedecontact linkage = new Groupedecontact();
                 linkage.setCgrgroupe(whatsappGroupe);
-                linkage.setContact(contact);
-                groupedecontactRepository.save(linkage);
+                linkage.setContact(contactRepository.getReferenceById(contactId));
+                linkages.add(linkage);
             }
+            groupedecontactRepository.saveAll(linkages);
 
-            log.info("Groupe WhatsApp créé avec {} contacts valides : {}", whatsappContacts.size(), whatsappGroupe.getGrotitre());
+            log.info("Groupe WhatsApp créé avec {} contacts valides : {}", whatsappContactIds.size(), whatsappGroupe.getGrotitre());
         }
 
         // Retourner les résultats
         Map<String, Object> result = new HashMap<>();
-        result.put("totalContacts", contacts.size());
-        result.put("validWhatsappContacts", whatsappContacts.size());
-        result.put("invalidContacts", invalidContacts.size());
+        result.put("totalContacts", totalContacts);
+        result.put("validWhatsappContacts", whatsappContactIds.size());
+        result.put("invalidContacts", totalContacts - whatsappContactIds.size());
         result.put("whatsappGroupId", whatsappGroupe != null ? whatsappGroupe.getId() : null);
         result.put("whatsappGroupName", whatsappGroupe != null ? whatsappGroupe.getGrotitre() : null);
-        result.put("configurationUser", effectiveUserLogin);
 
         return result;
     }
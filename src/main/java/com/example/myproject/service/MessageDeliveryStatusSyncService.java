@@ -1,10 +1,6 @@
 package com.example.myproject.service;
 
-import com.example.myproject.domain.Abonnement;
-import com.example.myproject.domain.SendSms;
 import com.example.myproject.domain.enumeration.MessageType;
-import com.example.myproject.repository.AbonnementRepository;
-import com.example.myproject.repository.SendSmsRepository;
 import java.sql.Timestamp;
 import java.time.Duration;
 import java.time.Instant;
@@ -14,34 +10,48 @@ import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 @Service
 public class MessageDeliveryStatusSyncService {
 
     private final Logger log = LoggerFactory.getLogger(MessageDeliveryStatusSyncService.class);
     private static final int BATCH_SIZE = 5000;
+    private static final int MAX_BATCHES_PER_RUN = 20;
+
+    /** Ordre des colonnes de compteurs de send_sms, indexé par delivery_status. */
+    private static final List<String> COUNTER_COLUMNS = List.of("sent", "delivered", "read", "pending", "failed");
 
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
     @Autowired
-    private AbonnementRepository abonnementRepository;
+    private QuotaLedgerService quotaLedgerService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
 
     @Autowired
-    private SendSmsRepository sendSmsRepository;
+    private CampaignCounterService campaignCounterService;
 
     @Autowired
-    private AbonnementService abonnementService;
+    private SmsPartitionService smsPartitionService;
+
+    @Value("${sms.partitions.full-lookup-interval-ms:300000}")
+    private long fullPassIntervalMs;
 
     private final AtomicBoolean running = new AtomicBoolean(false);
 
+    private volatile long lastFullPassAt;
+
     @Scheduled(fixedDelay = 5000)
-    @Transactional
     public void syncMessageDeliveryStatus() {
         if (!running.compareAndSet(false, true)) {
             log.warn("Schedule déjà en cours, on saute cette exécution !");
@@ -49,327 +59,291 @@ public class MessageDeliveryStatusSyncService {
         }
 
         long start = System.currentTimeMillis();
-        List<Long> idsToProcess = List.of();
+        int totalProcessed = 0;
+        int batches = 0;
 
         try {
-            // 1. Récupération des IDs de message_delivery_status à traiter
-            idsToProcess = jdbcTemplate.queryForList(
-                """
-                SELECT mds.id
-                FROM message_delivery_status mds
-                JOIN sms s ON s.message_id = mds.message_id
-                WHERE mds.processed_at IS NULL
-                LIMIT ?
-                """,
-                Long.class,
-                BATCH_SIZE
-            );
-
-            if (idsToProcess.isEmpty()) return;
-
-            log.info(">>> Début du schedule syncMessageDeliveryStatus ({} lignes à traiter) à {}", idsToProcess.size(), Instant.now());
-
-            // 2. Récupération des send_sms_id concernés
-            Set<Long> batchIds = new HashSet<>();
-            for (Long statusId : idsToProcess) {
-                Long sendSmsId = jdbcTemplate.queryForObject(
-                    """
-                    SELECT s.send_sms_id
-                    FROM sms s
-                    JOIN message_delivery_status mds ON s.message_id = mds.message_id
-                    WHERE mds.id = ?
-                    """,
-                    Long.class,
-                    statusId
-                );
-                if (sendSmsId != null) batchIds.add(sendSmsId);
+            // Vider le backlog par lots, chacun dans sa propre transaction (verrous courts)
+            int claimed;
+            do {
+                Integer result = transactionTemplate.execute(status -> reconcileBatch(null, true));
+                claimed = result != null ? result : 0;
+                totalProcessed += claimed;
+                batches++;
+            } while (claimed == BATCH_SIZE && batches < MAX_BATCHES_PER_RUN);
+
+            // Statuts de messages hors fenêtre chaude : passage sur toutes les partitions, espacé
+            if (start - lastFullPassAt >= fullPassIntervalMs) {
+                lastFullPassAt = start;
+                do {
+                    Integer result = transactionTemplate.execute(status -> reconcileBatch(null, false));
+                    claimed = result != null ? result : 0;
+                    totalProcessed += claimed;
+                    batches++;
+                } while (claimed == BATCH_SIZE && batches < MAX_BATCHES_PER_RUN);
             }
 
-            // ✅ 3. NOUVEAU : Détecter les échecs AVANT mise à jour
-            Map<Long, List<FailedMessageInfo>> failedMessagesBySendSms = detectFailedMessages(idsToProcess);
-
-            // 4. Mise à jour des statuts dans sms
-            for (Long statusId : idsToProcess) {
-                jdbcTemplate.update(
-                    """
-                    UPDATE sms s
-                    SET delivery_status = mds.status,
-                        last_error = CASE
-                            WHEN mds.error_title IS NOT NULL THEN mds.error_title || ' - ' || mds.error_details
-                            ELSE NULL
-                        END
-                    FROM message_delivery_status mds
-                    WHERE s.message_id = mds.message_id
-                      AND mds.id = ?
-                    """,
-                    statusId
-                );
-            }
-
-            // 5. Marquer les statuts comme traités
-            for (Long statusId : idsToProcess) {
-                jdbcTemplate.update(
-                    """
-                    UPDATE message_delivery_status
-                    SET processed_at = now()
-                    WHERE id = ?
-                    """,
-                    statusId
-                );
-            }
-
-            // ✅ 6. NOUVEAU : Rembourser les échecs par send_sms_id
-            if (!failedMessagesBySendSms.isEmpty()) {
-                refundFailedMessages(failedMessagesBySendSms);
-            }
-
-            // 7. Mettre à jour send_sms (totaux + delivery_status)
-            for (Long sendSmsId : batchIds) {
-                // 7.1 Mise à jour des totaux
-                jdbcTemplate.update(
-                    """
-                    UPDATE send_sms s
-                    SET
-                        total_sent = COALESCE((SELECT COUNT(*) FROM sms WHERE send_sms_id = s.id AND delivery_status = 'sent'), 0),
-                        total_delivered = COALESCE((SELECT COUNT(*) FROM sms WHERE send_sms_id = s.id AND delivery_status = 'delivered'), 0),
-                        total_read = COALESCE((SELECT COUNT(*) FROM sms WHERE send_sms_id = s.id AND delivery_status = 'read'), 0),
-                        total_pending = COALESCE((SELECT COUNT(*) FROM sms WHERE send_sms_id = s.id AND delivery_status = 'pending'), 0),
-                        total_failed = COALESCE((SELECT COUNT(*) FROM sms WHERE send_sms_id = s.id AND delivery_status = 'failed'), 0)
-                    WHERE s.id = ?
-                    """,
-                    sendSmsId
-                );
-
-                // 7.2 Mise à jour du statut global
-                jdbcTemplate.update(
-                    """
-                    UPDATE send_sms s SET delivery_status = sub.status
-                    FROM (
-                        SELECT
-                            id,
-                            total_sent,
-                            total_delivered,
-                            total_read,
-                            total_pending,
-                            total_failed,
-                            total_sent + total_delivered + total_read + total_pending + total_failed AS total_all,
-                            CASE
-                                WHEN total_read > 0 AND total_read = total_sent + total_delivered + total_read + total_pending + total_failed THEN 'read'
-                                WHEN total_delivered > 0 AND total_delivered = total_sent + total_delivered + total_read + total_pending + total_failed THEN 'delivered'
-                                WHEN total_failed > 0 THEN 'failed'
-                                WHEN total_pending > 0 THEN 'pending'
-                                WHEN total_sent > 0 THEN 'sent'
-                                ELSE 'pending'
-                            END AS status
-                        FROM send_sms
-                        WHERE id = ?
-                    ) sub
-                    WHERE s.id = sub.id
-                    """,
-                    sendSmsId
+            if (totalProcessed > 0) {
+                log.info(
+                    "✅ Sync terminée : {} statuts traités en {} lot(s) ({} ms)",
+                    totalProcessed,
+                    batches,
+                    System.currentTimeMillis() - start
                 );
             }
-
-            log.info("✅ Sync terminée : {} messages traités, {} send_sms mis à jour", idsToProcess.size(), batchIds.size());
         } catch (Exception e) {
             log.error("Erreur pendant le schedule syncMessageDeliveryStatus", e);
         } finally {
             running.set(false);
-            if (!idsToProcess.isEmpty()) {
-                log.info(
-                    "<<< Fin du schedule syncMessageDeliveryStatus à {} (durée: {} ms)",
-                    Instant.now(),
-                    System.currentTimeMillis() - start
-                );
-            }
         }
     }
 
     /**
-     * ✅ NOUVEAU : Détecter les messages qui vont passer en failed
+     * Réconciliation ensembliste d'un lot de message_delivery_status :
+     * réservation FOR UPDATE SKIP LOCKED (plusieurs nœuds possibles), transitions appliquées
+     * en une seule instruction, puis deltas de compteurs sur send_sms (pas de recomptage).
+     *
+     * @return nombre de statuts réservés
      */
-    private Map<Long, List<FailedMessageInfo>> detectFailedMessages(List<Long> statusIds) {
-        if (statusIds.isEmpty()) {
-            return Collections.emptyMap();
+    private int reconcileBatch(Long sendSmsIdFilter, boolean hotWindowOnly) {
+        // Borne sur la clé de partition : date de création de la campagne si connue (exacte),
+        // sinon fenêtre chaude ; le passage complet (hotWindowOnly = false) reprend le reste
+        String boundClause;
+        List<Object> boundParams = new ArrayList<>(2);
+        if (sendSmsIdFilter != null) {
+            boundClause =
+                "AND s.send_sms_id = ? AND s.bulk_created_at >= COALESCE((SELECT bulk_created_at FROM send_sms WHERE id = ?), '-infinity')";
+            boundParams.add(sendSmsIdFilter);
+            boundParams.add(sendSmsIdFilter);
+        } else if (hotWindowOnly) {
+            boundClause = "AND s.bulk_created_at >= ?";
+            boundParams.add(smsPartitionService.hotWindowStart());
+        } else {
+            boundClause = "";
         }
 
-        String sql =
+        String sql = String.format(
             """
-                SELECT
-                    s.id as sms_id,
-                    s.send_sms_id,
-                    s.type,
-                    s.total_message,
-                    s.delivery_status as old_status,
-                    mds.status as new_status
+            WITH claimed AS (
+                SELECT mds.id, mds.message_id, mds.status, mds.error_title, mds.error_details
+                FROM message_delivery_status mds
+                WHERE mds.processed_at IS NULL
+                  AND EXISTS (SELECT 1 FROM sms s WHERE s.message_id = mds.message_id %1$s)
+                ORDER BY mds.id
+                LIMIT ?
+                FOR UPDATE SKIP LOCKED
+            ),
+            latest AS (
+                SELECT DISTINCT ON (message_id) message_id, status, error_title, error_details
+                FROM claimed
+                ORDER BY message_id, id DESC
+            ),
+            marked AS (
+                UPDATE message_delivery_status m
+                SET processed_at = now()
+                FROM claimed c
+                WHERE m.id = c.id
+                RETURNING m.id
+            ),
+            changed AS (
+                SELECT s.id, s.bulk_created_at, s.send_sms_id, s.type, s.total_message,
+                       s.delivery_status AS old_status, l.status AS new_status,
+                       l.error_title, l.error_details
                 FROM sms s
-                JOIN message_delivery_status mds ON s.message_id = mds.message_id
-                WHERE mds.id IN (%s)
-                  AND s.delivery_status != 'failed'
-                  AND mds.status = 'failed'
-            """;
-
-        // Construire la clause IN
-        String placeholders = statusIds.stream().map(id -> "?").collect(Collectors.joining(","));
-
-        String finalSql = String.format(sql, placeholders);
-
-        List<FailedMessageInfo> failedMessages = jdbcTemplate.query(
-            finalSql,
-            statusIds.toArray(),
-            (rs, rowNum) ->
-                new FailedMessageInfo(
-                    rs.getLong("sms_id"),
-                    rs.getLong("send_sms_id"),
-                    MessageType.valueOf(rs.getString("type")),
-                    rs.getInt("total_message"),
-                    rs.getString("old_status"),
-                    rs.getString("new_status")
-                )
+                JOIN latest l ON s.message_id = l.message_id
+                WHERE true %1$s
+                ORDER BY s.id
+                FOR UPDATE OF s
+            ),
+            updated AS (
+                UPDATE sms s
+                SET delivery_status = c.new_status,
+                    last_error = CASE
+                        WHEN c.error_title IS NOT NULL THEN c.error_title || ' - ' || c.error_details
+                        ELSE NULL
+                    END
+                FROM changed c
+                WHERE s.id = c.id AND s.bulk_created_at = c.bulk_created_at
+                RETURNING s.id
+            )
+            SELECT c.send_sms_id, c.type, c.old_status, c.new_status,
+                   COUNT(*) AS cnt,
+                   COALESCE(SUM(c.total_message), 0) AS total_message,
+                   (SELECT COUNT(*) FROM marked) AS claimed
+            FROM changed c
+            GROUP BY c.send_sms_id, c.type, c.old_status, c.new_status
+            """,
+            boundClause
         );
 
-        // Grouper par send_sms_id
-        return failedMessages.stream().collect(Collectors.groupingBy(FailedMessageInfo::getSendSmsId));
-    }
-
-    /**
-     * ✅ NOUVEAU : Rembourser les messages échoués
-     */
-    @Transactional(propagation = Propagation.REQUIRES_NEW)
-    public void refundFailedMessages(Map<Long, List<FailedMessageInfo>> failedMessagesBySendSms) {
-        log.info("[REFUND] Début du remboursement pour {} send_sms", failedMessagesBySendSms.size());
-
-        for (Map.Entry<Long, List<FailedMessageInfo>> entry : failedMessagesBySendSms.entrySet()) {
-            Long sendSmsId = entry.getKey();
-            List<FailedMessageInfo> failedMessages = entry.getValue();
-
-            try {
-                // Récupérer le SendSms
-                SendSms sendSms = sendSmsRepository.findById(sendSmsId).orElse(null);
-                if (sendSms == null || sendSms.getUser() == null) {
-                    log.warn("[REFUND] SendSms {} non trouvé ou sans utilisateur", sendSmsId);
-                    continue;
-                }
-
-                // Récupérer les abonnements actifs
-                List<Abonnement> activeSubscriptions = abonnementRepository.findActiveByUserId(sendSms.getUser().getId());
-
-                if (activeSubscriptions.isEmpty()) {
-                    log.warn("[REFUND] Aucun abonnement actif pour utilisateur {}", sendSms.getUser().getId());
-                    continue;
+        List<Object> paramList = new ArrayList<>(boundParams);
+        paramList.add(BATCH_SIZE);
+        paramList.addAll(boundParams);
+        Object[] params = paramList.toArray();
+
+        int[] claimed = { 0 };
+        Map<Long, long[]> deltasBySendSms = new HashMap<>();
+        Map<Long, List<FailedMessageInfo>> failedMessagesBySendSms = new HashMap<>();
+
+        jdbcTemplate.query(
+            sql,
+            rs -> {
+                claimed[0] = rs.getInt("claimed");
+
+                long sendSmsId = rs.getLong("send_sms_id");
+                if (rs.wasNull()) return;
+
+                String oldStatus = rs.getString("old_status");
+                String newStatus = rs.getString("new_status");
+                if (Objects.equals(oldStatus, newStatus)) return;
+
+                int count = rs.getInt("cnt");
+                long[] deltas = deltasBySendSms.computeIfAbsent(sendSmsId, id -> new long[COUNTER_COLUMNS.size()]);
+                int oldIndex = COUNTER_COLUMNS.indexOf(oldStatus);
+                int newIndex = COUNTER_COLUMNS.indexOf(newStatus);
+                if (oldIndex >= 0) deltas[oldIndex] -= count;
+                if (newIndex >= 0) deltas[newIndex] += count;
+                campaignCounterService.recordDeliveryTransition(sendSmsId, oldStatus, newStatus, count);
+
+                // Échecs à rembourser (même règle que l'ancienne détection : passage à failed)
+                String type = rs.getString("type");
+                if ("failed".equals(newStatus) && oldStatus != null && type != null) {
+                    failedMessagesBySendSms
+                        .computeIfAbsent(sendSmsId, id -> new ArrayList<>())
+                        .add(new FailedMessageInfo(sendSmsId, MessageType.valueOf(type), rs.getInt("total_message")));
                 }
+            },
+            params
+        );
 
-                // Grouper par type de message
-                Map<MessageType, Integer> failedCountByType = failedMessages
-                    .stream()
-                    .collect(
-                        Collectors.groupingBy(FailedMessageInfo::getMessageType, Collectors.summingInt(FailedMessageInfo::getTotalMessage))
-                    );
-
-                // Rembourser pour chaque type
-                for (Map.Entry<MessageType, Integer> typeEntry : failedCountByType.entrySet()) {
-                    MessageType messageType = typeEntry.getKey();
-                    int failedCount = typeEntry.getValue();
-
-                    log.info("[REFUND] SendSms {} : Remboursement de {} messages de type {}", sendSmsId, failedCount, messageType);
-
-                    // ✅ REMBOURSEMENT : Incrémenter les quotas
-                    refundQuotas(activeSubscriptions, messageType, failedCount);
-                }
+        if (claimed[0] == 0) {
+            return 0;
+        }
 
-                // Sauvegarder les abonnements mis à jour
-                abonnementRepository.saveAll(activeSubscriptions);
+        applyCounterDeltas(deltasBySendSms);
 
-                log.info("[REFUND] ✅ Remboursement réussi pour SendSms {} : {} messages", sendSmsId, failedMessages.size());
-            } catch (Exception e) {
-                log.error("[REFUND] ❌ Erreur remboursement SendSms {}", sendSmsId, e);
-            }
+        if (!failedMessagesBySendSms.isEmpty()) {
+            refundFailedMessages(failedMessagesBySendSms);
         }
 
-        log.info("[REFUND] Fin du remboursement");
+        log.debug("Lot réconcilié : {} statuts, {} send_sms ajustés", claimed[0], deltasBySendSms.size());
+        return claimed[0];
     }
 
     /**
-     * ✅ REMBOURSEMENT DES QUOTAS (inverse de la décrémentation)
+     * Applique les deltas de compteurs en une instruction puis recalcule le statut global
+     * des send_sms touchés à partir de leurs propres colonnes (aucun scan de sms).
      */
-    private void refundQuotas(List<Abonnement> subscriptions, MessageType messageType, int amountToRefund) {
-        int remaining = amountToRefund;
-
-        log.debug("[REFUND-QUOTA] Remboursement de {} messages de type {}", amountToRefund, messageType);
-
-        for (Abonnement abonnement : subscriptions) {
-            if (remaining <= 0) break;
-
-            if (messageType == MessageType.SMS) {
-                remaining = refundSmsQuota(abonnement, remaining);
-            } else if (messageType == MessageType.WHATSAPP) {
-                remaining = refundWhatsappQuota(abonnement, remaining);
-            }
-        }
+    private void applyCounterDeltas(Map<Long, long[]> deltasBySendSms) {
+        if (deltasBySendSms.isEmpty()) return;
+
+        String values = deltasBySendSms.keySet().stream().map(id -> "(?, ?, ?, ?, ?, ?)").collect(Collectors.joining(", "));
+        List<Object> params = new ArrayList<>(deltasBySendSms.size() * 6);
+        deltasBySendSms.forEach((id, deltas) -> {
+            params.add(id);
+            for (long delta : deltas) params.add(delta);
+        });
+
+        jdbcTemplate.update(
+            String.format(
+                """
+                UPDATE send_sms s
+                SET
+                    total_sent = GREATEST(COALESCE(s.total_sent, 0) + v.d_sent, 0),
+                    total_delivered = GREATEST(COALESCE(s.total_delivered, 0) + v.d_delivered, 0),
+                    total_read = GREATEST(COALESCE(s.total_read, 0) + v.d_read, 0),
+                    total_pending = GREATEST(COALESCE(s.total_pending, 0) + v.d_pending, 0),
+                    total_failed = GREATEST(COALESCE(s.total_failed, 0) + v.d_failed, 0)
+                FROM (VALUES %s) AS v(id, d_sent, d_delivered, d_read, d_pending, d_failed)
+                WHERE s.id = v.id
+                """,
+                values
+            ),
+            params.toArray()
+        );
 
-        if (remaining > 0) {
-            log.warn("[REFUND-QUOTA] ⚠️ Impossible de rembourser {} messages (quotas déjà au max)", remaining);
-        }
+        String placeholders = deltasBySendSms.keySet().stream().map(id -> "?").collect(Collectors.joining(","));
+        jdbcTemplate.update(
+            String.format(
+                """
+                UPDATE send_sms
+                SET delivery_status = CASE
+                    WHEN total_read > 0 AND total_read = total_sent + total_delivered + total_read + total_pending + total_failed THEN 'read'
+                    WHEN total_delivered > 0 AND total_delivered = total_sent + total_delivered + total_read + total_pending + total_failed THEN 'delivered'
+                    WHEN total_failed > 0 THEN 'failed'
+                    WHEN total_pending > 0 THEN 'pending'
+                    WHEN total_sent > 0 THEN 'sent'
+                    ELSE 'pending'
+                END
+                WHERE id IN (%s)
+                """,
+                placeholders
+            ),
+            deltasBySendSms.keySet().toArray()
+        );
     }
 
     /**
-     * ✅ REMBOURSER LES SMS
+     * ✅ NOUVEAU : Rembourser les messages échoués
+     *
+     * Propriétaires résolus en une requête, remboursements cumulés par (utilisateur, type) dans le
+     * registre des quotas et appliqués en une instruction atomique à son prochain flush.
      */
-    private int refundSmsQuota(Abonnement abonnement, int toRefund) {
-        int currentUsed = abonnement.getSmsUsed() != null ? abonnement.getSmsUsed() : 0;
-
-        if (currentUsed <= 0) {
-            log.debug("[REFUND-SMS] Abonnement {} : déjà à 0, rien à rembourser", abonnement.getId());
-            return toRefund;
-        }
-
-        // Rembourser en priorité le quota principal (smsUsed)
-        int canRefund = Math.min(toRefund, currentUsed);
-
-        if (canRefund > 0) {
-            int newUsed = currentUsed - canRefund;
-            abonnement.setSmsUsed(newUsed);
-            abonnement.setUpdatedDate(Instant.now());
-
-            log.info("[REFUND-SMS] Abonnement {} : {} SMS remboursés ({} → {})", abonnement.getId(), canRefund, currentUsed, newUsed);
+    public void refundFailedMessages(Map<Long, List<FailedMessageInfo>> failedMessagesBySendSms) {
+        log.info("[REFUND] Début du remboursement pour {} send_sms", failedMessagesBySendSms.size());
 
-            return toRefund - canRefund;
-        }
+        // Remboursements collectés ici, enregistrés seulement après validation du lot
+        Map<Long, Map<MessageType, Integer>> refundsByUser = new HashMap<>();
+
+        String placeholders = failedMessagesBySendSms.keySet().stream().map(id -> "?").collect(Collectors.joining(","));
+        Map<Long, Long> userIdBySendSms = new HashMap<>();
+        jdbcTemplate.query(
+            String.format("SELECT id, user_id FROM send_sms WHERE id IN (%s) AND user_id IS NOT NULL", placeholders),
+            rs -> {
+                userIdBySendSms.put(rs.getLong("id"), rs.getLong("user_id"));
+            },
+            failedMessagesBySendSms.keySet().toArray()
+        );
 
-        return toRefund;
-    }
+        for (Map.Entry<Long, List<FailedMessageInfo>> entry : failedMessagesBySendSms.entrySet()) {
+            Long sendSmsId = entry.getKey();
+            Long userId = userIdBySendSms.get(sendSmsId);
+            if (userId == null) {
+                log.warn("[REFUND] SendSms {} non trouvé ou sans utilisateur", sendSmsId);
+                continue;
+            }
 
-    /**
-     * ✅ REMBOURSER LES WHATSAPP
-     */
-    private int refundWhatsappQuota(Abonnement abonnement, int toRefund) {
-        int currentUsed = abonnement.getWhatsappUsed() != null ? abonnement.getWhatsappUsed() : 0;
+            // Grouper par type de message
+            Map<MessageType, Integer> failedCountByType = entry
+                .getValue()
+                .stream()
+                .collect(Collectors.groupingBy(FailedMessageInfo::messageType, Collectors.summingInt(FailedMessageInfo::totalMessage)));
 
-        if (currentUsed <= 0) {
-            log.debug("[REFUND-WHATSAPP] Abonnement {} : déjà à 0, rien à rembourser", abonnement.getId());
-            return toRefund;
+            failedCountByType.forEach((messageType, failedCount) -> {
+                log.info("[REFUND] SendSms {} : Remboursement de {} messages de type {}", sendSmsId, failedCount, messageType);
+                refundsByUser.computeIfAbsent(userId, id -> new EnumMap<>(MessageType.class)).merge(messageType, failedCount, Integer::sum);
+            });
         }
 
-        // Rembourser en priorité le quota principal (whatsappUsed)
-        int canRefund = Math.min(toRefund, currentUsed);
-
-        if (canRefund > 0) {
-            int newUsed = currentUsed - canRefund;
-            abonnement.setWhatsappUsed(newUsed);
-            abonnement.setUpdatedDate(Instant.now());
-
-            log.info(
-                "[REFUND-WHATSAPP] Abonnement {} : {} WhatsApp remboursés ({} → {})",
-                abonnement.getId(),
-                canRefund,
-                currentUsed,
-                newUsed
+        Runnable record = () ->
+            refundsByUser.forEach((userId, byType) ->
+                byType.forEach((messageType, count) -> quotaLedgerService.recordRefund(userId, messageType, count))
             );
-
-            return toRefund - canRefund;
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // Lot annulé = statuts non marqués, retraités au prochain passage : aucun remboursement en double
+            TransactionSynchronizationManager.registerSynchronization(
+                new TransactionSynchronization() {
+                    @Override
+                    public void afterCommit() {
+                        record.run();
+                    }
+                }
+            );
+        } else {
+            record.run();
         }
 
-        return toRefund;
+        log.info("[REFUND] Fin du remboursement");
     }
 
     // ===== MÉTHODES EXISTANTES (inchangées) =====
@@ -468,61 +442,23 @@ public class MessageDeliveryStatusSyncService {
         }
 
         try {
-            List<Long> statusIds = jdbcTemplate.queryForList(
-                """
-                    SELECT mds.id
-                    FROM message_delivery_status mds
-                    JOIN sms s ON s.message_id = mds.message_id
-                    WHERE s.send_sms_id = ? AND mds.processed_at IS NULL
-                """,
-                Long.class,
-                sendSmsId
-            );
-
-            if (statusIds.isEmpty()) {
+            int total = 0;
+            int claimed;
+            do {
+                claimed = reconcileBatch(sendSmsId, false);
+                total += claimed;
+            } while (claimed == BATCH_SIZE);
+
+            if (total == 0) {
                 log.info("Aucun status à synchroniser pour send_sms_id={}", sendSmsId);
                 return;
             }
 
-            // ✅ Détecter les échecs AVANT mise à jour
-            Map<Long, List<FailedMessageInfo>> failedMessages = detectFailedMessages(statusIds);
-
-            for (Long statusId : statusIds) {
-                jdbcTemplate.update(
-                    """
-                    UPDATE sms s
-                    SET delivery_status = mds.status,
-                        last_error = CASE
-                            WHEN mds.error_title IS NOT NULL THEN mds.error_title || ' - ' || mds.error_details
-                            ELSE NULL
-                        END
-                    FROM message_delivery_status mds
-                    WHERE s.message_id = mds.message_id
-                      AND mds.id = ?
-                    """,
-                    statusId
-                );
-            }
-
-            for (Long statusId : statusIds) {
-                jdbcTemplate.update(
-                    """
-                    UPDATE message_delivery_status
-                    SET processed_at = now()
-                    WHERE id = ?
-                    """,
-                    statusId
-                );
-            }
-
-            // ✅ Rembourser les échecs
-            if (!failedMessages.isEmpty()) {
-                refundFailedMessages(failedMessages);
-            }
-
+            // Recomptage complet : sert aussi de reconstruction des compteurs pour ce send_sms
             updateSendSmsStatus(sendSmsId);
+            campaignCounterService.rebuild(sendSmsId);
 
-            log.info("✅ Synchronisation terminée pour send_sms_id={} ({} statuts traités)", sendSmsId, statusIds.size());
+            log.info("✅ Synchronisation terminée pour send_sms_id={} ({} statuts traités)", sendSmsId, total);
         } catch (Exception e) {
             log.error("❌ Erreur lors de la synchronisation du statut de delivery pour send_sms_id={}", sendSmsId, e);
         }
@@ -538,55 +474,7 @@ public class MessageDeliveryStatusSyncService {
     // ===== CLASSE INTERNE =====
 
     /**
-     * DTO pour les informations de messages échoués
+     * DTO pour les messages échoués (agrégés par send_sms et type)
      */
-    private static class FailedMessageInfo {
-
-        private final Long smsId;
-        private final Long sendSmsId;
-        private final MessageType messageType;
-        private final int totalMessage;
-        private final String oldStatus;
-        private final String newStatus;
-
-        public FailedMessageInfo(
-            Long smsId,
-            Long sendSmsId,
-            MessageType messageType,
-            int totalMessage,
-            String oldStatus,
-            String newStatus
-        ) {
-            this.smsId = smsId;
-            this.sendSmsId = sendSmsId;
-            this.messageType = messageType;
-            this.totalMessage = totalMessage;
-            this.oldStatus = oldStatus;
-            this.newStatus = newStatus;
-        }
-
-        public Long getSmsId() {
-            return smsId;
-        }
-
-        public Long getSendSmsId() {
-            return sendSmsId;
-        }
-
-        public MessageType getMessageType() {
-            return messageType;
-        }
-
-        public int getTotalMessage() {
-            return totalMessage;
-        }
-
-        public String getOldStatus() {
-            return oldStatus;
-        }
-
-        public String getNewStatus() {
-            return newStatus;
-        }
-    }
+    private record FailedMessageInfo(Long sendSmsId, MessageType messageType, int totalMessage) {}
 }
@@ -29,8 +29,8 @@ public class MetaMediaUploadService {
     // Cache simple des médias uploadés (optionnel)
     private final Map<String, MetaMediaInfo> mediaCache = new ConcurrentHashMap<>();
 
-    public MetaMediaUploadService(ConfigurationRepository configurationRepository) {
-        this.restTemplate = new RestTemplate();
+    public MetaMediaUploadService(ConfigurationRepository configurationRepository, GraphApiClient graphApiClient) {
+        this.restTemplate = graphApiClient.restTemplate();
         this.objectMapper = new ObjectMapper();
         this.configurationRepository = configurationRepository;
     }
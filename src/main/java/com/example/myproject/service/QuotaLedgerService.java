@@ -0,0 +1,311 @@
+package com.example.myproject.service;
+
+import com.example.myproject.domain.enumeration.MessageType;
+import jakarta.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Registre des quotas SMS / WhatsApp appliqué directement en base.
+ *
+ * Chaque débit ou remboursement est une seule instruction conditionnelle sur les abonnements
+ * actifs de l'utilisateur (verrouillés le temps de l'instruction) : plus de chargement / modification
+ * / saveAll, donc plus de mise à jour perdue entre envois concurrents. Ordre de consommation
+ * inchangé : quota principal, puis bonus, puis report, abonnement par abonnement (ordre des ids).
+ *
+ * Chaque opération est validée dans sa propre transaction, indépendamment de l'appelant : une
+ * réservation est visible (et libère ses verrous) avant l'envoi, même depuis une campagne longue.
+ * Les envois réservent avant d'émettre ({@link #reserve}) puis soldent la réservation
+ * ({@link #settle}) avec le nombre de messages effectivement envoyés.
+ *
+ * Pour le trafic API à haut débit, les débits et remboursements peuvent être cumulés en mémoire par
+ * utilisateur et type ({@link #recordUsage}, {@link #recordRefund}) puis appliqués en net par
+ * {@link #flush()}.
+ */
+@Service
+public class QuotaLedgerService {
+
+    private static final Logger log = LoggerFactory.getLogger(QuotaLedgerService.class);
+
+    private static final String ACTIVE_SUBSCRIPTIONS =
+        "user_id = ? AND status = 'ACTIVE' AND (end_date IS NULL OR end_date > CURRENT_DATE)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    // Net en attente par (utilisateur, type) : positif = à débiter, négatif = à rembourser
+    private final ConcurrentHashMap<QuotaKey, Integer> pending = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, Long> userIdsByLogin = new ConcurrentHashMap<>();
+
+    public QuotaLedgerService(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Débite jusqu'à {@code count} messages (autant que disponible).
+     *
+     * @return nombre de messages effectivement débités
+     */
+    public int consume(Long userId, MessageType type, int count) {
+        if (userId == null || count <= 0) return 0;
+        int consumed = transactionTemplate.execute(status -> applyDebit(userId, type, count, 0));
+        if (consumed < count) {
+            log.warn("[QUOTA-LEDGER] User {} : {} {} débités sur {} demandés (quota épuisé)", userId, consumed, type, count);
+        }
+        return consumed;
+    }
+
+    /**
+     * Réserve {@code count} messages en tout ou rien.
+     *
+     * @return true si le quota disponible suffisait et a été débité
+     */
+    public boolean reserve(Long userId, MessageType type, int count) {
+        if (userId == null) return false;
+        if (count <= 0) return true;
+        return transactionTemplate.execute(status -> applyDebit(userId, type, count, count)) == count;
+    }
+
+    /**
+     * Solde une réservation : rembourse la part non utilisée, ou débite le dépassement
+     * (messages envoyés au-delà de la réservation, dans la limite du disponible).
+     */
+    public void settle(Long userId, MessageType type, int reserved, int used) {
+        if (userId == null) return;
+        if (used < reserved) {
+            refund(userId, type, reserved - used);
+        } else if (used > reserved) {
+            consume(userId, type, used - reserved);
+        }
+    }
+
+    /**
+     * Rembourse jusqu'à {@code count} messages sur le compteur consommé.
+     *
+     * @return nombre de messages effectivement remboursés
+     */
+    public int refund(Long userId, MessageType type, int count) {
+        if (userId == null || count <= 0) return 0;
+        int refunded = transactionTemplate.execute(status -> applyRefund(userId, type, count));
+        if (refunded < count) {
+            log.warn("[QUOTA-LEDGER] User {} : {} {} remboursés sur {} (quotas déjà au max)", userId, refunded, type, count);
+        }
+        return refunded;
+    }
+
+    /**
+     * Débit différé (cumulé en mémoire, appliqué par {@link #flush()}).
+     */
+    public void recordUsage(Long userId, MessageType type, int count) {
+        if (userId == null || count <= 0) return;
+        pending.merge(new QuotaKey(userId, type), count, Integer::sum);
+    }
+
+    /**
+     * Remboursement différé (cumulé en mémoire, appliqué par {@link #flush()}).
+     */
+    public void recordRefund(Long userId, MessageType type, int count) {
+        if (userId == null || count <= 0) return;
+        pending.merge(new QuotaKey(userId, type), -count, Integer::sum);
+    }
+
+    /**
+     * Id de l'utilisateur étendu (propriétaire des abonnements) pour un login, mis en cache.
+     */
+    public Long findUserIdByLogin(String login) {
+        if (login == null) return null;
+        Long cached = userIdsByLogin.get(login);
+        if (cached != null) return cached;
+
+        List<Long> ids = jdbcTemplate.queryForList(
+            "SELECT e.id FROM extended_user e JOIN jhi_user u ON u.id = e.user_id WHERE u.login = ?",
+            Long.class,
+            login
+        );
+        if (ids.isEmpty()) return null;
+        userIdsByLogin.put(login, ids.get(0));
+        return ids.get(0);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    /**
+     * Applique le net cumulé par (utilisateur, type) : un débit ou un remboursement par clé.
+     */
+    @Scheduled(fixedDelayString = "${quota.ledger.flush-interval-ms:1000}")
+    public void flush() {
+        if (pending.isEmpty()) return;
+
+        Map<QuotaKey, Integer> window = new HashMap<>();
+        for (QuotaKey key : pending.keySet()) {
+            Integer net = pending.remove(key);
+            if (net != null && net != 0) window.put(key, net);
+        }
+
+        window.forEach((key, net) -> {
+            try {
+                if (net > 0) {
+                    consume(key.userId(), key.type(), net);
+                } else {
+                    refund(key.userId(), key.type(), -net);
+                }
+            } catch (Exception e) {
+                log.error("[QUOTA-LEDGER] Échec application de {} {} pour user {}, conservé: {}", net, key.type(), key.userId(), e.getMessage());
+                pending.merge(key, net, Integer::sum);
+            }
+        });
+    }
+
+    /**
+     * Débit en une instruction : répartition principal → bonus → report sur les abonnements
+     * actifs ayant la permission du type. Rien n'est débité si le disponible total est inférieur
+     * à {@code minimumAvailable}.
+     */
+    private int applyDebit(Long userId, MessageType type, int count, int minimumAvailable) {
+        QuotaColumns c = QuotaColumns.of(type);
+
+        List<Integer> taken = jdbcTemplate.queryForList(
+            String.format(
+                """
+                WITH locked AS (
+                    SELECT id,
+                        GREATEST(COALESCE(%2$s, 0) - COALESCE(%1$s, 0), 0) AS main_avail,
+                        CASE WHEN %3$s THEN GREATEST(COALESCE(%4$s, 0), 0) ELSE 0 END AS bonus_avail,
+                        CASE WHEN %5$s THEN GREATEST(COALESCE(%6$s, 0), 0) ELSE 0 END AS carry_avail
+                    FROM abonnement
+                    WHERE %7$s AND COALESCE(%2$s, 0) > 0
+                    ORDER BY id
+                    FOR UPDATE
+                ),
+                alloc AS (
+                    SELECT id, main_avail, bonus_avail,
+                        LEAST(
+                            main_avail + bonus_avail + carry_avail,
+                            GREATEST(? - COALESCE(SUM(main_avail + bonus_avail + carry_avail) OVER (ORDER BY id ROWS BETWEEN UNBOUNDED PRECEDING AND 1 PRECEDING), 0), 0)
+                        ) AS take,
+                        SUM(main_avail + bonus_avail + carry_avail) OVER () AS total_avail
+                    FROM locked
+                ),
+                split AS (
+                    SELECT id, take,
+                        LEAST(take, main_avail) AS t_main,
+                        LEAST(take - LEAST(take, main_avail), bonus_avail) AS t_bonus,
+                        take - LEAST(take, main_avail) - LEAST(take - LEAST(take, main_avail), bonus_avail) AS t_carry
+                    FROM alloc
+                    WHERE take > 0 AND total_avail >= ?
+                )
+                UPDATE abonnement a SET
+                    %1$s = COALESCE(a.%1$s, 0) + s.t_main,
+                    %4$s = CASE WHEN s.t_bonus > 0 THEN a.%4$s - s.t_bonus ELSE a.%4$s END,
+                    %6$s = CASE WHEN s.t_carry > 0 THEN a.%6$s - s.t_carry ELSE a.%6$s END,
+                    updated_date = now()
+                FROM split s
+                WHERE a.id = s.id
+                RETURNING s.take
+                """,
+                c.used,
+                c.limit,
+                c.bonusEnabled,
+                c.bonusAmount,
+                c.carryoverAllowed,
+                c.carriedOver,
+                ACTIVE_SUBSCRIPTIONS
+            ),
+            Integer.class,
+            userId,
+            count,
+            minimumAvailable
+        );
+
+        return taken.stream().mapToInt(Integer::intValue).sum();
+    }
+
+    /**
+     * Remboursement en une instruction sur le compteur consommé, abonnement par abonnement.
+     */
+    private int applyRefund(Long userId, MessageType type, int count) {
+        QuotaColumns c = QuotaColumns.of(type);
+
+        List<Integer> given = jdbcTemplate.queryForList(
+            String.format(
+                """
+                WITH locked AS (
+                    SELECT id, GREATEST(COALESCE(%1$s, 0), 0) AS used
+                    FROM abonnement
+                    WHERE %2$s
+                    ORDER BY id
+                    FOR UPDATE
+                ),
+                alloc AS (
+                    SELECT id, LEAST(used, GREATEST(? - COALESCE(SUM(used) OVER (ORDER BY id ROWS BETWEEN UNBOUNDED PRECEDING AND 1 PRECEDING), 0), 0)) AS give
+                    FROM locked
+                )
+                UPDATE abonnement a SET %1$s = a.%1$s - g.give, updated_date = now()
+                FROM alloc g
+                WHERE a.id = g.id AND g.give > 0
+                RETURNING g.give
+                """,
+                c.used,
+                ACTIVE_SUBSCRIPTIONS
+            ),
+            Integer.class,
+            userId,
+            count
+        );
+
+        return given.stream().mapToInt(Integer::intValue).sum();
+    }
+
+    private record QuotaKey(Long userId, MessageType type) {}
+
+    /**
+     * Colonnes de la table abonnement par type de message (constantes, jamais issues d'une saisie).
+     */
+    private enum QuotaColumns {
+        SMS("sms_used", "custom_sms_limit", "bonus_sms_enabled", "bonus_sms_amount", "allow_sms_carryover", "carried_over_sms"),
+        WHATSAPP(
+            "whatsapp_used",
+            "custom_whatsapp_limit",
+            "bonus_whatsapp_enabled",
+            "bonus_whatsapp_amount",
+            "allow_whatsapp_carryover",
+            "carried_over_whatsapp"
+        );
+
+        final String used;
+        final String limit;
+        final String bonusEnabled;
+        final String bonusAmount;
+        final String carryoverAllowed;
+        final String carriedOver;
+
+        QuotaColumns(String used, String limit, String bonusEnabled, String bonusAmount, String carryoverAllowed, String carriedOver) {
+            this.used = used;
+            this.limit = limit;
+            this.bonusEnabled = bonusEnabled;
+            this.bonusAmount = bonusAmount;
+            this.carryoverAllowed = carryoverAllowed;
+            this.carriedOver = carriedOver;
+        }
+
+        static QuotaColumns of(MessageType type) {
+            return type == MessageType.WHATSAPP ? WHATSAPP : SMS;
+        }
+    }
+}
@@ -94,14 +94,15 @@ public class SendSmsCreationService {
     }
 
     /**
-     * ✅ CRÉATION SMS BULK (MODIFIÉ)
+     * ✅ CRÉATION SMS BULK : seul l'en-tête est créé ici, les SMS sont rendus et insérés
+     * en flux (curseur + COPY) par {@link SmsBulkInsertService} après le commit.
      */
     @Transactional
     public SendSms createBulkSms(SendSms sendSms, Template template, Long groupeId, String login) throws JsonProcessingException {
         Instant now = Instant.now();
 
-        List<Contact> contacts = groupedecontactRepository.findAllContactsByGroupeId(groupeId);
-        if (contacts.isEmpty()) {
+        long contactCount = groupedecontactRepository.countContactsByGroupeId(groupeId);
+        if (contactCount == 0) {
             throw new CustomException("Aucun contact dans le groupe", HttpStatus.BAD_REQUEST.value());
         }
 
@@ -109,13 +110,18 @@ public class SendSmsCreationService {
             .findById(groupeId)
             .orElseThrow(() -> new CustomException("Groupe introuvable", HttpStatus.BAD_REQUEST.value()));
 
+        // Valider le template WhatsApp avant de créer la campagne
+        if (sendSms.getType() == MessageType.WHATSAPP) {
+            parseTemplate(template);
+        }
+
         // Métadonnées
         sendSms.setGrotitre(groupe.getGrotitre());
         sendSms.setBulkCreatedAt(now);
         sendSms.setIsbulk(true);
         sendSms.setInprocess(false);
         sendSms.setIsSent(null);
-        sendSms.setTotalRecipients(contacts.size());
+        sendSms.setTotalRecipients((int) contactCount);
         sendSms.setDeliveryStatus("pending");
         sendSms.setNamereceiver(groupe.getGrotitre());
 
@@ -123,29 +129,16 @@ public class SendSmsCreationService {
         String bulkId = generateUniqueBulkId();
         sendSms.setBulkId(bulkId);
 
-        SendSms saved = sendSmsRepository.save(sendSms);
-
-        // Préparer les SMS
-        TemplateRequest tplReq = sendSms.getType() == MessageType.WHATSAPP ? parseTemplate(template) : null;
-
-        List<Sms> smsList = new ArrayList<>();
-        int totalMessages = 0;
+        // Totaux provisoires (1 message par destinataire), corrigés en fin d'ingestion avec les segments réels
+        sendSms.setTotalMessage((int) contactCount);
+        sendSms.setTotalPending((int) contactCount);
 
-        for (Contact contact : contacts) {
-            Sms sms = buildSmsForContact(contact, saved, template, sendSms, bulkId, tplReq, now, login);
-            totalMessages += sms.getTotalMessage() != null ? sms.getTotalMessage() : 1;
-            smsList.add(sms);
-        }
-
-        // Mise à jour totaux
-        saved.setTotalMessage(totalMessages);
-        saved.setTotalPending(totalMessages);
-        sendSmsRepository.save(saved);
+        SendSms saved = sendSmsRepository.save(sendSms);
 
         // ✅ PUBLIER L'ÉVÉNEMENT (sera traité APRÈS le commit de la transaction)
-        eventPublisher.publishEvent(new SmsBulkInsertEvent(smsList, saved.getId()));
+        eventPublisher.publishEvent(new SmsBulkInsertEvent(saved.getId(), groupeId, login));
 
-        log.info("[CREATE-BULK] Événement publié pour SendSms#{} avec {} SMS", saved.getId(), smsList.size());
+        log.info("[CREATE-BULK] Événement publié pour SendSms#{} avec {} destinataires", saved.getId(), contactCount);
 
         return saved;
     }
@@ -180,6 +173,8 @@ public class SendSmsCreationService {
         Instant now = Instant.now();
         List<Sms> smsToInsert = new ArrayList<>();
         int totalMessagesAdded = 0;
+        CompiledSmsTemplate smsTemplate = sendSms.getType() == MessageType.SMS ? templateService.compileSmsTemplate(sendSms.getMsgdata()) : null;
+        StringBuilder renderBuffer = new StringBuilder();
 
         for (Contact contact : newContacts) {
             Sms sms = new Sms();
@@ -195,9 +190,9 @@ public class SendSmsCreationService {
             sms.setBulkCreatedAt(now);
 
             if (sendSms.getType() == MessageType.SMS) {
-                String contenu = templateService.applyTemplate(sendSms.getMsgdata(), contact);
-                sms.setMsgdata(contenu);
-                int segments = templateService.calculateSmsSegments(contenu);
+                renderBuffer.setLength(0);
+                int segments = smsTemplate.render(contact, renderBuffer);
+                sms.setMsgdata(renderBuffer.toString());
                 sms.setTotalMessage(segments);
                 totalMessagesAdded += segments;
             } else {
@@ -237,13 +232,19 @@ public class SendSmsCreationService {
         smsRepository.save(sms);
     }
 
-    private Sms buildSmsForContact(
+    /**
+     * Rend le SMS d'un destinataire (contenu, segments, variables WhatsApp).
+     * {@code smsTemplate} : template SMS compilé une fois par campagne, rendu dans {@code renderBuffer}.
+     */
+    Sms buildSmsForContact(
         Contact contact,
         SendSms savedBatch,
         Template template,
         SendSms sendSms,
         String bulkId,
         TemplateRequest tplReq,
+        CompiledSmsTemplate smsTemplate,
+        StringBuilder renderBuffer,
         Instant now,
         String login
     ) throws JsonProcessingException {
@@ -262,9 +263,10 @@ public class SendSmsCreationService {
         sms.setBulkCreatedAt(now);
 
         if (sendSms.getType() == MessageType.SMS) {
-            String msgData = templateService.applyTemplate(template.getContent(), contact);
-            sms.setMsgdata(msgData);
-            sms.setTotalMessage(templateService.calculateSmsSegments(msgData));
+            renderBuffer.setLength(0);
+            int segments = smsTemplate.render(contact, renderBuffer);
+            sms.setMsgdata(renderBuffer.toString());
+            sms.setTotalMessage(segments);
         } else {
             Map<String, String> extracted = builder.extractVariables(template, contact);
             List<VariableDTO> varsList = templateService.buildListeVars(tplReq, extracted);
@@ -284,7 +286,7 @@ public class SendSmsCreationService {
         return bulkId;
     }
 
-    private TemplateRequest parseTemplate(Template template) {
+    TemplateRequest parseTemplate(Template template) {
         try {
             String cleaned = cleanTemplateJson(template.getContent());
             return MAPPER.readValue(cleaned, TemplateRequest.class);
@@ -2,12 +2,10 @@ package com.example.myproject.service;
 
 import com.example.myproject.domain.SendSms;
 import com.example.myproject.repository.SendSmsRepository;
-import com.example.myproject.repository.SmsRepository;
 import com.example.myproject.web.rest.dto.BulkProgressResponse;
 import com.example.myproject.web.rest.dto.BulkStats;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -22,7 +20,7 @@ public class SendSmsProgressService {
     private SendSmsRepository sendSmsRepository;
 
     @Autowired
-    private SmsRepository smsRepository;
+    private CampaignCounterService campaignCounterService;
 
     @Autowired
     private SmsBulkService smsBulkService;
@@ -41,7 +39,7 @@ public class SendSmsProgressService {
     private BulkProgressResponse calculateProgress(SendSms sendSms, String bulkId) {
         long totalRecipients = safeLong(sendSms.getTotalRecipients());
 
-        BulkStats stats = calculateStatsFromDb(bulkId, totalRecipients);
+        BulkStats stats = campaignCounterService.getStats(sendSms.getId(), totalRecipients);
 
         double insertionProgress = totalRecipients > 0 ? (stats.getInserted() * 100.0) / totalRecipients : 0.0;
 
@@ -83,52 +81,7 @@ public class SendSmsProgressService {
             .build();
     }
 
-    private BulkStats calculateStatsFromDb(String bulkId, long totalRecipients) {
-        BulkStats stats = new BulkStats();
-
-        List<Object[]> statusCounts = smsRepository.countByBulkIdGroupByStatus(bulkId);
-        for (Object[] row : statusCounts) {
-            String status = safeString(row[0]);
-            long count = toLong(row[1]);
-
-            switch (status.toUpperCase()) {
-                case "SENT" -> stats.setSent(count);
-                case "FAILED" -> stats.setFailed(count);
-                case "PENDING" -> stats.setPending(count);
-            }
-        }
-
-        List<Object[]> deliveryCounts = smsRepository.countByBulkIdGroupByDeliveryStatus(bulkId);
-        for (Object[] row : deliveryCounts) {
-            String deliveryStatus = safeString(row[0]);
-            long count = toLong(row[1]);
-
-            switch (deliveryStatus.toLowerCase()) {
-                case "delivered" -> stats.setDelivered(count);
-                case "read" -> stats.setRead(count);
-                case "failed" -> stats.setDeliveryFailed(count);
-            }
-        }
-
-        stats.setInserted(smsRepository.countByBulkId(bulkId));
-        stats.setTotal(totalRecipients);
-
-        return stats;
-    }
-
-    private static long toLong(Object o) {
-        if (o == null) return 0L;
-        if (o instanceof Long l) return l;
-        if (o instanceof Integer i) return i.longValue();
-        if (o instanceof Number n) return n.longValue();
-        return 0L;
-    }
-
     private static long safeLong(Number v) {
         return v == null ? 0L : v.longValue();
     }
-
-    private static String safeString(Object o) {
-        return o == null ? "" : o.toString();
-    }
 }
@@ -4,15 +4,12 @@ import com.example.myproject.domain.Abonnement;
 import com.example.myproject.domain.enumeration.MessageType;
 import com.example.myproject.repository.AbonnementRepository;
 import com.example.myproject.web.rest.errors.CustomException;
-import java.time.Instant;
 import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Propagation;
-import org.springframework.transaction.annotation.Transactional;
 
 /**
  * ✅ SERVICE DÉDIÉ : Gestion des quotas SMS/WhatsApp
@@ -26,7 +23,7 @@ public class SendSmsQuotaService {
     private AbonnementRepository abonnementRepository;
 
     @Autowired
-    private AbonnementService abonnementService;
+    private QuotaLedgerService quotaLedgerService;
 
     /**
      * ✅ VÉRIFIER QUOTAS AVANT ENVOI
@@ -60,26 +57,33 @@ public class SendSmsQuotaService {
     }
 
     /**
-     * ✅ DÉCRÉMENTER QUOTAS APRÈS ENVOI RÉUSSI
+     * ✅ RÉSERVER QUOTAS AVANT ENVOI (débit atomique en tout ou rien, validé immédiatement)
      */
-    @Transactional(propagation = Propagation.REQUIRES_NEW)
-    public void decrementQuotasAfterSend(Long userId, MessageType messageType, int messageCount) {
-        try {
-            List<Abonnement> activeSubscriptions = abonnementRepository.findActiveByUserId(userId);
-
-            if (activeSubscriptions.isEmpty()) {
-                log.warn("[QUOTA-DECREMENT] Aucun abonnement actif pour user {}", userId);
-                return;
-            }
+    public void reserveQuotasForSend(Long userId, MessageType messageType, int messageCount) {
+        if (quotaLedgerService.reserve(userId, messageType, messageCount)) {
+            log.info("[QUOTA-RESERVE] ✅ User {}: {} {} réservés", userId, messageCount, messageType);
+            return;
+        }
 
-            log.info("[QUOTA-DECREMENT] User {}: Décrément de {} {}", userId, messageCount, messageType);
+        // Refus : message détaillé (abonnement absent ou disponible insuffisant)
+        verifyQuotasForSend(userId, messageType, messageCount);
+        String typeStr = messageType == MessageType.SMS ? "SMS" : "WhatsApp";
+        throw new CustomException(
+            String.format("Quota %s insuffisant. Requis: %d", typeStr, messageCount),
+            HttpStatus.TOO_MANY_REQUESTS.value()
+        );
+    }
 
-            abonnementService.decrementQuotasAfterSend(activeSubscriptions, messageType, messageCount);
-            abonnementRepository.saveAll(activeSubscriptions);
+    /**
+     * ✅ LIBÉRER UNE RÉSERVATION (envoi en échec ou non effectué)
+     */
+    public void releaseQuotas(Long userId, MessageType messageType, int messageCount) {
+        try {
+            int refunded = quotaLedgerService.refund(userId, messageType, messageCount);
 
-            log.info("[QUOTA-DECREMENT] ✅ Quotas mis à jour pour user {}", userId);
+            log.info("[QUOTA-RELEASE] ✅ {} {} rendus à user {}", refunded, messageType, userId);
         } catch (Exception e) {
-            log.error("[QUOTA-DECREMENT] ❌ Erreur user {}: {}", userId, e.getMessage(), e);
+            log.error("[QUOTA-RELEASE] ❌ Erreur user {}: {}", userId, e.getMessage(), e);
         }
     }
 
@@ -25,59 +25,8 @@ public class SendSmsUpdateService {
     @Autowired
     private SendSmsRepository sendSmsRepository;
 
-    /**
-     * Incrémente le compteur de succès de manière atomique
-     * Transaction indépendante pour éviter les rollbacks
-     */
-    @Transactional(propagation = Propagation.REQUIRES_NEW)
-    public void incrementSuccess(Long sendSmsId) {
-        try {
-            String sql =
-                """
-                UPDATE send_sms
-                SET total_sent = COALESCE(total_sent, 0) + 1,
-                    total_success = COALESCE(total_success, 0) + 1,
-                    total_pending = GREATEST(0, COALESCE(total_pending, 0) - 1)
-                WHERE id = ?
-                """;
-
-            int updated = jdbcTemplate.update(sql, sendSmsId);
-
-            if (updated > 0) {
-                log.debug("[SENDSMS-UPDATE] Succès incrémenté pour SendSms {}", sendSmsId);
-            } else {
-                log.warn("[SENDSMS-UPDATE] Aucune ligne mise à jour pour SendSms {}", sendSmsId);
-            }
-        } catch (Exception e) {
-            log.error("[SENDSMS-UPDATE] Erreur increment success pour {}: {}", sendSmsId, e.getMessage());
-        }
-    }
-
-    /**
-     * Incrémente le compteur d'échec de manière atomique
-     */
-    @Transactional(propagation = Propagation.REQUIRES_NEW)
-    public void incrementFailed(Long sendSmsId) {
-        try {
-            String sql =
-                """
-                UPDATE send_sms
-                SET total_failed = COALESCE(total_failed, 0) + 1,
-                    total_pending = GREATEST(0, COALESCE(total_pending, 0) - 1)
-                WHERE id = ?
-                """;
-
-            int updated = jdbcTemplate.update(sql, sendSmsId);
-
-            if (updated > 0) {
-                log.debug("[SENDSMS-UPDATE] Échec incrémenté pour SendSms {}", sendSmsId);
-            } else {
-                log.warn("[SENDSMS-UPDATE] Aucune ligne mise à jour pour SendSms {}", sendSmsId);
-            }
-        } catch (Exception e) {
-            log.error("[SENDSMS-UPDATE] Erreur increment failed pour {}: {}", sendSmsId, e.getMessage());
-        }
-    }
+    @Autowired
+    private CampaignCounterService campaignCounterService;
 
     /**
      * Incrémente plusieurs compteurs en une seule opération atomique
@@ -99,6 +48,7 @@ public class SendSmsUpdateService {
             int updated = jdbcTemplate.update(sql, totalDelta, successDelta, failDelta, totalDelta, sendSmsId);
 
             if (updated > 0) {
+                campaignCounterService.recordSendOutcome(sendSmsId, successDelta, failDelta);
                 log.debug(
                     "[SENDSMS-UPDATE] Compteurs mis à jour pour SendSms {}: +{} succès, +{} échecs",
                     sendSmsId,
@@ -201,6 +151,41 @@ public class SendSmsUpdateService {
         }
     }
 
+    /**
+     * Clôture d'un envoi bulk : état final et taux recalculés depuis les compteurs en base.
+     * Les compteurs eux-mêmes ne sont pas écrits (ajustés par deltas : writer, DLR).
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void markBulkFinished(Long sendSmsId, String bulkStatus, String deliveryStatus, Boolean isSent) {
+        try {
+            String sql =
+                """
+                UPDATE send_sms
+                SET inprocess = false,
+                    bulk_status = ?,
+                    delivery_status = ?,
+                    is_sent = ?,
+                    success_rate = CASE WHEN COALESCE(total_success, 0) + COALESCE(total_failed, 0) > 0
+                        THEN COALESCE(total_success, 0) * 100.0 / (COALESCE(total_success, 0) + COALESCE(total_failed, 0))
+                        ELSE success_rate END,
+                    failure_rate = CASE WHEN COALESCE(total_success, 0) + COALESCE(total_failed, 0) > 0
+                        THEN COALESCE(total_failed, 0) * 100.0 / (COALESCE(total_success, 0) + COALESCE(total_failed, 0))
+                        ELSE failure_rate END
+                WHERE id = ?
+                """;
+
+            int updated = jdbcTemplate.update(sql, bulkStatus, deliveryStatus, isSent, sendSmsId);
+
+            if (updated > 0) {
+                log.info("[SENDSMS-UPDATE] SendSms {} clôturé: {} / {}", sendSmsId, bulkStatus, deliveryStatus);
+            } else {
+                log.warn("[SENDSMS-UPDATE] Échec clôture SendSms {}", sendSmsId);
+            }
+        } catch (Exception e) {
+            log.error("[SENDSMS-UPDATE] Erreur clôture pour {}: {}", sendSmsId, e.getMessage());
+        }
+    }
+
     /**
      * Mise à jour du compteur total_pending uniquement
      */
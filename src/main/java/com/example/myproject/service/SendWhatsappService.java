@@ -19,10 +19,15 @@ import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.collect.Lists;
 import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.AbstractMap.SimpleEntry;
+import java.util.concurrent.CompletableFuture;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -36,7 +41,6 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.util.Pair;
 import org.springframework.http.*;
-import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.LinkedMultiValueMap;
@@ -58,11 +62,12 @@ public class SendWhatsappService {
 
     private final ConfigurationRepository configurationRepository;
 
-    @Autowired
-    private RestTemplate restTemplate;
+    // Client Graph API partagé (pool keep-alive, timeouts, métriques)
+    private final GraphApiClient graphApiClient;
+    private final RestTemplate restTemplate;
 
     private final ObjectMapper mapper = new ObjectMapper();
-    private final RestTemplate rest = new RestTemplate();
+    private final RestTemplate rest;
 
     @Autowired
     private SendWhatsappRepository sendWhatsappRepository;
@@ -72,9 +77,16 @@ public class SendWhatsappService {
 
     private static final String GRAPH_URL = "https://graph.facebook.com/v22.0";
 
-    public SendWhatsappService(TemplateMessageBuilder builder, ConfigurationRepository configurationRepository) {
+    public SendWhatsappService(
+        TemplateMessageBuilder builder,
+        ConfigurationRepository configurationRepository,
+        GraphApiClient graphApiClient
+    ) {
         this.builder = builder;
         this.configurationRepository = configurationRepository;
+        this.graphApiClient = graphApiClient;
+        this.restTemplate = graphApiClient.restTemplate();
+        this.rest = this.restTemplate;
     }
 
     public SendWhatsapp save(SendWhatsapp sendWhatsapp) {
@@ -1135,16 +1147,12 @@ public class SendWhatsappService {
             }
 
             Map<String, Object> payload = builder.buildBulkMarketingLitePayload(tpl, varsList, validPhones);
-            System.out.println("📦 Payload JSON : " + new ObjectMapper().writerWithDefaultPrettyPrinter().writeValueAsString(payload));
 
             // Log pour debug (limité en production)
             if (log.isDebugEnabled()) {
-                log.debug("📦 Payload JSON : {}", new ObjectMapper().writerWithDefaultPrettyPrinter().writeValueAsString(payload));
+                log.debug("📦 Payload JSON : {}", objectMapper.writeValueAsString(payload));
             }
 
-            // Configuration RestTemplate avec timeout
-            RestTemplate restTemplate = createRestTemplateWithTimeout();
-
             HttpHeaders headers = new HttpHeaders();
             headers.setContentType(MediaType.APPLICATION_JSON);
             headers.setBearerAuth(accessToken);
@@ -1157,7 +1165,7 @@ public class SendWhatsappService {
             ResponseEntity<String> resp = restTemplate.postForEntity(url, request, String.class);
 
             if (resp.getStatusCode().is2xxSuccessful()) {
-                JsonNode responseJson = new ObjectMapper().readTree(resp.getBody());
+                JsonNode responseJson = objectMapper.readTree(resp.getBody());
 
                 if (responseJson.has("campaign_id")) {
                     String campaignId = responseJson.path("campaign_id").asText("unknown");
@@ -1189,18 +1197,6 @@ public class SendWhatsappService {
         return phone.matches("^\\+[1-9]\\d{1,14}$");
     }
 
-    private RestTemplate createRestTemplateWithTimeout() {
-        RestTemplate restTemplate = new RestTemplate();
-
-        // Configuration des timeouts
-        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
-        factory.setConnectTimeout(30000); // 30 secondes
-        factory.setReadTimeout(60000); // 60 secondes
-        restTemplate.setRequestFactory(factory);
-
-        return restTemplate;
-    }
-
     public SendMessageResult sendMessageAndGetId(String recipient, Template tpl, List<VariableDTO> varsList, String userLogin) {
         try {
             var cfg = configurationRepository.findOneByUserLogin(userLogin).orElse(null);
@@ -1209,15 +1205,33 @@ public class SendWhatsappService {
                 return SendMessageResult.error("Partner has no WhatsApp configuration");
             }
 
+            return sendMessageAndGetId(recipient, builder.compilePayload(tpl), varsList, cfg);
+        } catch (Exception e) {
+            return SendMessageResult.error("Error parsing WhatsApp response: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Envoi synchrone avec squelette de payload et configuration déjà résolus (une fois par campagne).
+     */
+    public SendMessageResult sendMessageAndGetId(
+        String recipient,
+        WhatsAppPayloadSkeleton payload,
+        List<VariableDTO> varsList,
+        Configuration cfg
+    ) {
+        try {
             String to = recipient.startsWith("+") ? recipient : "+" + recipient;
-            Map<String, Object> payload = builder.buildPayload(tpl, varsList, to);
-            System.out.println("📦 Payload JSON : " + new ObjectMapper().writerWithDefaultPrettyPrinter().writeValueAsString(payload));
+            byte[] body = payload.render(to, varsList);
+            if (log.isDebugEnabled()) {
+                log.debug("📦 Payload JSON : {}", new String(body, StandardCharsets.UTF_8));
+            }
             String url = String.format("https://graph.facebook.com/v22.0/%s/messages", cfg.getPhoneNumberId());
             HttpHeaders headers = new HttpHeaders();
             headers.setContentType(MediaType.APPLICATION_JSON);
             headers.setBearerAuth(cfg.getAccessToken());
 
-            HttpEntity<Map<String, Object>> request = new HttpEntity<>(payload, headers);
+            HttpEntity<byte[]> request = new HttpEntity<>(body, headers);
             ResponseEntity<String> response = restTemplate.postForEntity(url, request, String.class);
 
             if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
@@ -1237,6 +1251,61 @@ public class SendWhatsappService {
         }
     }
 
+    /**
+     * Envoi non bloquant d'un message template (moteur bulk) : aucune lecture de configuration,
+     * les identifiants et le squelette de payload sont fournis par l'appelant (une fois par campagne),
+     * la réponse est traitée à la complétion.
+     */
+    public CompletableFuture<SendMessageResult> sendMessageAsync(
+        String recipient,
+        WhatsAppPayloadSkeleton payload,
+        List<VariableDTO> varsList,
+        String phoneNumberId,
+        String accessToken
+    ) {
+        try {
+            String to = recipient.startsWith("+") ? recipient : "+" + recipient;
+
+            HttpRequest request = HttpRequest.newBuilder(
+                URI.create(String.format("%s/%s/messages", GRAPH_URL, phoneNumberId))
+            )
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + accessToken)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(payload.render(to, varsList)))
+                .build();
+
+            return graphApiClient
+                .sendAsync(request)
+                .thenApply(this::toSendMessageResult)
+                .exceptionally(e -> SendMessageResult.error("Erreur réseau WhatsApp: " + rootMessage(e)));
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture(SendMessageResult.error("Erreur préparation WhatsApp: " + e.getMessage()));
+        }
+    }
+
+    private SendMessageResult toSendMessageResult(HttpResponse<String> response) {
+        if (response.statusCode() < 200 || response.statusCode() >= 300 || response.body() == null) {
+            return SendMessageResult.error("Failed to send WhatsApp message: HTTP " + response.statusCode() + " " + response.body());
+        }
+        try {
+            JsonNode messages = objectMapper.readTree(response.body()).path("messages");
+            if (messages.isArray() && messages.size() > 0) {
+                return new SendMessageResult(messages.get(0).path("id").asText());
+            }
+            return SendMessageResult.error("No message ID in WhatsApp response");
+        } catch (Exception e) {
+            return SendMessageResult.error("Error parsing WhatsApp response: " + e.getMessage());
+        }
+    }
+
+    private static String rootMessage(Throwable e) {
+        Throwable cause = e;
+        while (cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+    }
+
     public boolean sendMessageAuth(User user, String sendService) {
         return true;
     }
@@ -1252,7 +1321,7 @@ public class SendWhatsappService {
 
         String to = recipient.startsWith("+") ? recipient : "+" + recipient;
         Map<String, Object> payload = builder.buildPayload(tpl, varsList, to);
-        System.out.println("[DEBUG] WhatsApp payload: " + payload);
+        log.debug("WhatsApp payload: {}", payload);
         String base = "https://graph.facebook.com/v22.0";
         String phoneId = cfg.getPhoneNumberId();
         String url = String.format("%s/%s/messages", base, phoneId);
@@ -0,0 +1,432 @@
+package com.example.myproject.service;
+
+import com.example.myproject.web.rest.dto.SendResult;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jsmpp.bean.BindType;
+import org.jsmpp.bean.DataCodings;
+import org.jsmpp.bean.ESMClass;
+import org.jsmpp.bean.NumberingPlanIndicator;
+import org.jsmpp.bean.RegisteredDelivery;
+import org.jsmpp.bean.SMSCDeliveryReceipt;
+import org.jsmpp.bean.TypeOfNumber;
+import org.jsmpp.extra.NegativeResponseException;
+import org.jsmpp.extra.SessionState;
+import org.jsmpp.session.BindParameter;
+import org.jsmpp.session.SMPPSession;
+import org.jsmpp.session.SubmitSmResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Pool de sessions SMPP liées (bind_transmitter) par configuration opérateur.
+ *
+ * Chaque session accepte jusqu'à {@code window-size} submit_sm en vol : jSMPP corrèle les
+ * submit_sm_resp par numéro de séquence, le sémaphore de fenêtre borne les PDU en attente
+ * et sert de back-pressure à l'appelant. enquire_link est géré par la session, la reconnexion
+ * est faite à la demande après perte du bind.
+ *
+ * Pendant une perte de bind, un envoi n'échoue pas : il bascule sur une autre session liée du
+ * pool, sinon attend la reconnexion jusqu'à {@code rebind-wait-ms} ; au-delà il est rendu
+ * « à reprendre » ({@link SendResult#retry}), jamais en échec.
+ */
+@Component
+public class SmppSessionPool {
+
+    private static final Logger log = LoggerFactory.getLogger(SmppSessionPool.class);
+
+    private static final Charset GSM_ENCODING = StandardCharsets.ISO_8859_1;
+    private static final Charset UCS2_ENCODING = StandardCharsets.UTF_16BE;
+
+    private static final int GSM_SINGLE_MAX = 160;
+    private static final int GSM_SEGMENT_MAX = 153;
+    private static final int UCS2_SINGLE_MAX = 140;
+    private static final int UCS2_SEGMENT_MAX = 134;
+    private static final int ESM_CLASS_UDHI = 0x40;
+
+    @Value("${sms.smpp.sessions-per-config:2}")
+    private int sessionsPerConfig;
+
+    @Value("${sms.smpp.window-size:10}")
+    private int windowSize;
+
+    @Value("${sms.smpp.window-wait-ms:10000}")
+    private long windowWaitMs;
+
+    @Value("${sms.smpp.enquire-link-ms:30000}")
+    private int enquireLinkMs;
+
+    @Value("${sms.smpp.transaction-timer-ms:10000}")
+    private long transactionTimerMs;
+
+    @Value("${sms.smpp.reconnect-delay-ms:5000}")
+    private long reconnectDelayMs;
+
+    @Value("${sms.smpp.rebind-wait-ms:300000}")
+    private long rebindWaitMs;
+
+    // Pas d'attente d'un envoi parqué entre deux tentatives de reprise de session
+    private static final long PARK_STEP_MS = 200;
+
+    private final ConcurrentHashMap<SmppEndpoint, OperatorPool> pools = new ConcurrentHashMap<>();
+    private final AtomicInteger referenceCounter = new AtomicInteger();
+    private ExecutorService submitExecutor;
+
+    @PostConstruct
+    public void init() {
+        this.submitExecutor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "smpp-submit");
+            t.setDaemon(true);
+            return t;
+        });
+
+        log.info("SMPP session pool initialized - Sessions/config: {}, Window: {}", sessionsPerConfig, windowSize);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        log.info("Shutting down SMPP session pool ({} endpoints)", pools.size());
+        pools.values().forEach(OperatorPool::close);
+        pools.clear();
+        submitExecutor.shutdown();
+    }
+
+    /**
+     * Soumet un message (découpé en segments si nécessaire) de façon asynchrone.
+     * Bloque l'appelant uniquement quand la fenêtre de la session est pleine.
+     */
+    public CompletableFuture<SendResult> submitAsync(SmppEndpoint endpoint, SmppSubmit submit) {
+        OperatorPool pool = pools.computeIfAbsent(endpoint, OperatorPool::new);
+        PooledSession slot;
+        try {
+            slot = pool.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.completedFuture(SendResult.retry("Interrompu en attente de fenêtre SMPP"));
+        } catch (TimeoutException e) {
+            return CompletableFuture.completedFuture(SendResult.retry(e.getMessage()));
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture(SendResult.fail(e.getMessage(), null));
+        }
+
+        try {
+            // Le permis de fenêtre est rendu par pool.submit (éventuellement sur une autre session)
+            return CompletableFuture.supplyAsync(() -> pool.submit(slot, submit), submitExecutor);
+        } catch (RejectedExecutionException e) {
+            slot.window.release();
+            return CompletableFuture.completedFuture(SendResult.retry("SMPP pool arrêté"));
+        }
+    }
+
+    /**
+     * Ferme les sessions d'une configuration (mise à jour ou suppression des identifiants).
+     */
+    public void invalidate(Long configId) {
+        pools
+            .entrySet()
+            .removeIf(entry -> {
+                if (configId != null && configId.equals(entry.getKey().configId())) {
+                    entry.getValue().close();
+                    return true;
+                }
+                return false;
+            });
+    }
+
+    private List<byte[]> splitMessage(String message, boolean ucs2) {
+        byte[] encoded = message.getBytes(ucs2 ? UCS2_ENCODING : GSM_ENCODING);
+        int singleMax = ucs2 ? UCS2_SINGLE_MAX : GSM_SINGLE_MAX;
+
+        if (encoded.length <= singleMax) {
+            return List.of(encoded);
+        }
+
+        int segmentMax = ucs2 ? UCS2_SEGMENT_MAX : GSM_SEGMENT_MAX;
+        int total = (encoded.length + segmentMax - 1) / segmentMax;
+        byte reference = (byte) referenceCounter.incrementAndGet();
+
+        List<byte[]> segments = new ArrayList<>(total);
+        for (int i = 0; i < total; i++) {
+            int from = i * segmentMax;
+            int length = Math.min(segmentMax, encoded.length - from);
+            byte[] segment = new byte[6 + length];
+            segment[0] = 0x05;
+            segment[1] = 0x00;
+            segment[2] = 0x03;
+            segment[3] = reference;
+            segment[4] = (byte) total;
+            segment[5] = (byte) (i + 1);
+            System.arraycopy(encoded, from, segment, 6, length);
+            segments.add(segment);
+        }
+        return segments;
+    }
+
+    /**
+     * Identité d'une liaison SMPP : un changement d'hôte ou d'identifiants crée un nouveau pool.
+     */
+    public record SmppEndpoint(Long configId, String host, int port, String systemId, String password) {
+        @Override
+        public String toString() {
+            return "SmppEndpoint{configId=" + configId + ", " + systemId + "@" + host + ":" + port + "}";
+        }
+    }
+
+    public record SmppSubmit(
+        String source,
+        int sourceTon,
+        int sourceNpi,
+        String destination,
+        int destTon,
+        int destNpi,
+        int dataCoding,
+        String message
+    ) {}
+
+    private class OperatorPool {
+
+        private final SmppEndpoint endpoint;
+        private final PooledSession[] sessions;
+        private final AtomicInteger next = new AtomicInteger();
+
+        OperatorPool(SmppEndpoint endpoint) {
+            this.endpoint = endpoint;
+            this.sessions = new PooledSession[Math.max(1, sessionsPerConfig)];
+            for (int i = 0; i < sessions.length; i++) {
+                sessions[i] = new PooledSession(endpoint, i);
+            }
+        }
+
+        PooledSession acquire() throws InterruptedException, TimeoutException {
+            int start = Math.floorMod(next.getAndIncrement(), sessions.length);
+
+            // Première passe : une session liée avec de la place dans sa fenêtre
+            for (int i = 0; i < sessions.length; i++) {
+                PooledSession slot = sessions[(start + i) % sessions.length];
+                if (slot.isBound() && slot.window.tryAcquire()) {
+                    return slot;
+                }
+            }
+
+            // Fenêtres pleines (envois parqués compris pendant une reconnexion) : attente plus longue
+            // tant qu'aucune session n'est liée, les permis se libèrent au rebind
+            long waitMs = anyBound() ? windowWaitMs : Math.max(windowWaitMs, rebindWaitMs);
+            PooledSession slot = sessions[start];
+            if (!slot.window.tryAcquire(waitMs, TimeUnit.MILLISECONDS)) {
+                throw new TimeoutException("Fenêtre SMPP pleine pour " + endpoint);
+            }
+            return slot;
+        }
+
+        /**
+         * Soumet sur la session réservée ; si elle n'est pas liée, bascule sur une autre session
+         * liée ayant de la place, sinon attend la reconnexion. Rend le permis de fenêtre détenu.
+         */
+        SendResult submit(PooledSession slot, SmppSubmit submit) {
+            PooledSession holder = slot;
+            long deadline = System.currentTimeMillis() + rebindWaitMs;
+            try {
+                while (true) {
+                    SMPPSession bound = holder.tryBind();
+                    if (bound != null) {
+                        return holder.submitOn(bound, submit);
+                    }
+
+                    PooledSession other = findBoundWithRoom(holder);
+                    if (other != null) {
+                        holder.window.release();
+                        holder = other;
+                        continue;
+                    }
+
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (holder.closed || remaining <= 0) {
+                        log.warn("Aucune session SMPP liée pour {} après {} ms, envoi à reprendre", endpoint, rebindWaitMs);
+                        return SendResult.retry("Aucune session SMPP liée pour " + endpoint);
+                    }
+                    Thread.sleep(Math.min(PARK_STEP_MS, remaining));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return SendResult.retry("Interrompu en attente de session SMPP");
+            } finally {
+                holder.window.release();
+            }
+        }
+
+        private PooledSession findBoundWithRoom(PooledSession exclude) {
+            for (PooledSession candidate : sessions) {
+                if (candidate != exclude && candidate.isBound() && candidate.window.tryAcquire()) {
+                    return candidate;
+                }
+            }
+            return null;
+        }
+
+        private boolean anyBound() {
+            for (PooledSession slot : sessions) {
+                if (slot.isBound()) return true;
+            }
+            return false;
+        }
+
+        void close() {
+            for (PooledSession slot : sessions) {
+                slot.close();
+            }
+        }
+    }
+
+    private class PooledSession {
+
+        private final SmppEndpoint endpoint;
+        private final int index;
+        private final Semaphore window = new Semaphore(Math.max(1, windowSize));
+        private volatile SMPPSession session;
+        private volatile long nextConnectAttempt;
+        private volatile boolean closed;
+
+        PooledSession(SmppEndpoint endpoint, int index) {
+            this.endpoint = endpoint;
+            this.index = index;
+        }
+
+        boolean isBound() {
+            SMPPSession current = session;
+            return current != null && current.getSessionState().isBound();
+        }
+
+        /**
+         * Session liée, ou null si le bind est perdu (reconnexion en attente ou en échec).
+         */
+        SMPPSession tryBind() {
+            try {
+                return ensureBound();
+            } catch (Exception e) {
+                log.warn("Bind SMPP impossible sur {} #{} : {}", endpoint, index, e.getMessage());
+                return null;
+            }
+        }
+
+        SendResult submitOn(SMPPSession current, SmppSubmit submit) {
+            boolean ucs2 = submit.dataCoding() == 8;
+            List<byte[]> segments = splitMessage(submit.message(), ucs2);
+            boolean multipart = segments.size() > 1;
+            String firstMessageId = null;
+
+            try {
+                for (byte[] segment : segments) {
+                    SubmitSmResult result = current.submitShortMessage(
+                        null,
+                        TypeOfNumber.valueOf((byte) submit.sourceTon()),
+                        NumberingPlanIndicator.valueOf((byte) submit.sourceNpi()),
+                        submit.source(),
+                        TypeOfNumber.valueOf((byte) submit.destTon()),
+                        NumberingPlanIndicator.valueOf((byte) submit.destNpi()),
+                        submit.destination(),
+                        new ESMClass(multipart ? ESM_CLASS_UDHI : 0),
+                        (byte) 0,
+                        (byte) 0,
+                        null,
+                        null,
+                        new RegisteredDelivery(SMSCDeliveryReceipt.SUCCESS_FAILURE),
+                        (byte) 0,
+                        DataCodings.newInstance((byte) submit.dataCoding()),
+                        (byte) 0,
+                        segment
+                    );
+                    if (firstMessageId == null) {
+                        firstMessageId = result.getMessageId();
+                    }
+                }
+                return SendResult.ok(firstMessageId);
+            } catch (NegativeResponseException e) {
+                return SendResult.fail(e.getMessage(), e.getCommandStatus());
+            } catch (Exception e) {
+                log.warn("Erreur submit_sm sur {} (session #{}) : {}", endpoint, index, e.getMessage());
+                if (!current.getSessionState().isBound()) {
+                    discard(current);
+                }
+                return SendResult.fail(e.getMessage(), null);
+            }
+        }
+
+        private SMPPSession ensureBound() throws Exception {
+            SMPPSession current = session;
+            if (current != null && current.getSessionState().isBound()) {
+                return current;
+            }
+
+            synchronized (this) {
+                current = session;
+                if (current != null && current.getSessionState().isBound()) {
+                    return current;
+                }
+                if (closed || System.currentTimeMillis() < nextConnectAttempt) {
+                    // Fermée, ou reconnexion espacée de reconnect-delay-ms
+                    return null;
+                }
+
+                nextConnectAttempt = System.currentTimeMillis() + reconnectDelayMs;
+                SMPPSession fresh = new SMPPSession();
+                fresh.setEnquireLinkTimer(enquireLinkMs);
+                fresh.setTransactionTimer(transactionTimerMs);
+                fresh.addSessionStateListener((newState, oldState, source) -> {
+                    if (newState == SessionState.CLOSED) {
+                        log.warn("Session SMPP {} #{} fermée ({} -> {})", endpoint, index, oldState, newState);
+                        discard(fresh);
+                    }
+                });
+                fresh.connectAndBind(
+                    endpoint.host(),
+                    endpoint.port(),
+                    new BindParameter(
+                        BindType.BIND_TX,
+                        endpoint.systemId(),
+                        endpoint.password(),
+                        "",
+                        TypeOfNumber.UNKNOWN,
+                        NumberingPlanIndicator.UNKNOWN,
+                        null
+                    )
+                );
+
+                log.info("Session SMPP liée : {} #{}", endpoint, index);
+                session = fresh;
+                return fresh;
+            }
+        }
+
+        private void discard(SMPPSession dead) {
+            synchronized (this) {
+                if (session == dead) {
+                    session = null;
+                }
+            }
+            try {
+                dead.close();
+            } catch (Exception ignored) {}
+        }
+
+        void close() {
+            closed = true;
+            SMPPSession current = session;
+            session = null;
+            if (current != null) {
+                try {
+                    current.unbindAndClose();
+                } catch (Exception e) {
+                    log.debug("Unbind {} #{} : {}", endpoint, index, e.getMessage());
+                }
+            }
+        }
+    }
+}
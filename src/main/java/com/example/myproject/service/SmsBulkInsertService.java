@@ -1,23 +1,38 @@
 package com.example.myproject.service;
 
+import static com.example.myproject.service.helper.CopyFormatHelper.appendField;
+
+import com.example.myproject.domain.Contact;
 import com.example.myproject.domain.SendSms;
 import com.example.myproject.domain.Sms;
+import com.example.myproject.domain.Template;
 import com.example.myproject.domain.enumeration.MessageType;
 import com.example.myproject.repository.SendSmsRepository;
 import com.example.myproject.repository.SmsRepository;
+import com.example.myproject.repository.TemplateRepository;
 import com.example.myproject.service.event.SmsBulkInsertEvent;
+import com.example.myproject.web.rest.dto.TemplateRequest;
 import jakarta.persistence.EntityNotFoundException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.ArrayList;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.List;
-import java.util.stream.Collectors;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Lazy;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
@@ -32,6 +47,24 @@ public class SmsBulkInsertService {
     private static final Logger log = LoggerFactory.getLogger(SmsBulkInsertService.class);
     private static final int LOG_INTERVAL = 10000;
 
+    private static final String CONTACT_CURSOR_SQL =
+        """
+        SELECT c.connom, c.conprenom, c.contelephone, c.custom_fields
+        FROM groupedecontact g
+        JOIN contact c ON c.id = g.contact_id
+        WHERE g.cgrgroupe_id = ?
+        """;
+
+    private static final String COPY_SQL =
+        """
+        COPY sms (
+            send_sms_id, sender, receiver, msgdata,
+            total_message, is_sent, send_date, status,
+            bulk_id, bulk_created_at, vars, template_id,
+            type, delivery_status, namereceiver, user_login
+        ) FROM STDIN
+        """;
+
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
@@ -41,8 +74,20 @@ public class SmsBulkInsertService {
     @Autowired
     private SmsRepository smsRepository;
 
-    @Value("${sms.bulk.insert-batch-size:1000}")
-    private int insertBatchSize;
+    @Autowired
+    private CampaignCounterService campaignCounterService;
+
+    @Autowired
+    private TemplateRepository templateRepository;
+
+    @Autowired
+    private SendSmsCreationService creationService;
+
+    @Value("${sms.bulk.copy-chunk-size:10000}")
+    private int copyChunkSize;
+
+    @Value("${sms.bulk.cursor-fetch-size:2000}")
+    private int cursorFetchSize;
 
     // ✅ AUTO-INJECTION POUR PASSER PAR LE PROXY SPRING
     @Lazy
@@ -54,127 +99,207 @@ public class SmsBulkInsertService {
      */
     @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT)
     public void handleBulkInsertEvent(SmsBulkInsertEvent event) {
-        log.info("[BULK-EVENT] Événement reçu pour SendSms#{} avec {} SMS", event.getSendSmsId(), event.getSmsList().size());
+        log.info("[BULK-EVENT] Événement reçu pour SendSms#{} (groupe #{})", event.getSendSmsId(), event.getGroupeId());
 
         // ✅ APPELER VIA LE PROXY POUR QUE @Async ET @Transactional FONCTIONNENT
-        self.insertBulkSmsAsync(event.getSmsList(), event.getSendSmsId());
+        self.insertBulkSmsAsync(event.getSendSmsId(), event.getGroupeId(), event.getLogin());
     }
 
     /**
-     * ✅ INSERTION MASSIVE ASYNCHRONE
+     * ✅ INGESTION MASSIVE EN FLUX
+     *
+     * Les contacts du groupe sont lus par un curseur serveur (fetch size borné), chaque SMS est
+     * rendu puis écrit au format texte de COPY dans un tampon vidé par {@code COPY sms FROM STDIN}
+     * tous les {@code copy-chunk-size} lignes : la mémoire reste constante quelle que soit la taille
+     * du groupe. Le tout s'exécute dans une seule transaction (le curseur en a besoin).
      */
     @Async("bulkInsertExecutor")
     @Transactional(propagation = Propagation.REQUIRES_NEW)
-    public void insertBulkSmsAsync(List<Sms> smsList, Long sendSmsId) {
+    public void insertBulkSmsAsync(Long sendSmsId, Long groupeId, String login) {
         Instant startTime = Instant.now();
 
+        SendSms sendSms = sendSmsRepository
+            .findById(sendSmsId)
+            .orElseThrow(() -> new EntityNotFoundException("SendSms non trouvé: " + sendSmsId));
+        Template template = templateRepository
+            .findById(sendSms.getTemplate_id())
+            .orElseThrow(() -> new EntityNotFoundException("Template non trouvé: " + sendSms.getTemplate_id()));
+
+        int expected = sendSms.getTotalRecipients() != null ? sendSms.getTotalRecipients() : 0;
+
         log.info("╔════════════════════════════════════════════════════════════╗");
-        log.info("║  💾 INSERTION MASSIVE SMS                                 ║");
+        log.info("║  💾 INGESTION SMS (CURSEUR + COPY)                        ║");
         log.info("╠════════════════════════════════════════════════════════════╣");
         log.info("║  SendSms ID: {}                                            ║", sendSmsId);
-        log.info("║  Total à insérer: {}                                       ║", smsList.size());
-        log.info("║  Batch size: {}                                            ║", insertBatchSize);
+        log.info("║  Destinataires: {}                                         ║", expected);
+        log.info("║  Chunk COPY: {}                                            ║", copyChunkSize);
         log.info("╚════════════════════════════════════════════════════════════╝");
 
-        if (smsList == null || smsList.isEmpty()) {
-            log.warn("⚠️  Liste vide, aucune insertion");
-            return;
-        }
-
-        // ✅ RÉCUPÉRER LE SENDSMS
-        SendSms managedSendSms = sendSmsRepository
-            .findById(sendSmsId)
-            .orElseThrow(() -> new EntityNotFoundException("SendSms non trouvé: " + sendSmsId));
-
         try {
-            //  PRÉPARER LES DONNÉES
-            List<Object[]> batchArgs = smsList
-                .stream()
-                .map(
-                    sms ->
-                        new Object[] {
-                            sendSmsId,
-                            sms.getSender(),
-                            sms.getReceiver(),
-                            sms.getMsgdata(),
-                            sms.getTotalMessage(),
-                            false,
-                            null,
-                            "PENDING",
-                            sms.getBulkId(),
-                            Timestamp.from(sms.getBulkCreatedAt() != null ? sms.getBulkCreatedAt() : Instant.now()),
-                            sms.getVars(),
-                            sms.getTemplate_id(),
-                            sms.getType() != null ? sms.getType().name() : MessageType.SMS.name(),
-                            "pending",
-                            sms.getNamereceiver(),
-                            sms.getUser_login(),
-                        }
-                )
-                .collect(Collectors.toList());
-
-            // ✅ INSERTION PAR BATCH
-            String sql =
-                """
-                INSERT INTO sms (
-                    send_sms_id, sender, receiver, msgdata,
-                    total_message, is_sent, send_date, status,
-                    bulk_id, bulk_created_at, vars, template_id,
-                    type, delivery_status, namereceiver, user_login
-                ) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
-                """;
-
-            List<List<Object[]>> batches = partition(batchArgs, insertBatchSize);
-            int totalInserted = 0;
-
-            for (int i = 0; i < batches.size(); i++) {
-                List<Object[]> batch = batches.get(i);
-                jdbcTemplate.batchUpdate(sql, batch);
-
-                totalInserted += batch.size();
-
-                if (totalInserted % LOG_INTERVAL == 0 || totalInserted == smsList.size()) {
-                    long elapsedSeconds = Duration.between(startTime, Instant.now()).getSeconds();
-                    double rate = elapsedSeconds > 0 ? (double) totalInserted / elapsedSeconds : 0;
-
-                    log.info(
-                        "📊 Insertion: {}/{} ({}%) | ⚡ {} SMS/s",
-                        totalInserted,
-                        smsList.size(),
-                        String.format("%.1f", (totalInserted * 100.0) / smsList.size()),
-                        String.format("%.0f", rate)
-                    );
-                }
-            }
+            TemplateRequest tplReq = sendSms.getType() == MessageType.WHATSAPP ? creationService.parseTemplate(template) : null;
+            CompiledSmsTemplate smsTemplate = sendSms.getType() == MessageType.SMS ? CompiledSmsTemplate.compile(template.getContent()) : null;
+            Instant createdAt = sendSms.getBulkCreatedAt() != null ? sendSms.getBulkCreatedAt() : Instant.now();
+
+            long[] totals = jdbcTemplate.execute((ConnectionCallback<long[]>) connection ->
+                streamContactsToCopy(connection, sendSms, template, tplReq, smsTemplate, groupeId, createdAt, login, expected, startTime)
+            );
+
+            long totalInserted = totals[0];
+            long totalMessages = totals[1];
+
+            // ✅ TOTAUX RÉELS (segments rendus) + FIN DE TRAITEMENT, dans la même transaction
+            jdbcTemplate.update(
+                "UPDATE send_sms SET total_message = ?, total_pending = ?, total_recipients = ?, inprocess = false WHERE id = ?",
+                totalMessages,
+                totalMessages,
+                totalInserted,
+                sendSmsId
+            );
 
-            // ✅ LOG FINAL
             long durationSeconds = Duration.between(startTime, Instant.now()).getSeconds();
-            double avgRate = durationSeconds > 0 ? (double) totalInserted / durationSeconds : 0;
+            double avgRate = durationSeconds > 0 ? (double) totalInserted / durationSeconds : totalInserted;
 
             log.info("╔════════════════════════════════════════════════════════════╗");
-            log.info("║  ✅ INSERTION TERMINÉE                                    ║");
+            log.info("║  ✅ INGESTION TERMINÉE                                    ║");
             log.info("╠════════════════════════════════════════════════════════════╣");
             log.info("║  Total inséré: {}                                          ║", totalInserted);
+            log.info("║  Messages (segments): {}                                   ║", totalMessages);
             log.info("║  Durée: {} secondes                                        ║", durationSeconds);
             log.info("║  Débit moyen: {} SMS/s                                     ║", String.format("%.0f", avgRate));
             log.info("╚════════════════════════════════════════════════════════════╝");
-
-            // ✅ MARQUER COMME TERMINÉ (dans la même transaction)
-            managedSendSms.setInprocess(false);
-            sendSmsRepository.save(managedSendSms);
         } catch (Exception e) {
-            log.error("❌❌❌ ERREUR INSERTION: {}", e.getMessage(), e);
-
-            // ✅ MARQUER COMME TERMINÉ MÊME EN CAS D'ERREUR
-            try {
-                managedSendSms.setInprocess(false);
-                sendSmsRepository.save(managedSendSms);
-            } catch (Exception ex) {
-                log.error("Impossible de mettre à jour inprocess: {}", ex.getMessage());
+            log.error("❌❌❌ ERREUR INGESTION SendSms#{}: {}", sendSmsId, e.getMessage(), e);
+            throw new RuntimeException("Échec insertion massive", e);
+        }
+    }
+
+    /**
+     * Parcourt le groupe avec un curseur et alimente COPY par tranches.
+     *
+     * @return {lignes insérées, total des segments}
+     */
+    private long[] streamContactsToCopy(
+        Connection connection,
+        SendSms sendSms,
+        Template template,
+        TemplateRequest tplReq,
+        CompiledSmsTemplate smsTemplate,
+        Long groupeId,
+        Instant createdAt,
+        String login,
+        int expected,
+        Instant startTime
+    ) throws SQLException {
+        CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+        // Heure UTC, comme send_sms.bulk_created_at écrit par Hibernate (hibernate.jdbc.time_zone)
+        String createdAtText = Timestamp.valueOf(LocalDateTime.ofInstant(createdAt, ZoneOffset.UTC)).toString();
+        String typeName = sendSms.getType() != null ? sendSms.getType().name() : MessageType.SMS.name();
+
+        StringBuilder chunk = new StringBuilder(copyChunkSize * 256);
+        StringBuilder renderBuffer = new StringBuilder(512);
+        int chunkRows = 0;
+        long totalInserted = 0;
+        long totalMessages = 0;
+        long nextLog = LOG_INTERVAL;
+
+        try (PreparedStatement ps = connection.prepareStatement(CONTACT_CURSOR_SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            ps.setFetchSize(cursorFetchSize);
+            ps.setLong(1, groupeId);
+
+            try (ResultSet rs = ps.executeQuery()) {
+                Contact contact = new Contact();
+                while (rs.next()) {
+                    contact.setConnom(rs.getString("connom"));
+                    contact.setConprenom(rs.getString("conprenom"));
+                    contact.setContelephone(rs.getString("contelephone"));
+                    contact.setCustomFields(rs.getString("custom_fields"));
+
+                    Sms sms;
+                    try {
+                        sms = creationService.buildSmsForContact(
+                            contact,
+                            sendSms,
+                            template,
+                            sendSms,
+                            sendSms.getBulkId(),
+                            tplReq,
+                            smsTemplate,
+                            renderBuffer,
+                            createdAt,
+                            login
+                        );
+                    } catch (Exception e) {
+                        throw new SQLException("Rendu impossible pour " + contact.getContelephone() + ": " + e.getMessage(), e);
+                    }
+
+                    int segments = sms.getTotalMessage() != null ? sms.getTotalMessage() : 1;
+                    appendCopyRow(chunk, sendSms.getId(), sms, segments, createdAtText, typeName);
+                    totalMessages += segments;
+
+                    if (++chunkRows >= copyChunkSize) {
+                        totalInserted += flushCopyChunk(copyManager, chunk, sendSms.getId());
+                        chunkRows = 0;
+                    }
+
+                    if (totalInserted >= nextLog) {
+                        logProgress(totalInserted, expected, startTime);
+                        nextLog += LOG_INTERVAL;
+                    }
+                }
             }
+        }
 
-            throw new RuntimeException("Échec insertion massive", e);
+        if (chunkRows > 0) {
+            totalInserted += flushCopyChunk(copyManager, chunk, sendSms.getId());
+        }
+        return new long[] { totalInserted, totalMessages };
+    }
+
+    private long flushCopyChunk(CopyManager copyManager, StringBuilder chunk, Long sendSmsId) throws SQLException {
+        long rows;
+        try {
+            rows = copyManager.copyIn(COPY_SQL, new StringReader(chunk.toString()));
+        } catch (IOException e) {
+            throw new SQLException("Échec COPY: " + e.getMessage(), e);
         }
+        chunk.setLength(0);
+        campaignCounterService.recordInserted(sendSmsId, (int) rows);
+        return rows;
+    }
+
+    private void logProgress(long totalInserted, int expected, Instant startTime) {
+        long elapsedSeconds = Duration.between(startTime, Instant.now()).getSeconds();
+        double rate = elapsedSeconds > 0 ? (double) totalInserted / elapsedSeconds : 0;
+
+        log.info(
+            "📊 Insertion: {}/{} ({}%) | ⚡ {} SMS/s",
+            totalInserted,
+            expected,
+            String.format("%.1f", expected > 0 ? (totalInserted * 100.0) / expected : 100.0),
+            String.format("%.0f", rate)
+        );
+    }
+
+    /**
+     * Une ligne au format texte de COPY (colonnes dans l'ordre de {@link #COPY_SQL}).
+     */
+    private static void appendCopyRow(StringBuilder out, Long sendSmsId, Sms sms, int segments, String createdAt, String type) {
+        out.append(sendSmsId).append('\t');
+        appendField(out, sms.getSender()).append('\t');
+        appendField(out, sms.getReceiver()).append('\t');
+        appendField(out, sms.getMsgdata()).append('\t');
+        out.append(segments).append('\t');
+        out.append("f\t");
+        out.append("\\N\t");
+        out.append("PENDING\t");
+        appendField(out, sms.getBulkId()).append('\t');
+        out.append(createdAt).append('\t');
+        appendField(out, sms.getVars()).append('\t');
+        appendField(out, sms.getTemplate_id() != null ? sms.getTemplate_id().toString() : null).append('\t');
+        out.append(type).append('\t');
+        out.append("pending\t");
+        appendField(out, sms.getNamereceiver()).append('\t');
+        appendField(out, sms.getUser_login()).append('\n');
     }
 
     /**
@@ -187,6 +312,7 @@ public class SmsBulkInsertService {
         try {
             smsRepository.saveAll(smsList);
             smsRepository.flush();
+            campaignCounterService.recordInserted(sendSms.getId(), smsList.size());
             log.info("✅ {} SMS insérés (JPA)", smsList.size());
         } catch (Exception e) {
             log.error("❌ Erreur insertion JPA: {}", e.getMessage());
@@ -208,14 +334,4 @@ public class SmsBulkInsertService {
             return false;
         }
     }
-
-    // ===== UTILITAIRES =====
-
-    private static <T> List<List<T>> partition(List<T> list, int partitionSize) {
-        List<List<T>> partitions = new ArrayList<>();
-        for (int i = 0; i < list.size(); i += partitionSize) {
-            partitions.add(list.subList(i, Math.min(i + partitionSize, list.size())));
-        }
-        return partitions;
-    }
 }
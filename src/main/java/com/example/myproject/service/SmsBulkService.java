@@ -1,12 +1,11 @@
 package com.example.myproject.service;
 
 import com.example.myproject.SMSService;
-import com.example.myproject.domain.Abonnement;
 import com.example.myproject.domain.SendSms;
 import com.example.myproject.domain.enumeration.MessageType;
-import com.example.myproject.repository.AbonnementRepository;
 import com.example.myproject.repository.SendSmsRepository;
 import com.example.myproject.repository.SmsRepository;
+import com.example.myproject.service.SmsStatusWriter.StatusUpdate;
 import com.example.myproject.web.rest.dto.SendResult;
 import com.google.common.util.concurrent.RateLimiter;
 import jakarta.annotation.PostConstruct;
@@ -42,15 +41,15 @@ public class SmsBulkService {
     @Value("${sms.bulk.batch-size:500}")
     private int batchSize;
 
-    @Value("${sms.bulk.update-interval-ms:1000}")
-    private int updateIntervalMs;
-
-    @Value("${sms.bulk.update-batch-size:200}")
-    private int updateBatchSize;
-
     @Value("${sms.simulation-mode:false}")
     private boolean simulationMode;
 
+    @Value("${sms.bulk.pending-passes:3}")
+    private int pendingPasses;
+
+    @Value("${sms.bulk.pending-pass-delay-ms:10000}")
+    private long pendingPassDelayMs;
+
     @Autowired
     private SMSService smsService;
 
@@ -61,37 +60,37 @@ public class SmsBulkService {
     private SendSmsRepository sendSmsRepository;
 
     @Autowired
-    private AbonnementRepository abonnementRepository;
+    private SendSmsUpdateService sendSmsUpdateService;
 
     @Autowired
-    private JdbcTemplate jdbcTemplate;
+    private QuotaLedgerService quotaLedgerService;
 
     @Autowired
-    private AbonnementService abonnementService;
+    private JdbcTemplate jdbcTemplate;
 
     @Autowired
-    private SmsBatchUpdateService batchUpdateService;
+    private SmsStatusWriter statusWriter;
 
     @Autowired
     private CampaignHistoryService campaignHistoryService;
 
+    @Autowired
+    private ContactStatsAggregator contactStatsAggregator;
+
     private RateLimiter rateLimiter;
-    private ScheduledExecutorService batchUpdateScheduler;
+    private ExecutorService batchPrefetchExecutor;
     private final ConcurrentHashMap<Long, CampaignContext> activeCampaigns = new ConcurrentHashMap<>();
-    private final BlockingQueue<SmsUpdateResult> updateQueue = new LinkedBlockingQueue<>(100_000);
 
     @PostConstruct
     public void init() {
         this.rateLimiter = RateLimiter.create(targetRatePerSecond);
 
-        this.batchUpdateScheduler = Executors.newScheduledThreadPool(2, r -> {
-            Thread t = new Thread(r, "sms-batch-updater");
+        this.batchPrefetchExecutor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "sms-batch-prefetch");
             t.setDaemon(true);
             return t;
         });
 
-        batchUpdateScheduler.scheduleWithFixedDelay(this::flushUpdateQueue, updateIntervalMs, updateIntervalMs, TimeUnit.MILLISECONDS);
-
         log.info("SMS Bulk Service initialized - Rate: {} msg/sec, Workers: {}", targetRatePerSecond, parallelWorkers);
     }
 
@@ -99,15 +98,10 @@ public class SmsBulkService {
     public void shutdown() {
         log.info("Shutting down SmsBulkService");
         activeCampaigns.values().forEach(ctx -> ctx.stopRequested.set(true));
-        flushUpdateQueue();
+        statusWriter.flush();
 
-        if (batchUpdateScheduler != null) {
-            batchUpdateScheduler.shutdown();
-            try {
-                batchUpdateScheduler.awaitTermination(10, TimeUnit.SECONDS);
-            } catch (InterruptedException e) {
-                batchUpdateScheduler.shutdownNow();
-            }
+        if (batchPrefetchExecutor != null) {
+            batchPrefetchExecutor.shutdownNow();
         }
     }
 
@@ -131,12 +125,21 @@ public class SmsBulkService {
             log.info("Total pending: {} SMS", totalPending);
 
             if (totalPending == 0) {
-                finalizeCampaign(ctx, sendSms, test);
+                finalizeCampaign(ctx, test);
                 return;
             }
 
             if (!test && !simulationMode) {
-                ctx.subscriptions = abonnementRepository.findActiveByUserId(sendSms.getUser().getId());
+                ctx.userId = sendSms.getUser().getId();
+                // Réservation avant envoi : soldée en fin de campagne avec les envois réussis
+                if (!quotaLedgerService.reserve(ctx.userId, MessageType.SMS, (int) totalPending)) {
+                    log.warn("Quota SMS insuffisant pour {} messages, campagne {} non lancée", totalPending, sendSmsId);
+                    ctx.lastError = "Quota SMS insuffisant pour " + totalPending + " messages";
+                    finalizeCampaign(ctx, test);
+                    sendSmsUpdateService.updateLastError(sendSmsId, ctx.lastError);
+                    return;
+                }
+                ctx.reserved = (int) totalPending;
             }
 
             int attemptNumber = sendSms.getRetryCount() != null ? sendSms.getRetryCount() : 1;
@@ -146,6 +149,7 @@ public class SmsBulkService {
 
             try {
                 processAllBatches(ctx, sendSmsId, test, workerPool, login);
+                retryDeferred(ctx, sendSmsId, test, workerPool, login);
             } finally {
                 workerPool.shutdown();
                 try {
@@ -155,8 +159,8 @@ public class SmsBulkService {
                 }
             }
 
-            waitForPendingUpdates();
-            finalizeCampaign(ctx, sendSms, test);
+            statusWriter.flush();
+            finalizeCampaign(ctx, test);
 
             campaignHistoryService.updateRetryAttemptCompleted(
                 sendSmsId,
@@ -173,7 +177,7 @@ public class SmsBulkService {
             try {
                 SendSms sendSms = sendSmsRepository.findById(sendSmsId).orElse(null);
                 if (sendSms != null) {
-                    finalizeCampaign(ctx, sendSms, test);
+                    finalizeCampaign(ctx, test);
                     int attemptNumber = sendSms.getRetryCount() != null ? sendSms.getRetryCount() : 1;
                     campaignHistoryService.updateRetryAttemptError(
                         sendSmsId,
@@ -192,24 +196,35 @@ public class SmsBulkService {
         }
     }
 
+    /**
+     * Pagination keyset (id > lastSeenId) : aucune ligne sautée quand les pending passent en sent/failed.
+     * La page suivante est préchargée pendant l'envoi de la page courante.
+     */
     private void processAllBatches(CampaignContext ctx, Long sendSmsId, boolean test, ExecutorService workerPool, String login) {
-        int offset = 0;
+        long lastSeenId = 0L;
         int batchNum = 0;
+        CompletableFuture<List<SmsData>> nextBatch = prefetchBatch(sendSmsId, lastSeenId);
 
         while (!ctx.stopRequested.get()) {
-            batchNum++;
-            List<SmsData> batch = loadBatchBySendSmsId(sendSmsId, offset, batchSize);
+            List<SmsData> batch = awaitBatch(nextBatch);
 
             if (batch.isEmpty()) {
                 log.info("No more SMS to process");
+                nextBatch = null;
                 break;
             }
 
-            log.info("Batch #{} - {} SMS (offset {})", batchNum, batch.size(), offset);
+            batchNum++;
+            lastSeenId = batch.get(batch.size() - 1).id();
+            nextBatch = batch.size() < batchSize ? CompletableFuture.completedFuture(List.of()) : prefetchBatch(sendSmsId, lastSeenId);
+
+            log.info("Batch #{} - {} SMS (up to id {})", batchNum, batch.size(), lastSeenId);
             processSingleBatch(ctx, batch, test, workerPool, login);
             logProgress(ctx);
+        }
 
-            offset += batchSize;
+        if (nextBatch != null) {
+            nextBatch.cancel(false);
         }
 
         if (ctx.stopRequested.get()) {
@@ -217,34 +232,85 @@ public class SmsBulkService {
         }
     }
 
+    /**
+     * Nouveaux passages depuis le début sur les messages restés pending (liaison SMPP indisponible) :
+     * le curseur keyset les a déjà dépassés. Ceux qui restent après le dernier passage laissent la
+     * campagne INCOMPLETE (voir finalizeCampaign).
+     */
+    private void retryDeferred(CampaignContext ctx, Long sendSmsId, boolean test, ExecutorService workerPool, String login) {
+        for (int pass = 1; pass <= pendingPasses && !ctx.stopRequested.get(); pass++) {
+            int deferred = ctx.deferred.getAndSet(0);
+            if (deferred == 0) return;
+
+            log.warn(
+                "Campaign {} - {} SMS still pending, pass {}/{} in {} ms",
+                sendSmsId,
+                deferred,
+                pass,
+                pendingPasses,
+                pendingPassDelayMs
+            );
+            statusWriter.flush();
+            try {
+                Thread.sleep(pendingPassDelayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            processAllBatches(ctx, sendSmsId, test, workerPool, login);
+        }
+    }
+
+    private CompletableFuture<List<SmsData>> prefetchBatch(Long sendSmsId, long afterId) {
+        return CompletableFuture.supplyAsync(() -> loadBatchBySendSmsId(sendSmsId, afterId, batchSize), batchPrefetchExecutor);
+    }
+
+    private List<SmsData> awaitBatch(CompletableFuture<List<SmsData>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading SMS batch", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            throw new IllegalStateException("Error loading SMS batch: " + cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Les envois sont pipelinés : le débit est piloté par le rate limiter et la fenêtre SMPP,
+     * sans bloquer un worker par aller-retour submit_sm.
+     */
     private void processSingleBatch(CampaignContext ctx, List<SmsData> batch, boolean test, ExecutorService workerPool, String login) {
         List<CompletableFuture<Void>> futures = new ArrayList<>();
 
         for (SmsData sms : batch) {
             if (ctx.stopRequested.get()) break;
 
-            CompletableFuture<Void> future = CompletableFuture.runAsync(
-                () -> {
-                    rateLimiter.acquire();
-                    if (ctx.stopRequested.get()) return;
-
-                    SmsUpdateResult result = sendSingleSms(sms, test, login);
-
-                    boolean added = updateQueue.offer(result);
-                    if (!added) {
-                        flushUpdateQueue();
-                        updateQueue.offer(result);
-                    }
+            rateLimiter.acquire();
+            if (ctx.stopRequested.get()) break;
 
-                    ctx.totalProcessed.incrementAndGet();
-                    if (result.success) {
-                        ctx.totalSuccess.incrementAndGet();
-                    } else {
-                        ctx.totalFailed.incrementAndGet();
-                    }
-                },
-                workerPool
-            );
+            CompletableFuture<Void> future = sendSingleSmsAsync(ctx.sendSmsId, sms, test, login, workerPool).thenAccept(result -> {
+                if (result.retryable) {
+                    // Non soumis (liaison SMPP indisponible) : reste pending, repris par retryDeferred
+                    statusWriter.enqueue(StatusUpdate.pending(result.smsId, result.sendSmsId, result.error));
+                    ctx.deferred.incrementAndGet();
+                    return;
+                }
+                statusWriter.enqueue(
+                    result.success
+                        ? StatusUpdate.sent(result.smsId, result.sendSmsId, result.messageId)
+                        : StatusUpdate.failed(result.smsId, result.sendSmsId, result.error)
+                );
+                contactStatsAggregator.recordSms(result.receiver, result.success);
+
+                ctx.totalProcessed.incrementAndGet();
+                if (result.success) {
+                    ctx.totalSuccess.incrementAndGet();
+                } else {
+                    ctx.totalFailed.incrementAndGet();
+                }
+            });
 
             futures.add(future);
         }
@@ -256,84 +322,60 @@ public class SmsBulkService {
         }
     }
 
-    private SmsUpdateResult sendSingleSms(SmsData sms, boolean test, String login) {
+    private CompletableFuture<SmsUpdateResult> sendSingleSmsAsync(
+        Long sendSmsId,
+        SmsData sms,
+        boolean test,
+        String login,
+        ExecutorService workerPool
+    ) {
         SmsUpdateResult result = new SmsUpdateResult();
         result.smsId = sms.id;
-        result.timestamp = Instant.now();
-
-        try {
-            if (test) {
-                result.success = true;
-                result.messageId = "TEST_" + sms.id + "_" + System.currentTimeMillis();
-                return result;
-            }
-
-            if (simulationMode) {
-                Thread.sleep(50);
-                result.success = true;
-                result.messageId = "SIM_" + UUID.randomUUID().toString().substring(0, 8);
-                return result;
-            }
+        result.sendSmsId = sendSmsId;
+        result.receiver = sms.receiver;
 
-            // ⚡ Important : passer le login ici
-            SendResult sendResult = smsService.goforSendFastResult(sms.sender, sms.receiver, sms.message, login);
-
-            result.success = sendResult.isSuccess();
-            result.messageId = sendResult.getMessageId();
-            result.error = sendResult.getError();
-        } catch (Exception e) {
-            result.success = false;
-            result.error = e.getMessage();
-            log.error("Error sending SMS {}: {}", sms.id, e.getMessage());
+        if (test) {
+            result.success = true;
+            result.messageId = "TEST_" + sms.id + "_" + System.currentTimeMillis();
+            return CompletableFuture.completedFuture(result);
         }
 
-        return result;
-    }
-
-    public void flushUpdateQueue() {
-        if (updateQueue.isEmpty()) return;
-
-        List<SmsUpdateResult> batch = new ArrayList<>();
-        updateQueue.drainTo(batch, updateBatchSize);
-
-        if (batch.isEmpty()) return;
-
-        try {
-            List<SmsUpdateResult> successes = batch.stream().filter(r -> r.success).toList();
-            List<SmsUpdateResult> failures = batch.stream().filter(r -> !r.success).toList();
-
-            if (!successes.isEmpty()) {
-                List<SmsBatchUpdateService.SmsUpdateResult> serviceResults = successes
-                    .stream()
-                    .map(r -> new SmsBatchUpdateService.SmsUpdateResult(r.smsId, r.success, r.messageId, r.error, r.timestamp))
-                    .toList();
-
-                batchUpdateService.batchUpdateSuccess(serviceResults);
-            }
-
-            if (!failures.isEmpty()) {
-                List<SmsBatchUpdateService.SmsUpdateResult> serviceResults = failures
-                    .stream()
-                    .map(r -> new SmsBatchUpdateService.SmsUpdateResult(r.smsId, r.success, r.messageId, r.error, r.timestamp))
-                    .toList();
-
-                batchUpdateService.batchUpdateFailed(serviceResults);
-            }
-        } catch (Exception e) {
-            log.error("Flush error: {}", e.getMessage(), e);
-            updateQueue.addAll(batch);
+        if (simulationMode) {
+            return CompletableFuture.supplyAsync(
+                () -> {
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    result.success = true;
+                    result.messageId = "SIM_" + UUID.randomUUID().toString().substring(0, 8);
+                    return result;
+                },
+                workerPool
+            );
         }
+
+        // ⚡ Important : passer le login ici
+        return smsService
+            .goforSendAsync(sms.sender, sms.receiver, sms.message, login)
+            .handle((sendResult, e) -> {
+                if (e != null) {
+                    result.success = false;
+                    result.error = e.getMessage();
+                    log.error("Error sending SMS {}: {}", sms.id, e.getMessage());
+                } else {
+                    result.success = sendResult.isSuccess();
+                    result.retryable = sendResult.isRetryable();
+                    result.messageId = sendResult.getMessageId();
+                    result.error = sendResult.getError();
+                }
+                return result;
+            });
     }
 
-    private void finalizeCampaign(CampaignContext ctx, SendSms sendSms, boolean test) {
-        flushUpdateQueue();
-
-        try {
-            Thread.sleep(2000);
-            flushUpdateQueue();
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        }
+    private void finalizeCampaign(CampaignContext ctx, boolean test) {
+        statusWriter.flush();
 
         long duration = Math.max(1, Duration.between(ctx.startTime, Instant.now()).getSeconds());
         double avgRate = ctx.totalProcessed.get() / (double) duration;
@@ -347,42 +389,36 @@ public class SmsBulkService {
             String.format("%.1f", avgRate)
         );
 
-        try {
-            sendSms.setInprocess(false);
-            sendSms.setTotalSent(ctx.totalSuccess.get());
-            sendSms.setTotalFailed(ctx.totalFailed.get());
-            sendSms.setTotalSuccess(ctx.totalSuccess.get());
-            sendSms.setBulkStatus("COMPLETED");
-
-            int remaining = ctx.totalToProcess.get() - ctx.totalProcessed.get();
-            sendSms.setTotalPending(remaining);
-
-            if (ctx.totalFailed.get() == 0 && remaining == 0) {
-                sendSms.setDeliveryStatus("sent");
-                sendSms.setIsSent(true);
-            } else if (ctx.totalSuccess.get() > 0) {
-                sendSms.setDeliveryStatus("partial");
-                sendSms.setIsSent(null);
-            } else {
-                sendSms.setDeliveryStatus("failed");
-                sendSms.setIsSent(false);
-            }
-
-            int total = ctx.totalSuccess.get() + ctx.totalFailed.get();
-            if (total > 0) {
-                sendSms.setSuccessRate((ctx.totalSuccess.get() * 100.0) / total);
-                sendSms.setFailureRate((ctx.totalFailed.get() * 100.0) / total);
+        // Mise à jour ciblée : les compteurs send_sms sont ajustés en parallèle par deltas
+        // (writer de résultats, DLR) et ne doivent pas être réécrits depuis l'entité chargée au départ.
+        // Des messages encore pending (arrêt, quota, liaison indisponible) laissent la campagne INCOMPLETE.
+        long remaining = countPendingBySendSmsId(ctx.sendSmsId);
+        String deliveryStatus;
+        Boolean isSent;
+        if (ctx.totalFailed.get() == 0 && remaining == 0) {
+            deliveryStatus = "sent";
+            isSent = true;
+        } else if (ctx.totalSuccess.get() > 0) {
+            deliveryStatus = "partial";
+            isSent = null;
+        } else {
+            deliveryStatus = "failed";
+            isSent = false;
+        }
+        sendSmsUpdateService.markBulkFinished(ctx.sendSmsId, remaining > 0 ? "INCOMPLETE" : "COMPLETED", deliveryStatus, isSent);
+        if (remaining > 0) {
+            log.warn("Campaign {} incomplete - {} SMS still pending", ctx.sendSmsId, remaining);
+            if (ctx.lastError == null) {
+                sendSmsUpdateService.updateLastError(ctx.sendSmsId, remaining + " SMS non envoyés, restés en attente");
             }
-
-            sendSmsRepository.save(sendSms);
-        } catch (Exception e) {
-            log.error("Error updating SendSms: {}", e.getMessage());
         }
 
-        if (!test && !simulationMode && ctx.totalSuccess.get() > 0 && ctx.subscriptions != null) {
+        if (ctx.userId != null && ctx.reserved > 0) {
+            // Soldée une seule fois, même si la finalisation est rejouée après une erreur
+            int reserved = ctx.reserved;
+            ctx.reserved = 0;
             try {
-                abonnementService.decrementQuotasAfterSend(ctx.subscriptions, MessageType.SMS, ctx.totalSuccess.get());
-                abonnementRepository.saveAll(ctx.subscriptions);
+                quotaLedgerService.settle(ctx.userId, MessageType.SMS, reserved, ctx.totalSuccess.get());
             } catch (Exception e) {
                 log.error("Error updating quotas: {}", e.getMessage());
             }
@@ -406,47 +442,39 @@ public class SmsBulkService {
         return activeCampaigns.containsKey(sendSmsId);
     }
 
-    private List<SmsData> loadBatchBySendSmsId(Long sendSmsId, int offset, int limit) {
+    // Les SMS d'une campagne sont créés après son send_sms : la borne élague les partitions antérieures
+    private List<SmsData> loadBatchBySendSmsId(Long sendSmsId, long afterId, int limit) {
         return jdbcTemplate.query(
             """
             SELECT id, sender, receiver, msgdata
             FROM sms
-            WHERE send_sms_id = ? AND delivery_status = 'pending'
+            WHERE send_sms_id = ? AND delivery_status = 'pending' AND id > ?
+              AND bulk_created_at >= COALESCE((SELECT bulk_created_at FROM send_sms WHERE id = ?), '-infinity')
             ORDER BY id
-            LIMIT ? OFFSET ?
+            LIMIT ?
             """,
             (rs, rowNum) -> new SmsData(rs.getLong("id"), rs.getString("sender"), rs.getString("receiver"), rs.getString("msgdata")),
             sendSmsId,
-            limit,
-            offset
+            afterId,
+            sendSmsId,
+            limit
         );
     }
 
     private long countPendingBySendSmsId(Long sendSmsId) {
         Long count = jdbcTemplate.queryForObject(
-            "SELECT COUNT(*) FROM sms WHERE send_sms_id = ? AND delivery_status = 'pending'",
+            """
+            SELECT COUNT(*) FROM sms
+            WHERE send_sms_id = ? AND delivery_status = 'pending'
+              AND bulk_created_at >= COALESCE((SELECT bulk_created_at FROM send_sms WHERE id = ?), '-infinity')
+            """,
             Long.class,
+            sendSmsId,
             sendSmsId
         );
         return count != null ? count : 0;
     }
 
-    private void waitForPendingUpdates() {
-        int maxWait = 60;
-        int waited = 0;
-
-        while (!updateQueue.isEmpty() && waited < maxWait) {
-            try {
-                Thread.sleep(500);
-                waited++;
-                flushUpdateQueue();
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break;
-            }
-        }
-    }
-
     private void logProgress(CampaignContext ctx) {
         long elapsed = Duration.between(ctx.startTime, Instant.now()).toMillis();
         double rate = elapsed > 0 ? (ctx.totalProcessed.get() * 1000.0) / elapsed : 0;
@@ -473,7 +501,11 @@ public class SmsBulkService {
         final AtomicInteger totalProcessed = new AtomicInteger(0);
         final AtomicInteger totalSuccess = new AtomicInteger(0);
         final AtomicInteger totalFailed = new AtomicInteger(0);
-        List<Abonnement> subscriptions;
+        // Messages laissés pending depuis le dernier passage (non soumis, à reprendre)
+        final AtomicInteger deferred = new AtomicInteger(0);
+        Long userId;
+        // Messages réservés sur le quota au lancement (0 : rien à solder)
+        int reserved;
         String lastError;
 
         CampaignContext(Long sendSmsId, String bulkId, Instant startTime) {
@@ -488,9 +520,11 @@ public class SmsBulkService {
     private static class SmsUpdateResult {
 
         long smsId;
+        Long sendSmsId;
+        String receiver;
         boolean success;
+        boolean retryable;
         String messageId;
         String error;
-        Instant timestamp;
     }
 }
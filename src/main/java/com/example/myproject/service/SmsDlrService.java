@@ -1,13 +1,28 @@
 package com.example.myproject.service;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
 @Service
 public class SmsDlrService {
@@ -17,10 +32,83 @@ public class SmsDlrService {
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private CampaignCounterService campaignCounterService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private SmsPartitionService smsPartitionService;
+
+    // Regroupements de delivery_status des compteurs send_sms
+    private static final Set<String> DELIVERED = Set.of("delivered");
+    private static final Set<String> SUCCESS = Set.of("delivered", "sent");
+    private static final Set<String> FAILED = Set.of("failed", "expired");
+
+    @Value("${sms.dlr.buffer-capacity:100000}")
+    private int bufferCapacity;
+
+    @Value("${sms.dlr.batch-size:2000}")
+    private int batchSize;
+
+    @Value("${sms.dlr.flush-interval-ms:100}")
+    private long flushIntervalMs;
+
+    @Value("${sms.dlr.unmatched-capacity:50000}")
+    private int unmatchedCapacity;
+
+    @Value("${sms.dlr.unmatched-retention-ms:300000}")
+    private long unmatchedRetentionMs;
+
+    @Value("${sms.dlr.unmatched-retry-interval-ms:2000}")
+    private long unmatchedRetryIntervalMs;
+
+    private BlockingQueue<DlrReceipt> ring;
+    private Thread drainThread;
+    private volatile boolean running;
+
+    // Reçus sans ligne sms (trace API écrite en différé, reçu plus rapide que l'écriture) ou dont le
+    // lot a échoué : rejoués périodiquement jusqu'à unmatched-retention-ms
+    private final ConcurrentHashMap<String, DlrReceipt> unmatched = new ConcurrentHashMap<>();
+    private final AtomicLong expiredUnmatched = new AtomicLong();
+    private long lastUnmatchedRetry;
+
+    @PostConstruct
+    public void start() {
+        this.ring = new ArrayBlockingQueue<>(Math.max(1, bufferCapacity));
+        this.running = true;
+        this.drainThread = new Thread(this::drainLoop, "sms-dlr-writer");
+        this.drainThread.setDaemon(true);
+        this.drainThread.start();
+        log.info("[DLR] Pipeline démarré - anneau: {}, lot: {}, flush: {} ms", bufferCapacity, batchSize, flushIntervalMs);
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        drainThread.interrupt();
+        try {
+            drainThread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<DlrReceipt> remaining = new ArrayList<>(unmatched.values());
+        ring.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            log.info("[DLR] Application de {} reçus restants avant arrêt", remaining.size());
+            applyOrPark(remaining);
+        }
+        if (!unmatched.isEmpty()) {
+            log.warn("[DLR] {} reçus sans message à l'arrêt, abandonnés", unmatched.size());
+        }
+    }
+
     /**
-     * ✅ TRAITER DLR REÇU VIA SMPP
+     * ✅ RÉCEPTION DLR VIA SMPP : mise en anneau borné, l'écriture est faite par lots.
+     * Si l'anneau est plein, le reçu est appliqué immédiatement (back-pressure sur la route).
      */
-    @Async
     public void processDlrFromSmpp(String messageId, Integer smppStatus, String destAddr, String errorCode) {
         if (messageId == null || messageId.isEmpty()) {
             log.warn("[DLR] MessageId manquant");
@@ -28,43 +116,246 @@ public class SmsDlrService {
         }
 
         String deliveryStatus = mapSmppStatus(smppStatus);
-        String error = buildErrorMessage(smppStatus, errorCode);
+        DlrReceipt receipt = new DlrReceipt(messageId, deliveryStatus, buildErrorMessage(smppStatus, errorCode), System.currentTimeMillis());
 
-        log.info("[DLR] Traitement: {} → {}", messageId, deliveryStatus);
+        if (!ring.offer(receipt)) {
+            log.warn("[DLR] Anneau plein ({}), application directe de {}", bufferCapacity, messageId);
+            applyOrPark(List.of(receipt));
+        }
+    }
+
+    private void drainLoop() {
+        List<DlrReceipt> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                DlrReceipt first = ring.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    ring.drainTo(batch, batchSize - 1);
+                    applyOrPark(batch);
+                }
+                retryUnmatched();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
 
+    /**
+     * Applique un lot ; en cas d'échec, les reçus sont mis de côté et rejoués comme les reçus
+     * sans message plutôt que perdus.
+     */
+    private void applyOrPark(List<DlrReceipt> receipts) {
         try {
-            // ✅ METTRE À JOUR LE SMS
-            int updated = jdbcTemplate.update(
-                """
-                UPDATE sms SET
-                    delivery_status = ?,
-                    is_sent = ?,
-                    last_error = COALESCE(?, last_error),
-                    status = CASE
-                        WHEN ? = 'delivered' THEN 'DELIVERED'
-                        WHEN ? = 'failed' THEN 'FAILED'
-                        ELSE status
-                    END
-                WHERE message_id = ?
-                AND delivery_status NOT IN ('delivered')
-                """,
-                deliveryStatus,
-                "delivered".equals(deliveryStatus),
-                error,
-                deliveryStatus,
-                deliveryStatus,
-                messageId
-            );
+            applyBatch(receipts);
+        } catch (Exception e) {
+            log.error("[DLR] ❌ Erreur lot de {} reçus, rejoués plus tard: {}", receipts.size(), e.getMessage(), e);
+            receipts.forEach(this::park);
+        }
+    }
+
+    /**
+     * Rejoue les reçus mis de côté ; ceux plus vieux que la rétention sont abandonnés.
+     */
+    private void retryUnmatched() {
+        long now = System.currentTimeMillis();
+        if (unmatched.isEmpty() || now - lastUnmatchedRetry < unmatchedRetryIntervalMs) return;
+        lastUnmatchedRetry = now;
 
-            if (updated > 0) {
-                log.info("[DLR] ✅ SMS {} → {}", messageId, deliveryStatus);
-                updateSendSmsCounters(messageId);
-            } else {
-                log.debug("[DLR] SMS non trouvé ou déjà delivered: {}", messageId);
+        List<DlrReceipt> retry = new ArrayList<>(Math.min(unmatched.size(), batchSize));
+        int expired = 0;
+        for (DlrReceipt receipt : unmatched.values()) {
+            if (now - receipt.receivedAt() > unmatchedRetentionMs) {
+                if (unmatched.remove(receipt.messageId(), receipt)) expired++;
+            } else if (retry.size() < batchSize && unmatched.remove(receipt.messageId(), receipt)) {
+                retry.add(receipt);
             }
-        } catch (Exception e) {
-            log.error("[DLR] ❌ Erreur: {}", e.getMessage());
         }
+        if (expired > 0) {
+            expiredUnmatched.addAndGet(expired);
+            log.warn("[DLR] {} reçus sans message après {} ms, abandonnés", expired, unmatchedRetentionMs);
+        }
+        if (!retry.isEmpty()) {
+            applyOrPark(retry);
+        }
+    }
+
+    private void park(DlrReceipt receipt) {
+        if (unmatched.size() >= unmatchedCapacity && !unmatched.containsKey(receipt.messageId())) {
+            expiredUnmatched.incrementAndGet();
+            log.warn("[DLR] Reçus en attente saturés ({}), reçu {} abandonné", unmatchedCapacity, receipt.messageId());
+            return;
+        }
+        unmatched.merge(receipt.messageId(), receipt, SmsDlrService::latestReceipt);
+    }
+
+    /**
+     * Le dernier reçu l'emporte, sauf sur un delivered (état final) ; l'ancienneté est conservée.
+     */
+    private static DlrReceipt latestReceipt(DlrReceipt previous, DlrReceipt next) {
+        DlrReceipt kept = "delivered".equals(previous.deliveryStatus()) ? previous : next;
+        long firstSeen = Math.min(previous.receivedAt(), next.receivedAt());
+        return kept.receivedAt() == firstSeen ? kept : new DlrReceipt(kept.messageId(), kept.deliveryStatus(), kept.error(), firstSeen);
+    }
+
+    /**
+     * Applique un lot de reçus : coalescence par message_id, une instruction pour les SMS,
+     * deltas pour les compteurs send_sms et ceux de campagne.
+     */
+    private void applyBatch(List<DlrReceipt> receipts) {
+        Map<String, DlrReceipt> byMessageId = new LinkedHashMap<>();
+        for (DlrReceipt receipt : receipts) {
+            byMessageId.merge(receipt.messageId(), receipt, SmsDlrService::latestReceipt);
+        }
+
+        List<DlrReceipt> withoutMessage = transactionTemplate.execute(tx -> {
+            // La plupart des reçus concernent un envoi récent : partitions de la fenêtre chaude d'abord
+            LocalDateTime hotWindowStart = smsPartitionService.hotWindowStart();
+            List<Map<String, Object>> transitions = new ArrayList<>(updateSms(byMessageId.values(), hotWindowStart));
+
+            // Sans message dans la fenêtre (campagne programmée longtemps à l'avance, reçu tardif) : recherche complète
+            List<DlrReceipt> outsideWindow = findOutsideWindow(byMessageId, hotWindowStart);
+            List<DlrReceipt> missing = List.of();
+            if (!outsideWindow.isEmpty()) {
+                transitions.addAll(updateSms(outsideWindow, null));
+                missing = findWithoutMessage(outsideWindow);
+            }
+
+            Map<Long, long[]> deltasBySendSms = new HashMap<>();
+            for (Map<String, Object> t : transitions) {
+                if (t.get("send_sms_id") == null) continue;
+                Long sendSmsId = ((Number) t.get("send_sms_id")).longValue();
+                int count = ((Number) t.get("cnt")).intValue();
+                String oldDelivery = (String) t.get("old_delivery_status");
+                String newDelivery = (String) t.get("new_delivery_status");
+
+                campaignCounterService.recordStatusTransition(sendSmsId, (String) t.get("old_status"), (String) t.get("new_status"), count);
+                campaignCounterService.recordDeliveryTransition(sendSmsId, oldDelivery, newDelivery, count);
+
+                long[] deltas = deltasBySendSms.computeIfAbsent(sendSmsId, id -> new long[3]);
+                deltas[0] += count * (indicator(newDelivery, DELIVERED) - indicator(oldDelivery, DELIVERED));
+                deltas[1] += count * (indicator(newDelivery, SUCCESS) - indicator(oldDelivery, SUCCESS));
+                deltas[2] += count * (indicator(newDelivery, FAILED) - indicator(oldDelivery, FAILED));
+            }
+
+            updateSendSmsCounters(deltasBySendSms);
+            return missing;
+        });
+
+        // Message pas encore écrit : le reçu est rejoué plus tard au lieu d'être perdu
+        if (withoutMessage != null) {
+            withoutMessage.forEach(this::park);
+        }
+
+        log.debug(
+            "[DLR] Lot appliqué : {} reçus, {} messages, {} sans message",
+            receipts.size(),
+            byMessageId.size(),
+            withoutMessage != null ? withoutMessage.size() : 0
+        );
+    }
+
+    /**
+     * ✅ METTRE À JOUR LES SMS (anciennes valeurs agrégées pour les compteurs), bornés à
+     * bulk_created_at &gt;= {@code lowerBound} si fourni.
+     */
+    private List<Map<String, Object>> updateSms(Collection<DlrReceipt> receipts, LocalDateTime lowerBound) {
+        String values = receipts.stream().map(r -> "(?::varchar, ?::varchar, ?::boolean, ?::varchar)").collect(Collectors.joining(", "));
+        List<Object> params = new ArrayList<>(receipts.size() * 4 + 1);
+        for (DlrReceipt r : receipts) {
+            params.add(r.messageId());
+            params.add(r.deliveryStatus());
+            params.add("delivered".equals(r.deliveryStatus()));
+            params.add(r.error());
+        }
+        if (lowerBound != null) params.add(lowerBound);
+
+        return jdbcTemplate.queryForList(
+            String.format(
+                """
+                WITH v(message_id, delivery_status, is_sent, last_error) AS (VALUES %s),
+                target AS (
+                    SELECT s.id, s.bulk_created_at, s.send_sms_id, s.status, s.delivery_status,
+                           v.delivery_status AS new_delivery_status, v.is_sent, v.last_error
+                    FROM sms s
+                    JOIN v ON s.message_id = v.message_id
+                    WHERE s.delivery_status IS DISTINCT FROM 'delivered' %s
+                    ORDER BY s.id
+                    FOR UPDATE OF s
+                ),
+                updated AS (
+                    UPDATE sms s SET
+                        delivery_status = t.new_delivery_status,
+                        is_sent = t.is_sent,
+                        last_error = COALESCE(t.last_error, s.last_error),
+                        status = CASE
+                            WHEN t.new_delivery_status = 'delivered' THEN 'DELIVERED'
+                            WHEN t.new_delivery_status = 'failed' THEN 'FAILED'
+                            ELSE s.status
+                        END
+                    FROM target t
+                    WHERE s.id = t.id AND s.bulk_created_at = t.bulk_created_at
+                    RETURNING t.send_sms_id, t.status AS old_status, t.delivery_status AS old_delivery_status,
+                              s.status AS new_status, s.delivery_status AS new_delivery_status
+                )
+                SELECT send_sms_id, old_status, new_status, old_delivery_status, new_delivery_status, COUNT(*) AS cnt
+                FROM updated
+                GROUP BY send_sms_id, old_status, new_status, old_delivery_status, new_delivery_status
+                """,
+                values,
+                lowerBound != null ? "AND s.bulk_created_at >= ?" : ""
+            ),
+            params.toArray()
+        );
+    }
+
+    /**
+     * Reçus dont aucun message n'a été créé depuis {@code hotWindowStart}.
+     */
+    private List<DlrReceipt> findOutsideWindow(Map<String, DlrReceipt> byMessageId, LocalDateTime hotWindowStart) {
+        String values = byMessageId.keySet().stream().map(id -> "(?::varchar)").collect(Collectors.joining(", "));
+        List<Object> params = new ArrayList<>(byMessageId.keySet());
+        params.add(hotWindowStart);
+
+        List<String> messageIds = jdbcTemplate.queryForList(
+            String.format(
+                """
+                SELECT v.message_id FROM (VALUES %s) AS v(message_id)
+                WHERE NOT EXISTS (SELECT 1 FROM sms s WHERE s.message_id = v.message_id AND s.bulk_created_at >= ?)
+                """,
+                values
+            ),
+            String.class,
+            params.toArray()
+        );
+        return messageIds.stream().map(byMessageId::get).toList();
+    }
+
+    /**
+     * Reçus dont le message n'existe dans aucune partition.
+     */
+    private List<DlrReceipt> findWithoutMessage(List<DlrReceipt> receipts) {
+        String values = receipts.stream().map(r -> "(?::varchar)").collect(Collectors.joining(", "));
+        List<String> messageIds = jdbcTemplate.queryForList(
+            String.format(
+                """
+                SELECT v.message_id FROM (VALUES %s) AS v(message_id)
+                WHERE NOT EXISTS (SELECT 1 FROM sms s WHERE s.message_id = v.message_id)
+                """,
+                values
+            ),
+            String.class,
+            receipts.stream().map(DlrReceipt::messageId).toArray()
+        );
+        Map<String, DlrReceipt> byMessageId = receipts.stream().collect(Collectors.toMap(DlrReceipt::messageId, r -> r));
+        return messageIds.stream().map(byMessageId::get).toList();
+    }
+
+    private static int indicator(String deliveryStatus, Set<String> group) {
+        return deliveryStatus != null && group.contains(deliveryStatus) ? 1 : 0;
     }
 
     /**
@@ -104,23 +395,35 @@ public class SmsDlrService {
     }
 
     /**
-     * ✅ METTRE À JOUR COMPTEURS SEND_SMS
+     * ✅ METTRE À JOUR COMPTEURS SEND_SMS (deltas, sans recompter les SMS de la campagne)
      */
-    private void updateSendSmsCounters(String messageId) {
-        try {
-            jdbcTemplate.update(
+    private void updateSendSmsCounters(Map<Long, long[]> deltasBySendSms) {
+        deltasBySendSms.values().removeIf(d -> d[0] == 0 && d[1] == 0 && d[2] == 0);
+        if (deltasBySendSms.isEmpty()) return;
+
+        String values = deltasBySendSms.keySet().stream().map(id -> "(?, ?, ?, ?)").collect(Collectors.joining(", "));
+        List<Object> params = new ArrayList<>(deltasBySendSms.size() * 4);
+        deltasBySendSms.forEach((id, d) -> {
+            params.add(id);
+            params.add(d[0]);
+            params.add(d[1]);
+            params.add(d[2]);
+        });
+
+        jdbcTemplate.update(
+            String.format(
                 """
-                UPDATE send_sms SET
-                    total_delivered = (SELECT COUNT(*) FROM sms WHERE send_sms_id = send_sms.id AND delivery_status = 'delivered'),
-                    total_success = (SELECT COUNT(*) FROM sms WHERE send_sms_id = send_sms.id AND delivery_status IN ('delivered', 'sent')),
-                    total_failed = (SELECT COUNT(*) FROM sms WHERE send_sms_id = send_sms.id AND delivery_status IN ('failed', 'expired'))
-                WHERE id = (SELECT send_sms_id FROM sms WHERE message_id = ? LIMIT 1)
+                UPDATE send_sms s SET
+                    total_delivered = GREATEST(COALESCE(s.total_delivered, 0) + v.d_delivered, 0),
+                    total_success = GREATEST(COALESCE(s.total_success, 0) + v.d_success, 0),
+                    total_failed = GREATEST(COALESCE(s.total_failed, 0) + v.d_failed, 0)
+                FROM (VALUES %s) AS v(id, d_delivered, d_success, d_failed)
+                WHERE s.id = v.id
                 """,
-                messageId
-            );
-        } catch (Exception e) {
-            log.warn("[DLR] Erreur compteurs: {}", e.getMessage());
-        }
+                values
+            ),
+            params.toArray()
+        );
     }
 
     /**
@@ -136,9 +439,13 @@ public class SmsDlrService {
                 "failed",
                 jdbcTemplate.queryForObject("SELECT COUNT(*) FROM sms WHERE delivery_status IN ('failed', 'expired')", Long.class)
             );
+            stats.put("unmatchedPending", unmatched.size());
+            stats.put("unmatchedExpired", expiredUnmatched.get());
         } catch (Exception e) {
             log.error("[DLR] Erreur stats: {}", e.getMessage());
         }
         return stats;
     }
+
+    private record DlrReceipt(String messageId, String deliveryStatus, String error, long receivedAt) {}
 }
@@ -0,0 +1,448 @@
+package com.example.myproject.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+import org.postgresql.PGConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Partitions mensuelles de la table sms (clé bulk_created_at en UTC, voir le changelog
+ * 20261018160000_partition_sms_by_bulk_created_at).
+ *
+ * La maintenance quotidienne crée les partitions des {@code sms.partitions.months-ahead} prochains
+ * mois et archive celles de plus de {@code sms.partitions.archive-after-months} mois : la partition
+ * est détachée, exportée en CSV gzip dans {@code sms.partitions.archive-dir}, puis supprimée
+ * (une partition détachée dont l'export a échoué est reprise au passage suivant).
+ *
+ * L'historique d'avant la migration (partition sms_legacy) est archivé un mois par passage, du
+ * plus ancien au plus récent : export du mois puis suppression par lots. Une fois vide et hors
+ * rétention, sms_legacy est détachée et supprimée. L'espace libéré dans sms_legacy entre-temps
+ * n'est rendu au système que par un VACUUM FULL (ou pg_repack) planifié par l'exploitation.
+ *
+ * Sans {@code archive-dir} absolu configuré (stockage durable), rien n'est archivé ni supprimé.
+ *
+ * La maintenance s'exécute sur un seul nœud à la fois (verrou consultatif PostgreSQL, passage
+ * ignoré s'il est déjà pris) ; chaque export écrit dans son propre fichier temporaire.
+ *
+ * Des lignes tombées dans sms_default (maintenance interrompue plus de {@code months-ahead} mois)
+ * sont déplacées dans la partition du mois à sa création, avec une alerte dans les journaux.
+ *
+ * {@link #hotWindowStart()} borne les recherches par message_id (DLR, statuts WhatsApp) aux
+ * partitions récentes ; les appelants retombent sur une recherche complète pour les reçus hors fenêtre.
+ */
+@Service
+public class SmsPartitionService {
+
+    private static final Logger log = LoggerFactory.getLogger(SmsPartitionService.class);
+
+    private static final Pattern PARTITION_NAME = Pattern.compile("sms_p(\\d{6})");
+    private static final DateTimeFormatter SUFFIX = DateTimeFormatter.ofPattern("yyyyMM");
+    private static final Pattern PARTITION_UPPER_BOUND = Pattern.compile("TO \\('(\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2})");
+    private static final String LEGACY = "sms_legacy";
+    private static final String DEFAULT_PARTITION = "sms_default";
+
+    // Clé du verrou consultatif de maintenance ("sms_part")
+    private static final long MAINTENANCE_LOCK_KEY = 0x736d735f70617274L;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${sms.partitions.months-ahead:3}")
+    private int monthsAhead;
+
+    @Value("${sms.partitions.archive-after-months:12}")
+    private int archiveAfterMonths;
+
+    @Value("${sms.partitions.archive-dir:}")
+    private String archiveDir;
+
+    @Value("${sms.partitions.hot-window-days:30}")
+    private int hotWindowDays;
+
+    @Value("${sms.partitions.legacy-delete-batch-size:10000}")
+    private int legacyDeleteBatchSize;
+
+    public SmsPartitionService(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    /**
+     * Début de la fenêtre chaude, en heure UTC comme bulk_created_at : la plupart des accusés de
+     * réception et statuts WhatsApp concernent un message créé depuis {@code sms.partitions.hot-window-days} jours.
+     */
+    public LocalDateTime hotWindowStart() {
+        return LocalDateTime.ofInstant(Instant.now().minus(Duration.ofDays(hotWindowDays)), ZoneOffset.UTC);
+    }
+
+    @Scheduled(cron = "${sms.partitions.maintenance-cron:0 30 2 * * *}")
+    public void maintain() {
+        if (!isPartitioned()) {
+            log.debug("[SMS-PARTITIONS] Table sms non partitionnée, maintenance ignorée");
+            return;
+        }
+        // Verrou de session tenu par une connexion dédiée pendant tout le passage ; les opérations
+        // elles-mêmes passent par d'autres connexions du pool
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            if (!advisoryLock(connection, "pg_try_advisory_lock")) {
+                log.info("[SMS-PARTITIONS] Maintenance déjà en cours sur un autre nœud, passage ignoré");
+                return null;
+            }
+            try {
+                runMaintenance();
+            } finally {
+                advisoryLock(connection, "pg_advisory_unlock");
+            }
+            return null;
+        });
+    }
+
+    private static boolean advisoryLock(Connection connection, String function) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement("SELECT " + function + "(?)")) {
+            ps.setLong(1, MAINTENANCE_LOCK_KEY);
+            boolean result;
+            try (ResultSet rs = ps.executeQuery()) {
+                result = rs.next() && rs.getBoolean(1);
+            }
+            // Auto-commit désactivé : pas de transaction laissée ouverte pendant le passage
+            connection.commit();
+            return result;
+        }
+    }
+
+    private void runMaintenance() {
+        try {
+            createUpcomingPartitions();
+        } catch (Exception e) {
+            log.error("[SMS-PARTITIONS] Création des partitions impossible: {}", e.getMessage(), e);
+        }
+        if (archiveAfterMonths <= 0) return;
+
+        Path dir = archiveDirectory();
+        if (dir == null) {
+            log.warn("[SMS-PARTITIONS] sms.partitions.archive-dir absent ou relatif : archivage désactivé, aucune partition supprimée");
+            return;
+        }
+        archiveOldPartitions(dir);
+        try {
+            archiveLegacyMonth(dir);
+        } catch (Exception e) {
+            log.error("[SMS-PARTITIONS] Archivage de {} impossible, repris au prochain passage: {}", LEGACY, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Répertoire d'archives : chemin absolu obligatoire (volume durable, pas le disque de l'instance).
+     */
+    private Path archiveDirectory() {
+        if (archiveDir == null || archiveDir.isBlank()) return null;
+        Path dir = Paths.get(archiveDir.trim());
+        return dir.isAbsolute() ? dir : null;
+    }
+
+    private boolean isPartitioned() {
+        Integer count = jdbcTemplate.queryForObject(
+            """
+            SELECT COUNT(*) FROM pg_partitioned_table p JOIN pg_class c ON c.oid = p.partrelid
+            WHERE c.relname = 'sms' AND c.relnamespace = current_schema()::regnamespace
+            """,
+            Integer.class
+        );
+        return count != null && count > 0;
+    }
+
+    /**
+     * Crée les mois manquants après la dernière partition mensuelle (le mois courant est couvert
+     * par sms_legacy tant qu'aucune partition mensuelle n'existe).
+     */
+    private void createUpcomingPartitions() {
+        TreeSet<YearMonth> months = monthsOf(
+            jdbcTemplate.queryForList(
+                "SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid WHERE i.inhparent = 'sms'::regclass",
+                String.class
+            )
+        );
+        YearMonth current = YearMonth.now(ZoneOffset.UTC);
+        YearMonth target = current.plusMonths(monthsAhead);
+        YearMonth month = months.isEmpty() ? current.plusMonths(1) : months.last().plusMonths(1);
+
+        for (; !month.isAfter(target); month = month.plusMonths(1)) {
+            LocalDateTime from = month.atDay(1).atStartOfDay();
+            LocalDateTime to = month.plusMonths(1).atDay(1).atStartOfDay();
+            // Noms et bornes issus d'un YearMonth : aucune saisie externe dans le DDL
+            String createSql = String.format(
+                "CREATE TABLE IF NOT EXISTS %s PARTITION OF sms FOR VALUES FROM ('%s') TO ('%s')",
+                partitionName(month),
+                month.atDay(1),
+                month.plusMonths(1).atDay(1)
+            );
+
+            long misplaced = defaultPartitionRows(from, to);
+            if (misplaced > 0) {
+                // La création échouerait : sms_default contient déjà des lignes de ce mois
+                log.error(
+                    "[SMS-PARTITIONS] ALERTE : {} lignes du mois {} dans {} (maintenance interrompue ?), déplacées vers {}",
+                    misplaced,
+                    month,
+                    DEFAULT_PARTITION,
+                    partitionName(month)
+                );
+                moveFromDefaultPartition(createSql, from, to);
+            } else {
+                executeDdl(createSql);
+            }
+            log.info("[SMS-PARTITIONS] Partition {} créée", partitionName(month));
+        }
+    }
+
+    private long defaultPartitionRows(LocalDateTime from, LocalDateTime to) {
+        if (!tableExists(DEFAULT_PARTITION) || !isAttached(DEFAULT_PARTITION)) return 0;
+        Long count = jdbcTemplate.queryForObject(
+            "SELECT COUNT(*) FROM " + DEFAULT_PARTITION + " WHERE bulk_created_at >= ? AND bulk_created_at < ?",
+            Long.class,
+            from,
+            to
+        );
+        return count != null ? count : 0;
+    }
+
+    /**
+     * Crée la partition du mois en y déplaçant les lignes de sms_default, en une transaction :
+     * sms_default est détachée le temps du déplacement puis rattachée.
+     */
+    private void moveFromDefaultPartition(String createSql, LocalDateTime from, LocalDateTime to) {
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.execute("ALTER TABLE sms DETACH PARTITION " + DEFAULT_PARTITION);
+            jdbcTemplate.execute(createSql);
+            jdbcTemplate.update(
+                "INSERT INTO sms SELECT * FROM " + DEFAULT_PARTITION + " WHERE bulk_created_at >= ? AND bulk_created_at < ?",
+                from,
+                to
+            );
+            jdbcTemplate.update("DELETE FROM " + DEFAULT_PARTITION + " WHERE bulk_created_at >= ? AND bulk_created_at < ?", from, to);
+            jdbcTemplate.execute("ALTER TABLE sms ATTACH PARTITION " + DEFAULT_PARTITION + " DEFAULT");
+        });
+    }
+
+    private void archiveOldPartitions(Path dir) {
+        YearMonth oldestKept = YearMonth.now(ZoneOffset.UTC).minusMonths(archiveAfterMonths);
+
+        // Partitions encore attachées + partitions détachées dont l'archivage n'a pas abouti
+        List<String> candidates = jdbcTemplate.queryForList(
+            """
+            SELECT c.relname FROM pg_class c
+            WHERE c.relkind = 'r' AND c.relname ~ '^sms_p[0-9]{6}$'
+              AND c.relnamespace = current_schema()::regnamespace
+            """,
+            String.class
+        );
+
+        for (YearMonth month : monthsOf(candidates)) {
+            if (!month.isBefore(oldestKept)) break;
+            try {
+                archivePartition(dir, month);
+            } catch (Exception e) {
+                log.error("[SMS-PARTITIONS] Archivage de {} impossible, repris au prochain passage: {}", partitionName(month), e.getMessage(), e);
+            }
+        }
+    }
+
+    private void archivePartition(Path dir, YearMonth month) throws IOException {
+        String table = partitionName(month);
+
+        if (isAttached(table)) {
+            executeDdl("ALTER TABLE sms DETACH PARTITION " + table);
+            log.info("[SMS-PARTITIONS] Partition {} détachée", table);
+        }
+
+        long rows = exportToArchive(dir, table, "COPY " + table + " TO STDOUT WITH (FORMAT csv, HEADER)");
+
+        executeDdl("DROP TABLE " + table);
+        log.info("[SMS-PARTITIONS] Partition {} archivée ({} lignes)", table, rows);
+    }
+
+    /**
+     * Archive le mois le plus ancien de sms_legacy s'il est hors rétention ; détache et supprime
+     * sms_legacy une fois vide et entièrement hors rétention.
+     */
+    private void archiveLegacyMonth(Path dir) throws IOException {
+        if (!tableExists(LEGACY)) return;
+
+        YearMonth oldestKept = YearMonth.now(ZoneOffset.UTC).minusMonths(archiveAfterMonths);
+        LocalDateTime oldest = jdbcTemplate.queryForObject("SELECT MIN(bulk_created_at) FROM " + LEGACY, LocalDateTime.class);
+
+        if (oldest == null) {
+            boolean attached = isAttached(LEGACY);
+            LocalDateTime upperBound = attached ? legacyUpperBound() : null;
+            // Attachée : supprimée seulement si toute sa plage est hors rétention (borne lue, sinon conservée)
+            if (attached && (upperBound == null || upperBound.isAfter(oldestKept.atDay(1).atStartOfDay()))) return;
+
+            if (attached) {
+                executeDdl("ALTER TABLE sms DETACH PARTITION " + LEGACY);
+            }
+            executeDdl("DROP TABLE " + LEGACY);
+            log.info("[SMS-PARTITIONS] {} vide et hors rétention : supprimée", LEGACY);
+            return;
+        }
+
+        YearMonth month = YearMonth.from(oldest);
+        if (!month.isBefore(oldestKept)) return;
+
+        LocalDateTime from = month.atDay(1).atStartOfDay();
+        LocalDateTime to = month.plusMonths(1).atDay(1).atStartOfDay();
+        // Lignes figées avant l'export : seules celles-ci sont supprimées ensuite
+        Long maxId = jdbcTemplate.queryForObject(
+            "SELECT MAX(id) FROM " + LEGACY + " WHERE bulk_created_at >= ? AND bulk_created_at < ?",
+            Long.class,
+            from,
+            to
+        );
+        if (maxId == null) return;
+
+        // maxId dans le nom : un second passage sur le même mois n'écrase pas l'archive précédente
+        String name = LEGACY + "_p" + month.format(SUFFIX) + "_" + maxId;
+        long rows = exportToArchive(
+            dir,
+            name,
+            String.format(
+                "COPY (SELECT * FROM %s WHERE bulk_created_at >= '%s' AND bulk_created_at < '%s' AND id <= %d) TO STDOUT WITH (FORMAT csv, HEADER)",
+                LEGACY,
+                from,
+                to,
+                maxId
+            )
+        );
+
+        long deleted = 0;
+        int batch;
+        do {
+            // Un lot par transaction : verrous courts sur sms_legacy
+            Integer count = transactionTemplate.execute(status ->
+                jdbcTemplate.update(
+                    """
+                    DELETE FROM sms_legacy WHERE ctid IN (
+                        SELECT ctid FROM sms_legacy WHERE bulk_created_at >= ? AND bulk_created_at < ? AND id <= ? LIMIT ?
+                    )
+                    """,
+                    from,
+                    to,
+                    maxId,
+                    legacyDeleteBatchSize
+                )
+            );
+            batch = count != null ? count : 0;
+            deleted += batch;
+        } while (batch > 0);
+
+        log.info("[SMS-PARTITIONS] {} : mois {} archivé ({} lignes exportées, {} supprimées)", LEGACY, month, rows, deleted);
+    }
+
+    /**
+     * Exporte une table (ou une requête) en CSV gzip : fichier temporaire propre à cet export,
+     * synchronisé sur disque puis renommé, de sorte que le fichier final n'existe que complet.
+     */
+    private long exportToArchive(Path dir, String name, String copySql) throws IOException {
+        Files.createDirectories(dir);
+        Path target = dir.resolve(name + ".csv.gz");
+        Path tmp = dir.resolve(name + ".csv.gz." + UUID.randomUUID() + ".tmp");
+
+        try {
+            Long rows = jdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+                try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmp, StandardOpenOption.CREATE_NEW), 64 * 1024)) {
+                    return connection.unwrap(PGConnection.class).getCopyAPI().copyOut(copySql, out);
+                } catch (IOException e) {
+                    throw new SQLException("Export de " + name + " impossible: " + e.getMessage(), e);
+                }
+            });
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.info("[SMS-PARTITIONS] Archive {} écrite", target);
+            return rows != null ? rows : 0;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Borne haute de sms_legacy (FOR VALUES FROM (MINVALUE) TO ('...')), null si elle est détachée.
+     */
+    private LocalDateTime legacyUpperBound() {
+        List<String> bounds = jdbcTemplate.queryForList(
+            "SELECT pg_get_expr(relpartbound, oid) FROM pg_class WHERE relname = ? AND relispartition AND relnamespace = current_schema()::regnamespace",
+            String.class,
+            LEGACY
+        );
+        if (bounds.isEmpty() || bounds.get(0) == null) return null;
+        Matcher m = PARTITION_UPPER_BOUND.matcher(bounds.get(0));
+        return m.find() ? LocalDateTime.parse(m.group(1).replace(' ', 'T')) : null;
+    }
+
+    // Pool en auto-commit désactivé : chaque DDL dans sa propre transaction
+    private void executeDdl(String sql) {
+        transactionTemplate.executeWithoutResult(status -> jdbcTemplate.execute(sql));
+    }
+
+    private boolean tableExists(String table) {
+        Integer count = jdbcTemplate.queryForObject(
+            "SELECT COUNT(*) FROM pg_class WHERE relname = ? AND relkind = 'r' AND relnamespace = current_schema()::regnamespace",
+            Integer.class,
+            table
+        );
+        return count != null && count > 0;
+    }
+
+    private boolean isAttached(String table) {
+        Boolean attached = jdbcTemplate.queryForObject(
+            "SELECT relispartition FROM pg_class WHERE relname = ? AND relnamespace = current_schema()::regnamespace",
+            Boolean.class,
+            table
+        );
+        return Boolean.TRUE.equals(attached);
+    }
+
+    private static TreeSet<YearMonth> monthsOf(List<String> tableNames) {
+        TreeSet<YearMonth> months = new TreeSet<>();
+        for (String name : tableNames) {
+            Matcher m = PARTITION_NAME.matcher(name);
+            if (m.matches()) {
+                months.add(YearMonth.parse(m.group(1), SUFFIX));
+            }
+        }
+        return months;
+    }
+
+    private static String partitionName(YearMonth month) {
+        return "sms_p" + month.format(SUFFIX);
+    }
+}
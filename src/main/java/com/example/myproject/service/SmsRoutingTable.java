@@ -0,0 +1,110 @@
+package com.example.myproject.service;
+
+import com.example.myproject.domain.ChannelConfiguration;
+import com.example.myproject.domain.enumeration.Channel;
+import com.example.myproject.repository.ChannelConfigurationRepository;
+import com.example.myproject.service.event.ChannelConfigurationChangedEvent;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.crypto.encrypt.TextEncryptor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+/**
+ * Table de routage opérateur en mémoire : (login, préfixe) → liaison SMPP prête à l'emploi
+ * (configuration + mot de passe déchiffré). Vidée à chaque modification de ChannelConfiguration.
+ */
+@Component
+public class SmsRoutingTable {
+
+    private static final Logger log = LoggerFactory.getLogger(SmsRoutingTable.class);
+
+    private static final String ADMIN_LOGIN = "admin";
+    private static final List<String> CHINGUITEL_FIRST = List.of("Chinguitel", "Mattel");
+    private static final List<String> MATTEL_FIRST = List.of("Mattel", "Chinguitel");
+
+    private final ChannelConfigurationRepository channelConfigurationRepository;
+    private final TextEncryptor encryptor;
+    private final SmppSessionPool smppSessionPool;
+
+    private final ConcurrentHashMap<RouteKey, Optional<OperatorBinding>> routes = new ConcurrentHashMap<>();
+
+    public SmsRoutingTable(
+        ChannelConfigurationRepository channelConfigurationRepository,
+        TextEncryptor encryptor,
+        SmppSessionPool smppSessionPool
+    ) {
+        this.channelConfigurationRepository = channelConfigurationRepository;
+        this.encryptor = encryptor;
+        this.smppSessionPool = smppSessionPool;
+    }
+
+    /**
+     * @param prefix premier chiffre du numéro local (sans indicatif 222)
+     */
+    public OperatorBinding resolve(String login, char prefix) {
+        Optional<OperatorBinding> binding = routes.computeIfAbsent(new RouteKey(login, prefix), this::load);
+        return binding.orElseThrow(() -> new RuntimeException("Aucune config SMS pour le préfixe " + prefix));
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onConfigurationChanged(ChannelConfigurationChangedEvent event) {
+        log.info("Configuration canal #{} modifiée, table de routage SMS vidée ({} routes)", event.getConfigId(), routes.size());
+        routes.clear();
+        smppSessionPool.invalidate(event.getConfigId());
+    }
+
+    private Optional<OperatorBinding> load(RouteKey key) {
+        List<String> preferredOperators = preferredOperators(key.prefix());
+
+        // ROUTING Mauritanie : config utilisateur puis admin, par opérateur préféré
+        for (String operator : preferredOperators) {
+            Optional<ChannelConfiguration> cfg = channelConfigurationRepository.findByUserLoginAndChannelTypeAndSmsOperator(
+                key.login(),
+                Channel.SMS,
+                operator
+            );
+
+            if (cfg.isEmpty()) {
+                cfg = channelConfigurationRepository.findByUserLoginAndChannelTypeAndSmsOperator(ADMIN_LOGIN, Channel.SMS, operator);
+            }
+
+            if (cfg.isPresent()) {
+                log.debug("Route {} / {} -> {}", key.login(), key.prefix(), operator);
+                return Optional.of(toBinding(cfg.get()));
+            }
+        }
+
+        return Optional.empty();
+    }
+
+    private List<String> preferredOperators(char prefix) {
+        if (prefix == '2') {
+            return CHINGUITEL_FIRST;
+        }
+        if (prefix == '3' || prefix == '4') {
+            return MATTEL_FIRST;
+        }
+        throw new RuntimeException("Préfixe non supporté: " + prefix);
+    }
+
+    private OperatorBinding toBinding(ChannelConfiguration cfg) {
+        String password = cfg.getEncryptedPassword() != null ? encryptor.decrypt(cfg.getEncryptedPassword()) : null;
+        SmppSessionPool.SmppEndpoint endpoint = new SmppSessionPool.SmppEndpoint(
+            cfg.getId(),
+            cfg.getHost(),
+            cfg.getPort() != null ? cfg.getPort() : 0,
+            cfg.getUsername(),
+            password
+        );
+        return new OperatorBinding(cfg.getId(), cfg.getSmsOperator(), Boolean.TRUE.equals(cfg.getVerified()), endpoint);
+    }
+
+    private record RouteKey(String login, char prefix) {}
+
+    public record OperatorBinding(Long configId, String operator, boolean verified, SmppSessionPool.SmppEndpoint endpoint) {}
+}
@@ -1,11 +1,18 @@
 package com.example.myproject.service;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
 @Service
 public class SmsStatusJob {
@@ -15,43 +22,115 @@ public class SmsStatusJob {
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private CampaignCounterService campaignCounterService;
+
+    @Value("${sms.status-job.batch-size:5000}")
+    private int batchSize;
+
+    @Value("${sms.status-job.max-batches-per-run:200}")
+    private int maxBatchesPerRun;
+
     /**
      * ✅ Toutes les 2 minutes : marquer "submitted" → "sent"
+     * Par lots bornés (une transaction chacun), seules les campagnes touchées sont ajustées.
      */
     @Scheduled(fixedRate = 120_000)
     public void markSubmittedAsSent() {
-        int updated = jdbcTemplate.update(
-            """
-                UPDATE sms SET
-                    delivery_status = 'sent',
-                    status = 'SENT',
-                    is_sent = true
-                WHERE delivery_status = 'submitted'
-                  AND send_date < NOW() - INTERVAL '1 minute'
+        int total = 0;
+        int batches = 0;
+        int promoted;
+        do {
+            Integer result = transactionTemplate.execute(status -> promoteBatch());
+            promoted = result != null ? result : 0;
+            total += promoted;
+            batches++;
+        } while (promoted == batchSize && batches < maxBatchesPerRun);
+
+        if (total > 0) {
+            log.info("✅ {} SMS marqués 'sent' en {} lot(s)", total, batches);
+        }
+    }
+
+    /**
+     * Promotion d'un lot : les transitions agrégées par campagne servent aux deltas de compteurs.
+     *
+     * @return nombre de SMS promus
+     */
+    private int promoteBatch() {
+        List<Map<String, Object>> transitions = jdbcTemplate.queryForList(
             """
+                WITH target AS (
+                    SELECT id, send_sms_id, status
+                    FROM sms
+                    WHERE delivery_status = 'submitted'
+                      AND send_date < NOW() - INTERVAL '1 minute'
+                    ORDER BY id
+                    LIMIT ?
+                    FOR UPDATE SKIP LOCKED
+                ),
+                updated AS (
+                    UPDATE sms s SET
+                        delivery_status = 'sent',
+                        status = 'SENT',
+                        is_sent = true
+                    FROM target t
+                    WHERE s.id = t.id
+                    RETURNING t.send_sms_id, t.status AS old_status
+                )
+                SELECT send_sms_id, old_status, COUNT(*) AS cnt
+                FROM updated
+                GROUP BY send_sms_id, old_status
+            """,
+            batchSize
         );
 
-        if (updated > 0) {
-            log.info("✅ {} SMS marqués 'sent'", updated);
-            updateSendSmsCounters();
+        int promoted = 0;
+        Map<Long, Long> promotedBySendSms = new HashMap<>();
+        for (Map<String, Object> t : transitions) {
+            int count = ((Number) t.get("cnt")).intValue();
+            promoted += count;
+            if (t.get("send_sms_id") == null) continue;
+
+            Long sendSmsId = ((Number) t.get("send_sms_id")).longValue();
+            campaignCounterService.recordStatusTransition(sendSmsId, (String) t.get("old_status"), "SENT", count);
+            campaignCounterService.recordDeliveryTransition(sendSmsId, "submitted", "sent", count);
+            promotedBySendSms.merge(sendSmsId, (long) count, Long::sum);
         }
+
+        updateSendSmsCounters(promotedBySendSms);
+        return promoted;
     }
 
     /**
-     * ✅ Recalculer compteurs campagnes
+     * ✅ Ajuster les compteurs des campagnes touchées (submitted compte en pending, sent en succès)
      */
-    private void updateSendSmsCounters() {
+    private void updateSendSmsCounters(Map<Long, Long> promotedBySendSms) {
+        if (promotedBySendSms.isEmpty()) return;
+
+        String values = promotedBySendSms.keySet().stream().map(id -> "(?, ?)").collect(Collectors.joining(", "));
+        List<Object> params = new ArrayList<>(promotedBySendSms.size() * 2);
+        promotedBySendSms.forEach((id, count) -> {
+            params.add(id);
+            params.add(count);
+        });
+
         jdbcTemplate.update(
-            """
-                UPDATE send_sms ss SET
-                    total_success = (SELECT COUNT(*) FROM sms WHERE bulk_id = ss.bulk_id AND delivery_status = 'sent'),
-                    total_failed = (SELECT COUNT(*) FROM sms WHERE bulk_id = ss.bulk_id AND delivery_status = 'failed'),
-                    total_pending = (SELECT COUNT(*) FROM sms WHERE bulk_id = ss.bulk_id AND delivery_status IN ('pending', 'submitted')),
-                    is_sent = CASE
-                        WHEN (SELECT COUNT(*) FROM sms WHERE bulk_id = ss.bulk_id AND delivery_status IN ('pending', 'submitted')) = 0
-                        THEN true ELSE false END
-                WHERE bulk_id IS NOT NULL
-            """
+            String.format(
+                """
+                    UPDATE send_sms ss SET
+                        total_success = COALESCE(ss.total_success, 0) + v.promoted,
+                        total_pending = GREATEST(COALESCE(ss.total_pending, 0) - v.promoted, 0),
+                        is_sent = GREATEST(COALESCE(ss.total_pending, 0) - v.promoted, 0) = 0
+                    FROM (VALUES %s) AS v(id, promoted)
+                    WHERE ss.id = v.id
+                """,
+                values
+            ),
+            params.toArray()
         );
     }
 }
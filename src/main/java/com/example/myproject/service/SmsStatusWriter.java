@@ -0,0 +1,343 @@
+package com.example.myproject.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Écriture par lots des résultats d'envoi des moteurs bulk (SMS et WhatsApp).
+ *
+ * Les moteurs déposent un résultat par message dans une file bornée ; un thread d'écriture
+ * applique chaque lot en une transaction : une instruction pour les lignes sms (dernier résultat
+ * par message) et une pour les deltas de compteurs send_sms agrégés par campagne.
+ *
+ * Un lot en échec est retenté, puis écrit ligne par ligne : seuls les résultats dont l'écriture
+ * individuelle échoue encore sont abandonnés (journalisés avec leur id).
+ */
+@Service
+public class SmsStatusWriter {
+
+    private final Logger log = LoggerFactory.getLogger(SmsStatusWriter.class);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final CampaignCounterService campaignCounterService;
+
+    @Value("${sms.status-writer.queue-capacity:100000}")
+    private int queueCapacity;
+
+    @Value("${sms.status-writer.batch-size:1000}")
+    private int batchSize;
+
+    @Value("${sms.status-writer.flush-interval-ms:200}")
+    private long flushIntervalMs;
+
+    @Value("${sms.status-writer.batch-attempts:3}")
+    private int batchAttempts;
+
+    private BlockingQueue<StatusUpdate> queue;
+    private Thread writerThread;
+    private volatile boolean running;
+
+    // Sérialise les écritures (thread d'écriture, flush explicite, écriture directe) : ordre par message conservé
+    private final Object writeLock = new Object();
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong directWrites = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public SmsStatusWriter(
+        JdbcTemplate jdbcTemplate,
+        TransactionTemplate transactionTemplate,
+        CampaignCounterService campaignCounterService
+    ) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.campaignCounterService = campaignCounterService;
+    }
+
+    @PostConstruct
+    public void start() {
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.running = true;
+        this.writerThread = new Thread(this::writeLoop, "sms-status-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+
+        log.info("SMS status writer démarré - file: {}, lot: {}, flush: {} ms", queueCapacity, batchSize, flushIntervalMs);
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        writerThread.interrupt();
+        try {
+            writerThread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        int remaining = queue.size();
+        if (remaining > 0) {
+            log.info("Écriture de {} résultats d'envoi restants avant arrêt", remaining);
+        }
+        flush();
+    }
+
+    /**
+     * Ajoute un résultat à la file ; écrit directement si la file est saturée.
+     */
+    public void enqueue(StatusUpdate update) {
+        if (queue.offer(update)) {
+            enqueued.incrementAndGet();
+            return;
+        }
+        directWrites.incrementAndGet();
+        log.warn("File des résultats d'envoi pleine ({}), écriture directe de sms {}", queueCapacity, update.smsId());
+        synchronized (writeLock) {
+            writeWithFallback(List.of(update));
+        }
+    }
+
+    /**
+     * Vide la file de façon synchrone (fin de campagne, arrêt).
+     */
+    public void flush() {
+        List<StatusUpdate> batch = new ArrayList<>(batchSize);
+        synchronized (writeLock) {
+            while (queue.drainTo(batch, batchSize) > 0) {
+                writeWithFallback(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        return Map.of(
+            "queued",
+            queue.size(),
+            "enqueued",
+            enqueued.get(),
+            "written",
+            written.get(),
+            "directWrites",
+            directWrites.get(),
+            "dropped",
+            dropped.get()
+        );
+    }
+
+    private void writeLoop() {
+        List<StatusUpdate> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                StatusUpdate first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+
+                synchronized (writeLock) {
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    writeWithFallback(batch);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Écrit un lot avec reprises ; en dernier recours, ligne par ligne pour isoler les résultats
+     * qui ne peuvent pas être écrits.
+     */
+    private void writeWithFallback(List<StatusUpdate> updates) {
+        if (updates.isEmpty()) return;
+
+        for (int attempt = 1; attempt <= Math.max(1, batchAttempts); attempt++) {
+            try {
+                writeBatch(updates);
+                return;
+            } catch (Exception e) {
+                log.warn(
+                    "Erreur écriture lot de résultats d'envoi ({}), tentative {}/{}: {}",
+                    updates.size(),
+                    attempt,
+                    batchAttempts,
+                    e.getMessage()
+                );
+                if (attempt < batchAttempts && !pause(flushIntervalMs * attempt)) break;
+            }
+        }
+
+        if (updates.size() == 1) {
+            dropped.incrementAndGet();
+            log.error("Résultat d'envoi abandonné : sms {} ({})", updates.get(0).smsId(), updates.get(0).outcome());
+            return;
+        }
+
+        log.warn("Écriture ligne par ligne de {} résultats d'envoi", updates.size());
+        for (StatusUpdate update : updates) {
+            try {
+                writeBatch(List.of(update));
+            } catch (Exception e) {
+                dropped.incrementAndGet();
+                log.error("Résultat d'envoi abandonné : sms {} ({}): {}", update.smsId(), update.outcome(), e.getMessage(), e);
+            }
+        }
+    }
+
+    private static boolean pause(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Écrit un lot : dernier résultat par sms, deltas de compteurs cumulés par campagne.
+     */
+    private void writeBatch(List<StatusUpdate> updates) {
+        Map<Long, StatusUpdate> lastBySmsId = new LinkedHashMap<>();
+        Map<Long, long[]> outcomesBySendSms = new HashMap<>();
+        for (StatusUpdate update : updates) {
+            lastBySmsId.put(update.smsId(), update);
+            if (update.sendSmsId() == null || update.outcome() == Outcome.PENDING) continue;
+
+            long[] outcomes = outcomesBySendSms.computeIfAbsent(update.sendSmsId(), id -> new long[2]);
+            outcomes[update.outcome() == Outcome.SENT ? 0 : 1]++;
+        }
+
+        transactionTemplate.executeWithoutResult(status -> {
+            updateSms(lastBySmsId.values());
+            updateSendSmsCounters(outcomesBySendSms);
+        });
+
+        outcomesBySendSms.forEach((sendSmsId, o) -> campaignCounterService.recordSendOutcome(sendSmsId, o[0], o[1]));
+
+        written.addAndGet(updates.size());
+        log.debug("Lot de résultats d'envoi écrit : {} résultats, {} campagnes", updates.size(), outcomesBySendSms.size());
+    }
+
+    private void updateSms(Collection<StatusUpdate> updates) {
+        String values = updates
+            .stream()
+            .map(u -> "(?::bigint, ?::varchar, ?::boolean, ?::varchar, ?::varchar, ?::timestamp, ?::varchar)")
+            .collect(Collectors.joining(", "));
+        List<Object> params = new ArrayList<>(updates.size() * 7);
+        for (StatusUpdate u : updates) {
+            params.add(u.smsId());
+            params.add(u.outcome().status);
+            params.add(u.outcome().isSent);
+            params.add(u.outcome().deliveryStatus);
+            params.add(u.messageId());
+            params.add(Timestamp.from(u.timestamp()));
+            params.add(truncate(u.error(), 500));
+        }
+
+        jdbcTemplate.update(
+            String.format(
+                """
+                UPDATE sms s SET
+                    status = v.status,
+                    is_sent = v.is_sent,
+                    delivery_status = v.delivery_status,
+                    message_id = COALESCE(v.message_id, s.message_id),
+                    send_date = v.send_date,
+                    last_error = v.last_error
+                FROM (VALUES %s) AS v(id, status, is_sent, delivery_status, message_id, send_date, last_error)
+                WHERE s.id = v.id
+                """,
+                values
+            ),
+            params.toArray()
+        );
+    }
+
+    private void updateSendSmsCounters(Map<Long, long[]> outcomesBySendSms) {
+        if (outcomesBySendSms.isEmpty()) return;
+
+        String values = outcomesBySendSms.keySet().stream().map(id -> "(?, ?, ?)").collect(Collectors.joining(", "));
+        List<Object> params = new ArrayList<>(outcomesBySendSms.size() * 3);
+        outcomesBySendSms.forEach((id, o) -> {
+            params.add(id);
+            params.add(o[0]);
+            params.add(o[1]);
+        });
+
+        jdbcTemplate.update(
+            String.format(
+                """
+                UPDATE send_sms ss SET
+                    total_sent = COALESCE(ss.total_sent, 0) + v.success,
+                    total_success = COALESCE(ss.total_success, 0) + v.success,
+                    total_failed = COALESCE(ss.total_failed, 0) + v.failed,
+                    total_pending = GREATEST(0, COALESCE(ss.total_pending, 0) - v.success - v.failed)
+                FROM (VALUES %s) AS v(id, success, failed)
+                WHERE ss.id = v.id
+                """,
+                values
+            ),
+            params.toArray()
+        );
+    }
+
+    private static String truncate(String s, int maxLen) {
+        if (s == null) return null;
+        return s.length() > maxLen ? s.substring(0, maxLen) : s;
+    }
+
+    public enum Outcome {
+        SENT("SENT", true, "sent"),
+        FAILED("FAILED", false, "failed"),
+        // Remis en attente (retry, arrêt, circuit ouvert) : ni envoyé ni en échec, sans effet sur les compteurs
+        PENDING("PENDING", null, "pending");
+
+        private final String status;
+        private final Boolean isSent;
+        private final String deliveryStatus;
+
+        Outcome(String status, Boolean isSent, String deliveryStatus) {
+            this.status = status;
+            this.isSent = isSent;
+            this.deliveryStatus = deliveryStatus;
+        }
+    }
+
+    public record StatusUpdate(long smsId, Long sendSmsId, Outcome outcome, String messageId, String error, Instant timestamp) {
+        public static StatusUpdate sent(long smsId, Long sendSmsId, String messageId) {
+            return new StatusUpdate(smsId, sendSmsId, Outcome.SENT, messageId, null, Instant.now());
+        }
+
+        public static StatusUpdate failed(long smsId, Long sendSmsId, String error) {
+            return new StatusUpdate(smsId, sendSmsId, Outcome.FAILED, null, error != null ? error : "Unknown error", Instant.now());
+        }
+
+        public static StatusUpdate pending(long smsId, Long sendSmsId, String error) {
+            return new StatusUpdate(smsId, sendSmsId, Outcome.PENDING, null, error, Instant.now());
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package com.example.myproject.service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+/**
+ * Exports CSV / XLSX en flux : les lignes sont lues par un curseur serveur (lecture seule,
+ * avant uniquement, fetch size borné) et écrites au fil de l'eau dans la réponse HTTP
+ * ({@link StreamingResponseBody}). En XLSX, le classeur SXSSF ne garde en mémoire qu'une fenêtre
+ * de lignes (le reste part dans un fichier temporaire compressé) et passe à une nouvelle feuille
+ * au-delà de la limite Excel. La mémoire par export ne dépend donc pas du nombre de lignes.
+ *
+ * Chaque export porte un id généré ici et le login de son demandeur : seul celui-ci (ou un
+ * administrateur) peut l'annuler ({@link #cancel}). L'annulation interrompt la réponse à la ligne
+ * suivante sans la terminer : le client reçoit un transfert incomplet, jamais un fichier tronqué
+ * d'apparence valide.
+ */
+@Service
+public class StreamingExportService {
+
+    private static final Logger log = LoggerFactory.getLogger(StreamingExportService.class);
+
+    private static final String CAMPAIGN_SMS_SQL =
+        """
+        SELECT s.receiver, s.namereceiver, s.delivery_status, s.send_date, s.total_message, s.message_id, s.last_error
+        FROM sms s
+        WHERE s.send_sms_id = ?
+        AND (CAST(? AS TEXT) IS NULL OR LOWER(s.receiver) LIKE LOWER(CONCAT('%', CAST(? AS TEXT), '%'))
+             OR LOWER(s.namereceiver) LIKE LOWER(CONCAT('%', CAST(? AS TEXT), '%')))
+        AND (CAST(? AS TEXT) IS NULL OR s.delivery_status = CAST(? AS TEXT))
+        AND (CAST(? AS TIMESTAMP) IS NULL OR s.send_date >= CAST(? AS TIMESTAMP))
+        AND (CAST(? AS TIMESTAMP) IS NULL OR s.send_date <= CAST(? AS TIMESTAMP))
+        ORDER BY s.id DESC
+        """;
+
+    private static final String[] CAMPAIGN_SMS_HEADERS = { "Destinataire", "Nom", "Statut", "Date", "Segments", "MessageID", "Erreur" };
+
+    private static final String IMPORTED_CONTACTS_SQL =
+        "SELECT c.id, c.connom, c.conprenom, c.contelephone FROM contact c WHERE c.progress_id = ? ORDER BY c.id";
+
+    private static final String[] IMPORTED_CONTACTS_HEADERS = { "id", "connom", "conprenom", "contelephone" };
+
+    public enum Format {
+        CSV("text/csv;charset=UTF-8", "csv"),
+        XLSX("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", "xlsx");
+
+        private final String contentType;
+        private final String extension;
+
+        Format(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        /**
+         * "xlsx" (insensible à la casse) ou CSV par défaut.
+         */
+        public static Format of(String value) {
+            return value != null && value.equalsIgnoreCase("xlsx") ? XLSX : CSV;
+        }
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate readOnlyTransaction;
+
+    // Exports en cours (id → login du demandeur) ; un id retiré (cancel) interrompt l'export à la ligne suivante
+    private final Map<String, String> running = new ConcurrentHashMap<>();
+
+    @Value("${export.fetch-size:2000}")
+    private int fetchSize;
+
+    @Value("${export.xlsx-window-size:500}")
+    private int xlsxWindowSize;
+
+    public StreamingExportService(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+    }
+
+    /**
+     * Nouvel id d'export (jamais fourni par le client : un id choisi pourrait viser l'export d'un autre).
+     */
+    public String newExportId() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * Demande l'arrêt d'un export en cours, réservé à son demandeur ou à un administrateur.
+     *
+     * @return false si l'export est inconnu, déjà terminé ou appartient à un autre utilisateur
+     */
+    public boolean cancel(String exportId, String login, boolean admin) {
+        if (exportId == null) return false;
+        String owner = running.get(exportId);
+        if (owner == null || (!admin && !Objects.equals(owner, login))) return false;
+        return running.remove(exportId, owner);
+    }
+
+    /**
+     * SMS d'une campagne (mêmes filtres et ordre que la liste paginée).
+     */
+    public StreamingResponseBody exportCampaignSms(
+        String exportId,
+        String login,
+        Format format,
+        Long sendSmsId,
+        String search,
+        String deliveryStatus,
+        Instant dateFrom,
+        Instant dateTo
+    ) {
+        Timestamp from = dateFrom != null ? Timestamp.from(dateFrom) : null;
+        Timestamp to = dateTo != null ? Timestamp.from(dateTo) : null;
+        Object[] params = { sendSmsId, search, search, search, deliveryStatus, deliveryStatus, from, from, to, to };
+
+        return stream(exportId, login, format, CAMPAIGN_SMS_HEADERS, CAMPAIGN_SMS_SQL, params, (rs, values) -> {
+            Timestamp sendDate = rs.getTimestamp(4);
+            int segments = rs.getInt(5);
+            boolean noSegments = rs.wasNull();
+            values[0] = rs.getString(1);
+            values[1] = rs.getString(2);
+            values[2] = rs.getString(3);
+            values[3] = sendDate != null ? sendDate.toInstant().toString() : null;
+            values[4] = noSegments ? 1 : segments;
+            values[5] = rs.getString(6);
+            values[6] = rs.getString(7);
+        });
+    }
+
+    /**
+     * Contacts créés par un import (progress_id = bulkId de l'historique d'import).
+     */
+    public StreamingResponseBody exportImportedContacts(String exportId, String login, Format format, String progressId) {
+        return stream(exportId, login, format, IMPORTED_CONTACTS_HEADERS, IMPORTED_CONTACTS_SQL, new Object[] { progressId }, (rs, values) -> {
+            values[0] = rs.getLong(1);
+            values[1] = rs.getString(2);
+            values[2] = rs.getString(3);
+            values[3] = rs.getString(4);
+        });
+    }
+
+    private StreamingResponseBody stream(
+        String exportId,
+        String login,
+        Format format,
+        String[] headers,
+        String sql,
+        Object[] params,
+        RowReader reader
+    ) {
+        running.put(exportId, login != null ? login : "");
+        return out -> {
+            long start = System.currentTimeMillis();
+            try (RowSink sink = format == Format.XLSX ? new XlsxSink(out, xlsxWindowSize) : new CsvSink(out)) {
+                sink.header(headers);
+                Long rows = readOnlyTransaction.execute(status ->
+                    jdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+                        try (
+                            PreparedStatement ps = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)
+                        ) {
+                            ps.setFetchSize(fetchSize);
+                            for (int i = 0; i < params.length; i++) {
+                                ps.setObject(i + 1, params[i]);
+                            }
+                            return copyRows(exportId, ps, headers.length, reader, sink);
+                        }
+                    })
+                );
+                sink.finish();
+                log.info("[EXPORT] {} : {} lignes {} en {} ms", exportId, rows, format, System.currentTimeMillis() - start);
+            } catch (UncheckedIOException e) {
+                // Client déconnecté : rien à renvoyer
+                log.warn("[EXPORT] {} interrompu (écriture impossible) : {}", exportId, e.getMessage());
+            } catch (ExportCancelledException e) {
+                // Réponse laissée inachevée : le conteneur coupe le transfert
+                throw new IOException("Export " + exportId + " annulé", e);
+            } finally {
+                running.remove(exportId);
+            }
+        };
+    }
+
+    private long copyRows(String exportId, PreparedStatement ps, int columns, RowReader reader, RowSink sink) throws SQLException {
+        Object[] values = new Object[columns];
+        long rows = 0;
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                if (!running.containsKey(exportId)) {
+                    log.info("[EXPORT] {} annulé après {} lignes", exportId, rows);
+                    ps.cancel();
+                    throw new ExportCancelledException();
+                }
+                reader.read(rs, values);
+                sink.row(values);
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    private static final class ExportCancelledException extends RuntimeException {
+
+        ExportCancelledException() {
+            super(null, null, false, false);
+        }
+    }
+
+    @FunctionalInterface
+    private interface RowReader {
+        void read(ResultSet rs, Object[] values) throws SQLException;
+    }
+
+    /**
+     * Destination des lignes ; les erreurs d'écriture sont remontées en {@link UncheckedIOException}.
+     */
+    private interface RowSink extends AutoCloseable {
+        void header(String[] headers);
+
+        void row(Object[] values);
+
+        void finish();
+
+        @Override
+        void close();
+    }
+
+    private static final class CsvSink implements RowSink {
+
+        private final Writer writer;
+
+        CsvSink(OutputStream out) {
+            this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+        }
+
+        @Override
+        public void header(String[] headers) {
+            row(headers);
+        }
+
+        @Override
+        public void row(Object[] values) {
+            try {
+                for (int i = 0; i < values.length; i++) {
+                    if (i > 0) writer.write(',');
+                    writeField(values[i]);
+                }
+                writer.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void writeField(Object value) throws IOException {
+            if (value == null) return;
+            String field = value.toString();
+            if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0 && field.indexOf('\r') < 0) {
+                writer.write(field);
+                return;
+            }
+            writer.write('"');
+            writer.write(field.replace("\"", "\"\""));
+            writer.write('"');
+        }
+
+        @Override
+        public void finish() {
+            try {
+                writer.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            // Le flux de la réponse est fermé par Spring MVC
+        }
+    }
+
+    private static final class XlsxSink implements RowSink {
+
+        private static final int MAX_ROWS = SpreadsheetVersion.EXCEL2007.getMaxRows();
+
+        private final OutputStream out;
+        private final SXSSFWorkbook workbook;
+        private final List<String> headers = new ArrayList<>();
+        private Sheet sheet;
+        private int rowIndex;
+
+        XlsxSink(OutputStream out, int windowSize) {
+            this.out = out;
+            this.workbook = new SXSSFWorkbook(windowSize);
+            this.workbook.setCompressTempFiles(true);
+        }
+
+        @Override
+        public void header(String[] headers) {
+            this.headers.addAll(List.of(headers));
+            newSheet();
+        }
+
+        @Override
+        public void row(Object[] values) {
+            if (rowIndex >= MAX_ROWS) {
+                newSheet();
+            }
+            Row row = sheet.createRow(rowIndex++);
+            for (int i = 0; i < values.length; i++) {
+                Object value = values[i];
+                if (value == null) continue;
+                Cell cell = row.createCell(i);
+                if (value instanceof Number number) {
+                    cell.setCellValue(number.doubleValue());
+                } else {
+                    cell.setCellValue(value.toString());
+                }
+            }
+        }
+
+        private void newSheet() {
+            sheet = workbook.createSheet("Export " + (workbook.getNumberOfSheets() + 1));
+            rowIndex = 0;
+            Row row = sheet.createRow(rowIndex++);
+            for (int i = 0; i < headers.size(); i++) {
+                row.createCell(i).setCellValue(headers.get(i));
+            }
+        }
+
+        @Override
+        public void finish() {
+            try {
+                workbook.write(out);
+                out.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            // Supprime les fichiers temporaires SXSSF
+            workbook.dispose();
+            try {
+                workbook.close();
+            } catch (IOException e) {
+                log.debug("[EXPORT] Fermeture classeur : {}", e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.myproject.service;
+
+import com.example.myproject.domain.Template;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Invalide le cache « api-templates » de l'API externe à chaque écriture d'un template, quel que
+ * soit le chemin (services, ressources REST, synchro WhatsApp).
+ *
+ * L'éviction a lieu après commit : plus tôt, une lecture concurrente remettrait en cache l'ancienne
+ * version. Tous les templates de l'utilisateur sont évincés (un renommage change la clé).
+ */
+@Component
+public class TemplateCacheEvictionListener {
+
+    // Résolu à l'usage : le listener est créé avec l'EntityManagerFactory, avant les repositories
+    private final ObjectProvider<ExternalApiCacheService> externalApiCacheService;
+
+    public TemplateCacheEvictionListener(ObjectProvider<ExternalApiCacheService> externalApiCacheService) {
+        this.externalApiCacheService = externalApiCacheService;
+    }
+
+    @PostPersist
+    @PostUpdate
+    @PostRemove
+    public void onTemplateWrite(Template template) {
+        String userLogin = template.getUser_id();
+        Runnable evict = () -> externalApiCacheService.getObject().evictAllTemplatesForUser(userLogin);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(
+                new TransactionSynchronization() {
+                    @Override
+                    public void afterCommit() {
+                        evict.run();
+                    }
+                }
+            );
+        } else {
+            evict.run();
+        }
+    }
+}
@@ -207,6 +207,37 @@ public class TemplateMessageBuilder {
         }
     }
 
+    /**
+     * Squelette de payload (voir {@link WhatsAppPayloadSkeleton}) : template parsé une fois,
+     * à réutiliser pour tous les destinataires d'une campagne.
+     */
+    public WhatsAppPayloadSkeleton compilePayload(Template tpl) {
+        if (tpl == null) {
+            throw new IllegalStateException("Template WhatsApp obligatoire");
+        }
+        try {
+            TemplateRequest req = mapper.readValue(tpl.getContent(), TemplateRequest.class);
+
+            String headerMediaFormat = null;
+            if (tpl.getCode() != null && req.getComponents() != null) {
+                headerMediaFormat = req
+                    .getComponents()
+                    .stream()
+                    .filter(c -> "HEADER".equals(c.getType()) && Arrays.asList("IMAGE", "VIDEO", "DOCUMENT").contains(c.getFormat()))
+                    .map(ComponentRequest::getFormat)
+                    .findFirst()
+                    .orElse(null);
+            }
+
+            return WhatsAppPayloadSkeleton.of(tpl.getName(), req.getLanguage(), headerMediaFormat, tpl.getCode());
+        } catch (IllegalStateException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("[ERROR] compilePayload: {}", e.getMessage(), e);
+            throw new IllegalStateException("Template WhatsApp invalide: " + e.getMessage(), e);
+        }
+    }
+
     /**
      * Construit le payload JSON pour l'API WhatsApp
      * @param tpl      entité JPA Template
@@ -281,8 +312,7 @@ public class TemplateMessageBuilder {
             body.put("template", templateNode);
             return body;
         } catch (Exception e) {
-            System.out.println("[ERROR] buildPayload exception: " + e.getMessage());
-            e.printStackTrace(System.out);
+            log.error("[ERROR] buildPayload: {}", e.getMessage(), e);
             throw new RuntimeException("Failed to build WhatsApp payload", e);
         }
     }
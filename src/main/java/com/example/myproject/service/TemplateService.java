@@ -6,6 +6,7 @@ import com.example.myproject.domain.Template;
 import com.example.myproject.repository.ConfigurationRepository;
 import com.example.myproject.repository.TemplateRepository;
 import com.example.myproject.security.SecurityUtils;
+import com.example.myproject.service.helper.SmsEncodingHelper;
 import com.example.myproject.web.rest.SendSmsResource;
 import com.example.myproject.web.rest.TemplateResource;
 import com.example.myproject.web.rest.dto.ButtonRequest;
@@ -14,7 +15,6 @@ import com.example.myproject.web.rest.dto.TemplateRequest;
 import com.example.myproject.web.rest.dto.VariableDTO;
 import com.example.myproject.web.rest.errors.BadRequestAlertException;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
@@ -58,6 +58,9 @@ public class TemplateService {
     @Autowired
     private RestTemplate restTemplate;
 
+    @Autowired
+    private ExternalApiCacheService externalApiCacheService;
+
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     public TemplateService(TemplateRepository templateRepository, ConfigurationRepository configurationRepository) {
@@ -568,6 +571,8 @@ public class TemplateService {
         try {
             // Étape 1 : Supprimer les lignes dépendantes (par exemple, sms_log)
             int deletedLogs = templateRepository.deleteAllTemplates();
+            // Suppression native : les listeners JPA ne sont pas appelés
+            externalApiCacheService.evictAllCaches();
         } catch (Exception e) {
             throw new RuntimeException("Deletion failed", e);
         }
@@ -577,36 +582,14 @@ public class TemplateService {
         if (templateContent == null) {
             return "";
         }
-        String result = templateContent;
-
-        if (contact != null) {
-            // Remplacement des variables standard
-            result = result.replaceAll("\\{\\{\\s*nom\\s*\\}\\}", contact.getConnom() != null ? contact.getConnom() : "");
-            result = result.replaceAll("\\{\\{\\s*prenom\\s*\\}\\}", contact.getConprenom() != null ? contact.getConprenom() : "");
-            result = result.replaceAll("\\{\\{\\s*telephone\\s*\\}\\}", contact.getContelephone() != null ? contact.getContelephone() : "");
-
-            // Remplacement des variables personnalisées
-            if (contact.getCustomFields() != null && !contact.getCustomFields().trim().isEmpty()) {
-                try {
-                    ObjectMapper mapper = new ObjectMapper();
-                    Map<String, String> customMap = mapper.readValue(
-                        contact.getCustomFields(),
-                        new TypeReference<Map<String, String>>() {}
-                    );
-                    for (Map.Entry<String, String> entry : customMap.entrySet()) {
-                        // On utilise Pattern.quote pour éviter les problèmes si la clé contient des caractères spéciaux
-                        result = result.replaceAll(
-                            "\\{\\{\\s*" + Pattern.quote(entry.getKey()) + "\\s*\\}\\}",
-                            entry.getValue() != null ? entry.getValue() : ""
-                        );
-                    }
-                } catch (Exception e) {
-                    // En cas de problème de conversion, on log et on continue
-                    log.error("Erreur lors du parsing des customFields pour le contact {}: {}", contact.getContelephone(), e.getMessage());
-                }
-            }
-        }
-        return result;
+        return CompiledSmsTemplate.compile(templateContent).render(contact);
+    }
+
+    /**
+     * Template SMS compilé, à réutiliser pour rendre de nombreux contacts.
+     */
+    public CompiledSmsTemplate compileSmsTemplate(String templateContent) {
+        return CompiledSmsTemplate.compile(templateContent);
     }
 
     public List<VariableDTO> buildListeVars(TemplateRequest tplReq, Map<String, String> extracted) {
@@ -653,50 +636,7 @@ public class TemplateService {
         if (message == null || message.isEmpty()) {
             return 0;
         }
-
-        // Détection si le message peut être encodé en GSM-7
-        boolean isGsm7 = isGsm7(message);
-
-        if (isGsm7) {
-            final int SINGLE_SMS_LIMIT = 160;
-            final int MULTI_SMS_SEGMENT_LIMIT = 153;
-
-            int length = message.length();
-            if (length <= SINGLE_SMS_LIMIT) {
-                return 1;
-            } else {
-                return (int) Math.ceil((double) length / MULTI_SMS_SEGMENT_LIMIT);
-            }
-        } else {
-            final int SINGLE_SMS_LIMIT = 70;
-            final int MULTI_SMS_SEGMENT_LIMIT = 67;
-
-            int length = message.length();
-            if (length <= SINGLE_SMS_LIMIT) {
-                return 1;
-            } else {
-                return (int) Math.ceil((double) length / MULTI_SMS_SEGMENT_LIMIT);
-            }
-        }
-    }
-
-    /**
-     * Vérifie si tous les caractères du message appartiennent à l’alphabet GSM-7
-     */
-    private boolean isGsm7(String message) {
-        // Tableau des caractères GSM-7 de base
-        String gsm7Chars =
-            "@£$¥èéùìòÇ\nØø\rÅåΔ_ΦΓΛΩΠΨΣΘΞÆæßÉ " +
-            "!\"#¤%&'()*+,-./0123456789:;<=>?" +
-            "¡ABCDEFGHIJKLMNOPQRSTUVWXYZÄÖÑÜ§" +
-            "¿abcdefghijklmnopqrstuvwxyzäöñüà";
-
-        for (char c : message.toCharArray()) {
-            if (gsm7Chars.indexOf(c) == -1) {
-                return false; // caractère non supporté par GSM-7
-            }
-        }
-        return true;
+        return SmsEncodingHelper.segments(message.length(), SmsEncodingHelper.isGsm7(message));
     }
 
     // Dans TemplateService.java
@@ -31,14 +31,21 @@ public class TokensAppService {
     private final TokensAppRepository tokensAppRepository;
     private final JwtEncoder jwtEncoder;
     private final SecurityUtils securityUtils;
+    private final ExternalApiCacheService externalApiCacheService;
 
     @Value("${jhipster.security.authentication.jwt.token-validity-in-seconds:0}")
     private long tokenValidityInSeconds;
 
-    public TokensAppService(SecurityUtils securityUtils, TokensAppRepository tokensAppRepository, JwtEncoder jwtEncoder) {
+    public TokensAppService(
+        SecurityUtils securityUtils,
+        TokensAppRepository tokensAppRepository,
+        JwtEncoder jwtEncoder,
+        ExternalApiCacheService externalApiCacheService
+    ) {
         this.tokensAppRepository = tokensAppRepository;
         this.jwtEncoder = jwtEncoder;
         this.securityUtils = securityUtils;
+        this.externalApiCacheService = externalApiCacheService;
     }
 
     // =====================
@@ -114,6 +121,7 @@ public class TokensAppService {
     // =====================
     public TokensApp regenerateToken(Integer id) {
         TokensApp token = getTokenOrThrow(id);
+        evictCachedToken(token);
         token.setToken(generateTokenValue(token.getApplication()));
         token.setIsExpired(false);
         token.setActive(true);
@@ -123,12 +131,14 @@ public class TokensAppService {
     public TokensApp activateToken(Integer id) {
         TokensApp token = getTokenOrThrow(id);
         token.setActive(true);
+        evictCachedToken(token);
         return tokensAppRepository.save(token);
     }
 
     public TokensApp deactivateToken(Integer id) {
         TokensApp token = getTokenOrThrow(id);
         token.setActive(false);
+        evictCachedToken(token);
         return tokensAppRepository.save(token);
     }
 
@@ -153,15 +163,23 @@ public class TokensAppService {
     // DELETE
     // =====================
     public void deleteToken(Integer id) {
-        if (!tokensAppRepository.existsById(id)) {
-            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Token non trouvé");
-        }
+        evictCachedToken(getTokenOrThrow(id));
         tokensAppRepository.deleteById(id);
     }
 
     // =====================
     // HELPERS
     // =====================
+
+    /**
+     * Le token est mis en cache par l'API externe : toute modification doit l'invalider.
+     */
+    private void evictCachedToken(TokensApp token) {
+        if (token.getToken() != null) {
+            externalApiCacheService.evictToken(token.getToken());
+        }
+    }
+
     private TokensApp getTokenOrThrow(Integer id) {
         return tokensAppRepository.findById(id).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Token non trouvé"));
     }
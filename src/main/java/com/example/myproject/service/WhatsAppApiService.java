@@ -27,10 +27,18 @@ public class WhatsAppApiService {
      * Vérifie si un numéro de téléphone a WhatsApp en utilisant la configuration utilisateur
      */
     public boolean isWhatsAppValid(String phoneNumber, Configuration config) {
+        return Boolean.TRUE.equals(checkReachability(phoneNumber, config));
+    }
+
+    /**
+     * Comme {@link #isWhatsAppValid}, mais distingue un échec d'appel (null, résultat à ne pas
+     * mémoriser) d'une réponse négative de Meta ou d'un format invalide (false).
+     */
+    public Boolean checkReachability(String phoneNumber, Configuration config) {
         try {
             if (config == null || !config.isVerified() || !Boolean.TRUE.equals(config.getValid())) {
                 log.warn("Configuration WhatsApp invalide ou non vérifiée");
-                return false;
+                return null;
             }
 
             String normalizedNumber = normalizePhoneNumber(phoneNumber);
@@ -42,36 +50,8 @@ public class WhatsAppApiService {
             return checkWhatsAppNumber(normalizedNumber, config);
         } catch (Exception e) {
             log.error("Erreur lors de la vérification WhatsApp pour le numéro : {}", phoneNumber, e);
-            return false;
-        }
-    }
-
-    /**
-     * Vérifie plusieurs numéros avec la même configuration
-     */
-    public Map<String, Boolean> verifyMultipleNumbers(List<String> phoneNumbers, Configuration config) {
-        Map<String, Boolean> results = new HashMap<>();
-
-        if (config == null || !config.isVerified() || !Boolean.TRUE.equals(config.getValid())) {
-            log.warn("Configuration WhatsApp invalide - tous les numéros marqués comme invalides");
-            phoneNumbers.forEach(number -> results.put(number, false));
-            return results;
-        }
-
-        for (String phoneNumber : phoneNumbers) {
-            boolean isValid = isWhatsAppValid(phoneNumber, config);
-            results.put(phoneNumber, isValid);
-
-            // Petite pause pour éviter le rate limiting
-            try {
-                Thread.sleep(100);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break;
-            }
+            return null;
         }
-
-        return results;
     }
 
     /**
@@ -99,7 +79,7 @@ public class WhatsAppApiService {
     /**
      * Appel à l'API Meta pour vérifier le numéro WhatsApp
      */
-    private boolean checkWhatsAppNumber(String phoneNumber, Configuration config) {
+    private Boolean checkWhatsAppNumber(String phoneNumber, Configuration config) {
         try {
             String url = String.format("%s/%s/contacts", BASE_URL, config.getPhoneNumberId());
 
@@ -127,7 +107,7 @@ public class WhatsAppApiService {
             }
 
             log.warn("Réponse inattendue de l'API WhatsApp : {}", response.getStatusCode());
-            return false;
+            return null;
         } catch (RestClientException e) {
             if (e.getMessage().contains("401")) {
                 log.error("Token d'accès invalide pour l'utilisateur : {}", config.getUserLogin());
@@ -136,10 +116,10 @@ public class WhatsAppApiService {
             } else {
                 log.error("Erreur lors de l'appel à l'API WhatsApp pour : {}", phoneNumber, e);
             }
-            return false;
+            return null;
         } catch (Exception e) {
             log.error("Erreur inattendue lors de la vérification WhatsApp : {}", phoneNumber, e);
-            return false;
+            return null;
         }
     }
 
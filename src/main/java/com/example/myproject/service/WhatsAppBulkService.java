@@ -3,10 +3,10 @@ package com.example.myproject.service;
 import com.example.myproject.domain.*;
 import com.example.myproject.domain.enumeration.ContentType;
 import com.example.myproject.domain.enumeration.MessageType;
-import com.example.myproject.repository.AbonnementRepository;
 import com.example.myproject.repository.ConfigurationRepository;
 import com.example.myproject.repository.SendSmsRepository;
 import com.example.myproject.repository.SmsRepository;
+import com.example.myproject.service.SmsStatusWriter.StatusUpdate;
 import com.example.myproject.web.rest.dto.SendMessageResult;
 import com.example.myproject.web.rest.dto.VariableDTO;
 import com.fasterxml.jackson.core.type.TypeReference;
@@ -26,14 +26,12 @@ import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.scheduling.annotation.Async;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
@@ -59,16 +57,13 @@ public class WhatsAppBulkService {
     private CampaignHistoryService campaignHistoryService;
 
     @Autowired
-    private SmsUpdateService smsUpdateService;
+    private SmsStatusWriter statusWriter;
 
     @Autowired
     private SmsRepository smsRepository;
 
     @Autowired
-    private AbonnementService abonnementService;
-
-    @Autowired
-    private AbonnementRepository abonnementRepository;
+    private QuotaLedgerService quotaLedgerService;
 
     @Autowired
     private SendSmsUpdateService sendSmsUpdateService;
@@ -76,6 +71,9 @@ public class WhatsAppBulkService {
     @Autowired
     private SendWhatsappService sendWhatsappService;
 
+    @Autowired
+    private TemplateMessageBuilder templateMessageBuilder;
+
     @Autowired
     private ConfigurationRepository configurationRepository;
 
@@ -85,21 +83,21 @@ public class WhatsAppBulkService {
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
-    @Autowired
-    @Qualifier("bulkSmsExecutor")
-    private ThreadPoolTaskExecutor bulkExecutor;
-
     @PersistenceContext
     private EntityManager em;
 
     private final ObjectMapper mapper = new ObjectMapper();
+    private static final TypeReference<List<VariableDTO>> VARS_TYPE = new TypeReference<>() {};
 
     // Configuration adaptative par provider
     @Value("${whatsapp.bulk.target-rate:80.0}") // WhatsApp = 80 msg/sec (Meta limit)
     private double targetRatePerSecond;
 
-    @Value("${whatsapp.bulk.parallel-workers:30}")
-    private int parallelWorkers;
+    @Value("${whatsapp.bulk.max-in-flight:200}")
+    private int maxInFlight;
+
+    @Value("${whatsapp.bulk.completion-threads:8}")
+    private int completionThreads;
 
     @Value("${whatsapp.bulk.batch-size:100}")
     private int batchSize;
@@ -137,11 +135,12 @@ public class WhatsAppBulkService {
 
     // Gestion des arrêts
     private final ConcurrentHashMap<Long, AtomicBoolean> stopFlags = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<Long, ExecutorService> activeExecutors = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<Long, List<Future<?>>> activeFutures = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<Long, PriorityBlockingQueue<RetryTask>> retryQueues = new ConcurrentHashMap<>();
 
-    private final ScheduledExecutorService retryScheduler = Executors.newScheduledThreadPool(2);
+    // Moteur d'envoi partagé par toutes les campagnes : requêtes HTTP non bloquantes,
+    // nombre de requêtes en vol borné globalement, traitements de fin sur un pool dédié
+    private Semaphore inFlightPermits;
+    private ExecutorService completionExecutor;
+
     private final ScheduledExecutorService monitoringScheduler = Executors.newScheduledThreadPool(1);
 
     @jakarta.annotation.PostConstruct
@@ -154,16 +153,30 @@ public class WhatsAppBulkService {
 
         log.info("=== WhatsApp Bulk Service Production v2.0 ===");
         log.info("   Débit: {} msg/sec (burst: {})", targetRatePerSecond, targetRatePerSecond * 2);
-        log.info("   Workers: {}", parallelWorkers);
+        log.info("   Requêtes en vol max: {}", maxInFlight);
         log.info("   Timeout: {}s", timeoutPerMessage);
         log.info("   Max Retry: {}", maxRetryAttempts);
         log.info("   Circuit Breaker: {}%", circuitBreakerThreshold * 100);
         log.info("   Campaign Batching: {}", enableCampaignBatching);
 
+        this.inFlightPermits = new Semaphore(Math.max(1, maxInFlight));
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.completionExecutor = Executors.newFixedThreadPool(Math.max(1, completionThreads), r -> {
+            Thread t = new Thread(r, "wa-completion-" + threadIndex.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
         // Monitoring circuit breaker
         monitoringScheduler.scheduleAtFixedRate(this::monitorCircuitBreaker, 5, 5, TimeUnit.SECONDS);
     }
 
+    @jakarta.annotation.PreDestroy
+    public void shutdown() {
+        monitoringScheduler.shutdownNow();
+        completionExecutor.shutdown();
+    }
+
     /**
      * Circuit breaker intelligent
      */
@@ -204,22 +217,33 @@ public class WhatsAppBulkService {
         SendSms sendSms = sendSmsRepository.findById(sendSmsId).orElseThrow(() -> new EntityNotFoundException("SendSms non trouvé"));
 
         stopFlags.put(sendSmsId, new AtomicBoolean(false));
-        activeFutures.put(sendSmsId, new CopyOnWriteArrayList<>());
-        retryQueues.put(sendSmsId, new PriorityBlockingQueue<>(1000));
 
         long startTime = System.currentTimeMillis();
 
-        //  RÉCUPÉRER LES ABONNEMENTS AU DÉBUT (avant l'envoi)
-        List<Abonnement> activeSubscriptions = null;
-        if (!test) {
-            activeSubscriptions = abonnementRepository.findActiveByUserId(sendSms.getUser().getId());
-            log.info(" {} abonnements actifs trouvés pour mise à jour", activeSubscriptions != null ? activeSubscriptions.size() : 0);
-        }
+        Long quotaUserId = sendSms.getUser().getId();
 
         int totalSuccess = 0;
         int totalFailed = 0;
+        int reserved = 0;
 
         try {
+            // Réservation avant envoi : soldée en fin de traitement avec les envois réussis
+            if (!test) {
+                Long toSend = smsRepository.countByBulkIdAndDeliveryStatus(bulkId, "pending");
+                int count = toSend != null ? toSend.intValue() : 0;
+                if (!quotaLedgerService.reserve(quotaUserId, MessageType.WHATSAPP, count)) {
+                    throw new IllegalStateException("Quota WhatsApp insuffisant pour " + count + " messages");
+                }
+                reserved = count;
+            }
+
+            // Template, configuration et squelette de payload : une fois pour toute la campagne
+            Template template = templateId != null ? em.find(Template.class, templateId) : null;
+            Configuration cfg = configurationRepository
+                .findOneByUserLogin(login)
+                .orElseThrow(() -> new EntityNotFoundException("Configuration non trouvée"));
+            WhatsAppPayloadSkeleton payload = templateMessageBuilder.compilePayload(template);
+
             while (hasMore && !isStopRequested(sendSmsId)) {
                 //  CHARGER UNIQUEMENT 1000 WhatsApp
                 Pageable pageable = PageRequest.of(pageNumber, batchSize);
@@ -235,31 +259,18 @@ public class WhatsAppBulkService {
                 log.info(" Traitement batch {} : {} WhatsApp", pageNumber + 1, batch.size());
 
                 //  TRAITER CE BATCH
-                Template template = templateId != null ? em.find(Template.class, templateId) : null;
-                Configuration cfg = configurationRepository
-                    .findOneByUserLogin(login)
-                    .orElseThrow(() -> new EntityNotFoundException("Configuration non trouvée"));
-
-                List<WhatsAppProcessingData> processingData = prepareProcessingData(batch, sendSms, template, cfg);
-
-                ExecutorService executor = Executors.newFixedThreadPool(parallelWorkers);
-                activeExecutors.put(sendSmsId, executor);
+                List<WhatsAppProcessingData> processingData = prepareProcessingData(batch, payload, cfg);
 
-                try {
-                    ProcessingResult result = processParallelWithRetry(executor, processingData, test, sendSmsId);
+                ProcessingResult result = processParallelWithRetry(processingData, test, sendSmsId);
 
-                    totalSuccess += result.successCount;
-                    totalFailed += result.failCount;
+                totalSuccess += result.successCount;
+                totalFailed += result.failCount;
 
-                    log.info(" Batch {} terminé: successCount :{} , failCount : {}", pageNumber + 1, result.successCount, result.failCount);
+                log.info(" Batch {} terminé: successCount :{} , failCount : {}", pageNumber + 1, result.successCount, result.failCount);
 
-                    if (result.wasStopped) {
-                        log.warn("!! Arrêt demandé");
-                        break;
-                    }
-                } finally {
-                    executor.shutdown();
-                    executor.awaitTermination(10, TimeUnit.SECONDS);
+                if (result.wasStopped) {
+                    log.warn("!! Arrêt demandé");
+                    break;
                 }
 
                 pageNumber++;
@@ -271,12 +282,6 @@ public class WhatsAppBulkService {
                 }
             }
 
-            //  MISE À JOUR ABONNEMENT APRÈS TOUS LES ENVOIS RÉUSSIS
-            if (!test && totalSuccess > 0 && activeSubscriptions != null) {
-                log.info(" Mise à jour des abonnements pour {} WhatsApp envoyés", totalSuccess);
-                updateAbonnementAfterBulkSend(activeSubscriptions, MessageType.WHATSAPP, totalSuccess);
-            }
-
             long duration = System.currentTimeMillis() - startTime;
             log.info("╔══════════════════════════════════════════════════════╗");
             log.info("║   TRAITEMENT TERMINÉ                               ║");
@@ -285,38 +290,21 @@ public class WhatsAppBulkService {
             log.info("║   Durée totale: {}s                             ║", duration / 1000);
             log.info("╚══════════════════════════════════════════════════════╝");
 
-            //  METTRE À JOUR LE SENDSMS (inprocess = false)
-            SendSms finalSendSms = sendSmsRepository.findById(sendSmsId).orElse(null);
-            if (finalSendSms != null) {
-                finalSendSms.setInprocess(false); //  IMPORTANT
-                finalSendSms.setTotalSuccess(totalSuccess);
-                finalSendSms.setTotalFailed(totalFailed);
-                finalSendSms.setTotalPending(0);
-
-                int total = totalSuccess + totalFailed;
-                if (total > 0) {
-                    finalSendSms.setSuccessRate((totalSuccess * 100.0) / total);
-                    finalSendSms.setFailureRate((totalFailed * 100.0) / total);
-                }
-
-                finalSendSms.setIsSent(totalFailed == 0);
-                sendSmsRepository.save(finalSendSms);
-
-                log.info(" SendSms WhatsApp mis à jour: inprocess=false, success={}, failed={}", totalSuccess, totalFailed);
-            }
+            //  CLÔTURE (inprocess = false) : les messages restés pending après arrêt ou retries rendent la campagne partielle
+            statusWriter.flush();
+            Long pending = smsRepository.countByBulkIdAndDeliveryStatus(bulkId, "pending");
+            closeCampaign(sendSmsId, totalSuccess, totalFailed, pending != null ? pending.intValue() : 0, null);
+            log.info(" SendSms WhatsApp clôturé: inprocess=false, success={}, failed={}", totalSuccess, totalFailed);
         } catch (Exception e) {
             log.error("!!! Erreur traitement par batch WhatsApp", e);
 
             //  MÊME EN CAS D'ERREUR, METTRE inprocess = false
-            SendSms errorSendSms = sendSmsRepository.findById(sendSmsId).orElse(null);
-            if (errorSendSms != null) {
-                errorSendSms.setInprocess(false);
-                errorSendSms.setLast_error(e.getMessage());
-                sendSmsRepository.save(errorSendSms);
-            }
-
-            handleFatalError(sendSmsId, totalSuccess + totalFailed, e);
+            handleFatalError(sendSmsId, totalSuccess, totalSuccess + totalFailed, e);
         } finally {
+            //  SOLDE DE LA RÉSERVATION (aussi après arrêt ou erreur)
+            if (reserved > 0) {
+                settleAbonnementAfterBulkSend(quotaUserId, MessageType.WHATSAPP, reserved, totalSuccess);
+            }
             cleanup(sendSmsId);
         }
     }
@@ -333,15 +321,13 @@ public class WhatsAppBulkService {
         }
 
         stopFlags.put(sendSmsId, new AtomicBoolean(false));
-        activeFutures.put(sendSmsId, new CopyOnWriteArrayList<>());
-        retryQueues.put(sendSmsId, new PriorityBlockingQueue<>(1000));
 
         try {
             // Stratégie : Envoi individuel avec retry (meilleure délivrabilité)
             processIndividualMessagesWithRetryAndQuota(smsList, test, sendSmsId, templateId, userLogin);
         } catch (Exception e) {
             log.error("[WA-BULK] Erreur fatale pour SendSms {}", sendSmsId, e);
-            handleFatalError(sendSmsId, smsList.size(), e);
+            handleFatalError(sendSmsId, 0, smsList.size(), e);
         } finally {
             cleanup(sendSmsId);
         }
@@ -370,20 +356,23 @@ public class WhatsAppBulkService {
             .findOneByUserLogin(userLogin)
             .orElseThrow(() -> new EntityNotFoundException("Configuration non trouvée"));
 
-        // ✅ RÉCUPÉRER LES ABONNEMENTS AU DÉBUT
-        List<Abonnement> activeSubscriptions = null;
+        Long quotaUserId = sendSms.getUser().getId();
+
+        // Réservation avant envoi : soldée en fin de traitement avec les envois réussis
+        int reserved = 0;
         if (!test) {
-            activeSubscriptions = abonnementRepository.findActiveByUserId(sendSms.getUser().getId());
-            log.info("[WA-BULK] {} abonnements actifs trouvés pour mise à jour", activeSubscriptions.size());
+            if (!quotaLedgerService.reserve(quotaUserId, MessageType.WHATSAPP, totalMessages)) {
+                throw new IllegalStateException("Quota WhatsApp insuffisant pour " + totalMessages + " messages");
+            }
+            reserved = totalMessages;
         }
-
-        ExecutorService executor = Executors.newFixedThreadPool(parallelWorkers);
-        activeExecutors.put(sendSmsId, executor);
+        int successCount = 0;
 
         try {
-            List<WhatsAppProcessingData> processingData = prepareProcessingData(smsList, sendSms, template, cfg);
+            List<WhatsAppProcessingData> processingData = prepareProcessingData(smsList, templateMessageBuilder.compilePayload(template), cfg);
 
-            ProcessingResult result = processParallelWithRetry(executor, processingData, test, sendSmsId);
+            ProcessingResult result = processParallelWithRetry(processingData, test, sendSmsId);
+            successCount = result.successCount;
 
             if (isStopRequested(sendSmsId) || result.wasStopped) {
                 log.info("[WA-INDIVIDUAL] Arrêté pour SendSms {}", sendSmsId);
@@ -402,37 +391,35 @@ public class WhatsAppBulkService {
                 actualRate
             );
 
-            // ✅ MISE À JOUR ABONNEMENT APRÈS ENVOI RÉUSSI
-            if (!test && result.successCount > 0 && activeSubscriptions != null) {
-                updateAbonnementAfterBulkSend(activeSubscriptions, MessageType.WHATSAPP, result.successCount);
-            }
-
-            updateSendSmsStatusFinal(sendSmsId, result.successCount, result.failCount, result.lastError);
+            closeCampaign(
+                sendSmsId,
+                result.successCount,
+                result.failCount,
+                totalMessages - result.successCount - result.failCount,
+                result.lastError
+            );
             updateGlobalMetrics(totalMessages, result.successCount, result.failCount, result.retryCount);
         } catch (Exception e) {
             log.error("[WA-INDIVIDUAL] Erreur fatale", e);
-            handleFatalError(sendSmsId, totalMessages, e);
+            handleFatalError(sendSmsId, successCount, totalMessages, e);
         } finally {
-            executor.shutdownNow();
-            activeExecutors.remove(sendSmsId);
+            // ✅ SOLDE DE LA RÉSERVATION (aussi après arrêt ou erreur)
+            if (reserved > 0) {
+                settleAbonnementAfterBulkSend(quotaUserId, MessageType.WHATSAPP, reserved, successCount);
+            }
         }
     }
 
     /**
-     * ✅ MISE À JOUR ABONNEMENT (Transaction séparée)
+     * ✅ SOLDE DE LA RÉSERVATION (remboursement des messages non envoyés, transaction séparée)
      */
-    @Transactional(propagation = Propagation.REQUIRES_NEW)
-    public void updateAbonnementAfterBulkSend(List<Abonnement> subscriptions, MessageType messageType, int successCount) {
+    public void settleAbonnementAfterBulkSend(Long userId, MessageType messageType, int reserved, int successCount) {
         try {
-            log.info("[UPDATE-ABONNEMENT-WA] Début mise à jour: {} messages de type {}", successCount, messageType);
-
-            // Décrémenter les quotas
-            abonnementService.decrementQuotasAfterSend(subscriptions, messageType, successCount);
+            log.info("[UPDATE-ABONNEMENT-WA] Solde réservation: {} envoyés sur {} réservés ({})", successCount, reserved, messageType);
 
-            // Sauvegarder les modifications
-            abonnementRepository.saveAll(subscriptions);
+            quotaLedgerService.settle(userId, messageType, reserved, successCount);
 
-            log.info("[UPDATE-ABONNEMENT-WA] ✅ Abonnements mis à jour avec succès");
+            log.info("[UPDATE-ABONNEMENT-WA] ✅ Réservation soldée");
         } catch (Exception e) {
             log.error("[UPDATE-ABONNEMENT-WA] ❌ Erreur lors de la mise à jour: {}", e.getMessage(), e);
             // Ne pas bloquer l'envoi si mise à jour échoue
@@ -518,11 +505,11 @@ public class WhatsAppBulkService {
             }
 
             // Mise à jour finale
-            updateSendSmsStatusFinal(sendSmsId, successCount, failCount, lastError);
+            closeCampaign(sendSmsId, successCount, failCount, smsList.size() - successCount - failCount, lastError);
             updateGlobalMetrics(smsList.size(), successCount, failCount, 0);
         } catch (Exception e) {
             log.error("[WA-CAMPAIGN] Erreur fatale", e);
-            handleFatalError(sendSmsId, smsList.size(), e);
+            handleFatalError(sendSmsId, 0, smsList.size(), e);
         }
     }
 
@@ -544,12 +531,9 @@ public class WhatsAppBulkService {
             .findOneByUserLogin(userLogin)
             .orElseThrow(() -> new EntityNotFoundException("Configuration non trouvée"));
 
-        ExecutorService executor = Executors.newFixedThreadPool(parallelWorkers);
-        activeExecutors.put(sendSmsId, executor);
-
         try {
-            List<WhatsAppProcessingData> processingData = prepareProcessingData(smsList, sendSms, template, cfg);
-            ProcessingResult result = processParallelWithRetry(executor, processingData, test, sendSmsId);
+            List<WhatsAppProcessingData> processingData = prepareProcessingData(smsList, templateMessageBuilder.compilePayload(template), cfg);
+            ProcessingResult result = processParallelWithRetry(processingData, test, sendSmsId);
 
             if (isStopRequested(sendSmsId) || result.wasStopped) {
                 log.info("[WA-INDIVIDUAL] Arrêté pour SendSms {}", sendSmsId);
@@ -568,128 +552,89 @@ public class WhatsAppBulkService {
                 actualRate
             );
 
-            updateSendSmsStatusFinal(sendSmsId, result.successCount, result.failCount, result.lastError);
+            closeCampaign(
+                sendSmsId,
+                result.successCount,
+                result.failCount,
+                totalMessages - result.successCount - result.failCount,
+                result.lastError
+            );
             updateGlobalMetrics(totalMessages, result.successCount, result.failCount, result.retryCount);
         } catch (Exception e) {
             log.error("[WA-INDIVIDUAL] Erreur fatale", e);
-            handleFatalError(sendSmsId, totalMessages, e);
-        } finally {
-            executor.shutdownNow();
-            activeExecutors.remove(sendSmsId);
+            handleFatalError(sendSmsId, 0, totalMessages, e);
         }
     }
 
     /**
-     * Processing parallèle avec retry automatique
+     * Envoi d'un lot par le moteur non bloquant.
+     *
+     * Le thread de la campagne ne fait que doser : jeton du rate limiter puis permis global
+     * de requête en vol, et la requête part en asynchrone. La réponse est traitée sur le pool
+     * de complétion ; les erreurs temporaires reviennent dans une file à échéance (backoff)
+     * que le même thread redistribue. Aucun thread n'est bloqué pendant l'appel Graph API.
      */
-    private ProcessingResult processParallelWithRetry(
-        ExecutorService executor,
-        List<WhatsAppProcessingData> data,
-        boolean test,
-        Long sendSmsId
-    ) {
+    private ProcessingResult processParallelWithRetry(List<WhatsAppProcessingData> data, boolean test, Long sendSmsId) {
         if (data.isEmpty()) {
             return new ProcessingResult(0, 0, 0, false, null);
         }
 
-        log.info("[WA-PARALLEL] {} messages avec {} workers", data.size(), parallelWorkers);
-
-        AtomicInteger successCount = new AtomicInteger(0);
-        AtomicInteger failCount = new AtomicInteger(0);
-        AtomicInteger retryCount = new AtomicInteger(0);
-        AtomicBoolean stopped = new AtomicBoolean(false);
-
-        List<Future<?>> futures = activeFutures.get(sendSmsId);
-        PriorityBlockingQueue<RetryTask> retryQueue = retryQueues.get(sendSmsId);
-
-        // Phase 1: Envoi initial
-        for (WhatsAppProcessingData waData : data) {
-            if (isStopRequested(sendSmsId)) {
-                stopped.set(true);
-                break;
-            }
+        log.info("[WA-PARALLEL] {} messages (max {} requêtes en vol)", data.size(), maxInFlight);
 
-            Future<WhatsAppResult> future = executor.submit(() -> sendSingleWhatsAppWithRetry(waData, test, sendSmsId, 0, retryQueue));
-            futures.add(future);
-        }
+        BatchDispatch batch = new BatchDispatch(sendSmsId, test);
+        boolean stopped = false;
 
-        // Phase 2: Worker de retry asynchrone
-        Future<?> retryWorker = executor.submit(() -> {
-            while (!isStopRequested(sendSmsId) && !Thread.currentThread().isInterrupted()) {
-                try {
-                    RetryTask task = retryQueue.poll(1, TimeUnit.SECONDS);
-                    if (task == null) continue;
-
-                    // Backoff exponentiel
-                    long waitTime = (long) (Math.pow(2, task.attemptNumber) * 1000);
-                    Thread.sleep(Math.min(waitTime, 10000)); // Max 10s
-
-                    sendSingleWhatsAppWithRetry(task.waData, test, sendSmsId, task.attemptNumber, retryQueue);
-                    retryCount.incrementAndGet();
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
+        try {
+            // Phase 1: Envoi initial
+            for (WhatsAppProcessingData waData : data) {
+                if (isStopRequested(sendSmsId)) {
+                    stopped = true;
                     break;
                 }
-            }
-        });
-        futures.add(retryWorker);
-
-        // Phase 3: Collecte résultats
-        for (Future<?> future : futures) {
-            if (future == retryWorker) continue;
-
-            if (isStopRequested(sendSmsId)) {
-                future.cancel(true);
-                stopped.set(true);
-                continue;
+                batch.outstanding.incrementAndGet();
+                dispatch(batch, waData, 0);
             }
 
-            try {
-                WhatsAppResult result = (WhatsAppResult) future.get();
-                if (result.success) {
-                    successCount.incrementAndGet();
-                } else {
-                    failCount.incrementAndGet();
+            // Phase 2: Retries à échéance jusqu'à finalisation de tous les messages
+            while (!stopped && batch.outstanding.get() > 0) {
+                if (isStopRequested(sendSmsId)) {
+                    stopped = true;
+                    break;
+                }
+                RetryTask task = batch.retries.poll(200, TimeUnit.MILLISECONDS);
+                if (task != null) {
+                    dispatch(batch, task.waData, task.attemptNumber);
                 }
-            } catch (Exception e) {
-                failCount.incrementAndGet();
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stopped = true;
         }
 
-        // Attendre fin des retries
-        retryWorker.cancel(true);
-        try {
-            retryWorker.get(5, TimeUnit.SECONDS);
-        } catch (Exception e) {
-            // Timeout normal
+        if (stopped) {
+            // Les requêtes déjà parties se terminent normalement ; les retries en attente restent pending
+            RetryTask task;
+            while ((task = batch.retries.poll()) != null) {
+                statusWriter.enqueue(StatusUpdate.pending(task.waData.smsId, sendSmsId, "Arrêté"));
+            }
         }
 
-        return new ProcessingResult(successCount.get(), failCount.get(), retryCount.get(), stopped.get(), null);
+        // Résultats de la campagne écrits avant finalisation
+        statusWriter.flush();
+
+        return new ProcessingResult(batch.success.get(), batch.failed.get(), batch.retried.get(), stopped, batch.lastError);
     }
 
     /**
-     * Envoi WhatsApp unique avec retry intelligent
+     * Dose puis émet une tentative. Bloque uniquement le thread de la campagne (rate limiter, permis).
      */
-    private WhatsAppResult sendSingleWhatsAppWithRetry(
-        WhatsAppProcessingData waData,
-        boolean test,
-        Long sendSmsId,
-        int attemptNumber,
-        PriorityBlockingQueue<RetryTask> retryQueue
-    ) {
+    private void dispatch(BatchDispatch batch, WhatsAppProcessingData waData, int attemptNumber) throws InterruptedException {
         // Circuit breaker check
         if (circuitOpen && attemptNumber == 0) {
             log.warn("[WA-{}] Circuit breaker ouvert - mise en retry", waData.smsId);
-            if (attemptNumber < maxRetryAttempts) {
-                retryQueue.offer(new RetryTask(waData, attemptNumber + 1));
-            }
-            smsUpdateService.updateSmsStatus(waData.smsId, false, null, "pending", "Circuit breaker");
-            return new WhatsAppResult(false, null, "Circuit breaker");
-        }
-
-        if (isStopRequested(sendSmsId) || Thread.currentThread().isInterrupted()) {
-            smsUpdateService.updateSmsStatus(waData.smsId, false, null, "pending", "Arrêté");
-            return new WhatsAppResult(false, null, "Arrêté");
+            statusWriter.enqueue(StatusUpdate.pending(waData.smsId, batch.sendSmsId, "Circuit breaker"));
+            scheduleRetry(batch, waData, attemptNumber);
+            return;
         }
 
         // Rate limiting
@@ -697,78 +642,99 @@ public class WhatsAppBulkService {
             rateLimiter.consumeBlocking(1);
         }
 
-        if (isStopRequested(sendSmsId)) {
-            smsUpdateService.updateSmsStatus(waData.smsId, false, null, "pending", "Arrêté");
-            return new WhatsAppResult(false, null, "Arrêté");
+        inFlightPermits.acquire();
+
+        if (isStopRequested(batch.sendSmsId)) {
+            inFlightPermits.release();
+            statusWriter.enqueue(StatusUpdate.pending(waData.smsId, batch.sendSmsId, "Arrêté"));
+            batch.outstanding.decrementAndGet();
+            return;
         }
 
         activeWorkers.incrementAndGet();
         recentAttempts.incrementAndGet();
 
+        CompletableFuture<SendMessageResult> send;
+        if (batch.test) {
+            send = CompletableFuture.completedFuture(new SendMessageResult(true, "TEST_WA_" + System.currentTimeMillis(), null));
+        } else {
+            send = sendWhatsappService
+                .sendMessageAsync(waData.receiver, waData.payload, waData.variables, waData.phoneNumberId, waData.accessToken)
+                .orTimeout(timeoutPerMessage, TimeUnit.SECONDS);
+        }
+
         try {
-            if (test) {
-                String messageId = "TEST_WA_" + System.currentTimeMillis();
-                smsUpdateService.updateSmsStatus(waData.smsId, true, messageId, "sent", null);
-                sendSmsUpdateService.incrementSuccess(sendSmsId);
-                return new WhatsAppResult(true, messageId, null);
-            }
+            send.whenCompleteAsync(
+                (result, error) -> {
+                    try {
+                        handleSendOutcome(batch, waData, attemptNumber, result, error);
+                    } catch (Exception e) {
+                        log.error("[WA-{}] Erreur traitement réponse: {}", waData.smsId, e.getMessage());
+                        batch.failed.incrementAndGet();
+                        batch.outstanding.decrementAndGet();
+                    } finally {
+                        activeWorkers.decrementAndGet();
+                        inFlightPermits.release();
+                    }
+                },
+                completionExecutor
+            );
+        } catch (RejectedExecutionException e) {
+            activeWorkers.decrementAndGet();
+            inFlightPermits.release();
+            batch.outstanding.decrementAndGet();
+            throw new InterruptedException("Moteur WhatsApp arrêté");
+        }
+    }
 
-            Future<SendMessageResult> sendFuture = bulkExecutor.submit(() -> {
-                if (Thread.currentThread().isInterrupted()) {
-                    return new SendMessageResult(false, null, "Annulé");
-                }
-                try {
-                    return sendWhatsappService.sendMessageAndGetId(waData.receiver, waData.template, waData.variables, waData.userLogin);
-                } catch (Exception e) {
-                    return new SendMessageResult(false, null, e.getMessage());
-                }
-            });
-
-            SendMessageResult result = sendFuture.get(timeoutPerMessage, TimeUnit.SECONDS);
-
-            if (result.isSuccess()) {
-                smsUpdateService.updateSmsStatus(waData.smsId, true, result.getMessageId(), "sent", null);
-                sendSmsUpdateService.incrementSuccess(sendSmsId);
-                return new WhatsAppResult(true, result.getMessageId(), null);
-            } else {
-                recentFailures.incrementAndGet();
-                String error = result.getError() != null ? result.getError() : "Échec WhatsApp";
-
-                // Retry sur erreurs temporaires
-                if (isRetryableWhatsAppError(error) && attemptNumber < maxRetryAttempts) {
-                    log.debug("[WA-{}] Erreur temporaire - retry #{}", waData.smsId, attemptNumber + 1);
-                    retryQueue.offer(new RetryTask(waData, attemptNumber + 1));
-                    smsUpdateService.updateSmsStatus(waData.smsId, false, null, "pending", error + " (retry)");
-                    return new WhatsAppResult(false, null, error);
-                }
+    /**
+     * Traite la réponse d'une tentative (pool de complétion).
+     */
+    private void handleSendOutcome(
+        BatchDispatch batch,
+        WhatsAppProcessingData waData,
+        int attemptNumber,
+        SendMessageResult result,
+        Throwable error
+    ) {
+        if (error == null && result != null && result.isSuccess()) {
+            statusWriter.enqueue(StatusUpdate.sent(waData.smsId, batch.sendSmsId, result.getMessageId()));
+            batch.success.incrementAndGet();
+            batch.outstanding.decrementAndGet();
+            return;
+        }
 
-                smsUpdateService.updateSmsStatus(waData.smsId, false, null, "failed", error);
-                sendSmsUpdateService.incrementFailed(sendSmsId);
-                return new WhatsAppResult(false, null, error);
-            }
-        } catch (TimeoutException e) {
-            recentFailures.incrementAndGet();
-            String err = "Timeout WhatsApp (" + timeoutPerMessage + "s)";
-
-            if (attemptNumber < maxRetryAttempts) {
-                log.warn("[WA-{}] Timeout - retry #{}", waData.smsId, attemptNumber + 1);
-                retryQueue.offer(new RetryTask(waData, attemptNumber + 1));
-                smsUpdateService.updateSmsStatus(waData.smsId, false, null, "pending", err + " (retry)");
-                return new WhatsAppResult(false, null, err);
-            }
+        recentFailures.incrementAndGet();
 
-            smsUpdateService.updateSmsStatus(waData.smsId, false, null, "failed", err);
-            sendSmsUpdateService.incrementFailed(sendSmsId);
-            return new WhatsAppResult(false, null, err);
-        } catch (Exception e) {
-            recentFailures.incrementAndGet();
-            String err = e.getMessage() != null ? e.getMessage() : "Erreur inconnue";
-            smsUpdateService.updateSmsStatus(waData.smsId, false, null, "failed", err);
-            sendSmsUpdateService.incrementFailed(sendSmsId);
-            return new WhatsAppResult(false, null, err);
-        } finally {
-            activeWorkers.decrementAndGet();
+        boolean timeout = error != null && (error instanceof TimeoutException || error.getCause() instanceof TimeoutException);
+        String err;
+        if (timeout) {
+            err = "Timeout WhatsApp (" + timeoutPerMessage + "s)";
+        } else if (error != null) {
+            err = error.getMessage() != null ? error.getMessage() : "Erreur inconnue";
+        } else {
+            err = result != null && result.getError() != null ? result.getError() : "Échec WhatsApp";
+        }
+
+        // Retry sur erreurs temporaires
+        if ((timeout || isRetryableWhatsAppError(err)) && attemptNumber < maxRetryAttempts && !isStopRequested(batch.sendSmsId)) {
+            log.debug("[WA-{}] Erreur temporaire - retry #{}", waData.smsId, attemptNumber + 1);
+            statusWriter.enqueue(StatusUpdate.pending(waData.smsId, batch.sendSmsId, err + " (retry)"));
+            scheduleRetry(batch, waData, attemptNumber);
+            return;
         }
+
+        statusWriter.enqueue(StatusUpdate.failed(waData.smsId, batch.sendSmsId, err));
+        batch.lastError = err;
+        batch.failed.incrementAndGet();
+        batch.outstanding.decrementAndGet();
+    }
+
+    private void scheduleRetry(BatchDispatch batch, WhatsAppProcessingData waData, int attemptNumber) {
+        // Backoff exponentiel (max 10s)
+        long waitMs = Math.min((long) (Math.pow(2, attemptNumber + 1) * 1000), 10000);
+        batch.retries.offer(new RetryTask(waData, attemptNumber + 1, waitMs));
+        batch.retried.incrementAndGet();
     }
 
     /**
@@ -795,7 +761,7 @@ public class WhatsAppBulkService {
 
     // === Méthodes utilitaires ===
 
-    private List<WhatsAppProcessingData> prepareProcessingData(List<Sms> smsList, SendSms sendSms, Template template, Configuration cfg) {
+    private List<WhatsAppProcessingData> prepareProcessingData(List<Sms> smsList, WhatsAppPayloadSkeleton payload, Configuration cfg) {
         return smsList
             .stream()
             .map(sms -> {
@@ -803,7 +769,7 @@ public class WhatsAppBulkService {
                 return new WhatsAppProcessingData(
                     sms.getId(),
                     formatPhoneNumber(sms.getReceiver()),
-                    template,
+                    payload,
                     vars,
                     cfg.getPhoneNumberId(),
                     cfg.getAccessToken(),
@@ -824,7 +790,7 @@ public class WhatsAppBulkService {
             return Collections.emptyList();
         }
         try {
-            return mapper.readValue(varsJson, new TypeReference<List<VariableDTO>>() {});
+            return mapper.readValue(varsJson, VARS_TYPE);
         } catch (Exception e) {
             log.warn("Erreur parsing variables: {}", e.getMessage());
             return Collections.emptyList();
@@ -845,41 +811,41 @@ public class WhatsAppBulkService {
         jdbcTemplate.batchUpdate(sql, batchArgs);
     }
 
-    private void updateSendSmsStatusFinal(Long sendSmsId, int successCount, int failCount, String lastError) {
-        try {
-            SendSms sendSms = sendSmsRepository.findById(sendSmsId).orElseThrow(() -> new EntityNotFoundException("SendSms non trouvé"));
-
-            int total = successCount + failCount;
-            sendSms.setTotalSuccess(successCount);
-            sendSms.setTotalFailure(failCount);
-            sendSms.setSuccessRate(total == 0 ? 0 : (successCount * 100.0) / total);
-            sendSms.setFailureRate(total == 0 ? 0 : (failCount * 100.0) / total);
-            sendSms.setIsSent(failCount == 0);
-            sendSms.setLast_error(lastError);
-            sendSms.setInprocess(false);
-
-            sendSmsRepository.save(sendSms);
-            log.info("[WA-BULK] SendSms mis à jour: {} succès, {} échecs", successCount, failCount);
-        } catch (Exception e) {
-            log.error("[WA-BULK] Erreur mise à jour SendSms", e);
+    /**
+     * Clôture de la campagne : état final et dernière erreur seulement. Les compteurs send_sms ne
+     * sont pas réécrits (ajustés par deltas : writer de résultats, statuts webhook, points de contrôle).
+     */
+    private void closeCampaign(Long sendSmsId, int successCount, int failCount, int remaining, String lastError) {
+        statusWriter.flush();
+
+        String deliveryStatus;
+        Boolean isSent;
+        if (failCount == 0 && remaining <= 0) {
+            deliveryStatus = "sent";
+            isSent = true;
+        } else if (successCount > 0) {
+            deliveryStatus = "partial";
+            isSent = null;
+        } else {
+            deliveryStatus = "failed";
+            isSent = false;
+        }
+        sendSmsUpdateService.markBulkFinished(sendSmsId, "COMPLETED", deliveryStatus, isSent);
+        if (lastError != null) {
+            sendSmsUpdateService.updateLastError(sendSmsId, lastError);
         }
+        log.info("[WA-BULK] SendSms {} clôturé: {} succès, {} échecs, {} restants", sendSmsId, successCount, failCount, remaining);
     }
 
-    private void handleFatalError(Long sendSmsId, int totalMessages, Exception e) {
+    private void handleFatalError(Long sendSmsId, int successCount, int totalMessages, Exception e) {
         campaignHistoryService.updateRetryAttemptError(sendSmsId, 1, 0, totalMessages, 0, e.getMessage());
-        sendSmsUpdateService.updateFinalCounters(sendSmsId, 0, totalMessages, e.getMessage());
+        closeCampaign(sendSmsId, successCount, 0, totalMessages - successCount, e.getMessage());
     }
 
     private void handleStoppedCampaign(Long sendSmsId, ProcessingResult result, int totalMessages) {
-        campaignHistoryService.updateRetryAttemptStopped(
-            sendSmsId,
-            1,
-            result.successCount,
-            result.failCount,
-            totalMessages - result.successCount - result.failCount,
-            "Arrêté"
-        );
-        sendSmsUpdateService.updateFinalCounters(sendSmsId, result.successCount, result.failCount, "Arrêté");
+        int remaining = totalMessages - result.successCount - result.failCount;
+        campaignHistoryService.updateRetryAttemptStopped(sendSmsId, 1, result.successCount, result.failCount, remaining, "Arrêté");
+        closeCampaign(sendSmsId, result.successCount, result.failCount, remaining, "Arrêté");
     }
 
     private void updateGlobalMetrics(int total, int success, int fail, int retried) {
@@ -892,22 +858,10 @@ public class WhatsAppBulkService {
     public boolean stopBulkProcessing(Long sendSmsId) {
         log.info("[WA-STOP] Arrêt immédiat pour SendSms {}", sendSmsId);
 
+        // Le thread de la campagne voit le drapeau sous 200 ms et cesse d'émettre
         AtomicBoolean stopFlag = stopFlags.computeIfAbsent(sendSmsId, k -> new AtomicBoolean(false));
         stopFlag.set(true);
 
-        List<Future<?>> futures = activeFutures.get(sendSmsId);
-        if (futures != null) {
-            futures.forEach(f -> f.cancel(true));
-            activeFutures.remove(sendSmsId);
-        }
-
-        ExecutorService executor = activeExecutors.get(sendSmsId);
-        if (executor != null) {
-            executor.shutdownNow();
-            activeExecutors.remove(sendSmsId);
-        }
-
-        retryQueues.remove(sendSmsId);
         sendSmsUpdateService.markAsCompleted(sendSmsId, "Arrêté par l'utilisateur");
 
         log.info("[WA-STOP] Arrêt complet pour SendSms {}", sendSmsId);
@@ -921,12 +875,6 @@ public class WhatsAppBulkService {
 
     private void cleanup(Long sendSmsId) {
         stopFlags.remove(sendSmsId);
-        activeFutures.remove(sendSmsId);
-        retryQueues.remove(sendSmsId);
-        ExecutorService executor = activeExecutors.remove(sendSmsId);
-        if (executor != null && !executor.isShutdown()) {
-            executor.shutdownNow();
-        }
     }
 
     private static <T> List<List<T>> partition(List<T> list, int partitionSize) {
@@ -944,6 +892,7 @@ public class WhatsAppBulkService {
         stats.put("totalFailed", totalFailed.get());
         stats.put("totalRetried", totalRetried.get());
         stats.put("activeWorkers", activeWorkers.get());
+        stats.put("availableInFlightPermits", inFlightPermits.availablePermits());
         stats.put("targetRate", targetRatePerSecond);
         stats.put("circuitBreakerOpen", circuitOpen);
         stats.put("successRate", calculateSuccessRate());
@@ -972,7 +921,7 @@ public class WhatsAppBulkService {
 
         final Long smsId;
         final String receiver;
-        final Template template;
+        final WhatsAppPayloadSkeleton payload;
         final List<VariableDTO> variables;
         final String phoneNumberId;
         final String accessToken;
@@ -981,7 +930,7 @@ public class WhatsAppBulkService {
         WhatsAppProcessingData(
             Long smsId,
             String receiver,
-            Template template,
+            WhatsAppPayloadSkeleton payload,
             List<VariableDTO> variables,
             String phoneNumberId,
             String accessToken,
@@ -989,7 +938,7 @@ public class WhatsAppBulkService {
         ) {
             this.smsId = smsId;
             this.receiver = receiver;
-            this.template = template;
+            this.payload = payload;
             this.variables = variables;
             this.phoneNumberId = phoneNumberId;
             this.accessToken = accessToken;
@@ -1014,35 +963,46 @@ public class WhatsAppBulkService {
         }
     }
 
-    private static class WhatsAppResult {
-
-        final boolean success;
-        final String messageId;
-        final String errorMessage;
-
-        WhatsAppResult(boolean success, String messageId, String errorMessage) {
-            this.success = success;
-            this.messageId = messageId;
-            this.errorMessage = errorMessage;
+    /**
+     * État d'un lot en cours d'envoi : messages non finalisés, retries à échéance, compteurs.
+     */
+    private static class BatchDispatch {
+
+        final Long sendSmsId;
+        final boolean test;
+        final AtomicInteger outstanding = new AtomicInteger();
+        final AtomicInteger success = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicInteger retried = new AtomicInteger();
+        final DelayQueue<RetryTask> retries = new DelayQueue<>();
+        volatile String lastError;
+
+        BatchDispatch(Long sendSmsId, boolean test) {
+            this.sendSmsId = sendSmsId;
+            this.test = test;
         }
     }
 
-    private static class RetryTask implements Comparable<RetryTask> {
+    private static class RetryTask implements Delayed {
 
         final WhatsAppProcessingData waData;
         final int attemptNumber;
-        final long timestamp;
+        final long dueAtNanos;
 
-        RetryTask(WhatsAppProcessingData waData, int attemptNumber) {
+        RetryTask(WhatsAppProcessingData waData, int attemptNumber, long delayMs) {
             this.waData = waData;
             this.attemptNumber = attemptNumber;
-            this.timestamp = System.currentTimeMillis();
+            this.dueAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMs);
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueAtNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
         }
 
         @Override
-        public int compareTo(RetryTask other) {
-            int cmp = Integer.compare(this.attemptNumber, other.attemptNumber);
-            return cmp != 0 ? cmp : Long.compare(this.timestamp, other.timestamp);
+        public int compareTo(Delayed other) {
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
         }
     }
 
@@ -0,0 +1,142 @@
+package com.example.myproject.service;
+
+import com.example.myproject.web.rest.dto.VariableDTO;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Squelette du payload d'envoi d'un template WhatsApp, construit une fois par campagne :
+ * nom, langue et en-tête média pré-sérialisés, seuls le destinataire et les paramètres
+ * texte (BODY, FOOTER) sont écrits par message, directement en octets UTF-8.
+ *
+ * Même structure que {@link TemplateMessageBuilder#buildPayload}. Immuable : partageable entre threads.
+ */
+public final class WhatsAppPayloadSkeleton {
+
+    private static final JsonStringEncoder ENCODER = JsonStringEncoder.getInstance();
+    private static final Comparator<VariableDTO> BY_ORDRE = Comparator.comparingInt(VariableDTO::getOrdre);
+
+    private static final byte[] PREFIX = utf8("{\"messaging_product\":\"whatsapp\",\"to\":");
+    private static final byte[] BODY_START = utf8("{\"type\":\"body\",\"parameters\":[");
+    private static final byte[] FOOTER_START = utf8("{\"type\":\"footer\",\"parameters\":[");
+    private static final byte[] TEXT_PARAM = utf8("{\"type\":\"text\",\"text\":");
+    private static final byte[] NULL = utf8("null");
+    private static final byte[] PARAMS_END = utf8("]}");
+    private static final byte[] SUFFIX = utf8("]}}");
+
+    // ,"type":"template","template":{"name":..,"language":{..},"components":[ + en-tête éventuel
+    private final byte[] templateStart;
+    private final boolean hasHeader;
+
+    private WhatsAppPayloadSkeleton(byte[] templateStart, boolean hasHeader) {
+        this.templateStart = templateStart;
+        this.hasHeader = hasHeader;
+    }
+
+    /**
+     * @param headerMediaFormat IMAGE, VIDEO ou DOCUMENT si l'en-tête est un média, sinon null
+     * @param headerMediaId     id du média Meta (code du template)
+     */
+    public static WhatsAppPayloadSkeleton of(String name, String languageCode, String headerMediaFormat, String headerMediaId) {
+        if (languageCode == null) {
+            throw new IllegalStateException("Langue du template WhatsApp manquante");
+        }
+        StringBuilder sb = new StringBuilder(256);
+        sb.append(",\"type\":\"template\",\"template\":{\"name\":");
+        appendString(sb, name);
+        sb.append(",\"language\":{\"code\":");
+        appendString(sb, languageCode);
+        sb.append("},\"components\":[");
+
+        boolean hasHeader = headerMediaFormat != null && headerMediaId != null;
+        if (hasHeader) {
+            String fmt = headerMediaFormat.toLowerCase();
+            sb.append("{\"type\":\"header\",\"parameters\":[{\"type\":");
+            appendString(sb, fmt);
+            sb.append(',');
+            appendString(sb, fmt);
+            sb.append(":{\"id\":");
+            appendString(sb, headerMediaId);
+            sb.append("}}]}");
+        }
+        return new WhatsAppPayloadSkeleton(utf8(sb.toString()), hasHeader);
+    }
+
+    /**
+     * Payload JSON complet (UTF-8) pour un destinataire.
+     */
+    public byte[] render(String to, List<VariableDTO> vars) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(PREFIX.length + templateStart.length + 64 + vars.size() * 64);
+        out.writeBytes(PREFIX);
+        writeString(out, to);
+        out.writeBytes(templateStart);
+
+        boolean first = !hasHeader;
+        first = writeTextComponent(out, BODY_START, "BODY", vars, first);
+        writeTextComponent(out, FOOTER_START, "FOOTER", vars, first);
+
+        out.writeBytes(SUFFIX);
+        return out.toByteArray();
+    }
+
+    private static boolean writeTextComponent(
+        ByteArrayOutputStream out,
+        byte[] componentStart,
+        String varType,
+        List<VariableDTO> vars,
+        boolean first
+    ) {
+        List<VariableDTO> selected = null;
+        for (VariableDTO v : vars) {
+            if (varType.equalsIgnoreCase(v.getType())) {
+                if (selected == null) selected = new ArrayList<>();
+                selected.add(v);
+            }
+        }
+        if (selected == null) return first;
+        if (selected.size() > 1) selected.sort(BY_ORDRE);
+
+        if (!first) out.write(',');
+        out.writeBytes(componentStart);
+        for (int i = 0; i < selected.size(); i++) {
+            String value = selected.get(i).getValeur();
+            if (value == null) {
+                throw new IllegalArgumentException("Variable WhatsApp " + varType + " #" + selected.get(i).getOrdre() + " sans valeur");
+            }
+            if (i > 0) out.write(',');
+            out.writeBytes(TEXT_PARAM);
+            writeString(out, value);
+            out.write('}');
+        }
+        out.writeBytes(PARAMS_END);
+        return false;
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        if (value == null) {
+            out.writeBytes(NULL);
+            return;
+        }
+        out.write('"');
+        out.writeBytes(ENCODER.quoteAsUTF8(value));
+        out.write('"');
+    }
+
+    private static void appendString(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        ENCODER.quoteAsString(value, sb);
+        sb.append('"');
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
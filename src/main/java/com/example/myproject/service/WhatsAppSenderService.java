@@ -24,8 +24,8 @@ public class WhatsAppSenderService {
     private final RestTemplate restTemplate;
     private final ObjectMapper objectMapper;
 
-    public WhatsAppSenderService() {
-        this.restTemplate = new RestTemplate();
+    public WhatsAppSenderService(GraphApiClient graphApiClient) {
+        this.restTemplate = graphApiClient.restTemplate();
         this.objectMapper = new ObjectMapper();
     }
 
@@ -0,0 +1,408 @@
+package com.example.myproject.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Écriture différée (write-behind) des statuts WhatsApp reçus par webhook.
+ *
+ * Le webhook ne fait qu'ajouter les statuts dans une file bornée ; un thread d'écriture les
+ * regroupe par lots, ne garde que le dernier statut de chaque message, les upserte en une
+ * instruction (INSERT ... ON CONFLICT sur message_id) et transmet les statistiques de contact
+ * à {@link ContactStatsAggregator}. Si la file est pleine, le statut est écrit directement
+ * (back-pressure sur l'appelant plutôt que perte).
+ *
+ * Le webhook a déjà répondu 200 pour les statuts en file : Meta ne les renverra pas. Un lot en
+ * échec est donc retenté, puis écrit ligne par ligne ; seuls les statuts dont l'écriture
+ * individuelle échoue encore sont abandonnés (journalisés avec leur message_id).
+ */
+@Service
+public class WhatsAppStatusWriter {
+
+    private final Logger log = LoggerFactory.getLogger(WhatsAppStatusWriter.class);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ContactStatsAggregator contactStatsAggregator;
+
+    @Value("${whatsapp.webhook.status-queue-capacity:50000}")
+    private int queueCapacity;
+
+    @Value("${whatsapp.webhook.status-batch-size:1000}")
+    private int batchSize;
+
+    @Value("${whatsapp.webhook.status-flush-interval-ms:200}")
+    private long flushIntervalMs;
+
+    @Value("${whatsapp.webhook.status-batch-attempts:3}")
+    private int batchAttempts;
+
+    private BlockingQueue<StatusEvent> queue;
+    private Thread writerThread;
+    private volatile boolean running;
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong directWrites = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public WhatsAppStatusWriter(
+        JdbcTemplate jdbcTemplate,
+        TransactionTemplate transactionTemplate,
+        ContactStatsAggregator contactStatsAggregator
+    ) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.contactStatsAggregator = contactStatsAggregator;
+    }
+
+    @PostConstruct
+    public void start() {
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.running = true;
+        this.writerThread = new Thread(this::writeLoop, "wa-status-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+
+        log.info("WhatsApp status writer démarré - file: {}, lot: {}, flush: {} ms", queueCapacity, batchSize, flushIntervalMs);
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        writerThread.interrupt();
+        try {
+            writerThread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Vider ce qui reste avant l'arrêt
+        List<StatusEvent> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            log.info("Écriture de {} statuts restants avant arrêt", remaining.size());
+            writeWithFallback(remaining);
+        }
+    }
+
+    /**
+     * Ajoute un statut à la file ; écrit directement si la file est saturée.
+     */
+    public void enqueue(StatusEvent event) {
+        if (queue.offer(event)) {
+            enqueued.incrementAndGet();
+            return;
+        }
+        directWrites.incrementAndGet();
+        log.warn("File des statuts WhatsApp pleine ({}), écriture directe de {}", queueCapacity, event.messageId());
+        writeBatch(List.of(event));
+    }
+
+    public Map<String, Object> getStats() {
+        return Map.of(
+            "queued",
+            queue.size(),
+            "enqueued",
+            enqueued.get(),
+            "written",
+            written.get(),
+            "directWrites",
+            directWrites.get(),
+            "dropped",
+            dropped.get()
+        );
+    }
+
+    private void writeLoop() {
+        List<StatusEvent> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                StatusEvent first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                writeWithFallback(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Écrit un lot avec reprises ; en dernier recours, ligne par ligne pour isoler les statuts
+     * qui ne peuvent pas être écrits.
+     */
+    private void writeWithFallback(List<StatusEvent> events) {
+        if (events.isEmpty()) return;
+
+        for (int attempt = 1; attempt <= Math.max(1, batchAttempts); attempt++) {
+            try {
+                writeBatch(events);
+                return;
+            } catch (Exception e) {
+                log.warn(
+                    "Erreur écriture lot de statuts WhatsApp ({}), tentative {}/{}: {}",
+                    events.size(),
+                    attempt,
+                    batchAttempts,
+                    e.getMessage()
+                );
+                if (attempt < batchAttempts && !pause(flushIntervalMs * attempt)) break;
+            }
+        }
+
+        if (events.size() == 1) {
+            dropped.incrementAndGet();
+            log.error("Statut WhatsApp abandonné : {} ({})", events.get(0).messageId(), events.get(0).status());
+            return;
+        }
+
+        log.warn("Écriture ligne par ligne de {} statuts WhatsApp", events.size());
+        for (StatusEvent event : events) {
+            try {
+                writeBatch(List.of(event));
+            } catch (Exception e) {
+                dropped.incrementAndGet();
+                log.error("Statut WhatsApp abandonné : {} ({}): {}", event.messageId(), event.status(), e.getMessage(), e);
+            }
+        }
+    }
+
+    private static boolean pause(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Écrit un lot : dernier statut par message, upsert ensembliste, statistiques par contact.
+     */
+    private void writeBatch(List<StatusEvent> events) {
+        Map<String, StatusEvent> lastByMessageId = new LinkedHashMap<>();
+        for (StatusEvent event : events) {
+            lastByMessageId.put(event.messageId(), event);
+        }
+
+        transactionTemplate.executeWithoutResult(status -> upsertStatuses(lastByMessageId.values()));
+
+        events.forEach(this::recordContactStatistics);
+
+        written.addAndGet(events.size());
+        log.debug("Lot de statuts WhatsApp écrit : {} événements, {} messages", events.size(), lastByMessageId.size());
+    }
+
+    /**
+     * Upsert sur l'index unique message_id : statut remplacé et remis à retraiter par la synchro.
+     */
+    private void upsertStatuses(Collection<StatusEvent> statuses) {
+        if (statuses.isEmpty()) return;
+
+        String values = statuses
+            .stream()
+            .map(s -> "(?::varchar, ?::varchar, ?::varchar, ?::text, ?::varchar, ?::timestamp)")
+            .collect(Collectors.joining(", "));
+        List<Object> params = new ArrayList<>(statuses.size() * 6);
+        for (StatusEvent s : statuses) {
+            params.add(s.messageId());
+            params.add(s.status());
+            params.add(s.errorTitle());
+            params.add(s.errorDetails());
+            params.add(s.phone());
+            params.add(Timestamp.from(s.receivedAt()));
+        }
+
+        jdbcTemplate.update(
+            String.format(
+                """
+                INSERT INTO message_delivery_status (message_id, status, error_title, error_details, phone, received_at)
+                SELECT v.message_id, v.status, v.error_title, v.error_details, v.phone, v.received_at
+                FROM (VALUES %s) AS v(message_id, status, error_title, error_details, phone, received_at)
+                ON CONFLICT (message_id) DO UPDATE
+                SET status = EXCLUDED.status,
+                    error_title = EXCLUDED.error_title,
+                    error_details = EXCLUDED.error_details,
+                    phone = EXCLUDED.phone,
+                    received_at = EXCLUDED.received_at,
+                    processed_at = NULL
+                """,
+                values
+            ),
+            params.toArray()
+        );
+    }
+
+    /**
+     * 🆕 STATISTIQUES DU CONTACT : deltas transmis à l'agrégateur (écriture groupée, sans lecture)
+     */
+    private void recordContactStatistics(StatusEvent event) {
+        Boolean hasWhatsapp = Boolean.TRUE; // Statut reçu : le numéro a WhatsApp
+        Integer statutTraitement = null;
+
+        switch (event.status()) {
+            case "sent":
+                contactStatsAggregator.recordWhatsapp(event.phone(), true, true, hasWhatsapp, null);
+                return;
+            case "failed":
+                log.warn("❌ Message WhatsApp échoué pour {}: {} - {}", event.phone(), event.errorTitle(), event.errorDetails());
+                switch (classifyWhatsAppError(event.phone(), event.errorTitle(), event.errorDetails())) {
+                    case NO_WHATSAPP -> hasWhatsapp = Boolean.FALSE;
+                    case SUSPENDED -> statutTraitement = ContactStatsAggregator.STATUT_SUSPENDED;
+                    case BLOCKED -> statutTraitement = ContactStatsAggregator.STATUT_BLOCKED;
+                    default -> {}
+                }
+                contactStatsAggregator.recordWhatsapp(event.phone(), true, false, hasWhatsapp, statutTraitement);
+                return;
+            default:
+                contactStatsAggregator.recordWhatsapp(event.phone(), false, false, hasWhatsapp, null);
+        }
+    }
+
+    /**
+     * 🆕 DÉTECTION COMPLÈTE DES ERREURS "PAS DE WHATSAPP"
+     */
+    private WhatsAppErrorKind classifyWhatsAppError(String phone, String errorTitle, String errorDetails) {
+        if (errorTitle == null) return WhatsAppErrorKind.OTHER;
+
+        String errorLower = errorTitle.toLowerCase();
+        String detailsLower = errorDetails != null ? errorDetails.toLowerCase() : "";
+
+        // 📱❌ LISTE COMPLÈTE DES ERREURS "PAS DE WHATSAPP"
+        if (
+            errorLower.contains("not registered") || // Numéro non enregistré WhatsApp
+            errorLower.contains("not whatsapp user") || // Pas utilisateur WhatsApp
+            errorLower.contains("invalid recipient") || // Destinataire invalide
+            errorLower.contains("undeliverable") || // Message non livrable (votre cas)
+            errorLower.contains("recipient not found") || // Destinataire non trouvé
+            errorLower.contains("phone number not found") || // Numéro de téléphone non trouvé
+            errorLower.contains("user not found") || // Utilisateur non trouvé
+            errorLower.contains("invalid phone number") || // Numéro de téléphone invalide
+            errorLower.contains("number does not have whatsapp") || // Le numéro n'a pas WhatsApp
+            errorLower.contains("recipient unavailable") || // Destinataire indisponible
+            errorLower.contains("not a whatsapp number") || // Ce n'est pas un numéro WhatsApp
+            errorLower.contains("whatsapp account not found") || // Compte WhatsApp non trouvé
+            errorLower.contains("user offline") || // Utilisateur hors ligne (parfois = pas WhatsApp)
+            errorLower.contains("invalid user") || // Utilisateur invalide
+            errorLower.contains("message undeliverable") || // Message non livrable
+            // Vérifier aussi dans les détails
+            detailsLower.contains("not registered") ||
+            detailsLower.contains("not whatsapp user") ||
+            detailsLower.contains("undeliverable") ||
+            detailsLower.contains("recipient not found") ||
+            detailsLower.contains("phone number not found") ||
+            detailsLower.contains("user not found") ||
+            detailsLower.contains("invalid phone number") ||
+            detailsLower.contains("number does not have whatsapp") ||
+            detailsLower.contains("recipient unavailable") ||
+            detailsLower.contains("not a whatsapp number") ||
+            detailsLower.contains("whatsapp account not found") ||
+            detailsLower.contains("invalid user") ||
+            detailsLower.contains("message undeliverable")
+        ) {
+            log.info("📱❌ Contact {} n'a pas WhatsApp (erreur: {})", phone, errorTitle);
+            return WhatsAppErrorKind.NO_WHATSAPP;
+        } else if (
+            errorLower.contains("healthy ecosystem") ||
+            errorLower.contains("maintain healthy ecosystem") ||
+            errorLower.contains("ecosystem engagement") ||
+            errorLower.contains("engagement protection") ||
+            errorLower.contains("delivery suspended") ||
+            errorLower.contains("quality rating") ||
+            errorLower.contains("messaging limit") ||
+            detailsLower.contains("healthy ecosystem") ||
+            detailsLower.contains("ecosystem engagement") ||
+            detailsLower.contains("maintain healthy")
+        ) {
+            // 🔄 Marquer le contact comme "temporairement suspendu" (5 = En attente / Suspendu temporairement)
+            log.warn("🛡️ Contact {} suspendu par protection écosystème Meta: {}", phone, errorTitle);
+            return WhatsAppErrorKind.SUSPENDED;
+        }
+        // 🚫 DÉTECTION DES CONTACTS BLOQUÉS/SPAM
+        else if (
+            errorLower.contains("blocked") ||
+            errorLower.contains("spam") ||
+            errorLower.contains("rate limit") ||
+            errorLower.contains("exceeded") ||
+            errorLower.contains("throttled") ||
+            errorLower.contains("restricted") ||
+            errorLower.contains("banned") ||
+            errorLower.contains("suspended") ||
+            errorLower.contains("violation") ||
+            errorLower.contains("abuse") ||
+            detailsLower.contains("blocked") ||
+            detailsLower.contains("spam") ||
+            detailsLower.contains("rate limit") ||
+            detailsLower.contains("restricted")
+        ) {
+            // 6 = Bloqué
+            log.warn("🚫 Contact {} bloqué/spam détecté (erreur: {})", phone, errorTitle);
+            return WhatsAppErrorKind.BLOCKED;
+        }
+        // 🏥 PROBLÈMES TECHNIQUES META (garder hasWhatsapp = true car c'est temporaire)
+        else if (
+            errorLower.contains("internal") ||
+            errorLower.contains("server") ||
+            errorLower.contains("timeout") ||
+            errorLower.contains("unavailable") ||
+            errorLower.contains("service") ||
+            errorLower.contains("network") ||
+            errorLower.contains("connection") ||
+            errorLower.contains("maintenance") ||
+            errorLower.contains("temporary") ||
+            detailsLower.contains("internal") ||
+            detailsLower.contains("server") ||
+            detailsLower.contains("timeout")
+        ) {
+            log.warn("🏥 Problème technique Meta pour {} (erreur: {})", phone, errorTitle);
+            // Ne pas changer hasWhatsapp car c'est temporaire
+        }
+        // ❓ ERREURS INCONNUES - LOG POUR ANALYSE
+        else {
+            log.warn(
+                "❓ Erreur WhatsApp inconnue pour {} - Title: '{}' - Details: '{}'",
+                phone,
+                errorTitle,
+                errorDetails
+            );
+        }
+        return WhatsAppErrorKind.OTHER;
+    }
+
+    private enum WhatsAppErrorKind {
+        NO_WHATSAPP,
+        SUSPENDED,
+        BLOCKED,
+        OTHER,
+    }
+
+    /**
+     * Statut reçu par webhook, en attente d'écriture.
+     */
+    public record StatusEvent(String messageId, String status, String errorTitle, String errorDetails, String phone, Instant receivedAt) {}
+}
@@ -0,0 +1,332 @@
+package com.example.myproject.service;
+
+import com.example.myproject.domain.Configuration;
+import com.example.myproject.domain.Contact;
+import com.example.myproject.service.dto.WhatsAppVerificationProgress;
+import com.example.myproject.service.dto.WhatsAppVerificationProgress.Status;
+import com.google.common.util.concurrent.RateLimiter;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.Cache;
+import jakarta.persistence.EntityManagerFactory;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Vérification WhatsApp des numéros d'un groupe en tâche de fond, puis création du groupe
+ * "&lt;titre&gt; - WhatsApp".
+ *
+ * Le résultat de chaque numéro est conservé en base (contact.has_whatsapp + whatsapp_checked_at,
+ * sur tous les contacts portant le numéro) : seuls les numéros inconnus ou vérifiés depuis plus
+ * de {@code whatsapp.reachability.ttl-hours} sont interrogés auprès de Meta, par un pool borné
+ * et sous un débit global maximal. Un échec d'appel n'est pas mémorisé.
+ */
+@Service
+public class WhatsAppVerificationService {
+
+    private static final Logger log = LoggerFactory.getLogger(WhatsAppVerificationService.class);
+
+    private final GroupeService groupeService;
+    private final WhatsAppApiService whatsAppApiService;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final EntityManagerFactory entityManagerFactory;
+
+    @Value("${whatsapp.reachability.ttl-hours:720}")
+    private long ttlHours;
+
+    @Value("${whatsapp.reachability.rate-per-second:20}")
+    private double ratePerSecond;
+
+    @Value("${whatsapp.reachability.concurrency:8}")
+    private int concurrency;
+
+    @Value("${whatsapp.reachability.write-batch-size:500}")
+    private int writeBatchSize;
+
+    @Value("${whatsapp.reachability.job-retention-minutes:60}")
+    private long jobRetentionMinutes;
+
+    private final ConcurrentHashMap<String, VerificationJob> jobs = new ConcurrentHashMap<>();
+
+    // Tâche en cours par groupe : une seule vérification simultanée d'un même groupe
+    private final ConcurrentHashMap<Long, VerificationJob> runningByGroupe = new ConcurrentHashMap<>();
+
+    private RateLimiter rateLimiter;
+    private ExecutorService jobExecutor;
+    private ExecutorService checkExecutor;
+
+    public WhatsAppVerificationService(
+        GroupeService groupeService,
+        WhatsAppApiService whatsAppApiService,
+        JdbcTemplate jdbcTemplate,
+        TransactionTemplate transactionTemplate,
+        EntityManagerFactory entityManagerFactory
+    ) {
+        this.groupeService = groupeService;
+        this.whatsAppApiService = whatsAppApiService;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.entityManagerFactory = entityManagerFactory;
+    }
+
+    @PostConstruct
+    public void init() {
+        this.rateLimiter = RateLimiter.create(ratePerSecond);
+        this.jobExecutor = Executors.newFixedThreadPool(2, daemonThreads("wa-verify-job-"));
+        this.checkExecutor = Executors.newFixedThreadPool(Math.max(1, concurrency), daemonThreads("wa-verify-check-"));
+        log.info("Vérification WhatsApp : {} appels/s, {} en parallèle, TTL {} h", ratePerSecond, concurrency, ttlHours);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        jobExecutor.shutdownNow();
+        checkExecutor.shutdownNow();
+    }
+
+    /**
+     * Lance la vérification du groupe (configuration contrôlée immédiatement). Si une
+     * vérification du même groupe est déjà en cours, son id est renvoyé.
+     *
+     * @return id de la tâche, à suivre avec {@link #getProgress(String)}
+     */
+    public String start(Long groupeId) {
+        Configuration config = groupeService.findWhatsAppConfigurationForGroupe(groupeId);
+
+        VerificationJob created = new VerificationJob(UUID.randomUUID().toString(), groupeId, config.getUserLogin());
+        VerificationJob job = runningByGroupe.computeIfAbsent(groupeId, id -> created);
+        if (job == created) {
+            jobs.put(job.jobId, job);
+            jobExecutor.execute(() -> run(job, config));
+        }
+        return job.jobId;
+    }
+
+    /**
+     * Avancement d'une tâche, null si inconnue ou expirée.
+     */
+    public WhatsAppVerificationProgress getProgress(String jobId) {
+        VerificationJob job = jobs.get(jobId);
+        return job != null ? job.snapshot() : null;
+    }
+
+    /**
+     * Oublie les tâches terminées depuis plus de {@code whatsapp.reachability.job-retention-minutes}.
+     */
+    @Scheduled(fixedDelay = 600_000)
+    public void evictFinishedJobs() {
+        Instant limit = Instant.now().minus(Duration.ofMinutes(jobRetentionMinutes));
+        jobs.values().removeIf(job -> job.finishedAt != null && job.finishedAt.isBefore(limit));
+    }
+
+    private void run(VerificationJob job, Configuration config) {
+        try {
+            List<String> stale = findNumbersToCheck(job);
+            log.info(
+                "Vérification WhatsApp groupe {} : {} numéros, {} à vérifier (config {})",
+                job.groupeId,
+                job.totalNumbers,
+                stale.size(),
+                job.configurationUser
+            );
+
+            checkNumbers(job, stale, config);
+
+            Map<String, Object> result = groupeService.createWhatsAppGroupFromVerifiedContacts(job.groupeId);
+            result.put("configurationUser", job.configurationUser);
+            result.put("checkedNumbers", job.checked.get());
+            result.put("cachedNumbers", job.cachedNumbers);
+            job.finish(Status.COMPLETED, result, null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.finish(Status.FAILED, null, "Vérification interrompue");
+        } catch (Exception e) {
+            log.error("Erreur lors de la vérification WhatsApp du groupe {}", job.groupeId, e);
+            job.finish(Status.FAILED, null, e.getMessage());
+        } finally {
+            runningByGroupe.remove(job.groupeId, job);
+        }
+    }
+
+    /**
+     * Numéros distincts du groupe ; renvoie ceux sans résultat valide en base.
+     */
+    private List<String> findNumbersToCheck(VerificationJob job) {
+        Timestamp freshSince = Timestamp.from(Instant.now().minus(Duration.ofHours(ttlHours)));
+        List<String> all = new ArrayList<>();
+        List<String> stale = new ArrayList<>();
+
+        jdbcTemplate.query(
+            """
+            SELECT c.contelephone,
+                   bool_or(c.has_whatsapp IS NOT NULL AND c.whatsapp_checked_at >= ?) AS fresh
+            FROM groupedecontact g
+            JOIN contact c ON c.id = g.contact_id
+            WHERE g.cgrgroupe_id = ? AND c.contelephone IS NOT NULL AND btrim(c.contelephone) <> ''
+            GROUP BY c.contelephone
+            """,
+            rs -> {
+                String phone = rs.getString(1);
+                all.add(phone);
+                if (!rs.getBoolean(2)) stale.add(phone);
+            },
+            freshSince,
+            job.groupeId
+        );
+
+        job.totalNumbers = all.size();
+        job.cachedNumbers = all.size() - stale.size();
+        job.numbersToCheck = stale.size();
+        return stale;
+    }
+
+    private void checkNumbers(VerificationJob job, List<String> numbers, Configuration config)
+        throws InterruptedException, ExecutionException {
+        if (numbers.isEmpty()) return;
+
+        CompletionService<CheckResult> completion = new ExecutorCompletionService<>(checkExecutor);
+        for (String phone : numbers) {
+            completion.submit(() -> {
+                rateLimiter.acquire();
+                return new CheckResult(phone, whatsAppApiService.checkReachability(phone, config));
+            });
+        }
+
+        List<CheckResult> batch = new ArrayList<>(Math.min(writeBatchSize, numbers.size()));
+        for (int i = 0; i < numbers.size(); i++) {
+            CheckResult checked = completion.take().get();
+            if (checked.reachable == null) {
+                job.failed.incrementAndGet();
+            } else {
+                if (checked.reachable) job.reachable.incrementAndGet();
+                batch.add(checked);
+                if (batch.size() >= writeBatchSize) {
+                    saveResults(batch);
+                    batch.clear();
+                }
+            }
+            job.checked.incrementAndGet();
+        }
+        saveResults(batch);
+    }
+
+    /**
+     * Mémorise les résultats sur tous les contacts portant chaque numéro, puis retire ces contacts
+     * du cache de second niveau (écriture JDBC invisible pour Hibernate).
+     */
+    private void saveResults(List<CheckResult> results) {
+        if (results.isEmpty()) return;
+
+        String values = results.stream().map(r -> "(?::varchar, ?::boolean)").collect(Collectors.joining(", "));
+        List<Object> params = new ArrayList<>(results.size() * 2);
+        for (CheckResult r : results) {
+            params.add(r.phone);
+            params.add(r.reachable);
+        }
+
+        List<Long> contactIds = transactionTemplate.execute(status ->
+            jdbcTemplate.queryForList(
+                String.format(
+                    """
+                    UPDATE contact c
+                    SET has_whatsapp = v.reachable, whatsapp_checked_at = now()
+                    FROM (VALUES %s) AS v(phone, reachable)
+                    WHERE c.contelephone = v.phone
+                    RETURNING c.id
+                    """,
+                    values
+                ),
+                Long.class,
+                params.toArray()
+            )
+        );
+
+        Cache cache = entityManagerFactory.getCache();
+        contactIds.forEach(id -> cache.evict(Contact.class, id));
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger index = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + index.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    private record CheckResult(String phone, Boolean reachable) {}
+
+    /**
+     * État d'une tâche : compteurs lus par l'endpoint de progression pendant l'exécution.
+     */
+    private static final class VerificationJob {
+
+        final String jobId;
+        final Long groupeId;
+        final String configurationUser;
+        final Instant startedAt = Instant.now();
+        final AtomicInteger checked = new AtomicInteger();
+        final AtomicInteger reachable = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+
+        volatile int totalNumbers;
+        volatile int cachedNumbers;
+        volatile int numbersToCheck;
+        volatile Status status = Status.RUNNING;
+        volatile Instant finishedAt;
+        volatile Map<String, Object> result;
+        volatile String error;
+
+        VerificationJob(String jobId, Long groupeId, String configurationUser) {
+            this.jobId = jobId;
+            this.groupeId = groupeId;
+            this.configurationUser = configurationUser;
+        }
+
+        void finish(Status status, Map<String, Object> result, String error) {
+            this.result = result;
+            this.error = error;
+            this.finishedAt = Instant.now();
+            this.status = status;
+        }
+
+        WhatsAppVerificationProgress snapshot() {
+            return new WhatsAppVerificationProgress(
+                jobId,
+                groupeId,
+                status,
+                totalNumbers,
+                cachedNumbers,
+                numbersToCheck,
+                checked.get(),
+                reachable.get(),
+                failed.get(),
+                startedAt,
+                finishedAt,
+                result,
+                error
+            );
+        }
+    }
+}
@@ -9,16 +9,21 @@ import com.example.myproject.domain.enumeration.Direction;
 import com.example.myproject.domain.enumeration.MessageType;
 import com.example.myproject.repository.*;
 import com.example.myproject.service.dto.flow.WhatsAppResponse;
-import com.example.myproject.service.helper.PhoneNumberHelper;
 import com.example.myproject.web.rest.dto.flow.WhatsAppMultiResponse;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 @Service
 public class WhatsAppWebhookService {
@@ -28,74 +33,170 @@ public class WhatsAppWebhookService {
     private final SmsRepository smsRepository;
     private final ChatService chatService;
     private final ContactRepository contactRepository;
-    private final MessageDeliveryStatusRepository messageDeliveryStatusRepository;
     ObjectMapper mapper = new ObjectMapper();
     private final CompleteChatbotFlowExecutionService completeChatbotFlowExecutionService;
     private final ConfigurationRepository configurationRepository;
     private final WhatsAppSenderService whatsAppSenderService;
     private final AbonnementService abonnementService;
+    private final WhatsAppStatusWriter whatsAppStatusWriter;
+
+    @Value("${whatsapp.webhook.inbound-lanes:8}")
+    private int inboundLaneCount;
+
+    @Value("${whatsapp.webhook.inbound-lane-capacity:1000}")
+    private int inboundLaneCapacity;
+
+    @Value("${whatsapp.webhook.seen-ids-capacity:50000}")
+    private int seenIdsCapacity;
+
+    @Value("${whatsapp.webhook.inbound-lane-offer-timeout-ms:2000}")
+    private long laneOfferTimeoutMs;
+
+    // Couloirs mono-thread : une conversation (expéditeur, numéro business) est toujours traitée
+    // par le même couloir, donc dans l'ordre ; les conversations différentes avancent en parallèle.
+    private ThreadPoolExecutor[] inboundLanes;
+
+    // Ids de messages pris en charge (Meta rejoue les webhooks) : ensemble borné, plus anciens évincés.
+    // Un id est retiré si son traitement échoue ou n'a pas pu être mis en couloir, pour que le rejeu passe.
+    private Map<String, Boolean> seenMessageIds;
 
     public WhatsAppWebhookService(
         SendSmsRepository sendSmsRepository,
         SmsRepository smsRepository,
         ChatService chatService,
         ContactRepository contactRepository,
-        MessageDeliveryStatusRepository messageDeliveryStatusRepository,
         CompleteChatbotFlowExecutionService completeChatbotFlowExecutionService,
         ConfigurationRepository configurationRepository,
         WhatsAppSenderService whatsAppSenderService,
-        AbonnementService abonnementService
+        AbonnementService abonnementService,
+        WhatsAppStatusWriter whatsAppStatusWriter
     ) {
         this.sendSmsRepository = sendSmsRepository;
         this.smsRepository = smsRepository;
         this.chatService = chatService;
         this.contactRepository = contactRepository;
-        this.messageDeliveryStatusRepository = messageDeliveryStatusRepository;
         this.completeChatbotFlowExecutionService = completeChatbotFlowExecutionService;
 
         this.configurationRepository = configurationRepository;
         this.whatsAppSenderService = whatsAppSenderService;
         this.abonnementService = abonnementService;
+        this.whatsAppStatusWriter = whatsAppStatusWriter;
     }
 
-    @Transactional
-    public void processWebhook(JsonNode value) {
-        log.info("Webhook WhatsApp reçu : {} messages, {} statuts", value.path("messages").size(), value.path("statuses").size());
+    @PostConstruct
+    public void startInboundLanes() {
+        int lanes = Math.max(1, inboundLaneCount);
+        inboundLanes = new ThreadPoolExecutor[lanes];
+        for (int i = 0; i < lanes; i++) {
+            String threadName = "whatsapp-inbound-" + i;
+            inboundLanes[i] = new ThreadPoolExecutor(
+                1,
+                1,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, inboundLaneCapacity)),
+                r -> {
+                    Thread t = new Thread(r, threadName);
+                    t.setDaemon(true);
+                    return t;
+                },
+                // Couloir saturé : attente bornée d'une place, sinon rejet (le webhook répond 503 et Meta
+                // rejoue). Exécuter sur le thread appelant doublerait le couloir et casserait l'ordre.
+                (task, executor) -> {
+                    try {
+                        if (executor.isShutdown() || !executor.getQueue().offer(task, laneOfferTimeoutMs, TimeUnit.MILLISECONDS)) {
+                            throw new RejectedExecutionException("Couloir " + threadName + " saturé");
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException("Interrompu en attente du couloir " + threadName, e);
+                    }
+                }
+            );
+        }
 
-        // Traiter les messages entrants avec le chatbot
-        processIncomingMessagesWithChatbot(value);
+        int capacity = Math.max(1, seenIdsCapacity);
+        seenMessageIds = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, false) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > capacity;
+                }
+            }
+        );
 
-        // Traiter les statuts comme avant
+        log.info("Messages WhatsApp entrants : {} couloirs, file {} par couloir", lanes, inboundLaneCapacity);
+    }
+
+    @PreDestroy
+    public void stopInboundLanes() {
+        for (ThreadPoolExecutor lane : inboundLanes) {
+            lane.shutdown();
+        }
+        for (ThreadPoolExecutor lane : inboundLanes) {
+            try {
+                if (!lane.awaitTermination(10, TimeUnit.SECONDS)) {
+                    log.warn("{} messages WhatsApp entrants non traités à l'arrêt", lane.shutdownNow().size());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                lane.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Acquitte le webhook au plus vite : les messages sont répartis sur les couloirs de conversation,
+     * les statuts mis en file pour écriture par lots. Aucune transaction n'est ouverte ici.
+     *
+     * @return false si un message n'a pas pu être mis en couloir : le webhook doit être rejoué
+     */
+    public boolean processWebhook(JsonNode value) {
+        log.info("Webhook WhatsApp reçu : {} messages, {} statuts", value.path("messages").size(), value.path("statuses").size());
+
+        // Statuts d'abord : leur écriture est idempotente, un rejeu du webhook est sans effet
         processStatuses(value);
+
+        // Traiter les messages entrants avec le chatbot
+        return processIncomingMessagesWithChatbot(value);
     }
 
     /**
-     * Traiter les messages avec le système de chatbot amélioré
+     * Répartir les messages entrants sur les couloirs (ordre conservé par conversation).
+     * Au premier couloir saturé, les messages restants ne sont pas répartis : le rejeu les reprend
+     * dans l'ordre, ceux déjà en couloir étant écartés comme doublons.
      */
-    private void processIncomingMessagesWithChatbot(JsonNode value) {
-        if (!value.has("messages")) return;
+    private boolean processIncomingMessagesWithChatbot(JsonNode value) {
+        if (!value.has("messages")) return true;
+
+        String businessPhoneNumberId = value.path("metadata").path("phone_number_id").asText();
+        String userLogin = null;
 
         for (JsonNode msg : value.path("messages")) {
+            String claimedId = null;
             try {
-                // Log du message reçu
-                String prettyJson = mapper.writerWithDefaultPrettyPrinter().writeValueAsString(msg);
-                log.debug("Message WhatsApp reçu :\n{}", prettyJson);
+                if (log.isDebugEnabled()) {
+                    log.debug("Message WhatsApp reçu :\n{}", mapper.writerWithDefaultPrettyPrinter().writeValueAsString(msg));
+                }
 
                 String typeStr = msg.path("type").asText();
                 String from = msg.path("from").asText();
                 String msgId = msg.path("id").asText();
 
-                // Vérifier si le message existe déjà
-                if (smsRepository.findByMessageId(msgId).isPresent()) {
+                // Vérifier si le message a déjà été pris en charge (webhook rejoué)
+                if (!msgId.isEmpty() && seenMessageIds.putIfAbsent(msgId, Boolean.TRUE) != null) {
                     log.debug("Message déjà traité: {}", msgId);
                     continue;
                 }
+                claimedId = msgId;
 
                 // 1. Extraire le contenu et les informations du média
                 MessageInfo messageInfo = extractMessageInfo(msg, typeStr);
 
-                // 2. Trouver la configuration du propriétaire du numéro
-                String userLogin = findUserLoginByPhoneNumber(from, value);
+                // 2. Trouver la configuration du propriétaire du numéro (une fois par webhook)
+                if (userLogin == null) {
+                    userLogin = findUserLoginByPhoneNumber(from, value);
+                }
                 if (userLogin == null) {
                     log.warn("Aucune configuration trouvée pour le numéro: {}", from);
                     continue;
@@ -104,12 +205,31 @@ public class WhatsAppWebhookService {
                 // 3. Sauvegarder le message entrant
                 //   saveIncomingMessage(msg, from, messageInfo.getContent(), msgId, typeStr);
 
-                // 4. Traiter avec le chatbot flow (avec support des médias)
-                processChatbotInteraction(from, messageInfo, userLogin);
+                // 4. Traiter avec le chatbot flow dans le couloir de la conversation : la transaction
+                // de session est validée au retour du flow, les réponses partent ensuite (hors transaction)
+                String owner = userLogin;
+                laneFor(from, businessPhoneNumberId).execute(() -> processChatbotInteraction(msgId, from, messageInfo, owner));
+            } catch (RejectedExecutionException e) {
+                log.warn("Message WhatsApp {} non pris en charge, webhook à rejouer : {}", claimedId, e.getMessage());
+                releaseMessageId(claimedId);
+                return false;
             } catch (Exception e) {
                 log.error("Erreur lors du traitement du message: {}", e.getMessage(), e);
+                releaseMessageId(claimedId);
             }
         }
+        return true;
+    }
+
+    private void releaseMessageId(String msgId) {
+        if (msgId != null && !msgId.isEmpty()) {
+            seenMessageIds.remove(msgId);
+        }
+    }
+
+    private ThreadPoolExecutor laneFor(String from, String businessPhoneNumberId) {
+        int hash = Objects.hash(from, businessPhoneNumberId);
+        return inboundLanes[Math.floorMod(hash, inboundLanes.length)];
     }
 
     /**
@@ -191,7 +311,7 @@ public class WhatsAppWebhookService {
     /**
      * Traiter l'interaction avec le chatbot amélioré (support multi-réponses)
      */
-    private void processChatbotInteraction(String phoneNumber, MessageInfo messageInfo, String userLogin) {
+    private void processChatbotInteraction(String msgId, String phoneNumber, MessageInfo messageInfo, String userLogin) {
         try {
             log.debug(
                 "Traitement chatbot pour {} (user: {}): {} (type: {})",
@@ -216,6 +336,8 @@ public class WhatsAppWebhookService {
             }
         } catch (Exception e) {
             log.error("Erreur lors du traitement du chatbot: {}", e.getMessage(), e);
+            // Échec : un rejeu du même message doit pouvoir être retraité
+            releaseMessageId(msgId);
 
             // En cas d'erreur, envoyer un message de fallback
             try {
@@ -747,13 +869,13 @@ public class WhatsAppWebhookService {
     }
 
     /**
-     * 🆕 TRAITEMENT AMÉLIORÉ DES STATUTS AVEC MISE À JOUR DES CONTACTS
+     * 🆕 STATUTS : simple mise en file (write-behind), l'écriture en base est faite par lots
+     * par {@link WhatsAppStatusWriter} afin d'acquitter le webhook immédiatement.
      */
     private void processStatuses(JsonNode value) {
         if (!value.has("statuses")) return;
 
-        Map<String, MessageDeliveryStatus> lastStatusByMessageId = new HashMap<>();
-
+        Instant receivedAt = Instant.now();
         for (JsonNode st : value.path("statuses")) {
             String messageId = st.path("id").asText();
             String newStatus = st.path("status").asText().toLowerCase();
@@ -766,214 +888,8 @@ public class WhatsAppWebhookService {
                 errorDetails = error.path("details").asText("");
             }
 
-            MessageDeliveryStatus status = new MessageDeliveryStatus();
-            status.setMessageId(messageId);
-            status.setStatus(newStatus);
-            status.setErrorTitle(errorTitle);
-            status.setErrorDetails(errorDetails);
-            status.setPhone(phone);
-            status.setReceivedAt(Instant.now());
-            status.setProcessedAt(null);
-
-            lastStatusByMessageId.put(messageId, status);
-
-            // 🆕 MISE À JOUR DES STATISTIQUES DU CONTACT
-            updateContactStatistics(phone, newStatus, errorTitle, errorDetails);
-        }
-
-        // Sauvegarde des statuts comme avant
-        List<MessageDeliveryStatus> toSave = new ArrayList<>();
-        for (Map.Entry<String, MessageDeliveryStatus> entry : lastStatusByMessageId.entrySet()) {
-            String messageId = entry.getKey();
-            MessageDeliveryStatus latestStatus = entry.getValue();
-
-            List<MessageDeliveryStatus> statusesInDb = messageDeliveryStatusRepository.findAllByMessageId(messageId);
-            if (!statusesInDb.isEmpty()) {
-                for (MessageDeliveryStatus statusInDb : statusesInDb) {
-                    statusInDb.setStatus(latestStatus.getStatus());
-                    statusInDb.setErrorTitle(latestStatus.getErrorTitle());
-                    statusInDb.setErrorDetails(latestStatus.getErrorDetails());
-                    statusInDb.setPhone(latestStatus.getPhone());
-                    statusInDb.setReceivedAt(latestStatus.getReceivedAt());
-                    statusInDb.setProcessedAt(null);
-                }
-                toSave.addAll(statusesInDb);
-            } else {
-                toSave.add(latestStatus);
-            }
-        }
-
-        if (!toSave.isEmpty()) messageDeliveryStatusRepository.saveAll(toSave);
-    }
-
-    /**
-     * 🆕 MISE À JOUR DES STATISTIQUES DU CONTACT
-     */
-    @Transactional
-    protected void updateContactStatistics(String phoneNumber, String status, String errorTitle, String errorDetails) {
-        try {
-            String normalizedPhone = PhoneNumberHelper.normalizePhoneNumber(phoneNumber);
-
-            // Trouver le contact par numéro de téléphone
-            List<Contact> contacts = contactRepository.findBycontelephone(normalizedPhone);
-
-            if (contacts.isEmpty()) {
-                log.debug("Aucun contact trouvé pour le numéro: {}", normalizedPhone);
-                return;
-            }
-
-            // Prendre le premier contact trouvé
-            Contact contact = contacts.get(0);
-
-            // Marquer que le contact a WhatsApp (puisqu'on reçoit des statuts)
-            contact.setHasWhatsapp(true);
-
-            // Initialiser les compteurs s'ils sont null
-            if (contact.getTotalWhatsappSent() == null) contact.setTotalWhatsappSent(0);
-            if (contact.getTotalWhatsappSuccess() == null) contact.setTotalWhatsappSuccess(0);
-            if (contact.getTotalWhatsappFailed() == null) contact.setTotalWhatsappFailed(0);
-
-            // Mettre à jour selon le statut
-            switch (status.toLowerCase()) {
-                case "sent":
-                    contact.setTotalWhatsappSent(contact.getTotalWhatsappSent() + 1);
-                    contact.setTotalWhatsappSuccess(contact.getTotalWhatsappSuccess() + 1);
-                    log.debug("✅ Message WhatsApp {} pour {}", status, normalizedPhone);
-                    break;
-                case "failed":
-                    //  abonnementService.decrementQuotasAfterSend(activeSubscriptions, MessageType.WHATSAPP, 1);
-                    contact.setTotalWhatsappSent(contact.getTotalWhatsappSent() + 1);
-                    contact.setTotalWhatsappFailed(contact.getTotalWhatsappFailed() + 1);
-                    handleWhatsAppError(contact, errorTitle, errorDetails);
-                    log.warn("❌ Message WhatsApp échoué pour {}: {} - {}", normalizedPhone, errorTitle, errorDetails);
-                    break;
-                default:
-                    log.debug("Statut WhatsApp inconnu: {} pour {}", status, normalizedPhone);
-            }
-
-            // Sauvegarder le contact
-            contactRepository.save(contact);
-
-            log.debug(
-                "📊 Statistiques mises à jour pour {}: {} envoyés, {} réussis, {} échoués",
-                normalizedPhone,
-                contact.getTotalWhatsappSent(),
-                contact.getTotalWhatsappSuccess(),
-                contact.getTotalWhatsappFailed()
-            );
-        } catch (Exception e) {
-            log.error("Erreur lors de la mise à jour des statistiques du contact {}: {}", phoneNumber, e.getMessage(), e);
-        }
-    }
-
-    /**
-     * 🆕 GESTION DES ERREURS WHATSAPP
-     */
-    /**
-     * 🆕 DÉTECTION COMPLÈTE DES ERREURS "PAS DE WHATSAPP"
-     */
-    private void handleWhatsAppError(Contact contact, String errorTitle, String errorDetails) {
-        if (errorTitle == null) return;
-
-        String errorLower = errorTitle.toLowerCase();
-        String detailsLower = errorDetails != null ? errorDetails.toLowerCase() : "";
-
-        // 📱❌ LISTE COMPLÈTE DES ERREURS "PAS DE WHATSAPP"
-        if (
-            errorLower.contains("not registered") || // Numéro non enregistré WhatsApp
-            errorLower.contains("not whatsapp user") || // Pas utilisateur WhatsApp
-            errorLower.contains("invalid recipient") || // Destinataire invalide
-            errorLower.contains("undeliverable") || // Message non livrable (votre cas)
-            errorLower.contains("recipient not found") || // Destinataire non trouvé
-            errorLower.contains("phone number not found") || // Numéro de téléphone non trouvé
-            errorLower.contains("user not found") || // Utilisateur non trouvé
-            errorLower.contains("invalid phone number") || // Numéro de téléphone invalide
-            errorLower.contains("number does not have whatsapp") || // Le numéro n'a pas WhatsApp
-            errorLower.contains("recipient unavailable") || // Destinataire indisponible
-            errorLower.contains("not a whatsapp number") || // Ce n'est pas un numéro WhatsApp
-            errorLower.contains("whatsapp account not found") || // Compte WhatsApp non trouvé
-            errorLower.contains("user offline") || // Utilisateur hors ligne (parfois = pas WhatsApp)
-            errorLower.contains("invalid user") || // Utilisateur invalide
-            errorLower.contains("message undeliverable") || // Message non livrable
-            // Vérifier aussi dans les détails
-            detailsLower.contains("not registered") ||
-            detailsLower.contains("not whatsapp user") ||
-            detailsLower.contains("undeliverable") ||
-            detailsLower.contains("recipient not found") ||
-            detailsLower.contains("phone number not found") ||
-            detailsLower.contains("user not found") ||
-            detailsLower.contains("invalid phone number") ||
-            detailsLower.contains("number does not have whatsapp") ||
-            detailsLower.contains("recipient unavailable") ||
-            detailsLower.contains("not a whatsapp number") ||
-            detailsLower.contains("whatsapp account not found") ||
-            detailsLower.contains("invalid user") ||
-            detailsLower.contains("message undeliverable")
-        ) {
-            contact.setHasWhatsapp(false);
-            log.info("📱❌ Contact {} n'a pas WhatsApp (erreur: {})", contact.getContelephone(), errorTitle);
-        } else if (
-            errorLower.contains("healthy ecosystem") ||
-            errorLower.contains("maintain healthy ecosystem") ||
-            errorLower.contains("ecosystem engagement") ||
-            errorLower.contains("engagement protection") ||
-            errorLower.contains("delivery suspended") ||
-            errorLower.contains("quality rating") ||
-            errorLower.contains("messaging limit") ||
-            detailsLower.contains("healthy ecosystem") ||
-            detailsLower.contains("ecosystem engagement") ||
-            detailsLower.contains("maintain healthy")
-        ) {
-            // 🔄 Marquer le contact comme "temporairement suspendu"
-            contact.setStatuttraitement(5); // 5 = En attente / Suspendu temporairement
-
-            log.warn("🛡️ Contact {} suspendu par protection écosystème Meta: {}", contact.getContelephone(), errorTitle);
-        }
-        // 🚫 DÉTECTION DES CONTACTS BLOQUÉS/SPAM
-        else if (
-            errorLower.contains("blocked") ||
-            errorLower.contains("spam") ||
-            errorLower.contains("rate limit") ||
-            errorLower.contains("exceeded") ||
-            errorLower.contains("throttled") ||
-            errorLower.contains("restricted") ||
-            errorLower.contains("banned") ||
-            errorLower.contains("suspended") ||
-            errorLower.contains("violation") ||
-            errorLower.contains("abuse") ||
-            detailsLower.contains("blocked") ||
-            detailsLower.contains("spam") ||
-            detailsLower.contains("rate limit") ||
-            detailsLower.contains("restricted")
-        ) {
-            contact.setStatuttraitement(6); // 6 = Bloqué
-            log.warn("🚫 Contact {} bloqué/spam détecté (erreur: {})", contact.getContelephone(), errorTitle);
-        }
-        // 🏥 PROBLÈMES TECHNIQUES META (garder hasWhatsapp = true car c'est temporaire)
-        else if (
-            errorLower.contains("internal") ||
-            errorLower.contains("server") ||
-            errorLower.contains("timeout") ||
-            errorLower.contains("unavailable") ||
-            errorLower.contains("service") ||
-            errorLower.contains("network") ||
-            errorLower.contains("connection") ||
-            errorLower.contains("maintenance") ||
-            errorLower.contains("temporary") ||
-            detailsLower.contains("internal") ||
-            detailsLower.contains("server") ||
-            detailsLower.contains("timeout")
-        ) {
-            log.warn("🏥 Problème technique Meta pour {} (erreur: {})", contact.getContelephone(), errorTitle);
-            // Ne pas changer hasWhatsapp car c'est temporaire
-        }
-        // ❓ ERREURS INCONNUES - LOG POUR ANALYSE
-        else {
-            log.warn(
-                "❓ Erreur WhatsApp inconnue pour {} - Title: '{}' - Details: '{}'",
-                contact.getContelephone(),
-                errorTitle,
-                errorDetails
+            whatsAppStatusWriter.enqueue(
+                new WhatsAppStatusWriter.StatusEvent(messageId, newStatus, errorTitle, errorDetails, phone, receivedAt)
             );
         }
     }
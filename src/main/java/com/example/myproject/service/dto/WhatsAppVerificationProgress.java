@@ -0,0 +1,125 @@
+package com.example.myproject.service.dto;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Avancement d'une vérification WhatsApp des numéros d'un groupe.
+ *
+ * {@code cachedNumbers} : numéros dont le résultat en base est encore valide (non revérifiés),
+ * {@code numbersToCheck} : numéros inconnus ou périmés interrogés auprès de Meta.
+ */
+public class WhatsAppVerificationProgress {
+
+    public enum Status {
+        RUNNING,
+        COMPLETED,
+        FAILED,
+    }
+
+    private final String jobId;
+    private final Long groupeId;
+    private final Status status;
+    private final int totalNumbers;
+    private final int cachedNumbers;
+    private final int numbersToCheck;
+    private final int checkedNumbers;
+    private final int reachableNumbers;
+    private final int failedChecks;
+    private final double percentage;
+    private final Instant startedAt;
+    private final Instant finishedAt;
+    private final Map<String, Object> result;
+    private final String error;
+
+    public WhatsAppVerificationProgress(
+        String jobId,
+        Long groupeId,
+        Status status,
+        int totalNumbers,
+        int cachedNumbers,
+        int numbersToCheck,
+        int checkedNumbers,
+        int reachableNumbers,
+        int failedChecks,
+        Instant startedAt,
+        Instant finishedAt,
+        Map<String, Object> result,
+        String error
+    ) {
+        this.jobId = jobId;
+        this.groupeId = groupeId;
+        this.status = status;
+        this.totalNumbers = totalNumbers;
+        this.cachedNumbers = cachedNumbers;
+        this.numbersToCheck = numbersToCheck;
+        this.checkedNumbers = checkedNumbers;
+        this.reachableNumbers = reachableNumbers;
+        this.failedChecks = failedChecks;
+        this.percentage = status != Status.RUNNING ? 100.0 : numbersToCheck > 0 ? (checkedNumbers * 100.0) / numbersToCheck : 0.0;
+        this.startedAt = startedAt;
+        this.finishedAt = finishedAt;
+        this.result = result;
+        this.error = error;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public Long getGroupeId() {
+        return groupeId;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public int getTotalNumbers() {
+        return totalNumbers;
+    }
+
+    public int getCachedNumbers() {
+        return cachedNumbers;
+    }
+
+    public int getNumbersToCheck() {
+        return numbersToCheck;
+    }
+
+    public int getCheckedNumbers() {
+        return checkedNumbers;
+    }
+
+    public int getReachableNumbers() {
+        return reachableNumbers;
+    }
+
+    public int getFailedChecks() {
+        return failedChecks;
+    }
+
+    public double getPercentage() {
+        return percentage;
+    }
+
+    public boolean isCompleted() {
+        return status != Status.RUNNING;
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    public Map<String, Object> getResult() {
+        return result;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
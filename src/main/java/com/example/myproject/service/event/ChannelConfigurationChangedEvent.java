@@ -0,0 +1,14 @@
+package com.example.myproject.service.event;
+
+public class ChannelConfigurationChangedEvent {
+
+    private final Long configId;
+
+    public ChannelConfigurationChangedEvent(Long configId) {
+        this.configId = configId;
+    }
+
+    public Long getConfigId() {
+        return configId;
+    }
+}
@@ -1,23 +1,30 @@
 package com.example.myproject.service.event;
 
-import com.example.myproject.domain.Sms;
-import java.util.List;
-
+/**
+ * Demande d'ingestion des SMS d'une campagne bulk : les destinataires sont relus
+ * en flux depuis le groupe après le commit, aucune liste n'est portée par l'événement.
+ */
 public class SmsBulkInsertEvent {
 
-    private final List<Sms> smsList;
     private final Long sendSmsId;
+    private final Long groupeId;
+    private final String login;
 
-    public SmsBulkInsertEvent(List<Sms> smsList, Long sendSmsId) {
-        this.smsList = smsList;
+    public SmsBulkInsertEvent(Long sendSmsId, Long groupeId, String login) {
         this.sendSmsId = sendSmsId;
-    }
-
-    public List<Sms> getSmsList() {
-        return smsList;
+        this.groupeId = groupeId;
+        this.login = login;
     }
 
     public Long getSendSmsId() {
         return sendSmsId;
     }
+
+    public Long getGroupeId() {
+        return groupeId;
+    }
+
+    public String getLogin() {
+        return login;
+    }
 }
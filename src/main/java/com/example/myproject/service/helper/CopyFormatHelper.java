@@ -0,0 +1,30 @@
+package com.example.myproject.service.helper;
+
+/**
+ * Écriture de valeurs au format texte de {@code COPY ... FROM STDIN} (PostgreSQL) :
+ * tabulation entre colonnes, fin de ligne entre lignes, {@code \N} pour NULL.
+ */
+public final class CopyFormatHelper {
+
+    private CopyFormatHelper() {}
+
+    /**
+     * Ajoute une valeur échappée (antislash, tabulation, retours ligne) ou {@code \N} si null.
+     */
+    public static StringBuilder appendField(StringBuilder out, String value) {
+        if (value == null) {
+            return out.append("\\N");
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\' -> out.append("\\\\");
+                case '\t' -> out.append("\\t");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                default -> out.append(c);
+            }
+        }
+        return out;
+    }
+}
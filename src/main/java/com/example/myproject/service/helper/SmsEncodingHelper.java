@@ -0,0 +1,54 @@
+package com.example.myproject.service.helper;
+
+import java.util.BitSet;
+
+/**
+ * Encodage SMS : appartenance à l'alphabet GSM-7 de base (table précalculée) et nombre de
+ * segments (GSM-7 : 160 / 153, UCS-2 : 70 / 67).
+ */
+public final class SmsEncodingHelper {
+
+    private static final String GSM7_CHARS =
+        "@£$¥èéùìòÇ\nØø\rÅåΔ_ΦΓΛΩΠΨΣΘΞÆæßÉ " +
+        "!\"#¤%&'()*+,-./0123456789:;<=>?" +
+        "¡ABCDEFGHIJKLMNOPQRSTUVWXYZÄÖÑÜ§" +
+        "¿abcdefghijklmnopqrstuvwxyzäöñüà";
+
+    private static final BitSet GSM7 = new BitSet();
+
+    static {
+        for (int i = 0; i < GSM7_CHARS.length(); i++) {
+            GSM7.set(GSM7_CHARS.charAt(i));
+        }
+    }
+
+    private SmsEncodingHelper() {}
+
+    public static boolean isGsm7(char c) {
+        return GSM7.get(c);
+    }
+
+    /**
+     * Vrai si tous les caractères appartiennent à l'alphabet GSM-7 de base.
+     */
+    public static boolean isGsm7(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (!GSM7.get(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Nombre de segments pour un message de {@code length} caractères (0 si vide).
+     */
+    public static int segments(int length, boolean gsm7) {
+        if (length <= 0) {
+            return 0;
+        }
+        int single = gsm7 ? 160 : 70;
+        int multi = gsm7 ? 153 : 67;
+        return length <= single ? 1 : (length + multi - 1) / multi;
+    }
+}
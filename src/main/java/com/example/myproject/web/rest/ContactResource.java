@@ -4,9 +4,11 @@ import com.example.myproject.domain.*;
 import com.example.myproject.repository.*;
 import com.example.myproject.security.SecurityUtils;
 import com.example.myproject.service.ContactCleaningService;
+import com.example.myproject.service.StreamingExportService;
 import com.example.myproject.service.dto.AdvancedFiltersPayload;
 import com.example.myproject.service.dto.ProgressStatus;
 import com.example.myproject.service.dto.ProgressTracker;
+import com.example.myproject.service.helper.CopyFormatHelper;
 import com.example.myproject.service.helper.PhoneNumberHelper;
 import com.example.myproject.web.rest.dto.*;
 import com.example.myproject.web.rest.errors.BadRequestAlertException;
@@ -17,7 +19,6 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.opencsv.exceptions.CsvException; // Assurez-vous que cette bibliothèque est incluse
 import com.opencsv.exceptions.CsvException;
-import jakarta.servlet.http.HttpServletResponse;
 import java.io.*;
 import java.io.IOException;
 import java.net.URI;
@@ -61,6 +62,7 @@ import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 import tech.jhipster.web.util.HeaderUtil;
 import tech.jhipster.web.util.PaginationUtil;
@@ -92,6 +94,7 @@ public class ContactResource {
     private final GroupeRepository groupeRepository;
     private final ContactCleaningService contactCleaningService;
     private final ProgressTracker progressTracker;
+    private final StreamingExportService streamingExportService;
 
     @Autowired
     private ObjectMapper objectMapper;
@@ -104,7 +107,8 @@ public class ContactResource {
         ContactRepository contactRepository,
         GroupeRepository groupeRepository,
         ContactCleaningService contactCleaningService,
-        ProgressTracker progressTracker
+        ProgressTracker progressTracker,
+        StreamingExportService streamingExportService
     ) {
         this.smsRepository = smsRepository;
         this.groupedecontactRepository = groupedecontactRepository;
@@ -114,6 +118,7 @@ public class ContactResource {
         this.groupeRepository = groupeRepository;
         this.contactCleaningService = contactCleaningService;
         this.progressTracker = progressTracker;
+        this.streamingExportService = streamingExportService;
     }
 
     /**
@@ -679,23 +684,49 @@ public class ContactResource {
         String progressId = generateUniqueProgressId();
         ImportHistory importHistory = new ImportHistory();
         int getTotalInserted = 0;
+        Path pendingSpoolFile = null;
 
         try {
             DuplicateContactsResponse result = processContacts(file, groupId, login, progressId);
             getTotalInserted = result.getTotalInserted();
+            pendingSpoolFile = result.getContactsSpoolFile();
 
             if (insert && result.getTotalInserted() > 0) {
                 saveImportHistory(importHistory, result, progressId, login);
-                contactCleaningService.insertContactsAsync(result.getAllContactsToInsert(), login, progressId);
+                // Le fichier appartient désormais à l'insertion asynchrone (supprimé par elle)
+                pendingSpoolFile = null;
+                contactCleaningService.insertContactsAsync(
+                    result.getContactsSpoolFile(),
+                    groupId,
+                    login,
+                    progressId,
+                    result.getTotalInserted()
+                );
             }
 
             return ResponseEntity.ok(result);
         } catch (Exception e) {
             handleImportError(importHistory, insert, getTotalInserted, progressId, e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null);
+        } finally {
+            deleteSpoolFile(pendingSpoolFile);
+        }
+    }
+
+    private void deleteSpoolFile(Path spoolFile) {
+        if (spoolFile == null) return;
+        try {
+            Files.deleteIfExists(spoolFile);
+        } catch (IOException e) {
+            log.warn("Suppression impossible du fichier d'import {}: {}", spoolFile, e.getMessage());
         }
     }
 
+    /**
+     * Lit, valide et normalise le fichier en flux : chaque contact valide est écrit dans un fichier
+     * temporaire au format texte de COPY (insertion par {@link ContactCleaningService#insertContactsAsync}),
+     * seul un aperçu de quelques contacts reste en mémoire.
+     */
     public DuplicateContactsResponse processContacts(MultipartFile file, Long selectedGroupId, String currentUserLogin, String progressId) {
         ImportCounters counters = new ImportCounters();
 
@@ -703,8 +734,13 @@ public class ContactResource {
         Map<String, Map<String, Object>> allowedCustomFields = loadCustomFields(currentUserLogin);
         Groupe groupe = loadGroupe(selectedGroupId);
         ImportResults results = new ImportResults();
+        boolean spoolComplete = false;
 
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(file.getInputStream(), StandardCharsets.UTF_8))) {
+        try (
+            BufferedReader reader = new BufferedReader(new InputStreamReader(file.getInputStream(), StandardCharsets.UTF_8));
+            BufferedWriter spoolWriter = Files.newBufferedWriter(results.spoolFile, StandardCharsets.UTF_8)
+        ) {
+            results.spoolWriter = spoolWriter;
             String headerLine = reader.readLine();
             if (headerLine == null) {
                 return createEmptyResponse(counters, outputFiles, progressId);
@@ -733,13 +769,18 @@ public class ContactResource {
                     results
                 );
             }
+            spoolComplete = true;
         } catch (IOException e) {
             throw new RuntimeException("Erreur lors du traitement du fichier CSV", e);
         } finally {
             closeOutputFiles(outputFiles);
+            // Fichier vide, incomplet ou en erreur : jamais transmis à l'insertion
+            if (!spoolComplete) {
+                deleteSpoolFile(results.spoolFile);
+            }
         }
 
-        progressTracker.init(progressId, results.contactsToInsert.size());
+        progressTracker.init(progressId, counters.addedToGroup.get());
         return buildSimplifiedResponse(results, counters, outputFiles, progressId);
     }
 
@@ -808,14 +849,10 @@ public class ContactResource {
             }
 
             if (!customValues.isEmpty()) {
-                contact.setCustomFields(new ObjectMapper().writeValueAsString(customValues));
+                contact.setCustomFields(objectMapper.writeValueAsString(customValues));
             }
 
-            createGroupAssociation(contact, groupe);
-
-            synchronized (results.contactsToInsert) {
-                results.contactsToInsert.add(contact);
-            }
+            results.append(contact);
 
             counters.addedToGroup.incrementAndGet();
         } catch (Exception e) {
@@ -835,9 +872,36 @@ public class ContactResource {
 
     private static class ImportResults {
 
-        final List<Contact> contactsToInsert = Collections.synchronizedList(new ArrayList<>());
-        final List<Contact> duplicateContacts = Collections.synchronizedList(new ArrayList<>());
-        final List<Contact> errorContacts = Collections.synchronizedList(new ArrayList<>());
+        static final int PREVIEW_SIZE = 10;
+
+        final List<Contact> preview = new ArrayList<>(PREVIEW_SIZE);
+        final List<Contact> errorContacts = new ArrayList<>();
+        final Path spoolFile;
+        final StringBuilder row = new StringBuilder(256);
+        BufferedWriter spoolWriter;
+
+        ImportResults() {
+            try {
+                this.spoolFile = Files.createTempFile("contacts_import_", ".copy");
+            } catch (IOException ex) {
+                throw new RuntimeException("Erreur lors de la création des fichiers temporaires", ex);
+            }
+        }
+
+        /**
+         * Écrit le contact dans le fichier d'import (connom, conprenom, contelephone, custom_fields).
+         */
+        void append(Contact contact) throws IOException {
+            if (preview.size() < PREVIEW_SIZE) {
+                preview.add(contact);
+            }
+            row.setLength(0);
+            CopyFormatHelper.appendField(row, contact.getConnom()).append('\t');
+            CopyFormatHelper.appendField(row, contact.getConprenom()).append('\t');
+            CopyFormatHelper.appendField(row, contact.getContelephone()).append('\t');
+            CopyFormatHelper.appendField(row, contact.getCustomFields()).append('\n');
+            spoolWriter.append(row);
+        }
     }
 
     private static class OutputFiles {
@@ -874,12 +938,8 @@ public class ContactResource {
         OutputFiles outputFiles,
         String progressId
     ) {
-        List<Contact> displayUnique = results.contactsToInsert.size() > 10
-            ? results.contactsToInsert.subList(0, 10)
-            : results.contactsToInsert;
-
         DuplicateContactsResponse response = new DuplicateContactsResponse(
-            displayUnique,
+            results.preview,
             Collections.emptyList(), //  Plus de doublons
             results.errorContacts,
             counters.totalFileLines.get(),
@@ -891,7 +951,7 @@ public class ContactResource {
             progressId
         );
 
-        response.setAllContactsToInsert(results.contactsToInsert);
+        response.setContactsSpoolFile(results.spoolFile);
 
         log.info(
             "📊 Import simplifié - Total: {}, Ajoutés: {}, Erreurs: {}",
@@ -1012,56 +1072,48 @@ public class ContactResource {
         return ResponseEntity.ok(importHistory);
     }
 
+    /**
+     * Export en flux (CSV ou XLSX) des contacts d'un import ; annulable via
+     * {@code DELETE /contacts/bulk/exports/:exportId}.
+     */
     @GetMapping("/bulk/{bulkId}/export")
-    public void exportContactsByBulkId(@PathVariable String bulkId, HttpServletResponse response) throws IOException {
-        log.debug("REST request to export contacts as CSV by bulkId: {}", bulkId);
+    public ResponseEntity<StreamingResponseBody> exportContactsByBulkId(
+        @PathVariable String bulkId,
+        @RequestParam(required = false, defaultValue = "csv") String format
+    ) {
+        log.debug("REST request to export contacts by bulkId: {}", bulkId);
         Optional<ImportHistory> importHistoryOpt = importHistoryRepository.findByBulkId(bulkId);
         if (importHistoryOpt.isEmpty()) {
-            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
-            return;
+            return ResponseEntity.notFound().build();
         }
         ImportHistory importHistory = importHistoryOpt.get();
         if (!SecurityUtils.hasCurrentUserAnyOfAuthorities("ROLE_ADMIN")) {
             Optional<String> currentUserLoginOpt = SecurityUtils.getCurrentUserLogin();
             if (currentUserLoginOpt.isEmpty() || !currentUserLoginOpt.get().equals(importHistory.getUser_login())) {
-                response.setStatus(HttpServletResponse.SC_FORBIDDEN);
-                return;
+                return ResponseEntity.status(403).build();
             }
         }
 
-        // Set response headers for CSV download
-        response.setContentType("text/csv;charset=UTF-8");
-        response.setHeader("Content-Disposition", String.format("attachment; filename=\"contacts_%s.csv\"", bulkId));
-        response.setCharacterEncoding("UTF-8");
+        StreamingExportService.Format exportFormat = StreamingExportService.Format.of(format);
+        String id = streamingExportService.newExportId();
+        String login = SecurityUtils.getCurrentUserLogin().orElse(null);
+        StreamingResponseBody body = streamingExportService.exportImportedContacts(id, login, exportFormat, bulkId);
 
-        // Write CSV
-        try (PrintWriter writer = response.getWriter()) {
-            writer.write("id,connom,conprenom,contelephone\n");
+        return ResponseEntity.ok()
+            .header("Content-Disposition", String.format("attachment; filename=\"contacts_%s.%s\"", bulkId, exportFormat.getExtension()))
+            .header("Content-Type", exportFormat.getContentType())
+            .header("X-Export-Id", id)
+            .body(body);
+    }
 
-            int page = 0;
-            int size = 1000;
-            while (true) {
-                Page<Contact> contactPage = contactRepository.findByProgressId(bulkId, PageRequest.of(page, size));
-                if (contactPage.isEmpty()) {
-                    break;
-                }
-                for (Contact contact : contactPage.getContent()) {
-                    writer.write(
-                        String.format(
-                            "%d,\"%s\",\"%s\",\"%s\"\n",
-                            contact.getId(),
-                            contact.getConnom() != null ? contact.getConnom().replace("\"", "\"\"") : "",
-                            contact.getConprenom() != null ? contact.getConprenom().replace("\"", "\"\"") : "",
-                            contact.getContelephone() != null ? contact.getContelephone().replace("\"", "\"\"") : ""
-                        )
-                    );
-                }
-                page++;
-            }
-        } catch (Exception e) {
-            log.error("Error exporting contacts for bulkId {}: {}", bulkId, e.getMessage(), e);
-            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-        }
+    /**
+     * Annule un export lancé par l'utilisateur courant (tout export pour un admin) ; 404 sinon.
+     */
+    @DeleteMapping("/bulk/exports/{exportId}")
+    public ResponseEntity<Void> cancelExport(@PathVariable String exportId) {
+        String login = SecurityUtils.getCurrentUserLogin().orElse(null);
+        boolean admin = SecurityUtils.hasCurrentUserAnyOfAuthorities("ROLE_ADMIN");
+        return streamingExportService.cancel(exportId, login, admin) ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
     }
 
     @GetMapping("/bulk/{bulkId}")
@@ -1166,7 +1218,7 @@ public class ContactResource {
         try {
             Map<String, String> customValues = parseCustomFields(fields, headers, allowedCustomFields);
             if (!customValues.isEmpty()) {
-                contact.setCustomFields(new ObjectMapper().writeValueAsString(customValues));
+                contact.setCustomFields(objectMapper.writeValueAsString(customValues));
             }
         } catch (IOException e) {
             writeError(errorWriter, lineNumber, "Erreur champs personnalisés : " + e.getMessage(), line);
@@ -1276,7 +1328,6 @@ public class ContactResource {
             progressId
         );
 
-        response.setAllContactsToInsert(contactsToInsert);
         return response;
     }
 
@@ -1309,8 +1360,7 @@ public class ContactResource {
             .ifPresent(user -> {
                 if (user.getCustomFields() != null && !user.getCustomFields().isEmpty()) {
                     try {
-                        ObjectMapper mapper = new ObjectMapper();
-                        allowedCustomFields.putAll(mapper.readValue(user.getCustomFields(), new TypeReference<>() {}));
+                        allowedCustomFields.putAll(objectMapper.readValue(user.getCustomFields(), new TypeReference<>() {}));
                     } catch (IOException e) {
                         throw new RuntimeException("Erreur de parsing des customFields utilisateur", e);
                     }
@@ -1425,7 +1475,7 @@ public class ContactResource {
         }
 
         try {
-            Map<String, Map<String, Object>> temp = new ObjectMapper().readValue(raw, new TypeReference<>() {});
+            Map<String, Map<String, Object>> temp = objectMapper.readValue(raw, new TypeReference<>() {});
 
             Map<String, CustomFieldDTO> result = new HashMap<>();
             for (var entry : temp.entrySet()) {
@@ -4,9 +4,6 @@ import com.example.myproject.SMSService;
 import com.example.myproject.domain.Template;
 import com.example.myproject.domain.TokensApp;
 import com.example.myproject.domain.User;
-import com.example.myproject.repository.TemplateRepository;
-import com.example.myproject.repository.TokensAppRepository;
-import com.example.myproject.repository.UserRepository;
 import com.example.myproject.service.ExternalApiCacheService;
 import com.example.myproject.service.ExternalApiTrackingService;
 import com.example.myproject.web.rest.dto.SmsSendResult;
@@ -18,7 +15,6 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.*;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
 
 @RestController
@@ -29,25 +25,16 @@ public class ExternalSmsResource {
     private static final Logger log = LoggerFactory.getLogger(ExternalSmsResource.class);
     private static final ObjectMapper MAPPER = new ObjectMapper();
 
-    private final TemplateRepository templateRepository;
     private final SMSService smsService;
-    private final TokensAppRepository tokensAppRepository;
-    private final UserRepository userRepository;
     private final ExternalApiTrackingService trackingService;
     private final ExternalApiCacheService cacheService; //  CACHE
 
     public ExternalSmsResource(
-        TemplateRepository templateRepository,
         SMSService smsService,
-        TokensAppRepository tokensAppRepository,
-        UserRepository userRepository,
         ExternalApiTrackingService trackingService,
         ExternalApiCacheService cacheService //  CACHE
     ) {
-        this.templateRepository = templateRepository;
         this.smsService = smsService;
-        this.tokensAppRepository = tokensAppRepository;
-        this.userRepository = userRepository;
         this.trackingService = trackingService;
         this.cacheService = cacheService;
     }
@@ -57,7 +44,10 @@ public class ExternalSmsResource {
         return ResponseEntity.ok("External SMS API is working!");
     }
 
-    @Transactional
+    /**
+     * Chemin rapide : token, utilisateur et template viennent du cache, la dernière utilisation du
+     * token et la trace sms sont écrites en différé ; seule la soumission SMPP reste synchrone.
+     */
     @PostMapping(
         value = "/send",
         consumes = { MediaType.APPLICATION_FORM_URLENCODED_VALUE, MediaType.MULTIPART_FORM_DATA_VALUE },
@@ -88,7 +78,7 @@ public class ExternalSmsResource {
             }
 
             // 2) Validation et récupération du token
-            Optional<TokensApp> tokenOptional = tokensAppRepository.findByToken(partnerToken.trim());
+            Optional<TokensApp> tokenOptional = cacheService.findTokenWithCache(partnerToken.trim());
             if (!tokenOptional.isPresent()) {
                 errorMessage = "Token invalide ou inexistant";
                 log.warn("[EXTERNAL-SMS-API] Token invalide");
@@ -115,16 +105,16 @@ public class ExternalSmsResource {
             }
 
             // 5) Récupération de l'utilisateur
-            user = userRepository
-                .findOneByLogin(userLogin)
+            user = cacheService
+                .findUserWithCache(userLogin)
                 .orElseThrow(() -> {
                     log.warn("[EXTERNAL-SMS-API] Utilisateur introuvable: {}", userLogin);
                     return new ResourceNotFoundException("Utilisateur introuvable");
                 });
 
             // 6) Récupération du template
-            template = templateRepository
-                .findByNameAndUserLogin(templateName, userLogin)
+            template = cacheService
+                .findTemplateWithCache(templateName, userLogin)
                 .orElseThrow(() -> {
                     log.warn("[EXTERNAL-SMS-API] Template '{}' introuvable pour '{}'", templateName, userLogin);
                     return new ResourceNotFoundException("Template introuvable pour cet utilisateur");
@@ -150,9 +140,8 @@ public class ExternalSmsResource {
             String cleanPhone = validateAndCleanPhone(phone);
             log.debug("[EXTERNAL-SMS-API] Numéro nettoyé: {}", cleanPhone);
 
-            // 11) Mise à jour dernière utilisation token
-            tokensApp.setLastUsedAt(java.time.ZonedDateTime.now());
-            tokensAppRepository.save(tokensApp);
+            // 11) Mise à jour dernière utilisation token (cumulée, écrite en différé)
+            trackingService.recordTokenUsage(tokensApp.getId());
 
             // 12)  ENVOI DU SMS
             log.info("[EXTERNAL-SMS-API] Envoi SMS - From: {}, To: {}", sender, cleanPhone);
@@ -185,7 +174,7 @@ public class ExternalSmsResource {
                 messageId
             );
 
-            trackingService.trackExternalSms(trackingData);
+            trackingService.enqueueExternalSms(trackingData);
 
             // 14) Réponse
             if (!success) {
@@ -250,7 +239,7 @@ public class ExternalSmsResource {
                     messageId
                 );
 
-                trackingService.trackExternalSms(trackingData);
+                trackingService.enqueueExternalSms(trackingData);
             }
         } catch (Exception e) {
             log.error("[EXTERNAL-SMS-API] Erreur traçabilité erreur", e);
@@ -7,7 +7,9 @@ import com.example.myproject.repository.*;
 import com.example.myproject.security.SecurityUtils;
 import com.example.myproject.service.GroupeContactSearchService;
 import com.example.myproject.service.GroupeService;
+import com.example.myproject.service.WhatsAppVerificationService;
 import com.example.myproject.service.dto.AdvancedFiltersPayload;
+import com.example.myproject.service.dto.WhatsAppVerificationProgress;
 import com.example.myproject.service.utils.LikeUtils;
 import com.example.myproject.web.rest.errors.BadRequestAlertException;
 import jakarta.persistence.EntityNotFoundException;
@@ -56,6 +58,7 @@ public class GroupeResource {
     private final GroupeRepository groupeRepository;
     private final UserRepository userRepository;
     private final ContactRepository contactRepository;
+    private final WhatsAppVerificationService whatsAppVerificationService;
 
     public GroupeResource(
         GroupedecontactRepository groupedecontactRepository,
@@ -65,7 +68,8 @@ public class GroupeResource {
         UserRepository userRepository,
         ContactRepository contactRepository,
         SendSmsRepository sendSmsRepository,
-        SmsRepository smsRepository
+        SmsRepository smsRepository,
+        WhatsAppVerificationService whatsAppVerificationService
     ) {
         this.groupedecontactRepository = groupedecontactRepository;
         this.groupeService = groupeService;
@@ -75,6 +79,7 @@ public class GroupeResource {
         this.contactRepository = contactRepository;
         this.sendSmsRepository = sendSmsRepository;
         this.smsRepository = smsRepository;
+        this.whatsAppVerificationService = whatsAppVerificationService;
     }
 
     @PostMapping("/{groupeId}/contacts")
@@ -499,11 +504,16 @@ public class GroupeResource {
         return ResponseEntity.ok().headers(headers).body(page.getContent());
     }
 
+    /**
+     * Lance la vérification WhatsApp des numéros du groupe en tâche de fond (numéros inconnus ou
+     * périmés uniquement) ; le groupe WhatsApp est créé à la fin. Avancement :
+     * {@code GET /groupes/:groupeId/verify-whatsapp/:jobId}.
+     */
     @PostMapping("/{groupeId}/verify-whatsapp")
     public ResponseEntity<Map<String, Object>> verifyWhatsAppContacts(@PathVariable Long groupeId) {
         try {
-            Map<String, Object> result = groupeService.verifyWhatsAppContactsAndCreateGroup(groupeId);
-            return ResponseEntity.ok(result);
+            String jobId = whatsAppVerificationService.start(groupeId);
+            return ResponseEntity.accepted().body(Map.of("jobId", jobId, "groupeId", groupeId));
         } catch (IllegalStateException e) {
             log.warn("Configuration WhatsApp invalide : {}", e.getMessage());
             return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
@@ -518,6 +528,18 @@ public class GroupeResource {
         }
     }
 
+    @GetMapping("/{groupeId}/verify-whatsapp/{jobId}")
+    public ResponseEntity<WhatsAppVerificationProgress> getWhatsAppVerificationProgress(
+        @PathVariable Long groupeId,
+        @PathVariable String jobId
+    ) {
+        WhatsAppVerificationProgress progress = whatsAppVerificationService.getProgress(jobId);
+        if (progress == null || !groupeId.equals(progress.getGroupeId())) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(progress);
+    }
+
     /**
      * {@code PUT  /groupes/:id} : Updates an existing groupe.
      *
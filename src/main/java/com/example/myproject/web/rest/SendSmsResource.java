@@ -32,6 +32,7 @@ import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 /**
  *  CONTRÔLEUR MODERNE : SendSms (nettoyé et optimisé)
@@ -103,6 +104,9 @@ public class SendSmsResource {
     @Autowired
     private EntityManager entityManager;
 
+    @Autowired
+    private StreamingExportService streamingExportService;
+
     // ===== CRÉATION SMS =====
 
     /**
@@ -249,46 +253,49 @@ public class SendSmsResource {
     public ResponseEntity<SendSmsResponseDTO> handleSingleSms(SendSms sendSms, Template template, boolean test, String login) {
         int messageCount = sendSms.getTotalMessage() != null ? sendSms.getTotalMessage() : 1;
 
+        // Réservation avant envoi, rendue si le message n'est pas parti
         if (!test) {
-            quotaService.verifyQuotasForSend(sendSms.getUser().getId(), sendSms.getType(), messageCount);
+            quotaService.reserveQuotasForSend(sendSms.getUser().getId(), sendSms.getType(), messageCount);
         }
 
-        List<VariableDTO> varsList = parseVarsJson(sendSms.getVars());
         boolean success = false;
-        String messageId = null;
-        String error = null;
-
-        SmsSendResult smsResult = null;
-
         try {
-            if (sendSms.getType() == MessageType.WHATSAPP) {
-                if (test) {
-                    success = true;
+            List<VariableDTO> varsList = parseVarsJson(sendSms.getVars());
+            String messageId = null;
+            String error = null;
+
+            SmsSendResult smsResult = null;
+
+            try {
+                if (sendSms.getType() == MessageType.WHATSAPP) {
+                    if (test) {
+                        success = true;
+                    } else {
+                        SendMessageResult result = sendWhatsappService.sendMessageAndGetId(sendSms.getReceiver(), template, varsList, login);
+                        success = result.isSuccess();
+                        messageId = result.getMessageId();
+                        error = result.getError();
+                    }
                 } else {
-                    SendMessageResult result = sendWhatsappService.sendMessageAndGetId(sendSms.getReceiver(), template, varsList, login);
-                    success = result.isSuccess();
-                    messageId = result.getMessageId();
-                    error = result.getError();
+                    smsResult = smsService.send(sendSms.getSender(), sendSms.getReceiver(), sendSms.getMsgdata());
+                    success = smsResult.isSuccess();
+                    messageId = smsResult.getMessageId();
+                    error = smsResult.getError();
                 }
-            } else {
-                smsResult = smsService.send(sendSms.getSender(), sendSms.getReceiver(), sendSms.getMsgdata());
-                success = smsResult.isSuccess();
-                messageId = smsResult.getMessageId();
-                error = smsResult.getError();
+            } catch (Exception ex) {
+                error = ex.getMessage();
+                success = false;
             }
-        } catch (Exception ex) {
-            error = ex.getMessage();
-            success = false;
-        }
-
-        sendSms.setIsSent(success);
-        sendSms.setMessageId(messageId);
-        sendSms.setDeliveryStatus(success ? "sent" : "failed");
-        sendSms.setLast_error(error);
-        sendSmsRepository.save(sendSms);
 
-        if (success && !test) {
-            quotaService.decrementQuotasAfterSend(sendSms.getUser().getId(), sendSms.getType(), messageCount);
+            sendSms.setIsSent(success);
+            sendSms.setMessageId(messageId);
+            sendSms.setDeliveryStatus(success ? "sent" : "failed");
+            sendSms.setLast_error(error);
+            sendSmsRepository.save(sendSms);
+        } finally {
+            if (!success && !test) {
+                quotaService.releaseQuotas(sendSms.getUser().getId(), sendSms.getType(), messageCount);
+            }
         }
 
         return ResponseEntity.ok(new SendSmsResponseDTO(null, messageCount, true, success));
@@ -321,10 +328,10 @@ public class SendSmsResource {
 
             String login = SecurityUtils.getCurrentUserLogin().orElseThrow(() -> new IllegalStateException("Non authentifié"));
 
-            // Vérification quotas
+            // Réservation quotas avant envoi, rendue si le message n'est pas parti
             int messageCount = sms.getTotalMessage() != null ? sms.getTotalMessage() : 1;
             if (!test) {
-                quotaService.verifyQuotasForSend(sendSms.getUser().getId(), sms.getType(), messageCount);
+                quotaService.reserveQuotasForSend(sendSms.getUser().getId(), sms.getType(), messageCount);
             }
 
             String oldStatus = sms.getDeliveryStatus();
@@ -334,24 +341,34 @@ public class SendSmsResource {
             String messageId = null;
             String error = null;
 
-            if (sms.getType() == MessageType.WHATSAPP) {
-                List<VariableDTO> varsList = parseVarsJson(sms.getVars());
-                if (test) {
-                    success = true;
-                    messageId = "TEST_WA_" + System.currentTimeMillis();
+            try {
+                if (sms.getType() == MessageType.WHATSAPP) {
+                    List<VariableDTO> varsList = parseVarsJson(sms.getVars());
+                    if (test) {
+                        success = true;
+                        messageId = "TEST_WA_" + System.currentTimeMillis();
+                    } else {
+                        SendMessageResult result = sendWhatsappService.sendMessageAndGetId(sms.getReceiver(), template, varsList, login);
+                        success = result.isSuccess();
+                        messageId = result.getMessageId();
+                        error = result.getError();
+                    }
                 } else {
-                    SendMessageResult result = sendWhatsappService.sendMessageAndGetId(sms.getReceiver(), template, varsList, login);
-                    success = result.isSuccess();
-                    messageId = result.getMessageId();
-                    error = result.getError();
+                    if (test) {
+                        success = true;
+                        messageId = "TEST_SMS_" + System.currentTimeMillis();
+                    } else {
+                        success = smsService.goforSend(sms.getSender(), sms.getReceiver(), sms.getMsgdata());
+                    }
                 }
-            } else {
-                if (test) {
-                    success = true;
-                    messageId = "TEST_SMS_" + System.currentTimeMillis();
-                } else {
-                    success = smsService.goforSend(sms.getSender(), sms.getReceiver(), sms.getMsgdata());
+            } catch (RuntimeException ex) {
+                if (!test) {
+                    quotaService.releaseQuotas(sendSms.getUser().getId(), sms.getType(), messageCount);
                 }
+                throw ex;
+            }
+            if (!success && !test) {
+                quotaService.releaseQuotas(sendSms.getUser().getId(), sms.getType(), messageCount);
             }
 
             // Mise à jour SMS
@@ -367,11 +384,6 @@ public class SendSmsResource {
             // Mise à jour compteurs SendSms
             updateSendSmsCounters(sendSms, oldStatus, newStatus);
 
-            // Décrémenter quotas
-            if (success && !test) {
-                quotaService.decrementQuotasAfterSend(sendSms.getUser().getId(), sms.getType(), messageCount);
-            }
-
             Map<String, Object> response = new HashMap<>();
             response.put("success", success);
             response.put("smsId", smsId);
@@ -464,31 +476,52 @@ public class SendSmsResource {
     }
 
     /**
-     *  EXPORTER SMS EN CSV
+     *  EXPORTER SMS EN CSV / XLSX (flux, annulable via DELETE /exports/{exportId})
      */
-    @GetMapping("/sms/by-bulk/{bulkId}/export/csv")
-    public ResponseEntity<byte[]> exportSmsContactsToCsv(
+    @GetMapping({ "/sms/by-bulk/{bulkId}/export", "/sms/by-bulk/{bulkId}/export/csv" })
+    public ResponseEntity<StreamingResponseBody> exportSmsContacts(
         @PathVariable Long bulkId,
         @RequestParam(required = false) String search,
         @RequestParam(required = false) String deliveryStatus,
         @RequestParam(required = false) Instant dateFrom,
-        @RequestParam(required = false) Instant dateTo
+        @RequestParam(required = false) Instant dateTo,
+        @RequestParam(required = false, defaultValue = "csv") String format
     ) {
-        try {
-            List<Sms> allSms = smsRepository.findAllByBulkIdWithFilters(bulkId, search, deliveryStatus, dateFrom, dateTo);
-
-            byte[] csvContent = generateCsvContent(allSms);
-
-            String filename = String.format("sms-contacts-%d-%s.csv", bulkId, Instant.now().toString().replace(":", "-"));
+        StreamingExportService.Format exportFormat = StreamingExportService.Format.of(format);
+        String id = streamingExportService.newExportId();
+        String login = SecurityUtils.getCurrentUserLogin().orElse(null);
+        String filename = String.format(
+            "sms-contacts-%d-%s.%s",
+            bulkId,
+            Instant.now().toString().replace(":", "-"),
+            exportFormat.getExtension()
+        );
+
+        StreamingResponseBody body = streamingExportService.exportCampaignSms(
+            id,
+            login,
+            exportFormat,
+            bulkId,
+            search,
+            deliveryStatus,
+            dateFrom,
+            dateTo
+        );
+        return ResponseEntity.ok()
+            .header("Content-Disposition", "attachment; filename=" + filename)
+            .header("Content-Type", exportFormat.getContentType())
+            .header("X-Export-Id", id)
+            .body(body);
+    }
 
-            return ResponseEntity.ok()
-                .header("Content-Disposition", "attachment; filename=" + filename)
-                .header("Content-Type", "text/csv")
-                .body(csvContent);
-        } catch (Exception e) {
-            log.error("[CSV-EXPORT] Erreur bulkId {}: {}", bulkId, e.getMessage());
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
-        }
+    /**
+     *  ANNULER UN EXPORT EN COURS (lancé par l'utilisateur courant, tout export pour un admin)
+     */
+    @DeleteMapping("/exports/{exportId}")
+    public ResponseEntity<Void> cancelExport(@PathVariable String exportId) {
+        String login = SecurityUtils.getCurrentUserLogin().orElse(null);
+        boolean admin = SecurityUtils.hasCurrentUserAnyOfAuthorities("ROLE_ADMIN");
+        return streamingExportService.cancel(exportId, login, admin) ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
     }
 
     // ===== ACTIONS =====
@@ -758,29 +791,4 @@ public class SendSmsResource {
             return Collections.emptyList();
         }
     }
-
-    private byte[] generateCsvContent(List<Sms> smsList) {
-        StringBuilder csv = new StringBuilder();
-        csv.append("Destinataire,Nom,Statut,Date,Segments,MessageID,Erreur\n");
-
-        for (Sms sms : smsList) {
-            csv.append(escapeCsv(sms.getReceiver())).append(",");
-            csv.append(escapeCsv(sms.getNamereceiver())).append(",");
-            csv.append(escapeCsv(sms.getDeliveryStatus())).append(",");
-            csv.append(sms.getSendDate() != null ? sms.getSendDate().toString() : "").append(",");
-            csv.append(sms.getTotalMessage() != null ? sms.getTotalMessage() : 1).append(",");
-            csv.append(escapeCsv(sms.getMessageId())).append(",");
-            csv.append(escapeCsv(sms.getLast_error())).append("\n");
-        }
-
-        return csv.toString().getBytes(java.nio.charset.StandardCharsets.UTF_8);
-    }
-
-    private String escapeCsv(String field) {
-        if (field == null) return "";
-        if (field.contains(",") || field.contains("\"") || field.contains("\n")) {
-            return "\"" + field.replace("\"", "\"\"") + "\"";
-        }
-        return field;
-    }
 }
@@ -98,7 +98,10 @@ public class WhatsAppWebhookController {
     @PostMapping
     public ResponseEntity<String> receiveWebhook(@RequestBody JsonNode payload) {
         JsonNode value = payload.path("entry").get(0).path("changes").get(0).path("value");
-        whatsAppWebhookService.processWebhook(value);
+        if (!whatsAppWebhookService.processWebhook(value)) {
+            // Couloirs saturés : Meta rejoue le webhook sur une réponse 5xx
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header("Retry-After", "5").body("RETRY");
+        }
         return ResponseEntity.ok("EVENT_RECEIVED");
     }
 }
@@ -3,6 +3,7 @@ package com.example.myproject.web.rest.dto;
 import com.example.myproject.domain.Contact;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -60,7 +61,7 @@ public class DuplicateContactsResponse {
     private String progressId;
 
     @JsonIgnore
-    private List<Contact> allContactsToInsert; // Temporary for async insertion, not exposed in JSON
+    private Path contactsSpoolFile; // Fichier temporaire (format COPY) pour l'insertion asynchrone, non exposé en JSON
 
     public DuplicateContactsResponse() {
         this.databaseDuplicates = new ArrayList<>();
@@ -361,12 +362,12 @@ public class DuplicateContactsResponse {
         this.progressId = progressId;
     }
 
-    public List<Contact> getAllContactsToInsert() {
-        return allContactsToInsert;
+    public Path getContactsSpoolFile() {
+        return contactsSpoolFile;
     }
 
-    public void setAllContactsToInsert(List<Contact> allContactsToInsert) {
-        this.allContactsToInsert = allContactsToInsert;
+    public void setContactsSpoolFile(Path contactsSpoolFile) {
+        this.contactsSpoolFile = contactsSpoolFile;
     }
 
     // 🔧 Méthodes utilitaires privées
@@ -9,20 +9,29 @@ public class SendResult {
     private final String messageId;
     private final String error;
     private final Integer commandStatus;
+    private final boolean retryable;
 
-    private SendResult(boolean success, String messageId, String error, Integer commandStatus) {
+    private SendResult(boolean success, String messageId, String error, Integer commandStatus, boolean retryable) {
         this.success = success;
         this.messageId = messageId;
         this.error = error;
         this.commandStatus = commandStatus;
+        this.retryable = retryable;
     }
 
     public static SendResult ok(String messageId) {
-        return new SendResult(true, messageId, null, null);
+        return new SendResult(true, messageId, null, null, false);
     }
 
     public static SendResult fail(String error, Integer commandStatus) {
-        return new SendResult(false, null, error, commandStatus);
+        return new SendResult(false, null, error, commandStatus, false);
+    }
+
+    /**
+     * Non soumis (aucune session SMPP liée) : le message reste à envoyer, ce n'est pas un échec.
+     */
+    public static SendResult retry(String error) {
+        return new SendResult(false, null, error, null, true);
     }
 
     // ✅ GETTERS NÉCESSAIRES
@@ -42,6 +51,10 @@ public class SendResult {
         return commandStatus;
     }
 
+    public boolean isRetryable() {
+        return retryable;
+    }
+
     @Override
     public String toString() {
         return success
@@ -0,0 +1,122 @@
+package com.example.myproject.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for {@link ChatbotExpression}.
+ */
+class ChatbotExpressionTest {
+
+    private static boolean eval(String expression, String input) {
+        return ChatbotExpression.compile(expression).evaluate(input, Map.of());
+    }
+
+    private static boolean eval(String expression, String input, Map<String, Object> variables) {
+        return ChatbotExpression.compile(expression).evaluate(input, variables);
+    }
+
+    @Test
+    void blankOrNullExpressionIsFalse() {
+        assertThat(eval(null, "oui")).isFalse();
+        assertThat(eval("", "oui")).isFalse();
+        assertThat(eval("   ", "oui")).isFalse();
+    }
+
+    @Test
+    void invalidExpressionCompilesToFalse() {
+        assertThat(eval("result == 'oui", "oui")).isFalse();
+        assertThat(eval("(result == 'oui'", "oui")).isFalse();
+        assertThat(eval("result is weird", "oui")).isFalse();
+        assertThat(eval("result == 'oui' extra", "oui")).isFalse();
+        assertThat(ChatbotExpression.compile("result ==").getSource()).isEqualTo("result ==");
+    }
+
+    @Test
+    void constants() {
+        assertThat(eval("true", "")).isTrue();
+        assertThat(eval("FALSE", "")).isFalse();
+        assertThat(eval("not false", "")).isTrue();
+    }
+
+    @Test
+    void equalityIgnoresCaseAndSurroundingSpaces() {
+        assertThat(eval("result == 'Oui'", "  OUI ")).isTrue();
+        assertThat(eval("result = \"oui\"", "oui")).isTrue();
+        assertThat(eval("result != 'oui'", "non")).isTrue();
+        assertThat(eval("result <> 'oui'", "oui")).isFalse();
+    }
+
+    @Test
+    void numbersAreComparedNumerically() {
+        assertThat(eval("result > 9", "10")).isTrue();
+        assertThat(eval("result >= 10", "10.0")).isTrue();
+        assertThat(eval("result < 2", "10")).isFalse();
+        assertThat(eval("result <= -1", "-3")).isTrue();
+        assertThat(eval("result == 5", "5.00")).isTrue();
+    }
+
+    @Test
+    void textComparisonIsLexicographicWhenNotBothNumbers() {
+        assertThat(eval("result > 'abc'", "abd")).isTrue();
+        assertThat(eval("result < 10", "abc")).isFalse();
+    }
+
+    @Test
+    void stringOperators() {
+        assertThat(eval("result contains 'lo'", "Hello")).isTrue();
+        assertThat(eval("result starts with 'he'", "Hello")).isTrue();
+        assertThat(eval("result ends with 'LO'", "Hello")).isTrue();
+        assertThat(eval("result ends with 'he'", "Hello")).isFalse();
+    }
+
+    @Test
+    void typeChecks() {
+        assertThat(eval("result is number", "42")).isTrue();
+        assertThat(eval("result is text", "42")).isFalse();
+        assertThat(eval("result is text", "bonjour")).isTrue();
+        assertThat(eval("result is empty", "   ")).isTrue();
+        assertThat(eval("result is not empty", "x")).isTrue();
+        assertThat(eval("result is file", "facture.PDF")).isTrue();
+        assertThat(eval("result is file", "facture.txt")).isFalse();
+    }
+
+    @Test
+    void booleanOperatorsAndPrecedence() {
+        assertThat(eval("result == 'a' or result == 'b' and result == 'c'", "a")).isTrue();
+        assertThat(eval("(result == 'a' or result == 'b') and result == 'c'", "a")).isFalse();
+        assertThat(eval("result == 'a' || result == 'b'", "b")).isTrue();
+        assertThat(eval("result == 'a' && !(result == 'b')", "a")).isTrue();
+        assertThat(eval("NOT result is empty AND result contains 'x'", "xyz")).isTrue();
+    }
+
+    @Test
+    void variables() {
+        Map<String, Object> variables = Map.of("age", 30, "city", " Nouakchott ", "vip", true);
+
+        assertThat(eval("{age} >= 18", "", variables)).isTrue();
+        assertThat(eval("age < 18", "", variables)).isFalse();
+        assertThat(eval("city == 'nouakchott'", "", variables)).isTrue();
+        assertThat(eval("vip", "", variables)).isTrue();
+        assertThat(eval("vip == true", "", variables)).isTrue();
+        assertThat(eval("{unknown} is empty", "", variables)).isTrue();
+        assertThat(eval("unknown", "", variables)).isFalse();
+        assertThat(eval("result == {city}", "NOUAKCHOTT", variables)).isTrue();
+    }
+
+    @Test
+    void nullInputAndVariablesAreTreatedAsEmpty() {
+        ChatbotExpression expression = ChatbotExpression.compile("result is empty and {x} is empty");
+        assertThat(expression.evaluate(null, null)).isTrue();
+    }
+
+    @Test
+    void compiledExpressionIsReusable() {
+        ChatbotExpression expression = ChatbotExpression.compile("result contains 'ok'");
+        assertThat(expression.evaluate("OK merci", Map.of())).isTrue();
+        assertThat(expression.evaluate("non", Map.of())).isFalse();
+        assertThat(expression.evaluate("c'est ok", Map.of())).isTrue();
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.myproject.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.example.myproject.domain.Contact;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for {@link CompiledSmsTemplate}.
+ */
+class CompiledSmsTemplateTest {
+
+    private Contact contact;
+
+    @BeforeEach
+    public void init() {
+        contact = new Contact();
+        contact.setConnom("Diallo");
+        contact.setConprenom("Awa");
+        contact.setContelephone("22241000000");
+        contact.setCustomFields("{\"ville\":\"Nouakchott\",\"code\":\"A-12\",\"vide\":null}");
+    }
+
+    @Test
+    void rendersStandardAndCustomVariables() {
+        CompiledSmsTemplate template = CompiledSmsTemplate.compile("Bonjour {{prenom}} {{ nom }}, code {{code}} à {{\tville }} ({{telephone}})");
+
+        assertThat(template.render(contact)).isEqualTo("Bonjour Awa Diallo, code A-12 à Nouakchott (22241000000)");
+    }
+
+    @Test
+    void leavesUnknownVariablesAndUnclosedBracesUntouched() {
+        assertThat(CompiledSmsTemplate.compile("Solde {{solde}} {{nom").render(contact)).isEqualTo("Solde {{solde}} {{nom");
+        assertThat(CompiledSmsTemplate.compile("{{{nom}}}").render(contact)).isEqualTo("{Diallo}");
+        assertThat(CompiledSmsTemplate.compile("{{a {{nom}}").render(contact)).isEqualTo("{{a Diallo");
+    }
+
+    @Test
+    void missingValuesRenderEmpty() {
+        contact.setConnom(null);
+
+        assertThat(CompiledSmsTemplate.compile("[{{nom}}][{{vide}}]").render(contact)).isEqualTo("[][]");
+    }
+
+    @Test
+    void invalidOrMissingCustomFieldsLeaveCustomVariablesUntouched() {
+        contact.setCustomFields("not json");
+        assertThat(CompiledSmsTemplate.compile("{{nom}} {{ville}}").render(contact)).isEqualTo("Diallo {{ville}}");
+
+        contact.setCustomFields("  ");
+        assertThat(CompiledSmsTemplate.compile("{{nom}} {{ville}}").render(contact)).isEqualTo("Diallo {{ville}}");
+    }
+
+    @Test
+    void withoutContactVariablesAreKept() {
+        assertThat(CompiledSmsTemplate.compile("Bonjour {{ nom }}").render(null)).isEqualTo("Bonjour {{ nom }}");
+        assertThat(CompiledSmsTemplate.compile("").render(contact)).isEmpty();
+        assertThat(CompiledSmsTemplate.compile(null).render(contact)).isEmpty();
+    }
+
+    @Test
+    void matchesLegacyRegexRendering() {
+        List<String> templates = List.of(
+            "Bonjour {{nom}}",
+            "{{prenom}}{{nom}}{{telephone}}",
+            "Cher {{ prenom }}, rendez-vous à {{ville}} avec le code {{code}}.",
+            "{{nom}} {{inconnu}} {{ nom }} {{\nville\n}}",
+            "Aucune variable",
+            "{{{prenom}}} {{ville"
+        );
+
+        for (String content : templates) {
+            assertThat(CompiledSmsTemplate.compile(content).render(contact)).as(content).isEqualTo(legacyApplyTemplate(content, contact));
+        }
+    }
+
+    @Test
+    void appendsToBufferAndCountsGsm7Segments() {
+        CompiledSmsTemplate template = CompiledSmsTemplate.compile("{{nom}}");
+        StringBuilder out = new StringBuilder("préfixe ");
+
+        contact.setConnom("a".repeat(160));
+        assertThat(template.render(contact, out)).isEqualTo(1);
+        assertThat(out).hasToString("préfixe " + "a".repeat(160));
+
+        contact.setConnom("a".repeat(161));
+        assertThat(template.render(contact, new StringBuilder())).isEqualTo(2);
+
+        contact.setConnom("a".repeat(307));
+        assertThat(template.render(contact, new StringBuilder())).isEqualTo(3);
+    }
+
+    @Test
+    void switchesToUcs2SegmentsForNonGsm7Characters() {
+        CompiledSmsTemplate template = CompiledSmsTemplate.compile("{{nom}} ✓");
+
+        contact.setConnom("a".repeat(68));
+        assertThat(template.render(contact, new StringBuilder())).isEqualTo(1);
+
+        contact.setConnom("a".repeat(69));
+        assertThat(template.render(contact, new StringBuilder())).isEqualTo(2);
+
+        // Littéral GSM-7, valeur non GSM-7
+        contact.setConnom("محمد");
+        assertThat(CompiledSmsTemplate.compile("x".repeat(70) + "{{nom}}").render(contact, new StringBuilder())).isEqualTo(2);
+        assertThat(CompiledSmsTemplate.compile("").render(contact, new StringBuilder())).isZero();
+    }
+
+    /**
+     * Ancien rendu par expressions régulières (référence du comportement attendu).
+     */
+    private static String legacyApplyTemplate(String content, Contact contact) {
+        String result = content;
+        result = result.replaceAll("\\{\\{\\s*nom\\s*\\}\\}", contact.getConnom() != null ? contact.getConnom() : "");
+        result = result.replaceAll("\\{\\{\\s*prenom\\s*\\}\\}", contact.getConprenom() != null ? contact.getConprenom() : "");
+        result = result.replaceAll("\\{\\{\\s*telephone\\s*\\}\\}", contact.getContelephone() != null ? contact.getContelephone() : "");
+        try {
+            Map<String, String> customMap = new ObjectMapper().readValue(contact.getCustomFields(), new TypeReference<Map<String, String>>() {});
+            for (Map.Entry<String, String> entry : customMap.entrySet()) {
+                result = result.replaceAll(
+                    "\\{\\{\\s*" + Pattern.quote(entry.getKey()) + "\\s*\\}\\}",
+                    entry.getValue() != null ? entry.getValue() : ""
+                );
+            }
+        } catch (Exception e) {
+            // Champs personnalisés illisibles : variables laissées telles quelles
+        }
+        return result;
+    }
+}
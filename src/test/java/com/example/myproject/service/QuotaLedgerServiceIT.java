@@ -0,0 +1,198 @@
+package com.example.myproject.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.example.myproject.IntegrationTest;
+import com.example.myproject.domain.enumeration.MessageType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Integration tests for {@link QuotaLedgerService}.
+ *
+ * Pas de {@code @Transactional} : chaque opération du registre est validée dans sa propre transaction.
+ */
+@IntegrationTest
+class QuotaLedgerServiceIT {
+
+    private static final Long USER_ID = 987_654_321L;
+
+    @Autowired
+    private QuotaLedgerService quotaLedgerService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @AfterEach
+    public void cleanup() {
+        transactionTemplate.executeWithoutResult(status -> jdbcTemplate.update("DELETE FROM abonnement WHERE user_id = ?", USER_ID));
+    }
+
+    @Test
+    void reserveIsAllOrNothingAndConsumesMainThenBonusThenCarryover() {
+        long id = insertSubscription("ACTIVE", 10, 5, 3, null);
+
+        assertThat(quotaLedgerService.reserve(USER_ID, MessageType.SMS, 19)).isFalse();
+        assertThat(smsState(id)).containsExactly(0, 5, 3);
+
+        assertThat(quotaLedgerService.reserve(USER_ID, MessageType.SMS, 12)).isTrue();
+        assertThat(smsState(id)).containsExactly(10, 3, 3);
+
+        assertThat(quotaLedgerService.reserve(USER_ID, MessageType.SMS, 6)).isTrue();
+        assertThat(smsState(id)).containsExactly(10, 0, 0);
+
+        assertThat(quotaLedgerService.reserve(USER_ID, MessageType.SMS, 1)).isFalse();
+    }
+
+    @Test
+    void consumeTakesWhatIsAvailable() {
+        long id = insertSubscription("ACTIVE", 10, 5, 3, null);
+
+        assertThat(quotaLedgerService.consume(USER_ID, MessageType.SMS, 25)).isEqualTo(18);
+        assertThat(smsState(id)).containsExactly(10, 0, 0);
+        assertThat(quotaLedgerService.consume(USER_ID, MessageType.SMS, 1)).isZero();
+    }
+
+    @Test
+    void reservationIsSpreadOverSubscriptionsInIdOrder() {
+        long first = insertSubscription("ACTIVE", 5, 0, 0, null);
+        long second = insertSubscription("ACTIVE", 5, 0, 0, null);
+
+        assertThat(quotaLedgerService.reserve(USER_ID, MessageType.SMS, 7)).isTrue();
+        assertThat(smsState(first)).containsExactly(5, 0, 0);
+        assertThat(smsState(second)).containsExactly(2, 0, 0);
+
+        assertThat(quotaLedgerService.refund(USER_ID, MessageType.SMS, 6)).isEqualTo(6);
+        assertThat(smsState(first)).containsExactly(0, 0, 0);
+        assertThat(smsState(second)).containsExactly(1, 0, 0);
+    }
+
+    @Test
+    void inactiveAndExpiredSubscriptionsAreIgnored() {
+        long suspended = insertSubscription("SUSPENDED", 100, 0, 0, null);
+        long expired = insertSubscription("ACTIVE", 100, 0, 0, "2000-01-01");
+
+        assertThat(quotaLedgerService.reserve(USER_ID, MessageType.SMS, 1)).isFalse();
+        assertThat(quotaLedgerService.consume(USER_ID, MessageType.SMS, 1)).isZero();
+        assertThat(smsState(suspended)).containsExactly(0, 0, 0);
+        assertThat(smsState(expired)).containsExactly(0, 0, 0);
+    }
+
+    @Test
+    void settleRefundsUnusedPartOrDebitsOverrun() {
+        long id = insertSubscription("ACTIVE", 10, 0, 0, null);
+
+        assertThat(quotaLedgerService.reserve(USER_ID, MessageType.SMS, 8)).isTrue();
+        quotaLedgerService.settle(USER_ID, MessageType.SMS, 8, 3);
+        assertThat(smsState(id)).containsExactly(3, 0, 0);
+
+        assertThat(quotaLedgerService.reserve(USER_ID, MessageType.SMS, 2)).isTrue();
+        quotaLedgerService.settle(USER_ID, MessageType.SMS, 2, 4);
+        assertThat(smsState(id)).containsExactly(7, 0, 0);
+    }
+
+    @Test
+    void refundNeverGoesBelowZero() {
+        long id = insertSubscription("ACTIVE", 10, 0, 0, null);
+        quotaLedgerService.consume(USER_ID, MessageType.SMS, 2);
+
+        assertThat(quotaLedgerService.refund(USER_ID, MessageType.SMS, 5)).isEqualTo(2);
+        assertThat(smsState(id)).containsExactly(0, 0, 0);
+    }
+
+    @Test
+    void whatsappUsesItsOwnColumns() {
+        long id = insertSubscription("ACTIVE", 10, 0, 0, null);
+        transactionTemplate.executeWithoutResult(status ->
+            jdbcTemplate.update("UPDATE abonnement SET custom_whatsapp_limit = 4, whatsapp_used = 0 WHERE id = ?", id)
+        );
+
+        assertThat(quotaLedgerService.reserve(USER_ID, MessageType.WHATSAPP, 5)).isFalse();
+        assertThat(quotaLedgerService.reserve(USER_ID, MessageType.WHATSAPP, 4)).isTrue();
+        assertThat(jdbcTemplate.queryForObject("SELECT whatsapp_used FROM abonnement WHERE id = ?", Integer.class, id)).isEqualTo(4);
+        assertThat(smsState(id)).containsExactly(0, 0, 0);
+    }
+
+    @Test
+    void deferredUsageAndRefundsAreAppliedAsNet() {
+        long id = insertSubscription("ACTIVE", 10, 0, 0, null);
+
+        quotaLedgerService.recordUsage(USER_ID, MessageType.SMS, 5);
+        quotaLedgerService.recordRefund(USER_ID, MessageType.SMS, 2);
+        quotaLedgerService.recordUsage(USER_ID, MessageType.SMS, 1);
+        quotaLedgerService.flush();
+
+        assertThat(smsState(id)).containsExactly(4, 0, 0);
+    }
+
+    @Test
+    void concurrentReservationsNeverOverspend() throws Exception {
+        long id = insertSubscription("ACTIVE", 10, 0, 0, null);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Callable<Boolean>> tasks = new ArrayList<>();
+            for (int i = 0; i < 25; i++) {
+                tasks.add(() -> quotaLedgerService.reserve(USER_ID, MessageType.SMS, 1));
+            }
+            int granted = 0;
+            for (Future<Boolean> result : executor.invokeAll(tasks)) {
+                if (result.get()) granted++;
+            }
+            assertThat(granted).isEqualTo(10);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(smsState(id)).containsExactly(10, 0, 0);
+    }
+
+    private long insertSubscription(String status, int smsLimit, int bonus, int carriedOver, String endDate) {
+        return transactionTemplate.execute(tx ->
+            jdbcTemplate.queryForObject(
+                """
+                INSERT INTO abonnement (user_id, status, start_date, end_date, custom_sms_limit, sms_used,
+                    bonus_sms_enabled, bonus_sms_amount, allow_sms_carryover, carried_over_sms)
+                VALUES (?, ?, CURRENT_DATE, CAST(? AS DATE), ?, 0, ?, ?, ?, ?)
+                RETURNING id
+                """,
+                Long.class,
+                USER_ID,
+                status,
+                endDate,
+                smsLimit,
+                bonus > 0,
+                bonus,
+                carriedOver > 0,
+                carriedOver
+            )
+        );
+    }
+
+    /**
+     * [sms_used, bonus_sms_amount, carried_over_sms]
+     */
+    private List<Integer> smsState(long id) {
+        Map<String, Object> row = jdbcTemplate.queryForMap(
+            "SELECT sms_used, bonus_sms_amount, carried_over_sms FROM abonnement WHERE id = ?",
+            id
+        );
+        return List.of(
+            ((Number) row.get("sms_used")).intValue(),
+            ((Number) row.get("bonus_sms_amount")).intValue(),
+            ((Number) row.get("carried_over_sms")).intValue()
+        );
+    }
+}
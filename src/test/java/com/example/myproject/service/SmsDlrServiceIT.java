@@ -0,0 +1,184 @@
+package com.example.myproject.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.example.myproject.IntegrationTest;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.UUID;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Integration tests for {@link SmsDlrService}.
+ *
+ * Pas de {@code @Transactional} : les reçus sont appliqués par lots par le thread de l'anneau.
+ */
+@IntegrationTest
+class SmsDlrServiceIT {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(15);
+
+    @Autowired
+    private SmsDlrService smsDlrService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private Long sendSmsId;
+
+    private String prefix;
+
+    @BeforeEach
+    public void init() {
+        prefix = "DLR-" + UUID.randomUUID() + "-";
+        sendSmsId = transactionTemplate.execute(status ->
+            jdbcTemplate.queryForObject(
+                """
+                INSERT INTO send_sms (id, msgdata, isbulk, inprocess, total_recipients, total_sent, total_success,
+                    total_delivered, total_failed, total_pending)
+                VALUES (nextval('sequence_generator'), 'Bonjour', true, false, 3, 3, 3, 0, 0, 0)
+                RETURNING id
+                """,
+                Long.class
+            )
+        );
+    }
+
+    @AfterEach
+    public void cleanup() {
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.update("DELETE FROM sms WHERE send_sms_id = ?", sendSmsId);
+            jdbcTemplate.update("DELETE FROM send_sms WHERE id = ?", sendSmsId);
+        });
+    }
+
+    @Test
+    void receiptsUpdateMessagesAndCounterDeltas() {
+        long delivered = insertSentSms("1", LocalDateTime.now(ZoneOffset.UTC));
+        long failed = insertSentSms("2", LocalDateTime.now(ZoneOffset.UTC));
+        long duplicated = insertSentSms("3", LocalDateTime.now(ZoneOffset.UTC));
+
+        smsDlrService.processDlrFromSmpp(prefix + "1", 2, "22241000000", "000");
+        smsDlrService.processDlrFromSmpp(prefix + "2", 5, "22241000000", "045");
+        smsDlrService.processDlrFromSmpp(prefix + "3", 2, "22241000000", "000");
+        smsDlrService.processDlrFromSmpp(prefix + "3", 2, "22241000000", "000");
+
+        awaitDeliveryStatus(delivered, "delivered");
+        awaitDeliveryStatus(failed, "failed");
+        awaitDeliveryStatus(duplicated, "delivered");
+        eventually(() -> assertThat(counters()).containsEntry("total_delivered", 2));
+
+        assertThat(counters()).containsEntry("total_success", 2).containsEntry("total_failed", 1);
+
+        Map<String, Object> row = sms(delivered);
+        assertThat(row.get("status")).isEqualTo("DELIVERED");
+        assertThat(row.get("is_sent")).isEqualTo(true);
+
+        row = sms(failed);
+        assertThat(row.get("status")).isEqualTo("FAILED");
+        assertThat(row.get("is_sent")).isEqualTo(false);
+        assertThat(row.get("last_error")).isEqualTo("Undeliverable (err:045)");
+    }
+
+    @Test
+    void deliveredIsFinal() {
+        long id = insertSentSms("1", LocalDateTime.now(ZoneOffset.UTC));
+
+        smsDlrService.processDlrFromSmpp(prefix + "1", 2, "22241000000", "000");
+        awaitDeliveryStatus(id, "delivered");
+        eventually(() -> assertThat(counters()).containsEntry("total_delivered", 1));
+
+        // Reçu tardif après la remise : ignoré, compteurs inchangés
+        smsDlrService.processDlrFromSmpp(prefix + "1", 5, "22241000000", "045");
+        smsDlrService.processDlrFromSmpp(prefix + "marker", 2, "22241000000", "000");
+        long marker = insertSentSms("marker", LocalDateTime.now(ZoneOffset.UTC));
+        awaitDeliveryStatus(marker, "delivered");
+
+        assertThat(sms(id).get("delivery_status")).isEqualTo("delivered");
+        assertThat(counters()).containsEntry("total_failed", 0).containsEntry("total_success", 3);
+    }
+
+    @Test
+    void receiptsOutsideHotWindowFallBackToFullLookup() {
+        long id = insertSentSms("old", LocalDateTime.now(ZoneOffset.UTC).minusDays(60));
+
+        smsDlrService.processDlrFromSmpp(prefix + "old", 2, "22241000000", "000");
+
+        awaitDeliveryStatus(id, "delivered");
+        eventually(() -> assertThat(counters()).containsEntry("total_delivered", 1));
+    }
+
+    @Test
+    void receiptsArrivingBeforeTheMessageAreReplayed() {
+        smsDlrService.processDlrFromSmpp(prefix + "early", 2, "22241000000", "000");
+        eventually(() -> assertThat((Integer) smsDlrService.getDlrStatistics().get("unmatchedPending")).isPositive());
+
+        long id = insertSentSms("early", LocalDateTime.now(ZoneOffset.UTC));
+
+        awaitDeliveryStatus(id, "delivered");
+        eventually(() -> assertThat(counters()).containsEntry("total_delivered", 1));
+    }
+
+    /**
+     * Rejoue l'assertion jusqu'à ce qu'elle passe ou que le délai expire (application asynchrone).
+     */
+    private static void eventually(Runnable assertion) {
+        long deadline = System.currentTimeMillis() + TIMEOUT.toMillis();
+        while (true) {
+            try {
+                assertion.run();
+                return;
+            } catch (AssertionError e) {
+                if (System.currentTimeMillis() > deadline) throw e;
+            }
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private void awaitDeliveryStatus(long smsId, String deliveryStatus) {
+        eventually(() -> assertThat(sms(smsId).get("delivery_status")).isEqualTo(deliveryStatus));
+    }
+
+    private long insertSentSms(String suffix, LocalDateTime bulkCreatedAt) {
+        return transactionTemplate.execute(status ->
+            jdbcTemplate.queryForObject(
+                """
+                INSERT INTO sms (send_sms_id, receiver, msgdata, status, is_sent, delivery_status, message_id, bulk_created_at)
+                VALUES (?, '22241000000', 'Bonjour', 'SENT', true, 'sent', ?, ?)
+                RETURNING id
+                """,
+                Long.class,
+                sendSmsId,
+                prefix + suffix,
+                Timestamp.valueOf(bulkCreatedAt)
+            )
+        );
+    }
+
+    private Map<String, Object> sms(long id) {
+        return jdbcTemplate.queryForMap("SELECT status, is_sent, delivery_status, last_error FROM sms WHERE id = ?", id);
+    }
+
+    private Map<String, Object> counters() {
+        return jdbcTemplate.queryForMap(
+            "SELECT total_delivered, total_success, total_failed FROM send_sms WHERE id = ?",
+            sendSmsId
+        );
+    }
+}
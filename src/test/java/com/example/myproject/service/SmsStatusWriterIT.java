@@ -0,0 +1,186 @@
+package com.example.myproject.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.example.myproject.IntegrationTest;
+import com.example.myproject.service.SmsStatusWriter.StatusUpdate;
+import java.time.Duration;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Integration tests for {@link SmsStatusWriter}.
+ *
+ * Pas de {@code @Transactional} : les lots sont écrits par le thread d'écriture dans leurs propres transactions.
+ */
+@IntegrationTest
+class SmsStatusWriterIT {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    @Autowired
+    private SmsStatusWriter smsStatusWriter;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private Long sendSmsId;
+
+    @BeforeEach
+    public void init() {
+        sendSmsId = insertSendSms(4, 1, 0);
+    }
+
+    @AfterEach
+    public void cleanup() {
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.update("DELETE FROM sms WHERE send_sms_id = ?", sendSmsId);
+            jdbcTemplate.update("DELETE FROM send_sms WHERE id = ?", sendSmsId);
+        });
+    }
+
+    @Test
+    void writesOutcomesAndAppliesCounterDeltas() {
+        long sent1 = insertPendingSms();
+        long sent2 = insertPendingSms();
+        long failed = insertPendingSms();
+        long pending = insertPendingSms();
+
+        smsStatusWriter.enqueue(StatusUpdate.sent(sent1, sendSmsId, "MSG-1"));
+        smsStatusWriter.enqueue(StatusUpdate.sent(sent2, sendSmsId, "MSG-2"));
+        smsStatusWriter.enqueue(StatusUpdate.failed(failed, sendSmsId, "Timeout"));
+        smsStatusWriter.enqueue(StatusUpdate.pending(pending, sendSmsId, "Circuit ouvert"));
+        smsStatusWriter.flush();
+
+        awaitStatus(pending, "PENDING");
+        eventually(() -> assertThat(counters()).containsEntry("total_failed", 1));
+
+        // Compteurs existants conservés : les deltas s'ajoutent
+        assertThat(counters()).containsEntry("total_sent", 3).containsEntry("total_success", 3).containsEntry("total_pending", 1);
+
+        Map<String, Object> row = sms(sent1);
+        assertThat(row.get("status")).isEqualTo("SENT");
+        assertThat(row.get("is_sent")).isEqualTo(true);
+        assertThat(row.get("delivery_status")).isEqualTo("sent");
+        assertThat(row.get("message_id")).isEqualTo("MSG-1");
+        assertThat(row.get("send_date")).isNotNull();
+
+        row = sms(failed);
+        assertThat(row.get("status")).isEqualTo("FAILED");
+        assertThat(row.get("is_sent")).isEqualTo(false);
+        assertThat(row.get("delivery_status")).isEqualTo("failed");
+        assertThat(row.get("last_error")).isEqualTo("Timeout");
+
+        row = sms(pending);
+        assertThat(row.get("status")).isEqualTo("PENDING");
+        assertThat(row.get("is_sent")).isNull();
+        assertThat(row.get("delivery_status")).isEqualTo("pending");
+        assertThat(row.get("last_error")).isEqualTo("Circuit ouvert");
+    }
+
+    @Test
+    void pendingCounterNeverGoesBelowZero() {
+        long failed = insertPendingSms();
+        long sent = insertPendingSms();
+        transactionTemplate.executeWithoutResult(status ->
+            jdbcTemplate.update("UPDATE send_sms SET total_pending = 1 WHERE id = ?", sendSmsId)
+        );
+
+        smsStatusWriter.enqueue(StatusUpdate.failed(failed, sendSmsId, null));
+        smsStatusWriter.enqueue(StatusUpdate.sent(sent, sendSmsId, "MSG-3"));
+        smsStatusWriter.flush();
+
+        awaitStatus(failed, "FAILED");
+        awaitStatus(sent, "SENT");
+        eventually(() -> assertThat(counters()).containsEntry("total_sent", 2));
+        assertThat(counters()).containsEntry("total_failed", 1).containsEntry("total_pending", 0);
+        assertThat(sms(failed).get("last_error")).isEqualTo("Unknown error");
+    }
+
+    @Test
+    void updatesWithoutCampaignOnlyTouchTheMessage() {
+        long id = insertPendingSms();
+
+        smsStatusWriter.enqueue(StatusUpdate.sent(id, null, "MSG-4"));
+        smsStatusWriter.flush();
+
+        awaitStatus(id, "SENT");
+        assertThat(counters()).containsEntry("total_sent", 1).containsEntry("total_success", 1).containsEntry("total_pending", 4);
+    }
+
+    /**
+     * Rejoue l'assertion jusqu'à ce qu'elle passe ou que le délai expire (écriture asynchrone).
+     */
+    private static void eventually(Runnable assertion) {
+        long deadline = System.currentTimeMillis() + TIMEOUT.toMillis();
+        while (true) {
+            try {
+                assertion.run();
+                return;
+            } catch (AssertionError e) {
+                if (System.currentTimeMillis() > deadline) throw e;
+            }
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private void awaitStatus(long smsId, String status) {
+        eventually(() -> assertThat(sms(smsId).get("status")).isEqualTo(status));
+    }
+
+    private Long insertSendSms(int pending, int sent, int failed) {
+        return transactionTemplate.execute(status ->
+            jdbcTemplate.queryForObject(
+                """
+                INSERT INTO send_sms (id, msgdata, isbulk, inprocess, total_recipients, total_pending, total_sent, total_success, total_failed)
+                VALUES (nextval('sequence_generator'), 'Bonjour', true, true, ?, ?, ?, ?, ?)
+                RETURNING id
+                """,
+                Long.class,
+                pending + sent + failed,
+                pending,
+                sent,
+                sent,
+                failed
+            )
+        );
+    }
+
+    private long insertPendingSms() {
+        return transactionTemplate.execute(status ->
+            jdbcTemplate.queryForObject(
+                """
+                INSERT INTO sms (send_sms_id, receiver, msgdata, status, delivery_status)
+                VALUES (?, '22241000000', 'Bonjour', 'PENDING', 'pending')
+                RETURNING id
+                """,
+                Long.class,
+                sendSmsId
+            )
+        );
+    }
+
+    private Map<String, Object> sms(long id) {
+        return jdbcTemplate.queryForMap("SELECT status, is_sent, delivery_status, message_id, send_date, last_error FROM sms WHERE id = ?", id);
+    }
+
+    private Map<String, Object> counters() {
+        return jdbcTemplate.queryForMap(
+            "SELECT total_sent, total_success, total_failed, total_pending FROM send_sms WHERE id = ?",
+            sendSmsId
+        );
+    }
+}
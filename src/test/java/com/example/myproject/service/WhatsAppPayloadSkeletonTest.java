@@ -0,0 +1,128 @@
+package com.example.myproject.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.example.myproject.domain.Template;
+import com.example.myproject.web.rest.dto.VariableDTO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for {@link WhatsAppPayloadSkeleton}, checked against {@link TemplateMessageBuilder#buildPayload}.
+ */
+class WhatsAppPayloadSkeletonTest {
+
+    private static final String TO = "22241000000";
+
+    private static final String IMAGE_TEMPLATE =
+        "{\"name\":\"promo_ete\",\"language\":\"fr\",\"category\":\"MARKETING\",\"components\":[" +
+        "{\"type\":\"HEADER\",\"format\":\"IMAGE\"}," +
+        "{\"type\":\"BODY\",\"text\":\"Bonjour {{1}}, -{{2}}%\"}," +
+        "{\"type\":\"FOOTER\",\"text\":\"{{1}}\"}]}";
+
+    private static final String TEXT_TEMPLATE =
+        "{\"name\":\"rappel\",\"language\":\"en_US\",\"category\":\"UTILITY\",\"components\":[" +
+        "{\"type\":\"HEADER\",\"format\":\"TEXT\",\"text\":\"Rappel\"}," +
+        "{\"type\":\"BODY\",\"text\":\"Rendez-vous {{1}}\"}]}";
+
+    // Sérialisation canonique (clés triées) : buildPayload produit des HashMap / Map.of sans ordre stable
+    private static final ObjectMapper CANONICAL = new ObjectMapper().configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+    private ObjectMapper mapper;
+    private TemplateMessageBuilder builder;
+
+    @BeforeEach
+    public void init() {
+        mapper = new ObjectMapper();
+        builder = new TemplateMessageBuilder(mapper);
+    }
+
+    @Test
+    void rendersExactBytesForMediaHeaderTemplate() {
+        Template template = template("promo_ete", IMAGE_TEMPLATE, "MEDIA_42");
+
+        byte[] payload = builder.compilePayload(template).render(TO, List.of(new VariableDTO(1, "Awa", "BODY")));
+
+        assertThat(new String(payload, StandardCharsets.UTF_8)).isEqualTo(
+            "{\"messaging_product\":\"whatsapp\",\"to\":\"22241000000\",\"type\":\"template\",\"template\":{" +
+            "\"name\":\"promo_ete\",\"language\":{\"code\":\"fr\"},\"components\":[" +
+            "{\"type\":\"header\",\"parameters\":[{\"type\":\"image\",\"image\":{\"id\":\"MEDIA_42\"}}]}," +
+            "{\"type\":\"body\",\"parameters\":[{\"type\":\"text\",\"text\":\"Awa\"}]}]}}"
+        );
+    }
+
+    @Test
+    void matchesBuildPayloadWithMediaHeaderBodyAndFooter() throws Exception {
+        Template template = template("promo_ete", IMAGE_TEMPLATE, "MEDIA_42");
+        List<VariableDTO> vars = List.of(
+            new VariableDTO(2, "30", "BODY"),
+            new VariableDTO(1, "Awa", "body"),
+            new VariableDTO(1, "Stop au 123", "FOOTER"),
+            new VariableDTO(0, "OK", "BUTTON")
+        );
+
+        assertSameAsBuildPayload(template, vars);
+    }
+
+    @Test
+    void matchesBuildPayloadWithoutMediaHeader() throws Exception {
+        Template template = template("rappel", TEXT_TEMPLATE, null);
+
+        assertSameAsBuildPayload(template, List.of(new VariableDTO(1, "demain à 10h", "BODY")));
+        assertSameAsBuildPayload(template, List.of(new VariableDTO(1, "pied", "FOOTER")));
+        assertSameAsBuildPayload(template, List.of());
+    }
+
+    @Test
+    void mediaHeaderRequiresTemplateCode() throws Exception {
+        assertSameAsBuildPayload(template("promo_ete", IMAGE_TEMPLATE, null), List.of(new VariableDTO(1, "Awa", "BODY")));
+    }
+
+    @Test
+    void escapesLikeJackson() throws Exception {
+        Template template = template("rappel \"v2\"", TEXT_TEMPLATE, null);
+        List<VariableDTO> vars = List.of(
+            new VariableDTO(1, "Ligne 1\nLigne 2\t\"cité\" \\ \u0001 émoji 😀 عربى", "BODY"),
+            new VariableDTO(2, "</script>", "BODY")
+        );
+
+        assertSameAsBuildPayload(template, vars);
+
+        byte[] payload = builder.compilePayload(template).render("+222 \"41\"", vars);
+        assertThat(mapper.readTree(payload).get("to").asText()).isEqualTo("+222 \"41\"");
+    }
+
+    @Test
+    void rejectsMissingVariableValueAndLanguage() {
+        WhatsAppPayloadSkeleton skeleton = builder.compilePayload(template("rappel", TEXT_TEMPLATE, null));
+        List<VariableDTO> vars = List.of(new VariableDTO(1, null, "BODY"));
+
+        assertThatThrownBy(() -> skeleton.render(TO, vars)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> WhatsAppPayloadSkeleton.of("rappel", null, null, null)).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> builder.compilePayload(null)).isInstanceOf(IllegalStateException.class);
+    }
+
+    private void assertSameAsBuildPayload(Template template, List<VariableDTO> vars) throws Exception {
+        byte[] expected = mapper.writeValueAsBytes(builder.buildPayload(template, vars, TO));
+        byte[] actual = builder.compilePayload(template).render(TO, vars);
+
+        assertThat(canonical(actual)).isEqualTo(canonical(expected));
+    }
+
+    private static byte[] canonical(byte[] json) throws Exception {
+        return CANONICAL.writeValueAsBytes(CANONICAL.readValue(json, Object.class));
+    }
+
+    private static Template template(String name, String content, String code) {
+        Template template = new Template();
+        template.setName(name);
+        template.setContent(content);
+        template.setCode(code);
+        return template;
+    }
+}